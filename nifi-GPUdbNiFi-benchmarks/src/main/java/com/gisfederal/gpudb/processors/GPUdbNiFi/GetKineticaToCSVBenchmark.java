@@ -0,0 +1,78 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gpudb.Type;
+
+/**
+ * Writing table monitor records out as CSV, header included, as
+ * {@link GetKineticaToCSV} writes a FlowFile; the score is in records per
+ * second.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@State( Scope.Thread )
+public class GetKineticaToCSVBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param( { "4", "16", "64" } )
+    public int columnCount;
+
+    @Param( { "int", "double", "string", "timestamp", "mixed" } )
+    public String columnTypes;
+
+    private Type type;
+    private List<GenericRecord> records;
+    private final KineticaDiscardingOutputStream out = new KineticaDiscardingOutputStream();
+
+
+    @Setup
+    public void setUp() {
+        KineticaBenchmarkData data = new KineticaBenchmarkData( columnCount, columnTypes );
+        type = data.getType();
+        records = data.newRecords( RECORDS );
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation( RECORDS )
+    public long writeCSV() throws IOException {
+        out.reset();
+        try ( BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( out ) ) ) {
+            CSVPrinter printer = new CSVPrinter( writer, CSVFormat.RFC4180.withDelimiter( ',' ) );
+            GetKineticaToCSV.printHeader( printer, type );
+            List<String> fields = new ArrayList<>();
+            for ( GenericRecord record : records ) {
+                GetKineticaToCSV.printRecord( printer, record, fields );
+            }
+            printer.flush();
+        }
+        return out.getCount();
+    }
+
+}  // end class GetKineticaToCSVBenchmark
@@ -0,0 +1,72 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gpudb.Type;
+
+/**
+ * Encoding table monitor records as JSON with the {@link KineticaJsonWriter}
+ * of {@link GetKineticaToJSON}, one object per line or as an array; the
+ * score is in records per second.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@State( Scope.Thread )
+public class GetKineticaToJSONBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param( { "4", "16", "64" } )
+    public int columnCount;
+
+    @Param( { "int", "double", "string", "timestamp", "mixed" } )
+    public String columnTypes;
+
+    @Param( { "LINES", "ARRAY" } )
+    public KineticaJsonWriter.Format format;
+
+    private Type type;
+    private List<GenericRecord> records;
+    private final KineticaDiscardingOutputStream out = new KineticaDiscardingOutputStream();
+
+
+    @Setup
+    public void setUp() {
+        KineticaBenchmarkData data = new KineticaBenchmarkData( columnCount, columnTypes );
+        type = data.getType();
+        records = data.newRecords( RECORDS );
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation( RECORDS )
+    public long writeJSON() throws IOException {
+        out.reset();
+        KineticaJsonWriter writer = new KineticaJsonWriter( type.getSchema(), out, format );
+        for ( GenericRecord record : records ) {
+            writer.write( record );
+        }
+        writer.finish();
+        return out.getCount();
+    }
+
+}  // end class GetKineticaToJSONBenchmark
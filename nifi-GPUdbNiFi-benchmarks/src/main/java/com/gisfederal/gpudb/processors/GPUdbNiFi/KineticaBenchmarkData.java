@@ -0,0 +1,208 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.Type;
+
+/**
+ * The tables and records the benchmarks run on: a type of a given number of
+ * columns of a given kind, and reproducible random values for it, as strings
+ * (attributes, CSV) and as decoded Avro records (table monitor).
+ */
+public class KineticaBenchmarkData {
+
+    /**
+     * The kinds of columns, the values of the Column Types parameters
+     */
+    public static final String INT       = "int";
+    public static final String LONG      = "long";
+    public static final String DOUBLE    = "double";
+    public static final String STRING    = "string";
+    public static final String TIMESTAMP = "timestamp";
+    public static final String MIXED     = "mixed";
+
+    /**
+     * The date format of the timestamp values
+     */
+    public static final String DATE_FORMAT = KineticaDateParser.ISO_8601;
+    public static final String TIME_ZONE   = "UTC";
+
+    // The kinds cycled through by the mixed columns
+    private static final String[] MIXED_KINDS = { INT, LONG, DOUBLE, STRING, TIMESTAMP };
+
+    private static final DateTimeFormatter ISO_FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME.withZone( ZoneOffset.UTC );
+
+
+    private final Type type;
+    private final String[] kinds;
+    private final Random random = new Random( 42 );
+
+
+    /**
+     * @param columnCount  the number of columns
+     * @param columnTypes  one of the kinds of columns, e.g. {@link #MIXED}
+     */
+    public KineticaBenchmarkData( int columnCount, String columnTypes ) {
+        List<Type.Column> columns = new ArrayList<>();
+        this.kinds = new String[ columnCount ];
+        for ( int i = 0; i < columnCount; i++ ) {
+            String kind = MIXED.equals( columnTypes ) ? MIXED_KINDS[ i % MIXED_KINDS.length ] : columnTypes;
+            kinds[ i ] = kind;
+            String name = "c" + i;
+            switch ( kind ) {
+                case INT:
+                    columns.add( new Type.Column( name, Integer.class ) );
+                    break;
+                case LONG:
+                    columns.add( new Type.Column( name, Long.class ) );
+                    break;
+                case DOUBLE:
+                    columns.add( new Type.Column( name, Double.class ) );
+                    break;
+                case STRING:
+                    columns.add( new Type.Column( name, String.class, ColumnProperty.NULLABLE ) );
+                    break;
+                case TIMESTAMP:
+                    columns.add( new Type.Column( name, Long.class, ColumnProperty.TIMESTAMP ) );
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Unknown column type " + kind );
+            }
+        }
+        this.type = new Type( columns );
+    }
+
+
+    /**
+     * @return the type of the table
+     */
+    public Type getType() {
+        return type;
+    }
+
+
+    /**
+     * @return the values of a new row, as strings
+     */
+    public String[] newValues() {
+        String[] values = new String[ kinds.length ];
+        for ( int i = 0; i < kinds.length; i++ ) {
+            switch ( kinds[ i ] ) {
+                case INT:
+                    values[ i ] = Integer.toString( random.nextInt() );
+                    break;
+                case LONG:
+                    values[ i ] = Long.toString( random.nextLong() );
+                    break;
+                case DOUBLE:
+                    values[ i ] = Double.toString( random.nextDouble() * 1e6 );
+                    break;
+                case STRING:
+                    values[ i ] = "value " + random.nextInt( 1000000 );
+                    break;
+                default:
+                    values[ i ] = newTimestamp();
+                    break;
+            }
+        }
+        return values;
+    }
+
+
+    /**
+     * @return a timestamp between 2000 and 2030, in {@link #DATE_FORMAT}
+     */
+    public String newTimestamp() {
+        long millis = 946684800000L + (long) (random.nextDouble() * 946684800000L);
+        return ISO_FORMAT.format( Instant.ofEpochMilli( millis ) );
+    }
+
+
+    /**
+     * @return the values of a new row, as the FlowFile attributes PutKinetica
+     *         reads
+     */
+    public Map<String, String> newAttributes() {
+        String[] values = newValues();
+        Map<String, String> attributes = new HashMap<>();
+        for ( int i = 0; i < values.length; i++ ) {
+            attributes.put( type.getColumn( i ).getName(), values[ i ] );
+        }
+        return attributes;
+    }
+
+
+    /**
+     * @return the given number of rows as the content of a CSV file, without
+     *         a header, in the format PutKineticaFromFile reads by default
+     */
+    public String newCSV( int rowCount ) {
+        StringBuilder csv = new StringBuilder();
+        for ( int row = 0; row < rowCount; row++ ) {
+            String[] values = newValues();
+            for ( int i = 0; i < values.length; i++ ) {
+                if ( i > 0 ) {
+                    csv.append( ',' );
+                }
+                csv.append( values[ i ] );
+            }
+            csv.append( '\n' );
+        }
+        return csv.toString();
+    }
+
+
+    /**
+     * @return a new record as decoded from the table monitor: strings are
+     *         {@link Utf8} and timestamps epoch milliseconds
+     */
+    public GenericRecord newRecord() {
+        GenericRecord record = new GenericData.Record( type.getSchema() );
+        String[] values = newValues();
+        for ( int i = 0; i < kinds.length; i++ ) {
+            switch ( kinds[ i ] ) {
+                case INT:
+                    record.put( i, Integer.valueOf( values[ i ] ) );
+                    break;
+                case LONG:
+                    record.put( i, Long.valueOf( values[ i ] ) );
+                    break;
+                case DOUBLE:
+                    record.put( i, Double.valueOf( values[ i ] ) );
+                    break;
+                case STRING:
+                    record.put( i, new Utf8( values[ i ] ) );
+                    break;
+                default:
+                    record.put( i, Instant.parse( values[ i ] ).toEpochMilli() );
+                    break;
+            }
+        }
+        return record;
+    }
+
+
+    /**
+     * @return the given number of new records
+     */
+    public List<GenericRecord> newRecords( int recordCount ) {
+        List<GenericRecord> records = new ArrayList<>( recordCount );
+        for ( int i = 0; i < recordCount; i++ ) {
+            records.add( newRecord() );
+        }
+        return records;
+    }
+
+}  // end class KineticaBenchmarkData
@@ -0,0 +1,38 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.OutputStream;
+
+/**
+ * An output stream that only counts the bytes written to it, so that the
+ * benchmarks measure the encoding and not the copying of the output.
+ */
+public class KineticaDiscardingOutputStream extends OutputStream {
+
+    private long count;
+
+
+    @Override
+    public void write( int b ) {
+        count++;
+    }
+
+
+    @Override
+    public void write( byte[] b, int off, int len ) {
+        count += len;
+    }
+
+
+    /**
+     * @return the number of bytes written since the last reset
+     */
+    public long getCount() {
+        return count;
+    }
+
+
+    public void reset() {
+        count = 0;
+    }
+
+}  // end class KineticaDiscardingOutputStream
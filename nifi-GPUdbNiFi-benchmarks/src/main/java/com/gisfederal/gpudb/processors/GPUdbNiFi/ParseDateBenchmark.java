@@ -0,0 +1,73 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.util.MockComponentLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing timestamps with {@link KineticaUtilities#parseDate}, in the
+ * default ISO 8601 format, a custom pattern and epoch milliseconds.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@State( Scope.Thread )
+public class ParseDateBenchmark {
+
+    private static final int VALUES = 1024;
+
+    @Param( { KineticaDateParser.ISO_8601, "yyyy-MM-dd HH:mm:ss", KineticaDateParser.EPOCH_MILLIS } )
+    public String dateFormat;
+
+    @Param( { "UTC", "America/New_York" } )
+    public String timeZone;
+
+    private ComponentLog logger;
+    private String[] values;
+    private int next;
+
+
+    @Setup
+    public void setUp() {
+        logger = new MockComponentLog( "benchmark", this );
+
+        KineticaBenchmarkData data = new KineticaBenchmarkData( 1, KineticaBenchmarkData.TIMESTAMP );
+        DateTimeFormatter pattern = DateTimeFormatter.ofPattern( "yyyy-MM-dd HH:mm:ss" ).withZone( ZoneOffset.UTC );
+        values = new String[ VALUES ];
+        for ( int i = 0; i < VALUES; i++ ) {
+            Instant timestamp = Instant.parse( data.newTimestamp() );
+            if ( KineticaDateParser.ISO_8601.equals( dateFormat ) ) {
+                values[ i ] = timestamp.toString();
+            } else if ( KineticaDateParser.EPOCH_MILLIS.equals( dateFormat ) ) {
+                values[ i ] = Long.toString( timestamp.toEpochMilli() );
+            } else {
+                values[ i ] = pattern.format( timestamp );
+            }
+        }
+    }
+
+
+    @Benchmark
+    public Long parseDate() throws Exception {
+        next = (next + 1) % VALUES;
+        return KineticaUtilities.parseDate( values[ next ], dateFormat, timeZone, logger );
+    }
+
+}  // end class ParseDateBenchmark
@@ -0,0 +1,73 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gpudb.Record;
+
+/**
+ * Converting the attributes of a FlowFile to a Kinetica record, as
+ * {@link PutKinetica} does for every FlowFile.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@State( Scope.Thread )
+public class PutKineticaBenchmark {
+
+    private static final int FLOWFILES = 1024;
+
+    @Param( { "4", "16", "64" } )
+    public int columnCount;
+
+    @Param( { "int", "double", "string", "timestamp", "mixed" } )
+    public String columnTypes;
+
+    private PutKinetica processor;
+    private KineticaRecordConverter converter;
+    private MockFlowFile[] flowFiles;
+    private int next;
+
+
+    @Setup
+    public void setUp() {
+        KineticaBenchmarkData data = new KineticaBenchmarkData( columnCount, columnTypes );
+
+        // Initialized, for its logger
+        processor = new PutKinetica();
+        TestRunners.newTestRunner( processor );
+        converter = new KineticaRecordConverter( data.getType(), KineticaBenchmarkData.DATE_FORMAT,
+                                                 KineticaBenchmarkData.TIME_ZONE, true,
+                                                 new MockComponentLog( "benchmark", this ) );
+
+        flowFiles = new MockFlowFile[ FLOWFILES ];
+        for ( int i = 0; i < FLOWFILES; i++ ) {
+            flowFiles[ i ] = new MockFlowFile( i );
+            flowFiles[ i ].putAttributes( data.newAttributes() );
+        }
+    }
+
+
+    @Benchmark
+    public Record createGPUdbRecord() {
+        next = (next + 1) % FLOWFILES;
+        return processor.createGPUdbRecord( converter, flowFiles[ next ] );
+    }
+
+}  // end class PutKineticaBenchmark
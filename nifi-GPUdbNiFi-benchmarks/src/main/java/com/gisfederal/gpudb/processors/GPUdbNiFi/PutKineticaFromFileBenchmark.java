@@ -0,0 +1,76 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.gpudb.GPUdbException;
+import com.gpudb.Record;
+
+/**
+ * Tokenizing the lines of a CSV file and converting them to Kinetica
+ * records, as {@link PutKineticaFromFile} does before inserting them; the
+ * score is in lines per second.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@State( Scope.Thread )
+public class PutKineticaFromFileBenchmark {
+
+    private static final int LINES = 1000;
+
+    @Param( { "4", "16", "64" } )
+    public int columnCount;
+
+    @Param( { "int", "double", "string", "timestamp", "mixed" } )
+    public String columnTypes;
+
+    private KineticaRecordConverter converter;
+    private String csv;
+
+
+    @Setup
+    public void setUp() {
+        KineticaBenchmarkData data = new KineticaBenchmarkData( columnCount, columnTypes );
+        converter = new KineticaRecordConverter( data.getType(), KineticaBenchmarkData.DATE_FORMAT,
+                                                 KineticaBenchmarkData.TIME_ZONE, false,
+                                                 new MockComponentLog( "benchmark", this ) );
+        csv = data.newCSV( LINES );
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation( LINES )
+    public void linesToRecords( Blackhole blackhole ) throws IOException, GPUdbException {
+        // With the default delimiter, quote and escape characters
+        try ( KineticaCSVReader reader = new KineticaCSVReader( new StringReader( csv ), ',', '"',
+                                                                KineticaCSVReader.NONE ) ) {
+            while ( reader.nextRecord() ) {
+                Record record = converter.newRecord();
+                for ( int i = 0; i < reader.getFieldCount(); i++ ) {
+                    converter.setValue( record, i, reader.getField( i ) );
+                }
+                blackhole.consume( record );
+            }
+        }
+    }
+
+}  // end class PutKineticaFromFileBenchmark
@@ -0,0 +1,394 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbException;
+import com.gpudb.Record;
+import com.gpudb.protocol.ExecuteSqlRequest;
+import com.gpudb.protocol.ExecuteSqlResponse;
+
+@Tags({ "Kinetica", "sql", "query", "select", "csv", "avro" })
+@CapabilityDescription("Executes a SQL statement in Kinetica and writes the rows of its result to FlowFiles, as Avro Container "
+        + "Files or CSV. The statement is the SQL Statement property, evaluated against the incoming FlowFile if any, or else "
+        + "the content of the incoming FlowFile. The result is read from Kinetica in pages of Page Size rows, the next page "
+        + "being fetched while the current one is written, so the whole result is never held in memory; it is split into "
+        + "FlowFiles of at most Max Rows per FlowFile rows.")
+@InputRequirement(Requirement.INPUT_ALLOWED)
+@WritesAttributes({
+    @WritesAttribute(attribute = "mime.type", description = "avro/binary or text/csv"),
+    @WritesAttribute(attribute = "record.count", description = "The number of rows in the FlowFile"),
+    @WritesAttribute(attribute = "fragment.identifier", description = "The same for all the FlowFiles of one result"),
+    @WritesAttribute(attribute = "fragment.index", description = "The position of the FlowFile in the result, from 0"),
+    @WritesAttribute(attribute = "fragment.count", description = "The number of FlowFiles of the result"),
+    @WritesAttribute(attribute = "kinetica.sql.error", description = "Why the statement failed, on FlowFiles routed to failure")
+})
+public class ExecuteKineticaSQL extends AbstractProcessor {
+    public static final AllowableValue CONTAINER_FILE = new AllowableValue("Avro Container File", "Avro Container File",
+            "An Avro Object Container File per FlowFile, holding the schema of the rows");
+
+    public static final AllowableValue CSV = new AllowableValue("CSV", "CSV",
+            "Delimited text per FlowFile, with a header line of column names");
+
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder().name( KineticaConstants.CONNECTION_SERVICE )
+        .description("The Kinetica Connection Service to connect to Kinetica through, sharing its pooled connections with the "
+                     + "other processors using it. When set, Server URL, Username and Password are not used.")
+        .required(false).identifiesControllerService(KineticaConnectionService.class).build();
+
+    public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder().name( KineticaConstants.SERVER_URL )
+        .description("URL of the Kinetica server. Example http://172.3.4.19:9191. Required unless a Kinetica Connection "
+                     + "Service is set.").required(false)
+        .addValidator(StandardValidators.URL_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_SQL_STATEMENT = new PropertyDescriptor.Builder().name( KineticaConstants.SQL_STATEMENT )
+        .description("The SQL statement to execute. When not set, the content of the incoming FlowFile is executed.")
+        .required(false).expressionLanguageSupported(true)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_OUTPUT_FORMAT = new PropertyDescriptor.Builder().name( KineticaConstants.OUTPUT_FORMAT )
+        .description("How the rows are written to the FlowFiles").required(true)
+        .allowableValues(CONTAINER_FILE, CSV).defaultValue(CONTAINER_FILE.getValue()).build();
+
+    public static final PropertyDescriptor PROP_DELIMITER = new PropertyDescriptor.Builder().name( KineticaConstants.DELIMITER )
+        .description("The delimiter of the CSV output").required(true)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).defaultValue(",").build();
+
+    public static final PropertyDescriptor PROP_PAGE_SIZE = new PropertyDescriptor.Builder().name( KineticaConstants.PAGE_SIZE )
+        .description("The number of rows read from Kinetica per request; should not exceed the max_get_records_size of "
+                     + "Kinetica.").required(true)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("10000").build();
+
+    public static final PropertyDescriptor PROP_MAX_ROWS_PER_FLOWFILE = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.MAX_ROWS_PER_FLOWFILE )
+        .description("The most rows written to one FlowFile; larger results are split into several FlowFiles. 0 writes the "
+                     + "whole result to a single FlowFile.").required(true)
+        .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).defaultValue("0").build();
+
+    public static final PropertyDescriptor PROP_PREFETCH = new PropertyDescriptor.Builder().name( KineticaConstants.PREFETCH_NEXT_PAGE )
+        .description("Whether to fetch the next page of the result while the current one is written").required(true)
+        .allowableValues("true", "false").defaultValue("true").build();
+
+    public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder().name( KineticaConstants.USERNAME )
+        .description("Username to connect to Kinetica").required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_PASSWORD = new PropertyDescriptor.Builder().name( KineticaConstants.PASSWORD )
+        .description("Password to connect to Kinetica").required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).sensitive(true).build();
+
+    public static final Relationship REL_SUCCESS = new Relationship.Builder().name( KineticaConstants.SUCCESS )
+        .description("The FlowFiles holding the rows of the results are routed to this relationship").build();
+
+    public static final Relationship REL_FAILURE = new Relationship.Builder().name( KineticaConstants.FAILURE )
+        .description("Incoming FlowFiles whose statement fails are routed to this relationship").build();
+
+    public static final Relationship REL_ORIGINAL = new Relationship.Builder().name( KineticaConstants.ORIGINAL )
+        .description("Incoming FlowFiles whose statement succeeds are routed to this relationship").build();
+
+    private GPUdb gpudb;
+    private boolean csv;
+    private char delimiter;
+    private int pageSize;
+    private int maxRowsPerFlowFile;
+    private ExecutorService prefetchPool;
+    private List<PropertyDescriptor> descriptors;
+    private Set<Relationship> relationships;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_CONNECTION_SERVICE);
+        descriptors.add(PROP_SERVER);
+        descriptors.add(PROP_SQL_STATEMENT);
+        descriptors.add(PROP_OUTPUT_FORMAT);
+        descriptors.add(PROP_DELIMITER);
+        descriptors.add(PROP_PAGE_SIZE);
+        descriptors.add(PROP_MAX_ROWS_PER_FLOWFILE);
+        descriptors.add(PROP_PREFETCH);
+        descriptors.add(PROP_USERNAME);
+        descriptors.add(PROP_PASSWORD);
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        relationships.add(REL_FAILURE);
+        relationships.add(REL_ORIGINAL);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        return KineticaUtilities.validateConnection(validationContext, PROP_CONNECTION_SERVICE, PROP_SERVER);
+    }
+
+    @OnScheduled
+    public void onScheduled(final ProcessContext context) throws GPUdbException {
+        gpudb = KineticaUtilities.getConnection(context, PROP_CONNECTION_SERVICE, PROP_SERVER, PROP_USERNAME, PROP_PASSWORD);
+        csv = CSV.getValue().equals(context.getProperty(PROP_OUTPUT_FORMAT).getValue());
+        delimiter = context.getProperty(PROP_DELIMITER).getValue().charAt(0);
+        pageSize = context.getProperty(PROP_PAGE_SIZE).asInteger();
+        maxRowsPerFlowFile = context.getProperty(PROP_MAX_ROWS_PER_FLOWFILE).asInteger();
+        if (context.getProperty(PROP_PREFETCH).asBoolean()) {
+            prefetchPool = Executors.newCachedThreadPool();
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        if (prefetchPool != null) {
+            prefetchPool.shutdownNow();
+            prefetchPool = null;
+        }
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final FlowFile original = session.get();
+        if ((original == null) && context.hasIncomingConnection()) {
+            return;
+        }
+
+        final String statement;
+        if (context.getProperty(PROP_SQL_STATEMENT).isSet()) {
+            statement = context.getProperty(PROP_SQL_STATEMENT).evaluateAttributeExpressions(original).getValue();
+        } else if (original != null) {
+            try (InputStream in = session.read(original)) {
+                statement = IOUtils.toString(in, "UTF-8");
+            } catch (IOException ex) {
+                throw new ProcessException("Unable to read the SQL statement of " + original, ex);
+            }
+        } else {
+            getLogger().error("No SQL Statement is set and there is no incoming FlowFile to read it from");
+            context.yield();
+            return;
+        }
+
+        final List<FlowFile> results = new ArrayList<>();
+        try (ResultPager pager = new ResultPager(statement)) {
+            pager.start();
+
+            // At least one FlowFile, even for an empty result
+            do {
+                FlowFile result = (original == null) ? session.create() : session.create(original);
+                final int[] rowCount = new int[1];
+                try {
+                    result = session.write(result, new OutputStreamCallback() {
+                        @Override
+                        public void process(OutputStream out) throws IOException {
+                            try (KineticaRecordsWriter recordsWriter = new KineticaRecordsWriter(out, csv, delimiter)) {
+                                rowCount[0] = pager.writeTo(recordsWriter, maxRowsPerFlowFile);
+                            }
+                        }
+                    });
+                } catch (ProcessException ex) {
+                    // Not in the results yet
+                    session.remove(result);
+                    throw ex;
+                }
+                result = session.putAttribute(result, "record.count", String.valueOf(rowCount[0]));
+                results.add(result);
+            } while (pager.hasMore());
+
+            getLogger().debug("Got {} row(s) in {} FlowFile(s) for {}", new Object[] { pager.rowCount, results.size(), statement });
+        } catch (ProcessException | GPUdbException ex) {
+            session.remove(results);
+            getLogger().error("Unable to execute {}: {}", new Object[] { statement, ex.getMessage() }, ex);
+            if (original == null) {
+                context.yield();
+            } else {
+                session.transfer(session.penalize(session.putAttribute(original, "kinetica.sql.error", String.valueOf(ex.getMessage()))),
+                                 REL_FAILURE);
+            }
+            return;
+        }
+
+        final String resultId = UUID.randomUUID().toString();
+        for (int index = 0; index < results.size(); index++) {
+            final Map<String, String> attributes = new HashMap<>();
+            attributes.put(CoreAttributes.MIME_TYPE.key(), KineticaRecordsWriter.getMimeType(csv));
+            attributes.put("fragment.identifier", resultId);
+            attributes.put("fragment.index", String.valueOf(index));
+            attributes.put("fragment.count", String.valueOf(results.size()));
+            FlowFile result = session.putAllAttributes(results.get(index), attributes);
+            session.getProvenanceReporter().receive(result, gpudb.getURL().toString());
+            session.transfer(result, REL_SUCCESS);
+        }
+        if (original != null) {
+            session.transfer(original, REL_ORIGINAL);
+        }
+    }
+
+    /*
+     * Reads the result of a statement one page at a time, fetching the next
+     * page in the background while the current one is written out when
+     * prefetching.  The result is kept by Kinetica in a paging table, dropped
+     * when the pager is closed, so that the pages are consistent.
+     */
+    private final class ResultPager implements AutoCloseable {
+        final String statement;
+        final Map<String, String> options = new HashMap<>();
+        String pagingTable;
+        List<Record> page = Collections.emptyList();
+        int position = 0;
+        long nextOffset = 0;
+        boolean more = false;
+        Future<ExecuteSqlResponse> next;
+        long rowCount = 0;
+
+        ResultPager(String statement) {
+            this.statement = statement;
+        }
+
+        void start() throws GPUdbException {
+            accept(execute(0));
+        }
+
+        /*
+         * Writes the rows of the result, up to the given number (0 for all of
+         * them), and returns the number written.
+         */
+        int writeTo(KineticaRecordsWriter recordsWriter, int maxRows) throws IOException {
+            int written = 0;
+            while ((maxRows <= 0) || (written < maxRows)) {
+                if (position == page.size()) {
+                    if (!more) {
+                        break;
+                    }
+                    advance();
+                    continue;
+                }
+                int end = (maxRows <= 0) ? page.size() : (int) Math.min(page.size(), (long) position + maxRows - written);
+                recordsWriter.write(page, position, end);
+                written += end - position;
+                position = end;
+            }
+            rowCount += written;
+            return written;
+        }
+
+        /*
+         * Whether there are rows left to write; may fetch the next page to
+         * find out.
+         */
+        boolean hasMore() {
+            while ((position == page.size()) && more) {
+                advance();
+            }
+            return position < page.size();
+        }
+
+        private ExecuteSqlResponse execute(long offset) throws GPUdbException {
+            return gpudb.executeSql(statement, offset, pageSize, null, null, options);
+        }
+
+        private void accept(ExecuteSqlResponse response) {
+            page = (response.getData() == null) ? Collections.<Record>emptyList() : response.getData();
+            position = 0;
+            nextOffset += page.size();
+            more = response.getHasMoreRecords() && !page.isEmpty();
+
+            // Later pages are read from the paging table of the first
+            if ((pagingTable == null) && (response.getPagingTable() != null) && !response.getPagingTable().isEmpty()) {
+                pagingTable = response.getPagingTable();
+                options.put(ExecuteSqlRequest.Options.PAGING_TABLE, pagingTable);
+            }
+
+            if (more && (prefetchPool != null)) {
+                final long offset = nextOffset;
+                next = prefetchPool.submit(new Callable<ExecuteSqlResponse>() {
+                    @Override
+                    public ExecuteSqlResponse call() throws GPUdbException {
+                        return execute(offset);
+                    }
+                });
+            }
+        }
+
+        private void advance() {
+            // Let the current page be collected while waiting for the next
+            page = Collections.emptyList();
+            try {
+                ExecuteSqlResponse response;
+                if (next != null) {
+                    response = next.get();
+                    next = null;
+                } else {
+                    response = execute(nextOffset);
+                }
+                accept(response);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("Interrupted while reading the result", ex);
+            } catch (ExecutionException ex) {
+                throw new ProcessException("Unable to read the result: " + ex.getCause().getMessage(), ex.getCause());
+            } catch (GPUdbException ex) {
+                throw new ProcessException("Unable to read the result: " + ex.getMessage(), ex);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (next != null) {
+                next.cancel(true);
+                next = null;
+            }
+            if (pagingTable != null) {
+                try {
+                    gpudb.clearTable(pagingTable, null, null);
+                } catch (GPUdbException ex) {
+                    getLogger().warn("Unable to clear paging table {}", new Object[] { pagingTable }, ex);
+                }
+            }
+        }
+    }
+}
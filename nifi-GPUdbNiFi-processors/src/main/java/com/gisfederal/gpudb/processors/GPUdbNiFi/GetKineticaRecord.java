@@ -0,0 +1,465 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnRemoved;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.stream.io.ByteCountingOutputStream;
+
+import com.gpudb.Avro;
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbException;
+import com.gpudb.Type;
+
+
+@Tags({"gpudb", "get", "record"})
+@CapabilityDescription("Monitors a set in GPUdb and writes new objects to FlowFiles with the configured Record Writer "
+        + "(Avro, JSON, CSV, etc)")
+@InputRequirement(Requirement.INPUT_FORBIDDEN)
+@WritesAttributes({
+    @WritesAttribute(attribute = "mime.type", description = "The MIME type given by the Record Writer"),
+    @WritesAttribute(attribute = "record.count", description = "The number of records in the FlowFile"),
+    @WritesAttribute(attribute = "avro.schema", description = "The Avro schema of the table")
+})
+public class GetKineticaRecord extends AbstractProcessor {
+    public static final AllowableValue BLOCK = new AllowableValue("Block", "Block",
+            "Stop receiving from the table monitor until there is room in the buffer");
+
+    public static final AllowableValue DROP_OLDEST = new AllowableValue("Drop Oldest", "Drop Oldest",
+            "Drop the oldest buffered records to make room");
+
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.CONNECTION_SERVICE )
+            .description("The Kinetica Connection Service to connect to Kinetica through, sharing its pooled connections with the "
+                    + "other processors using it. When set, Server URL, Username and Password are not used.")
+            .required(false)
+            .identifiesControllerService(KineticaConnectionService.class)
+            .build();
+
+    public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.SERVER_URL )
+            .description("URL of the GPUdb server. Required unless a Kinetica Connection Service is set.")
+            .required(false)
+            .addValidator(StandardValidators.URL_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_SET = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.TABLE_NAME )
+            .description("Name of the GPUdb table")
+            .required(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_TABLE_MONITOR_SERVICE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.TABLE_MONITOR_SERVICE )
+            .description("The Kinetica Table Monitor Service to receive the records through, sharing its subscriber socket, "
+                    + "thread and table monitors with the other processors using it. When set, Table Monitor URL is not used.")
+            .required(false)
+            .identifiesControllerService(KineticaTableMonitorService.class)
+            .build();
+
+    public static final PropertyDescriptor PROP_OBJECT_MONITOR = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.TABLE_MONITOR_URL )
+            .description("URL of the GPUdb table monitor. Required unless a Kinetica Table Monitor Service is set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+    
+    public static final PropertyDescriptor PROP_COLUMNS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.COLUMNS )
+            .description("A comma-separated list of the columns to write, in that order. All the columns are written when "
+                    + "not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_FILTER = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.FILTER )
+            .description("An expression the records must match to be written, e.g. x > 10 and (name = 'abc' or y is null); "
+                    + "comparisons (= != < <= > >= in, is [not] null) of a column with literals, combined with and, or and "
+                    + "not. All the records are written when not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_RECORD_WRITER = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.RECORD_WRITER )
+            .description("The Record Writer to write the records to FlowFiles with. It is given the schema of the table.")
+            .required(true)
+            .identifiesControllerService(RecordSetWriterFactory.class)
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_RECORDS_PER_FLOWFILE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.MAX_RECORDS_PER_FLOWFILE )
+            .description("The most records written to a single FlowFile")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_BYTES_PER_FLOWFILE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.MAX_BYTES_PER_FLOWFILE )
+            .description("A FlowFile is closed once about this much data has been written to it")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("10 MB")
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_LINGER_TIME = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.MAX_LINGER_TIME )
+            .description("How long received records may wait for a FlowFile to fill up. Records are written out once "
+                    + "there are enough to fill a FlowFile (Max Records per FlowFile or Max Bytes per FlowFile) or the "
+                    + "oldest of them has waited this long. The default of 0 sec writes out all the received records "
+                    + "on every execution.")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .defaultValue("0 sec")
+            .build();
+
+    public static final PropertyDescriptor PROP_BUFFER_MAX_RECORDS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.BUFFER_MAX_RECORDS )
+            .description("The most records received from the table monitor that are held in memory until written to FlowFiles")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("100000")
+            .build();
+
+    public static final PropertyDescriptor PROP_BUFFER_MAX_SIZE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.BUFFER_MAX_SIZE )
+            .description("The most data (as received from the table monitor) held in memory until written to FlowFiles")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("64 MB")
+            .build();
+
+    public static final PropertyDescriptor PROP_BUFFER_FULL_STRATEGY = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.BUFFER_FULL_STRATEGY )
+            .description("What to do with new records when the buffer is full because FlowFiles are not written fast enough. "
+                    + "\"Block\" stops receiving until there is room, and leaves it to the table monitor to queue or drop "
+                    + "records; \"Drop Oldest\" discards the oldest buffered records.")
+            .required(true)
+            .allowableValues(BLOCK, DROP_OLDEST)
+            .defaultValue(BLOCK.getValue())
+            .build();
+
+    public static final PropertyDescriptor PROP_INITIAL_SNAPSHOT = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.INITIAL_SNAPSHOT )
+            .description("Whether to write out the records the table already holds when the processor is started, ahead "
+                    + "of the records inserted afterwards. The existing records are read after subscribing to the table "
+                    + "monitor, so none are missed, but records inserted while they are read may be written twice.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    public static final PropertyDescriptor PROP_SNAPSHOT_PAGE_SIZE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.SNAPSHOT_PAGE_SIZE )
+            .description("The number of existing records read per request for the Initial Snapshot")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
+    public static final PropertyDescriptor PROP_SNAPSHOT_THREADS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.SNAPSHOT_THREADS )
+            .description("The number of pages of existing records read concurrently for the Initial Snapshot")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("4")
+            .build();
+
+    public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.USERNAME )
+            .description("Username to connect to Kinetica")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build(); 
+    
+    public static final PropertyDescriptor PROP_PASSWORD = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.PASSWORD )
+            .description("Password to connect to Kinetica")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .sensitive(true)
+            .build();
+    
+    public static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name( KineticaConstants.SUCCESS )
+            .description("All FlowFiles written from the GPUdb set are routed to this relationship")
+            .build();
+
+    private GPUdb gpudb;
+    private String set;
+    private Type objectType;
+    private KineticaRecordAdapter adapter;
+    private RecordSetWriterFactory writerFactory;
+    private KineticaRecordFilter recordFilter;
+    private KineticaTableMonitorService.Subscription monitor;
+    // Replaced by every schedule; the monitor thread keeps its own
+    private volatile KineticaMonitorBuffer<byte[]> buffer;
+    // Only set while the Initial Snapshot is written out first
+    private volatile KineticaTableSnapshot snapshot;
+    private volatile KineticaMetrics metrics;
+    private int maxRecordsPerFlowFile;
+    private long maxBytesPerFlowFile;
+    private long maxLingerMillis;
+    private List<PropertyDescriptor> descriptors;
+    private Set<Relationship> relationships;
+    
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptorsList = new ArrayList<>();
+        descriptorsList.add(PROP_CONNECTION_SERVICE);
+        descriptorsList.add(PROP_SERVER);
+        descriptorsList.add(PROP_SET);
+        descriptorsList.add(PROP_TABLE_MONITOR_SERVICE);
+        descriptorsList.add(PROP_OBJECT_MONITOR);  
+        descriptorsList.add(PROP_COLUMNS);
+        descriptorsList.add(PROP_FILTER);
+        descriptorsList.add(PROP_RECORD_WRITER);
+        descriptorsList.add(PROP_MAX_RECORDS_PER_FLOWFILE);
+        descriptorsList.add(PROP_MAX_BYTES_PER_FLOWFILE);
+        descriptorsList.add(PROP_MAX_LINGER_TIME);
+        descriptorsList.add(PROP_BUFFER_MAX_RECORDS);
+        descriptorsList.add(PROP_BUFFER_MAX_SIZE);
+        descriptorsList.add(PROP_BUFFER_FULL_STRATEGY);
+        descriptorsList.add(PROP_INITIAL_SNAPSHOT);
+        descriptorsList.add(PROP_SNAPSHOT_PAGE_SIZE);
+        descriptorsList.add(PROP_SNAPSHOT_THREADS);
+        descriptorsList.add(PROP_USERNAME);
+        descriptorsList.add(PROP_PASSWORD);
+        
+        this.descriptors = Collections.unmodifiableList(descriptorsList);
+
+        final Set<Relationship> relationshipsList = new HashSet<>();
+        relationshipsList.add(REL_SUCCESS);
+        this.relationships = Collections.unmodifiableSet(relationshipsList);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        return KineticaUtilities.validateTableMonitor(validationContext, PROP_CONNECTION_SERVICE, PROP_SERVER,
+                PROP_TABLE_MONITOR_SERVICE, PROP_OBJECT_MONITOR);
+    }
+
+    @OnScheduled
+    public void onScheduled(final ProcessContext context) throws GPUdbException {
+
+        gpudb = KineticaUtilities.getConnection(context, PROP_CONNECTION_SERVICE, PROP_SERVER, PROP_USERNAME, PROP_PASSWORD);
+        
+        set = context.getProperty(PROP_SET).getValue();
+        objectType = KineticaMetadataCache.get(gpudb).getType(gpudb, set, null);
+        recordFilter = new KineticaRecordFilter(objectType, context.getProperty(PROP_COLUMNS).getValue(),
+                context.getProperty(PROP_FILTER).getValue());
+        // Converted once; every record is adapted to it as it is written
+        adapter = new KineticaRecordAdapter(recordFilter.getType());
+        writerFactory = context.getProperty(PROP_RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+        maxRecordsPerFlowFile = context.getProperty(PROP_MAX_RECORDS_PER_FLOWFILE).asInteger();
+        maxBytesPerFlowFile = context.getProperty(PROP_MAX_BYTES_PER_FLOWFILE).asDataSize(DataUnit.B).longValue();
+        maxLingerMillis = context.getProperty(PROP_MAX_LINGER_TIME).asTimePeriod(TimeUnit.MILLISECONDS);
+        final KineticaMonitorBuffer<byte[]> buffer = new KineticaMonitorBuffer<>(
+                context.getProperty(PROP_BUFFER_MAX_RECORDS).asInteger(),
+                context.getProperty(PROP_BUFFER_MAX_SIZE).asDataSize(DataUnit.B).longValue(),
+                DROP_OLDEST.getValue().equals(context.getProperty(PROP_BUFFER_FULL_STRATEGY).getValue())
+                        ? KineticaMonitorBuffer.OverflowPolicy.DROP_OLDEST : KineticaMonitorBuffer.OverflowPolicy.BLOCK);
+        this.buffer = buffer;
+        metrics = KineticaMetrics.register(getIdentifier(), getClass().getSimpleName(), set);
+        metrics.setBuffer(buffer);
+
+        monitor = KineticaUtilities.startTableMonitor(context, PROP_TABLE_MONITOR_SERVICE, PROP_OBJECT_MONITOR, gpudb, set,
+                buffer, getLogger());
+
+        // Only once subscribed, so that no records fall in between
+        if (context.getProperty(PROP_INITIAL_SNAPSHOT).asBoolean()) {
+            snapshot = new KineticaTableSnapshot(gpudb, set, context.getProperty(PROP_SNAPSHOT_PAGE_SIZE).asInteger(),
+                    context.getProperty(PROP_SNAPSHOT_THREADS).asInteger(),
+                    new KineticaMonitorBuffer<byte[]>(context.getProperty(PROP_BUFFER_MAX_RECORDS).asInteger(),
+                            context.getProperty(PROP_BUFFER_MAX_SIZE).asDataSize(DataUnit.B).longValue(),
+                            KineticaMonitorBuffer.OverflowPolicy.BLOCK),
+                    getLogger());
+            snapshot.start();
+        } else {
+            snapshot = null;
+        }
+    }
+
+    @OnUnscheduled
+    public void onUnscheduled(final ProcessContext context) {
+        if (monitor != null) {
+            monitor.stop();
+            monitor = null;
+        }
+        if (snapshot != null) {
+            snapshot.stop();
+        }
+    }
+
+
+    @OnRemoved
+    public void onRemoved() {
+        KineticaMetrics.unregister(getIdentifier());
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        // The existing records of the table go first, if asked for
+        final KineticaTableSnapshot snapshot = this.snapshot;
+        final KineticaMonitorBuffer<byte[]> buffer = (snapshot != null) ? snapshot.select(this.buffer) : this.buffer;
+        buffer.reportCounters(session);
+        metrics.reportCounters(session);
+
+        // Only write out the records that were already waiting, so that a
+        // fast table monitor can't keep this execution going
+        int remaining = buffer.getDepth();
+        boolean wrote = false;
+
+        while (remaining > 0 && buffer.isBatchReady(maxRecordsPerFlowFile, maxBytesPerFlowFile, maxLingerMillis)) {
+            int count = writeFlowFile(session, buffer, Math.min(remaining, maxRecordsPerFlowFile));
+            if (count == 0) {
+                // Taken by another task
+                break;
+            }
+            remaining -= count;
+            wrote = true;
+        }
+
+        if (!wrote) {
+            context.yield();
+        }
+    }
+
+    /*
+     * Writes up to the given number of records from the buffer, and at most
+     * about Max Bytes per FlowFile, to a new FlowFile.
+     *
+     * Records not matching the Filter are taken from the buffer but not
+     * written.  Returns the number of records taken from the buffer.
+     */
+    private int writeFlowFile(final ProcessSession session, final KineticaMonitorBuffer<byte[]> buffer, final int maxRecords) {
+        final int[] count = { 0 };
+        final int[] drained = { 0 };
+        final Map<String, String> attributes = new HashMap<>();
+        final long writeStart = System.nanoTime();
+        FlowFile flowFile = session.create();
+        final FlowFile original = flowFile;
+
+        try {
+            flowFile = session.write(flowFile, new OutputStreamCallback() {
+                @Override
+                public void process(OutputStream out) throws IOException {
+                    ByteCountingOutputStream counter = new ByteCountingOutputStream(out);
+                    List<byte[]> next = new ArrayList<>(1);
+
+                    try (RecordSetWriter writer = writerFactory.createWriter(getLogger(), adapter.getSchema(), original, counter)) {
+                        writer.beginRecordSet();
+
+                        // The count lags behind by what the writer buffers
+                        while (count[0] < maxRecords && counter.getBytesWritten() < maxBytesPerFlowFile
+                                && buffer.drainTo(next, 1, Long.MAX_VALUE) > 0) {
+                            drained[0]++;
+                            GenericRecord object = decode(next.remove(0));
+                            if (object == null) {
+                                continue;
+                            }
+                            writer.write(adapter.adapt(object));
+                            count[0]++;
+                        }
+
+                        WriteResult result = writer.finishRecordSet();
+                        attributes.putAll(result.getAttributes());
+                        attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
+                    } catch (SchemaNotFoundException ex) {
+                        throw new ProcessException("Unable to create a Record Writer for set " + set, ex);
+                    }
+                    getLogger().debug("Got {} record(s) from set {} at {}.", new Object[] { count[0], set, gpudb.getURL() });
+                }
+            });
+        } catch (ProcessException ex) {
+            // The records taken from the buffer are lost
+            getLogger().error("Unable to write {} record(s) from set {}", new Object[] { count[0], set }, ex);
+            session.remove(flowFile);
+            metrics.addFailures(drained[0]);
+            return 0;
+        }
+
+        if (count[0] == 0) {
+            session.remove(flowFile);
+            return drained[0];
+        }
+
+        attributes.put("record.count", String.valueOf(count[0]));
+        attributes.put("avro.schema", recordFilter.getSchema().toString());
+        flowFile = session.putAllAttributes(flowFile, attributes);
+        session.getProvenanceReporter().receive(flowFile, gpudb.getURL().toString(), set);
+        session.transfer(flowFile, REL_SUCCESS);
+        metrics.recordFlush(System.nanoTime() - writeStart, count[0]);
+        metrics.addRecords(count[0], flowFile.getSize());
+        return drained[0];
+    }
+
+    /*
+     * Decodes a record received from the table monitor and projects it on
+     * the Columns; returns null if it doesn't match the Filter or, after
+     * logging why, can't be decoded.
+     */
+    private GenericRecord decode(byte[] data) {
+        final long start = System.nanoTime();
+        try {
+            return recordFilter.apply(Avro.<GenericRecord>decode(objectType.getSchema(), ByteBuffer.wrap(data)));
+        } catch (GPUdbException ex) {
+            getLogger().error("Unable to decode a record from set {}", new Object[] { set }, ex);
+            metrics.addFailures(1);
+            return null;
+        } finally {
+            metrics.recordConversion(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.TriggerSerially;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.util.StandardValidators;
+
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbException;
+import com.gpudb.Record;
+import com.gpudb.Type;
+import com.gpudb.protocol.GetRecordsByColumnRequest;
+import com.gpudb.protocol.GetRecordsByColumnResponse;
+import com.gpudb.protocol.GetRecordsRequest;
+import com.gpudb.protocol.RawGetRecordsResponse;
+
+
+@Tags({"Kinetica", "get", "export", "table", "csv", "avro"})
+@CapabilityDescription("Exports the records of a Kinetica table, optionally filtered and projected, every time it runs. The "
+        + "table is read in pages of Page Size records, Fetch Threads of them concurrently, and every page is written to a "
+        + "FlowFile of its own, in table order, with fragment attributes to put them back together. The pages of an export are "
+        + "all routed to success together, or not at all.")
+@InputRequirement(Requirement.INPUT_FORBIDDEN)
+@TriggerSerially
+@WritesAttributes({
+    @WritesAttribute(attribute = "mime.type", description = "avro/binary or text/csv"),
+    @WritesAttribute(attribute = "record.count", description = "The number of records in the FlowFile"),
+    @WritesAttribute(attribute = "fragment.identifier", description = "The same for all the FlowFiles of one export"),
+    @WritesAttribute(attribute = "fragment.index", description = "The position of the page in the export, from 0"),
+    @WritesAttribute(attribute = "fragment.count", description = "The number of pages of the export")
+})
+public class GetKineticaTable extends AbstractProcessor {
+    public static final AllowableValue CONTAINER_FILE = new AllowableValue("Avro Container File", "Avro Container File",
+            "An Avro Object Container File per page, holding the schema of the records");
+
+    public static final AllowableValue CSV = new AllowableValue("CSV", "CSV",
+            "Delimited text per page, with a header line of column names");
+
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.CONNECTION_SERVICE )
+            .description("The Kinetica Connection Service to connect to Kinetica through, sharing its pooled connections with the "
+                    + "other processors using it. When set, Server URL, Username and Password are not used.")
+            .required(false)
+            .identifiesControllerService(KineticaConnectionService.class)
+            .build();
+
+    public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.SERVER_URL )
+            .description("URL of the Kinetica server. Required unless a Kinetica Connection Service is set.")
+            .required(false)
+            .addValidator(StandardValidators.URL_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_TABLE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.TABLE_NAME )
+            .description("Name of the Kinetica table")
+            .required(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_FILTER_EXPRESSION = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.FILTER_EXPRESSION )
+            .description("A Kinetica filter expression the exported records must match, e.g. x > 10 and name = 'abc'. "
+                    + "All the records are exported when not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_COLUMNS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.COLUMNS )
+            .description("A comma-separated list of the columns to export, in that order. All the columns are exported "
+                    + "when not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_OUTPUT_FORMAT = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.OUTPUT_FORMAT )
+            .description("How the records are written to the FlowFiles. Without Columns, Avro Container Files are "
+                    + "written from the records as Kinetica encodes them, without decoding them.")
+            .required(true)
+            .allowableValues(CONTAINER_FILE, CSV)
+            .defaultValue(CONTAINER_FILE.getValue())
+            .build();
+
+    public static final PropertyDescriptor PROP_DELIMITER = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.DELIMITER )
+            .description("The delimiter of the CSV output")
+            .required(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .defaultValue(",")
+            .build();
+
+    public static final PropertyDescriptor PROP_PAGE_SIZE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.PAGE_SIZE )
+            .description("The number of records read per request, and written per FlowFile. Bounds the memory used, "
+                    + "together with Fetch Threads; should not exceed the max_get_records_size of Kinetica.")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
+    public static final PropertyDescriptor PROP_FETCH_THREADS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.FETCH_THREADS )
+            .description("The number of pages read concurrently")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("4")
+            .build();
+
+    public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.USERNAME )
+            .description("Username to connect to Kinetica")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_PASSWORD = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.PASSWORD )
+            .description("Password to connect to Kinetica")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .sensitive(true)
+            .build();
+
+    public static final Relationship REL_SUCCESS = new Relationship.Builder()
+            .name( KineticaConstants.SUCCESS )
+            .description("All FlowFiles exported from the Kinetica table are routed to this relationship")
+            .build();
+
+    private GPUdb gpudb;
+    private String tableName;
+    private Map<String, String> fetchOptions;
+    private List<String> columns;
+    private boolean csv;
+    private char delimiter;
+    private int pageSize;
+    private ExecutorService fetchPool;
+    private int fetchThreads;
+    private List<PropertyDescriptor> descriptors;
+    private Set<Relationship> relationships;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_CONNECTION_SERVICE);
+        descriptors.add(PROP_SERVER);
+        descriptors.add(PROP_TABLE);
+        descriptors.add(PROP_FILTER_EXPRESSION);
+        descriptors.add(PROP_COLUMNS);
+        descriptors.add(PROP_OUTPUT_FORMAT);
+        descriptors.add(PROP_DELIMITER);
+        descriptors.add(PROP_PAGE_SIZE);
+        descriptors.add(PROP_FETCH_THREADS);
+        descriptors.add(PROP_USERNAME);
+        descriptors.add(PROP_PASSWORD);
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        return KineticaUtilities.validateConnection(validationContext, PROP_CONNECTION_SERVICE, PROP_SERVER);
+    }
+
+    @OnScheduled
+    public void onScheduled(final ProcessContext context) throws GPUdbException {
+        gpudb = KineticaUtilities.getConnection(context, PROP_CONNECTION_SERVICE, PROP_SERVER, PROP_USERNAME, PROP_PASSWORD);
+        tableName = context.getProperty(PROP_TABLE).getValue();
+
+        fetchOptions = new HashMap<>();
+        if (context.getProperty(PROP_FILTER_EXPRESSION).isSet()) {
+            fetchOptions.put(GetRecordsRequest.Options.EXPRESSION, context.getProperty(PROP_FILTER_EXPRESSION).getValue());
+        }
+
+        columns = null;
+        if (context.getProperty(PROP_COLUMNS).isSet()) {
+            columns = new ArrayList<>();
+            for (String column : context.getProperty(PROP_COLUMNS).getValue().split(",")) {
+                if (!column.trim().isEmpty()) {
+                    columns.add(column.trim());
+                }
+            }
+        }
+
+        csv = CSV.getValue().equals(context.getProperty(PROP_OUTPUT_FORMAT).getValue());
+        delimiter = context.getProperty(PROP_DELIMITER).getValue().charAt(0);
+        pageSize = context.getProperty(PROP_PAGE_SIZE).asInteger();
+        fetchThreads = context.getProperty(PROP_FETCH_THREADS).asInteger();
+        fetchPool = Executors.newFixedThreadPool(fetchThreads);
+    }
+
+    @OnStopped
+    public void onStopped() {
+        if (fetchPool != null) {
+            fetchPool.shutdownNow();
+            fetchPool = null;
+        }
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        // Without a projection, Avro is copied as Kinetica encodes it
+        final boolean raw = !csv && (columns == null);
+        final Type tableType;
+        final List<String> fetchColumns;
+        try {
+            tableType = KineticaMetadataCache.get(gpudb).getType(gpudb, tableName, session);
+        } catch (GPUdbException ex) {
+            throw new ProcessException("Unable to get the type of table " + tableName + ": " + ex.getMessage(), ex);
+        }
+        if (columns != null) {
+            fetchColumns = columns;
+        } else {
+            fetchColumns = new ArrayList<>();
+            for (Type.Column column : tableType.getColumns()) {
+                fetchColumns.add(column.getName());
+            }
+        }
+
+        final String exportId = UUID.randomUUID().toString();
+        final Deque<Future<Page>> inFlight = new ArrayDeque<>();
+        final List<FlowFile> pages = new ArrayList<>();
+        long count = 0;
+        try {
+            // The first page tells how many records there are to export
+            Page first = fetchPage(raw, fetchColumns, 0);
+            final long total = first.total;
+            final int pageCount = (int) ((total + pageSize - 1) / pageSize);
+            if (first.size() == 0) {
+                getLogger().debug("No records to export from table {}", new Object[] { tableName });
+                context.yield();
+                return;
+            }
+
+            pages.add(writePage(session, first, raw ? tableType.getSchema() : null, exportId, 0));
+            count += first.size();
+
+            // Later pages are fetched concurrently but written in table
+            // order; at most Fetch Threads of them are held in memory
+            int nextPage = 1;
+            for (int index = 1; index < pageCount; index++) {
+                while (nextPage < pageCount && inFlight.size() < fetchThreads) {
+                    final long offset = (long) nextPage * pageSize;
+                    inFlight.add(fetchPool.submit(new Callable<Page>() {
+                        @Override
+                        public Page call() throws GPUdbException {
+                            return fetchPage(raw, fetchColumns, offset);
+                        }
+                    }));
+                    nextPage++;
+                }
+
+                Page page = inFlight.poll().get();
+                if (page.size() == 0) {
+                    // The table shrank since the first page
+                    break;
+                }
+                pages.add(writePage(session, page, raw ? tableType.getSchema() : null, exportId, index));
+                count += page.size();
+            }
+
+            // Only now is the number of pages known; they are all committed
+            // together, so a failure above leaves no partial export behind
+            for (FlowFile flowFile : pages) {
+                flowFile = session.putAttribute(flowFile, "fragment.count", String.valueOf(pages.size()));
+                session.getProvenanceReporter().receive(flowFile, gpudb.getURL().toString(), tableName);
+                session.transfer(flowFile, REL_SUCCESS);
+            }
+
+            getLogger().info("Exported {} record(s) from table {} at {}.", new Object[] { count, tableName, gpudb.getURL() });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("Interrupted while exporting table " + tableName, ex);
+        } catch (ExecutionException | GPUdbException ex) {
+            Throwable cause = (ex instanceof ExecutionException) ? ex.getCause() : ex;
+            // The session is rolled back, with the pages written so far
+            throw new ProcessException("Unable to export table " + tableName + ": " + cause.getMessage(), cause);
+        } finally {
+            for (Future<Page> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /*
+     * The records of one page, either as encoded by Kinetica (binary Avro)
+     * or decoded
+     */
+    private static final class Page {
+        final long total;
+        final List<ByteBuffer> encoded;
+        final List<Record> decoded;
+
+        Page(long total, List<ByteBuffer> encoded, List<Record> decoded) {
+            this.total = total;
+            this.encoded = encoded;
+            this.decoded = decoded;
+        }
+
+        int size() {
+            List<?> records = (encoded != null) ? encoded : decoded;
+            return (records == null) ? 0 : records.size();
+        }
+    }
+
+    /*
+     * Reads the page of records starting at the given offset.
+     */
+    private Page fetchPage(boolean raw, List<String> fetchColumns, long offset) throws GPUdbException {
+        if (raw) {
+            RawGetRecordsResponse response = gpudb.getRecordsRaw(
+                    new GetRecordsRequest(tableName, offset, pageSize, GetRecordsRequest.Encoding.BINARY, fetchOptions));
+            return new Page(response.getTotalNumberOfRecords(), response.getRecordsBinary(), null);
+        }
+
+        Map<String, String> options = new HashMap<>();
+        if (fetchOptions.containsKey(GetRecordsRequest.Options.EXPRESSION)) {
+            options.put(GetRecordsByColumnRequest.Options.EXPRESSION, fetchOptions.get(GetRecordsRequest.Options.EXPRESSION));
+        }
+        GetRecordsByColumnResponse response = gpudb.getRecordsByColumn(tableName, fetchColumns, offset, pageSize, options);
+        return new Page(response.getTotalNumberOfRecords(), null, response.getData());
+    }
+
+    /*
+     * Writes the records of a page to a FlowFile of their own, with all its
+     * attributes but fragment.count.
+     *
+     * Returns the FlowFile, not yet transferred.
+     */
+    private FlowFile writePage(final ProcessSession session, final Page page, final Schema tableSchema, String exportId,
+                               int index) {
+        FlowFile flowFile = session.create();
+        flowFile = session.write(flowFile, new OutputStreamCallback() {
+            @Override
+            public void process(OutputStream out) throws IOException {
+                if (page.encoded != null) {
+                    try (DataFileWriter<Object> fileWriter = new DataFileWriter<>(new GenericDatumWriter<>(tableSchema))) {
+                        fileWriter.create(tableSchema, out);
+                        for (ByteBuffer record : page.encoded) {
+                            fileWriter.appendEncoded(record);
+                        }
+                    }
+                } else {
+                    try (KineticaRecordsWriter recordsWriter = new KineticaRecordsWriter(out, csv, delimiter)) {
+                        recordsWriter.write(page.decoded, 0, page.decoded.size());
+                    }
+                }
+            }
+        });
+
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(CoreAttributes.MIME_TYPE.key(), KineticaRecordsWriter.getMimeType(csv));
+        attributes.put(CoreAttributes.FILENAME.key(), tableName + "." + index + (csv ? ".csv" : ".avro"));
+        attributes.put("record.count", String.valueOf(page.size()));
+        attributes.put("fragment.identifier", exportId);
+        attributes.put("fragment.index", String.valueOf(index));
+        return session.putAllAttributes(flowFile, attributes);
+    }
+}
@@ -6,13 +6,14 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.avro.generic.GenericRecord;
 import org.apache.commons.csv.CSVFormat;
@@ -20,12 +21,17 @@ import org.apache.commons.csv.CSVPrinter;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnRemoved;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.annotation.lifecycle.OnUnscheduled;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
@@ -33,27 +39,35 @@ import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.OutputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
-import org.zeromq.ZFrame;
-import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
-import org.zeromq.ZMQ.Socket;
-import org.zeromq.ZMsg;
+import org.apache.nifi.stream.io.ByteCountingOutputStream;
 
 import com.gpudb.Avro;
 import com.gpudb.GPUdb;
-import com.gpudb.GPUdbBase.Options;
 import com.gpudb.GPUdbException;
 import com.gpudb.Type;
-import com.gpudb.protocol.CreateTableMonitorResponse;
 
 @Tags({"gpudb", "get"})
 @CapabilityDescription("Monitors a set in GPUdb and reads new objects into CSV files")
 @WritesAttribute(attribute = "mime.type", description = "Sets MIME type to text/csv")
 public class GetKineticaToCSV extends AbstractProcessor {
+    public static final AllowableValue BLOCK = new AllowableValue("Block", "Block",
+            "Stop receiving from the table monitor until there is room in the buffer");
+
+    public static final AllowableValue DROP_OLDEST = new AllowableValue("Drop Oldest", "Drop Oldest",
+            "Drop the oldest buffered records to make room");
+
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.CONNECTION_SERVICE )
+            .description("The Kinetica Connection Service to connect to Kinetica through, sharing its pooled connections with the "
+                    + "other processors using it. When set, Server URL, Username and Password are not used.")
+            .required(false)
+            .identifiesControllerService(KineticaConnectionService.class)
+            .build();
+
     public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder()
             .name( KineticaConstants.SERVER_URL )
-            .description("URL of the GPUdb server")
-            .required(true)
+            .description("URL of the GPUdb server. Required unless a Kinetica Connection Service is set.")
+            .required(false)
             .addValidator(StandardValidators.URL_VALIDATOR)
             .build();
 
@@ -64,13 +78,38 @@ public class GetKineticaToCSV extends AbstractProcessor {
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor PROP_TABLE_MONITOR_SERVICE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.TABLE_MONITOR_SERVICE )
+            .description("The Kinetica Table Monitor Service to receive the records through, sharing its subscriber socket, "
+                    + "thread and table monitors with the other processors using it. When set, Table Monitor URL is not used.")
+            .required(false)
+            .identifiesControllerService(KineticaTableMonitorService.class)
+            .build();
+
     public static final PropertyDescriptor PROP_OBJECT_MONITOR = new PropertyDescriptor.Builder()
             .name( KineticaConstants.TABLE_MONITOR_URL )
-            .description("URL of the GPUdb table monitor")
-            .required(true)
+            .description("URL of the GPUdb table monitor. Required unless a Kinetica Table Monitor Service is set.")
+            .required(false)
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
     
+    public static final PropertyDescriptor PROP_COLUMNS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.COLUMNS )
+            .description("A comma-separated list of the columns to write, in that order. All the columns are written when "
+                    + "not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor PROP_FILTER = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.FILTER )
+            .description("An expression the records must match to be written, e.g. x > 10 and (name = 'abc' or y is null); "
+                    + "comparisons (= != < <= > >= in, is [not] null) of a column with literals, combined with and, or and "
+                    + "not. All the records are written when not set.")
+            .required(false)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
     public static final PropertyDescriptor PROP_DELIMITER = new PropertyDescriptor.Builder()
             .name( KineticaConstants.DELIMITER )
             .description("Delimiter of input data (usually a ',' or '\t' (tab); defaults to '\t' (tab))")
@@ -79,6 +118,85 @@ public class GetKineticaToCSV extends AbstractProcessor {
             .defaultValue("\t")
             .build();
     
+    public static final PropertyDescriptor PROP_MAX_RECORDS_PER_FLOWFILE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.MAX_RECORDS_PER_FLOWFILE )
+            .description("The most records written to a single FlowFile")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_BYTES_PER_FLOWFILE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.MAX_BYTES_PER_FLOWFILE )
+            .description("A FlowFile is closed once about this much data has been written to it")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("10 MB")
+            .build();
+
+    public static final PropertyDescriptor PROP_MAX_LINGER_TIME = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.MAX_LINGER_TIME )
+            .description("How long received records may wait for a FlowFile to fill up. Records are written out once "
+                    + "there are enough to fill a FlowFile (Max Records per FlowFile or Max Bytes per FlowFile) or the "
+                    + "oldest of them has waited this long. The default of 0 sec writes out all the received records "
+                    + "on every execution.")
+            .required(true)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .defaultValue("0 sec")
+            .build();
+
+    public static final PropertyDescriptor PROP_BUFFER_MAX_RECORDS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.BUFFER_MAX_RECORDS )
+            .description("The most records received from the table monitor that are held in memory until written to FlowFiles")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("100000")
+            .build();
+
+    public static final PropertyDescriptor PROP_BUFFER_MAX_SIZE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.BUFFER_MAX_SIZE )
+            .description("The most data (as received from the table monitor) held in memory until written to FlowFiles")
+            .required(true)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .defaultValue("64 MB")
+            .build();
+
+    public static final PropertyDescriptor PROP_BUFFER_FULL_STRATEGY = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.BUFFER_FULL_STRATEGY )
+            .description("What to do with new records when the buffer is full because FlowFiles are not written fast enough. "
+                    + "\"Block\" stops receiving until there is room, and leaves it to the table monitor to queue or drop "
+                    + "records; \"Drop Oldest\" discards the oldest buffered records.")
+            .required(true)
+            .allowableValues(BLOCK, DROP_OLDEST)
+            .defaultValue(BLOCK.getValue())
+            .build();
+
+    public static final PropertyDescriptor PROP_INITIAL_SNAPSHOT = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.INITIAL_SNAPSHOT )
+            .description("Whether to write out the records the table already holds when the processor is started, ahead "
+                    + "of the records inserted afterwards. The existing records are read after subscribing to the table "
+                    + "monitor, so none are missed, but records inserted while they are read may be written twice.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .build();
+
+    public static final PropertyDescriptor PROP_SNAPSHOT_PAGE_SIZE = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.SNAPSHOT_PAGE_SIZE )
+            .description("The number of existing records read per request for the Initial Snapshot")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("10000")
+            .build();
+
+    public static final PropertyDescriptor PROP_SNAPSHOT_THREADS = new PropertyDescriptor.Builder()
+            .name( KineticaConstants.SNAPSHOT_THREADS )
+            .description("The number of pages of existing records read concurrently for the Initial Snapshot")
+            .required(true)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .defaultValue("4")
+            .build();
+
     public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder()
             .name( KineticaConstants.USERNAME )
             .description("Username to connect to Kinetica")
@@ -102,8 +220,16 @@ public class GetKineticaToCSV extends AbstractProcessor {
     private GPUdb gpudb;
     private String set;
     private Type objectType;
-    private Thread mainThread;
-    private ConcurrentLinkedQueue<GenericRecord> queue;
+    private KineticaRecordFilter recordFilter;
+    private KineticaTableMonitorService.Subscription monitor;
+    // Replaced by every schedule; the monitor thread keeps its own
+    private volatile KineticaMonitorBuffer<byte[]> buffer;
+    // Only set while the Initial Snapshot is written out first
+    private volatile KineticaTableSnapshot snapshot;
+    private volatile KineticaMetrics metrics;
+    private int maxRecordsPerFlowFile;
+    private long maxBytesPerFlowFile;
+    private long maxLingerMillis;
     private List<PropertyDescriptor> descriptors;
     private Set<Relationship> relationships;
     private char delimiter;
@@ -111,10 +237,23 @@ public class GetKineticaToCSV extends AbstractProcessor {
     @Override
     protected void init(final ProcessorInitializationContext context) {
         final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_CONNECTION_SERVICE);
         descriptors.add(PROP_SERVER);
         descriptors.add(PROP_SET);
+        descriptors.add(PROP_TABLE_MONITOR_SERVICE);
         descriptors.add(PROP_OBJECT_MONITOR);
+        descriptors.add(PROP_COLUMNS);
+        descriptors.add(PROP_FILTER);
         descriptors.add(PROP_DELIMITER);   
+        descriptors.add(PROP_MAX_RECORDS_PER_FLOWFILE);
+        descriptors.add(PROP_MAX_BYTES_PER_FLOWFILE);
+        descriptors.add(PROP_MAX_LINGER_TIME);
+        descriptors.add(PROP_BUFFER_MAX_RECORDS);
+        descriptors.add(PROP_BUFFER_MAX_SIZE);
+        descriptors.add(PROP_BUFFER_FULL_STRATEGY);
+        descriptors.add(PROP_INITIAL_SNAPSHOT);
+        descriptors.add(PROP_SNAPSHOT_PAGE_SIZE);
+        descriptors.add(PROP_SNAPSHOT_THREADS);
         descriptors.add(PROP_USERNAME);
         descriptors.add(PROP_PASSWORD);
         
@@ -135,152 +274,218 @@ public class GetKineticaToCSV extends AbstractProcessor {
         return descriptors;
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        return KineticaUtilities.validateTableMonitor(validationContext, PROP_CONNECTION_SERVICE, PROP_SERVER,
+                PROP_TABLE_MONITOR_SERVICE, PROP_OBJECT_MONITOR);
+    }
+
     @OnScheduled
     public void onScheduled(final ProcessContext context) throws GPUdbException {
 
-        Options option = new Options();
-        if (context.getProperty(PROP_USERNAME).getValue() != null && context.getProperty(PROP_PASSWORD).getValue() != null) {
-            option.setUsername(context.getProperty(PROP_USERNAME).getValue());
-            option.setPassword(context.getProperty(PROP_PASSWORD).getValue());
-        }
-        gpudb = new GPUdb(context.getProperty(PROP_SERVER).getValue(), option);
+        gpudb = KineticaUtilities.getConnection(context, PROP_CONNECTION_SERVICE, PROP_SERVER, PROP_USERNAME, PROP_PASSWORD);
         
         set = context.getProperty(PROP_SET).getValue();
         delimiter = context.getProperty(PROP_DELIMITER).getValue().charAt(0);
-        objectType = Type.fromTable(gpudb, set);
-        queue = new ConcurrentLinkedQueue<>();
-
-        mainThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    CreateTableMonitorResponse response = gpudb.createTableMonitor(set, null);
-
-                    String topicId = response.getTopicId();
-
-                    try (Context zmqContext = ZMQ.context(1); Socket subscriber = zmqContext.socket(ZMQ.SUB)) {
-                        subscriber.connect(context.getProperty(PROP_OBJECT_MONITOR).getValue());
-                        subscriber.subscribe(topicId.getBytes());
-                        subscriber.setReceiveTimeOut(1000);
-
-                        while (!Thread.currentThread().isInterrupted()) {
-                            ZMsg message = ZMsg.recvMsg(subscriber);
-
-                            if (message == null) {
-                                continue;
-                            }
-
-                            boolean skip = true;
-
-                            for (ZFrame frame : message) {
-                                if (skip) {
-                                    skip = false;
-                                    continue;
-                                }
-
-                                GenericRecord object = Avro.decode(objectType.getSchema(), ByteBuffer.wrap(frame.getData()));
-                                queue.add(object);
-                            }
-                        }
-
-                        gpudb.clearTableMonitor(topicId, null);
-                    }
-                } catch (Exception ex) {
-                    getLogger().error("Unable to get data from {}", new Object[] { context.getProperty(PROP_OBJECT_MONITOR).getValue() }, ex);
-                }
-            }
-        });
-        mainThread.start();        
+        objectType = KineticaMetadataCache.get(gpudb).getType(gpudb, set, null);
+        recordFilter = new KineticaRecordFilter(objectType, context.getProperty(PROP_COLUMNS).getValue(),
+                context.getProperty(PROP_FILTER).getValue());
+        maxRecordsPerFlowFile = context.getProperty(PROP_MAX_RECORDS_PER_FLOWFILE).asInteger();
+        maxBytesPerFlowFile = context.getProperty(PROP_MAX_BYTES_PER_FLOWFILE).asDataSize(DataUnit.B).longValue();
+        maxLingerMillis = context.getProperty(PROP_MAX_LINGER_TIME).asTimePeriod(TimeUnit.MILLISECONDS);
+        final KineticaMonitorBuffer<byte[]> buffer = new KineticaMonitorBuffer<>(
+                context.getProperty(PROP_BUFFER_MAX_RECORDS).asInteger(),
+                context.getProperty(PROP_BUFFER_MAX_SIZE).asDataSize(DataUnit.B).longValue(),
+                DROP_OLDEST.getValue().equals(context.getProperty(PROP_BUFFER_FULL_STRATEGY).getValue())
+                        ? KineticaMonitorBuffer.OverflowPolicy.DROP_OLDEST : KineticaMonitorBuffer.OverflowPolicy.BLOCK);
+        this.buffer = buffer;
+        metrics = KineticaMetrics.register(getIdentifier(), getClass().getSimpleName(), set);
+        metrics.setBuffer(buffer);
+
+        monitor = KineticaUtilities.startTableMonitor(context, PROP_TABLE_MONITOR_SERVICE, PROP_OBJECT_MONITOR, gpudb, set,
+                buffer, getLogger());
+
+        // Only once subscribed, so that no records fall in between
+        if (context.getProperty(PROP_INITIAL_SNAPSHOT).asBoolean()) {
+            snapshot = new KineticaTableSnapshot(gpudb, set, context.getProperty(PROP_SNAPSHOT_PAGE_SIZE).asInteger(),
+                    context.getProperty(PROP_SNAPSHOT_THREADS).asInteger(),
+                    new KineticaMonitorBuffer<byte[]>(context.getProperty(PROP_BUFFER_MAX_RECORDS).asInteger(),
+                            context.getProperty(PROP_BUFFER_MAX_SIZE).asDataSize(DataUnit.B).longValue(),
+                            KineticaMonitorBuffer.OverflowPolicy.BLOCK),
+                    getLogger());
+            snapshot.start();
+        } else {
+            snapshot = null;
+        }
     }
 
     @OnUnscheduled
     public void onUnscheduled(final ProcessContext context) {
-        if (mainThread != null) {
-            mainThread.interrupt();
-            mainThread = null;
+        if (monitor != null) {
+            monitor.stop();
+            monitor = null;
         }
+        if (snapshot != null) {
+            snapshot.stop();
+        }
+    }
+
+    @OnRemoved
+    public void onRemoved() {
+        KineticaMetrics.unregister(getIdentifier());
     }
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        final List<GenericRecord> objectList = new ArrayList<>();
-
-        while (true) {
-            GenericRecord object = queue.poll();
-
-            if (object == null) {
+        // The existing records of the table go first, if asked for
+        final KineticaTableSnapshot snapshot = this.snapshot;
+        final KineticaMonitorBuffer<byte[]> buffer = (snapshot != null) ? snapshot.select(this.buffer) : this.buffer;
+        buffer.reportCounters(session);
+        metrics.reportCounters(session);
+
+        // Only write out the records that were already waiting, so that a
+        // fast table monitor can't keep this execution going
+        int remaining = buffer.getDepth();
+        boolean wrote = false;
+
+        while (remaining > 0 && buffer.isBatchReady(maxRecordsPerFlowFile, maxBytesPerFlowFile, maxLingerMillis)) {
+            int count = writeFlowFile(session, buffer, Math.min(remaining, maxRecordsPerFlowFile));
+            if (count == 0) {
+                // Taken by another task
                 break;
             }
-
-            objectList.add(object);
+            remaining -= count;
+            wrote = true;
         }
 
-        if (objectList.isEmpty()) {
+        if (!wrote) {
             context.yield();
-            return;
         }
+    }
 
+    /*
+     * Writes up to the given number of records from the buffer, and at most
+     * about Max Bytes per FlowFile, to a new FlowFile.
+     *
+     * Records not matching the Filter are taken from the buffer but not
+     * written.  Returns the number of records taken from the buffer.
+     */
+    private int writeFlowFile(final ProcessSession session, final KineticaMonitorBuffer<byte[]> buffer, final int maxRecords) {
+        final int[] count = { 0 };
+        final int[] drained = { 0 };
+        final long writeStart = System.nanoTime();
         FlowFile flowFile = session.create();
 
         flowFile = session.write(flowFile, new OutputStreamCallback() {
             @Override
             public void process(OutputStream out) throws IOException {
-               try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out))) {
+               ByteCountingOutputStream counter = new ByteCountingOutputStream(out);
+               try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(counter))) {
                 CSVPrinter printer = new CSVPrinter(writer, CSVFormat.RFC4180.withDelimiter(delimiter));
                        
-                ArrayList<String> fields = new ArrayList<>();
-
-                for (Type.Column attribute : objectType.getColumns()) {
-                    String field = attribute.getName() + "|";
-
-                    if (attribute.getType() == Double.TYPE) {
-                        field += "double";
-                    } else if (attribute.getType() == Float.TYPE) {
-                        field += "float";
-                    } else if (attribute.getType() == Integer.TYPE) {
-                        field += "int";
-                    } else if (attribute.getType() == Long.TYPE) {
-                        field += "long";
-                    } else {
-                        field += "string";
-                    }
-
-                    for (String annotation : attribute.getProperties()) {
-                        field += "|" + annotation;
+                printHeader(printer, recordFilter.getType());
+                List<String> fields = new ArrayList<>();
+                List<byte[]> next = new ArrayList<>(1);
+
+                // The count lags behind by what the writer buffers
+                while (count[0] < maxRecords && counter.getBytesWritten() < maxBytesPerFlowFile
+                        && buffer.drainTo(next, 1, Long.MAX_VALUE) > 0) {
+                    drained[0]++;
+                    GenericRecord object = decode(next.remove(0));
+                    if (object == null) {
+                        continue;
                     }
-
-                    fields.add(field);
-                }
-
-                printer.printRecord(fields);
-                int count = 0;
-
-                for (GenericRecord object : objectList) {
-                    fields.clear();
-
-                    for (int i = 0; i < objectType.getColumns().size(); i++) {
-                        fields.add(object.get(i).toString());
-                    }
-
-                    printer.printRecord(fields);
-                    count++;
+                    printRecord(printer, object, fields);
+                    count[0]++;
                 }
 
                 printer.flush();
                 writer.flush();
                 out.flush();
                 printer.close();
-                getLogger().info("Got {} record(s) from set {} at {}.", new Object[] { count, set, gpudb.getURL() });
+                getLogger().info("Got {} record(s) from set {} at {}.", new Object[] { count[0], set, gpudb.getURL() });
                 
                }
             }
         });
 
+        if (count[0] == 0) {
+            session.remove(flowFile);
+            return drained[0];
+        }
+
         final Map<String, String> attributes = new HashMap<>();
         attributes.put(CoreAttributes.MIME_TYPE.key(), "text/csv");
         attributes.put(CoreAttributes.FILENAME.key(), flowFile.getAttribute(CoreAttributes.FILENAME.key()) + ".csv");
         flowFile = session.putAllAttributes(flowFile, attributes);
         session.getProvenanceReporter().receive(flowFile, gpudb.getURL().toString(), set);
         session.transfer(flowFile, REL_SUCCESS);
+        metrics.recordFlush(System.nanoTime() - writeStart, count[0]);
+        metrics.addRecords(count[0], flowFile.getSize());
+        return drained[0];
+    }
+
+    /*
+     * Prints the header line: the name, type and properties of every column,
+     * separated by pipes.  Package-private for the benchmarks.
+     */
+    static void printHeader(CSVPrinter printer, Type type) throws IOException {
+        List<String> fields = new ArrayList<>();
+
+        for (Type.Column attribute : type.getColumns()) {
+            String field = attribute.getName() + "|";
+
+            if (attribute.getType() == Double.TYPE) {
+                field += "double";
+            } else if (attribute.getType() == Float.TYPE) {
+                field += "float";
+            } else if (attribute.getType() == Integer.TYPE) {
+                field += "int";
+            } else if (attribute.getType() == Long.TYPE) {
+                field += "long";
+            } else {
+                field += "string";
+            }
+
+            for (String annotation : attribute.getProperties()) {
+                field += "|" + annotation;
+            }
+
+            fields.add(field);
+        }
+
+        printer.printRecord(fields);
+    }
+
+    /*
+     * Prints one record, reusing the given list for its fields.
+     * Package-private for the benchmarks.
+     */
+    static void printRecord(CSVPrinter printer, GenericRecord object, List<String> fields) throws IOException {
+        fields.clear();
+
+        for (int i = 0; i < object.getSchema().getFields().size(); i++) {
+            fields.add(object.get(i).toString());
+        }
+
+        printer.printRecord(fields);
+    }
+
+    /*
+     * Decodes a record received from the table monitor and projects it on
+     * the Columns; returns null if it doesn't match the Filter or, after
+     * logging why, can't be decoded.
+     */
+    private GenericRecord decode(byte[] data) {
+        final long start = System.nanoTime();
+        try {
+            return recordFilter.apply(Avro.<GenericRecord>decode(objectType.getSchema(), ByteBuffer.wrap(data)));
+        } catch (GPUdbException ex) {
+            getLogger().error("Unable to decode a record from set {}", new Object[] { set }, ex);
+            metrics.addFailures(1);
+            return null;
+        } finally {
+            metrics.recordConversion(System.nanoTime() - start);
+        }
     }
 }
@@ -0,0 +1,388 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming tokenizer for delimited text.  Records are read one at a time
+ * straight off the underlying reader, so quoted fields may span multiple
+ * lines and the file never has to be split into lines first.  The field
+ * array and the character buffers are reused from one record to the next;
+ * the values returned by {@link #getField(int)} and {@link #getRawRecord()}
+ * are only valid until the next call to {@link #nextRecord()}.
+ *
+ * The parsing rules follow those of the commons-csv DEFAULT format that the
+ * processors used previously: empty lines are skipped, a doubled quote
+ * inside a quoted field is a literal quote, and when an escape character is
+ * given it escapes the character that follows it both inside and outside of
+ * quotes.
+ */
+public class KineticaCSVReader implements Closeable {
+
+    /**
+     * Marker for "no quote" or "no escape" character
+     */
+    public static final int NONE = -1;
+
+    private static final int END_OF_STREAM = -1;
+    private static final int BUFFER_SIZE   = 64 * 1024;
+    private static final int CR = '\r';
+    private static final int LF = '\n';
+
+    private final Reader reader;
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+
+    private final char[] buffer = new char[ BUFFER_SIZE ];
+    private int position = 0;
+    private int limit    = 0;
+
+    // Start of the not yet copied part of the current record's raw text
+    private int rawStart = 0;
+    private final StringBuilder rawRecord = new StringBuilder();
+    private final StringBuilder field     = new StringBuilder();
+
+    private String[] fields = new String[ 16 ];
+    private int fieldCount = 0;
+
+    private long recordNumber = 0;
+    private long lineNumber   = 1;
+    private long recordLineNumber = 0;
+    private String malformedReason = null;
+
+    /**
+     * @param reader     the source of the delimited text
+     * @param delimiter  the field delimiter
+     * @param quote      the quote character, or {@link #NONE}
+     * @param escape     the escape character, or {@link #NONE}; an escape
+     *                   character equal to the quote character is ignored
+     *                   (quotes are then escaped by doubling them)
+     */
+    public KineticaCSVReader( Reader reader, char delimiter, int quote, int escape ) {
+        this.reader    = reader;
+        this.delimiter = delimiter;
+        this.quote     = quote;
+        this.escape    = (escape == quote) ? NONE : escape;
+    }
+
+
+    /**
+     * Reads the next record.
+     *
+     * @return false if the end of the input was reached
+     */
+    public boolean nextRecord() throws IOException {
+        fieldCount      = 0;
+        malformedReason = null;
+        rawRecord.setLength( 0 );
+        field.setLength( 0 );
+
+        int c = read();
+
+        // Skip any empty lines
+        while ( (c == CR) || (c == LF) ) {
+            if ( c == LF ) {
+                ++lineNumber;
+            }
+            rawStart = position;
+            c = read();
+        }
+
+        if ( c == END_OF_STREAM ) {
+            return false;
+        }
+
+        recordLineNumber = lineNumber;
+        ++recordNumber;
+
+        boolean quoted = false;
+        while ( true ) {
+            if ( (c == quote) && (c != END_OF_STREAM) && !quoted && (field.length() == 0) ) {
+                quoted = true;
+                c = readQuoted();
+                if ( c == END_OF_STREAM && (malformedReason != null) ) {
+                    addField();
+                    endRecord( false );
+                    return true;
+                }
+                // Only a delimiter or the end of the record may follow the
+                // closing quote
+                if ( (c != delimiter) && (c != CR) && (c != LF) && (c != END_OF_STREAM) ) {
+                    malformedReason = "invalid character '" + (char) c
+                                      + "' between the closing quote and the delimiter";
+                    skipToEndOfRecord( c );
+                    addField();
+                    return true;
+                }
+                continue;
+            }
+
+            if ( c == delimiter ) {
+                addField();
+                quoted = false;
+            } else if ( (c == CR) || (c == LF) || (c == END_OF_STREAM) ) {
+                addField();
+                endRecord( c == CR );
+                if ( c == LF ) {
+                    ++lineNumber;
+                }
+                return true;
+            } else if ( c == escape ) {
+                if ( !appendEscaped() ) {
+                    addField();
+                    endRecord( false );
+                    return true;
+                }
+            } else {
+                field.append( (char) c );
+            }
+            c = read();
+        }
+    }
+
+
+    /**
+     * @return the number of fields in the current record
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+
+    /**
+     * @return the value of the given field of the current record
+     */
+    public String getField( int index ) {
+        if ( index >= fieldCount ) {
+            throw new IndexOutOfBoundsException( "Field " + index + " requested from a record with "
+                                                 + fieldCount + " fields" );
+        }
+        return fields[ index ];
+    }
+
+
+    /**
+     * @return the text of the current record exactly as it appeared in the
+     *         input, without the trailing line terminator
+     */
+    public String getRawRecord() {
+        return rawRecord.toString();
+    }
+
+
+    /**
+     * @return the ordinal (starting at 1) of the current record
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+
+    /**
+     * @return the line (starting at 1) on which the current record began
+     */
+    public long getLineNumber() {
+        return recordLineNumber;
+    }
+
+
+    /**
+     * @return whether the current record could not be tokenized; the fields
+     *         of such a record should not be used
+     */
+    public boolean isMalformed() {
+        return (malformedReason != null);
+    }
+
+
+    /**
+     * @return why the current record could not be tokenized, or null
+     */
+    public String getMalformedReason() {
+        return malformedReason;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+
+    /**
+     * Reads the rest of a quoted value into the current field.
+     *
+     * @return the character following the closing quote
+     */
+    private int readQuoted() throws IOException {
+        while ( true ) {
+            int c = read();
+            if ( c == END_OF_STREAM ) {
+                malformedReason = "end of input reached inside a quoted value";
+                return END_OF_STREAM;
+            }
+            if ( c == quote ) {
+                int next = read();
+                if ( next != quote ) {
+                    return next;
+                }
+                // A doubled quote is a literal quote
+                field.append( (char) quote );
+            } else if ( c == escape ) {
+                if ( !appendEscaped() ) {
+                    malformedReason = "end of input reached inside a quoted value";
+                    return END_OF_STREAM;
+                }
+            } else {
+                if ( c == LF ) {
+                    ++lineNumber;
+                }
+                field.append( (char) c );
+            }
+        }
+    }
+
+
+    /**
+     * Appends the character following an escape character to the current
+     * field, translating the usual control character mnemonics.  As in
+     * commons-csv, only the delimiter, the quote and escape characters and
+     * the control characters themselves can be escaped; before any other
+     * character the escape character is kept.
+     *
+     * @return false if the input ended right after the escape character
+     */
+    private boolean appendEscaped() throws IOException {
+        int c = read();
+        switch ( c ) {
+            case END_OF_STREAM:
+                field.append( (char) escape );
+                return false;
+            case 'r':
+                field.append( '\r' );
+                break;
+            case 'n':
+                field.append( '\n' );
+                break;
+            case 't':
+                field.append( '\t' );
+                break;
+            case 'b':
+                field.append( '\b' );
+                break;
+            case 'f':
+                field.append( '\f' );
+                break;
+            case LF:
+                ++lineNumber;
+                field.append( (char) c );
+                break;
+            case CR:
+            case '\t':
+            case '\b':
+            case '\f':
+                field.append( (char) c );
+                break;
+            default:
+                if ( (c != delimiter) && (c != quote) && (c != escape) ) {
+                    field.append( (char) escape );
+                }
+                field.append( (char) c );
+        }
+        return true;
+    }
+
+
+    /**
+     * Consumes the remainder of a malformed record, honoring quotes so that
+     * we resynchronize on a real record boundary.
+     */
+    private void skipToEndOfRecord( int c ) throws IOException {
+        boolean inQuotes = false;
+        while ( c != END_OF_STREAM ) {
+            if ( c == quote ) {
+                inQuotes = !inQuotes;
+            } else if ( c == LF ) {
+                if ( !inQuotes ) {
+                    endRecord( false );
+                    ++lineNumber;
+                    return;
+                }
+                ++lineNumber;
+            } else if ( (c == CR) && !inQuotes ) {
+                endRecord( true );
+                return;
+            }
+            c = read();
+        }
+        endRecord( false );
+    }
+
+
+    private void addField() {
+        if ( fieldCount == fields.length ) {
+            String[] grown = new String[ fields.length * 2 ];
+            System.arraycopy( fields, 0, grown, 0, fieldCount );
+            fields = grown;
+        }
+        fields[ fieldCount++ ] = (field.length() == 0) ? "" : field.toString();
+        field.setLength( 0 );
+    }
+
+
+    /**
+     * Completes the raw text of the current record; the terminator that was
+     * just read (if any) is not part of it.
+     */
+    private void endRecord( boolean consumeLineFeed ) throws IOException {
+        // At the end of the input everything has already been copied by
+        // read(); otherwise the last character read was the terminator
+        int length = position - 1 - rawStart;
+        if ( length > 0 ) {
+            rawRecord.append( buffer, rawStart, length );
+        }
+        rawStart = position;
+
+        // Treat CR LF as a single terminator
+        if ( consumeLineFeed ) {
+            if ( (position == limit) && !fill() ) {
+                return;
+            }
+            if ( buffer[ position ] == LF ) {
+                ++position;
+            }
+            ++lineNumber;
+            rawStart = position;
+        }
+    }
+
+
+    private int read() throws IOException {
+        if ( position >= limit ) {
+            // Keep the part of the record that is about to be overwritten
+            if ( limit > rawStart ) {
+                rawRecord.append( buffer, rawStart, limit - rawStart );
+            }
+            if ( !fill() ) {
+                return END_OF_STREAM;
+            }
+        }
+        return buffer[ position++ ];
+    }
+
+
+    private boolean fill() throws IOException {
+        int count = reader.read( buffer, 0, buffer.length );
+        position = 0;
+        rawStart = 0;
+        if ( count <= 0 ) {
+            limit = 0;
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+}  // end class KineticaCSVReader
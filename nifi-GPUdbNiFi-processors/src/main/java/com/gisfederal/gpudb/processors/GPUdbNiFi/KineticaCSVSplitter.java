@@ -0,0 +1,243 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits delimited text into chunks that each hold whole records, so that
+ * the chunks can be tokenized independently (and concurrently) with a
+ * {@link KineticaCSVReader} each, giving the same records as a single
+ * reader over the whole text.
+ *
+ * Finding the record boundaries only needs a light scan that tracks whether
+ * the current position is inside a quoted value; it follows the same rules
+ * as {@link KineticaCSVReader}, including the way it resynchronizes after a
+ * malformed record.  The scan works on decoded characters, so any charset
+ * can be split.
+ */
+public class KineticaCSVSplitter {
+
+    /**
+     * A run of whole records
+     */
+    public static final class Chunk {
+        private final long index;
+        private final char[] data;
+        private final int length;
+
+        private Chunk( long index, char[] data, int length ) {
+            this.index  = index;
+            this.data   = data;
+            this.length = length;
+        }
+
+        /**
+         * @return the position of the chunk in the text, starting at 0
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        public char[] getData() {
+            return data;
+        }
+
+        /**
+         * @return the number of characters of the data that belong to the
+         *         chunk
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+
+    // Scanner states
+    private static final int RECORD_START     = 0;
+    private static final int FIELD_START      = 1;
+    private static final int FIELD            = 2;
+    private static final int ESCAPED          = 3;
+    private static final int QUOTED           = 4;
+    private static final int QUOTED_ESCAPED   = 5;
+    private static final int QUOTE_IN_QUOTED  = 6;
+    private static final int MALFORMED        = 7;
+    private static final int MALFORMED_QUOTED = 8;
+
+    private final Reader reader;
+    private final int delimiter;
+    private final int quote;
+    private final int escape;
+    private final int chunkSize;
+
+    private char[] buffer;
+    private int length   = 0;
+    private int scanned  = 0;
+    private int boundary = 0;
+    private int state    = RECORD_START;
+    private boolean endOfStream = false;
+    private long chunkCount = 0;
+
+
+    /**
+     * @param reader     the source of the delimited text
+     * @param delimiter  the field delimiter
+     * @param quote      the quote character, or {@link KineticaCSVReader#NONE}
+     * @param escape     the escape character, or {@link KineticaCSVReader#NONE}
+     * @param chunkSize  the number of characters per chunk; a chunk is only
+     *                   larger when a single record is
+     */
+    public KineticaCSVSplitter( Reader reader, char delimiter, int quote, int escape, int chunkSize ) {
+        this.reader    = reader;
+        this.delimiter = delimiter;
+        this.quote     = quote;
+        this.escape    = (escape == quote) ? KineticaCSVReader.NONE : escape;
+        this.chunkSize = Math.max( chunkSize, 1 );
+        this.buffer    = new char[ this.chunkSize ];
+    }
+
+
+    /**
+     * @return the next chunk, or null once all the text has been returned
+     */
+    public Chunk next() throws IOException {
+        while ( true ) {
+            if ( endOfStream ) {
+                if ( length == 0 ) {
+                    return null;
+                }
+                // Whatever is left is the last record, terminated or not
+                return cut( length );
+            }
+
+            if ( length == buffer.length ) {
+                if ( boundary > 0 ) {
+                    return cut( boundary );
+                }
+                // A single record larger than the chunk size
+                char[] grown = new char[ buffer.length * 2 ];
+                System.arraycopy( buffer, 0, grown, 0, length );
+                buffer = grown;
+            }
+
+            int count = reader.read( buffer, length, buffer.length - length );
+            if ( count < 0 ) {
+                endOfStream = true;
+            } else {
+                length += count;
+                scan();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the first characters of the buffer as a chunk and moves the
+     * rest into a new buffer.
+     */
+    private Chunk cut( int end ) {
+        Chunk chunk = new Chunk( chunkCount++, buffer, end );
+
+        char[] next = new char[ Math.max( chunkSize, length - end ) ];
+        System.arraycopy( buffer, end, next, 0, length - end );
+        buffer   = next;
+        length  -= end;
+        scanned -= end;
+        boundary = 0;
+        return chunk;
+    }
+
+
+    /**
+     * Runs the scanner over the characters read since the last scan,
+     * remembering the position after the last record terminator.
+     */
+    private void scan() {
+        final char[] data = buffer;
+        int s = state;
+        for ( int i = scanned; i < length; ++i ) {
+            final char c = data[ i ];
+            switch ( s ) {
+                case RECORD_START:
+                case FIELD_START:
+                    if ( (c == '\r') || (c == '\n') ) {
+                        // The end of a record, or an empty line
+                        s = RECORD_START;
+                        boundary = i + 1;
+                    } else if ( c == quote ) {
+                        s = QUOTED;
+                    } else if ( c == delimiter ) {
+                        s = FIELD_START;
+                    } else if ( c == escape ) {
+                        s = ESCAPED;
+                    } else {
+                        s = FIELD;
+                    }
+                    break;
+
+                case FIELD:
+                    if ( (c == '\r') || (c == '\n') ) {
+                        s = RECORD_START;
+                        boundary = i + 1;
+                    } else if ( c == delimiter ) {
+                        s = FIELD_START;
+                    } else if ( c == escape ) {
+                        s = ESCAPED;
+                    }
+                    break;
+
+                case ESCAPED:
+                    s = FIELD;
+                    break;
+
+                case QUOTED:
+                    if ( c == quote ) {
+                        s = QUOTE_IN_QUOTED;
+                    } else if ( c == escape ) {
+                        s = QUOTED_ESCAPED;
+                    }
+                    break;
+
+                case QUOTED_ESCAPED:
+                    s = QUOTED;
+                    break;
+
+                case QUOTE_IN_QUOTED:
+                    if ( c == quote ) {
+                        // A doubled quote
+                        s = QUOTED;
+                    } else if ( (c == '\r') || (c == '\n') ) {
+                        s = RECORD_START;
+                        boundary = i + 1;
+                    } else if ( c == delimiter ) {
+                        s = FIELD_START;
+                    } else {
+                        // Junk after the closing quote: the reader skips to
+                        // the end of the record, toggling on every quote
+                        s = MALFORMED;
+                    }
+                    break;
+
+                case MALFORMED:
+                    if ( c == quote ) {
+                        s = MALFORMED_QUOTED;
+                    } else if ( (c == '\r') || (c == '\n') ) {
+                        s = RECORD_START;
+                        boundary = i + 1;
+                    }
+                    break;
+
+                case MALFORMED_QUOTED:
+                    if ( c == quote ) {
+                        s = MALFORMED;
+                    }
+                    break;
+
+                default:
+                    throw new IllegalStateException( "Unknown scanner state " + s );
+            }
+        }
+        state   = s;
+        scanned = length;
+    }
+
+}  // end class KineticaCSVSplitter
@@ -0,0 +1,25 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.controller.ControllerService;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import com.gpudb.GPUdb;
+
+/**
+ * Provides a connection to Kinetica that is shared by all the processors
+ * referencing the service, so that they reuse the same pool of keep-alive
+ * HTTP connections instead of each opening their own.
+ */
+@Tags({ "Kinetica", "connection", "pooling" })
+@CapabilityDescription("Provides a shared, pooled connection to Kinetica.")
+public interface KineticaConnectionService extends ControllerService {
+
+    /**
+     * @return the shared connection; it is safe to use from several threads
+     * @throws ProcessException if the service is not enabled
+     */
+    GPUdb getConnection() throws ProcessException;
+
+}  // end interface KineticaConnectionService
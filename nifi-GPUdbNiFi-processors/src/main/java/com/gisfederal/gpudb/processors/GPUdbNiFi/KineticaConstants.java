@@ -8,12 +8,24 @@ package com.gisfederal.gpudb.processors.GPUdbNiFi;
 public final class KineticaConstants {
     public static final String SERVER_URL = "Server URL";
 
+    public static final String CONNECTION_SERVICE = "Kinetica Connection Service";
+
+    public static final String TIMEOUT = "Timeout";
+
+    public static final String MAX_TOTAL_CONNECTIONS = "Max Total Connections";
+
+    public static final String MAX_CONNECTIONS_PER_HOST = "Max Connections per Host";
+
+    public static final String USE_COMPRESSION = "Use Compression";
+
     public static final String COLLECTION_NAME = "Collection Name";
     
     public static final String TABLE_NAME = "Table Name";
 
     public static final String TABLE_MONITOR_URL = "Table Monitor URL";
 
+    public static final String TABLE_MONITOR_SERVICE = "Kinetica Table Monitor Service";
+
     public static final String SCHEMA = "Schema";
 
     public static final String DELIMITER = "Delimiter";
@@ -26,8 +38,66 @@ public final class KineticaConstants {
 
     public static final String BATCH_SIZE = "Batch Size";
 
+    public static final String MAX_LINGER_TIME = "Max Linger Time";
+
+    public static final String MAX_RETRIES = "Max Retries";
+
+    public static final String RETRY_BACKOFF = "Retry Backoff";
+
     public static final String SKIP_ERRORS = "Skip Errors";
 
+    public static final String PARSE_THREADS = "Parse Threads";
+
+    public static final String ERROR_REASON_COLUMNS = "Error Reason Columns";
+
+    public static final String MAX_FAILURE_SIZE = "Max Failure Output Size";
+
+    public static final String BUFFER_MAX_RECORDS = "Buffer Max Records";
+
+    public static final String BUFFER_MAX_SIZE = "Buffer Max Size";
+
+    public static final String BUFFER_FULL_STRATEGY = "Buffer Full Strategy";
+
+    public static final String OUTPUT_FORMAT = "Output Format";
+
+    public static final String JSON_FORMAT = "JSON Format";
+
+    public static final String COMPRESSION_CODEC = "Compression Codec";
+
+    public static final String INITIAL_SNAPSHOT = "Initial Snapshot";
+
+    public static final String SNAPSHOT_PAGE_SIZE = "Snapshot Page Size";
+
+    public static final String SNAPSHOT_THREADS = "Snapshot Threads";
+
+    public static final String FILTER_EXPRESSION = "Filter Expression";
+
+    public static final String COLUMNS = "Columns";
+
+    public static final String FILTER = "Filter";
+
+    public static final String PAGE_SIZE = "Page Size";
+
+    public static final String FETCH_THREADS = "Fetch Threads";
+
+    public static final String SQL_STATEMENT = "SQL Statement";
+
+    public static final String MAX_ROWS_PER_FLOWFILE = "Max Rows per FlowFile";
+
+    public static final String PREFETCH_NEXT_PAGE = "Prefetch Next Page";
+
+    public static final String MAX_RECORDS_PER_FLOWFILE = "Max Records per FlowFile";
+
+    public static final String MAX_BYTES_PER_FLOWFILE = "Max Bytes per FlowFile";
+
+    public static final String RECORD_READER = "Record Reader";
+
+    public static final String RECORD_WRITER = "Record Writer";
+
+    public static final String METRICS_PORT = "Port";
+
+    public static final String METRICS_PATH = "Path";
+
     public static final String USERNAME = "Username";
 
     public static final String PASSWORD = "Password";
@@ -44,4 +114,6 @@ public final class KineticaConstants {
 
     public static final String FAILURE = "failure";
 
+    public static final String ORIGINAL = "original";
+
 }
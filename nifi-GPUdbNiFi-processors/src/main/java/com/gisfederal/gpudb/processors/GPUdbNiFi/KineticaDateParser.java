@@ -0,0 +1,460 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parses timestamp values into epoch milliseconds for a given Date Format
+ * and Timezone.
+ *
+ * Parsers are immutable and cached per (Date Format, Timezone) pair, so the
+ * pattern is compiled and the timezone resolved only once, and a single
+ * instance can be shared by any number of concurrent tasks.  Values are
+ * handled in this order:
+ *
+ * - integer values are epoch milliseconds (or seconds, with a Date Format of
+ *   {@link #EPOCH_SECONDS}), unless the pattern itself only produces digits
+ * - with no Date Format, or one of {@link #ISO_8601}, values are parsed as
+ *   ISO-8601 date/times without going through a formatter
+ * - otherwise, if every field of the pattern means the same to java.time
+ *   as to SimpleDateFormat, it is applied with a java.time formatter; values
+ *   the formatter rejects are retried with a (per-thread) lenient
+ *   SimpleDateFormat so that inputs accepted before keep working
+ * - other patterns (two-digit years, fractions other than SSS, week based
+ *   fields, ...) are only applied with the SimpleDateFormat, so that they
+ *   keep parsing the same way
+ */
+public final class KineticaDateParser {
+
+    /**
+     * Date Format value for values given in epoch milliseconds
+     */
+    public static final String EPOCH_MILLIS = "epoch_millis";
+
+    /**
+     * Date Format value for values given in (possibly fractional) epoch seconds
+     */
+    public static final String EPOCH_SECONDS = "epoch_seconds";
+
+    /**
+     * Date Format value for ISO-8601 date/times, e.g. 2017-06-05T10:15:30.250Z
+     */
+    public static final String ISO_8601 = "iso8601";
+
+    private static final ConcurrentMap<String, KineticaDateParser> CACHE = new ConcurrentHashMap<>();
+
+    private final String dateFormat;
+    private final ZoneId zone;
+    private final ZoneOffset fixedOffset;
+    private final boolean epochSeconds;
+    private final boolean iso;
+    private final boolean numericPattern;
+    private final DateTimeFormatter formatter;
+    private final ThreadLocal<SimpleDateFormat> legacyFormat;
+
+
+    /**
+     * @param dateFormat  the Date Format property value; may be null
+     * @param timeZone    the Timezone property value; null for the local timezone
+     * @return the shared parser for the given format and timezone
+     */
+    public static KineticaDateParser get( String dateFormat, String timeZone ) {
+        String key = dateFormat + '\u0000' + timeZone;
+        KineticaDateParser parser = CACHE.get( key );
+        if ( parser == null ) {
+            parser = new KineticaDateParser( dateFormat, timeZone );
+            KineticaDateParser existing = CACHE.putIfAbsent( key, parser );
+            if ( existing != null ) {
+                parser = existing;
+            }
+        }
+        return parser;
+    }
+
+
+    private KineticaDateParser( final String dateFormat, final String timeZone ) {
+        // TimeZone (rather than ZoneId) accepts the short ids, e.g. EST,
+        // that the Timezone property has always allowed
+        final TimeZone timezone = (timeZone == null) ? TimeZone.getDefault() : TimeZone.getTimeZone( timeZone );
+
+        this.dateFormat   = dateFormat;
+        this.zone         = timezone.toZoneId();
+        this.fixedOffset  = zone.getRules().isFixedOffset() ? zone.getRules().getOffset( Instant.EPOCH ) : null;
+        this.epochSeconds = EPOCH_SECONDS.equalsIgnoreCase( dateFormat );
+        this.iso          = (dateFormat == null) || ISO_8601.equalsIgnoreCase( dateFormat );
+
+        boolean isPattern = !iso && !epochSeconds && !EPOCH_MILLIS.equalsIgnoreCase( dateFormat );
+        this.numericPattern = isPattern && isNumericPattern( dateFormat );
+
+        DateTimeFormatter compiled = null;
+        if ( isPattern && isSameInJavaTime( dateFormat ) ) {
+            try {
+                DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder()
+                    .parseCaseInsensitive()
+                    .appendPattern( dateFormat );
+                // SimpleDateFormat treats a 12-hour field without an AM/PM
+                // marker as AM; java.time would refuse to resolve it
+                if ( usesPatternLetter( dateFormat, "hK" ) && !usesPatternLetter( dateFormat, "a" ) ) {
+                    builder.parseDefaulting( ChronoField.AMPM_OF_DAY, 0 );
+                }
+                compiled = builder.toFormatter().withResolverStyle( ResolverStyle.LENIENT );
+            } catch (IllegalArgumentException ex) {
+                // Pattern letters java.time doesn't know; use the legacy parser
+                compiled = null;
+            }
+        }
+        this.formatter = compiled;
+
+        boolean isLegacyPattern = isPattern;
+        if ( isPattern ) {
+            try {
+                new SimpleDateFormat( dateFormat );
+            } catch (IllegalArgumentException ex) {
+                isLegacyPattern = false;
+            }
+        }
+
+        this.legacyFormat = !isLegacyPattern ? null : new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                SimpleDateFormat parser = new SimpleDateFormat();
+                parser.setLenient( true );
+                parser.applyPattern( dateFormat );
+                parser.setTimeZone( timezone );
+                return parser;
+            }
+        };
+    }
+
+
+    public String getDateFormat() {
+        return dateFormat;
+    }
+
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+
+    /**
+     * @return the timestamp in epoch milliseconds, or null if the value
+     *         cannot be parsed
+     */
+    public Long parse( String value ) {
+        if ( value == null ) {
+            return null;
+        }
+
+        if ( !numericPattern && isInteger( value ) ) {
+            try {
+                long number = Long.parseLong( value );
+                return epochSeconds ? (number * 1000) : number;
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        if ( epochSeconds ) {
+            try {
+                return (long) Math.floor( Double.parseDouble( value ) * 1000 );
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        if ( iso ) {
+            return parseIso( value );
+        }
+
+        if ( formatter != null ) {
+            try {
+                Long timestamp = resolve( formatter.parse( value ) );
+                if ( timestamp != null ) {
+                    return timestamp;
+                }
+            } catch (RuntimeException ex) {
+                // Fall through to the legacy parser
+            }
+        }
+
+        if ( legacyFormat != null ) {
+            Date date = legacyFormat.get().parse( value, new ParsePosition( 0 ) );
+            if ( date != null ) {
+                return date.getTime();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Converts the fields parsed by the formatter into epoch milliseconds,
+     * using the parsed zone or offset if any and the configured zone
+     * otherwise; a missing time of day means midnight.
+     */
+    private Long resolve( TemporalAccessor parsed ) {
+        LocalDate date = parsed.query( TemporalQueries.localDate() );
+        if ( date == null ) {
+            return null;
+        }
+        LocalTime time = parsed.query( TemporalQueries.localTime() );
+        if ( time == null ) {
+            time = LocalTime.MIDNIGHT;
+        }
+
+        ZoneId valueZone = parsed.query( TemporalQueries.zoneId() );
+        if ( valueZone == null ) {
+            valueZone = parsed.query( TemporalQueries.offset() );
+        }
+        if ( valueZone == null ) {
+            valueZone = zone;
+        }
+        return LocalDateTime.of( date, time ).atZone( valueZone ).toInstant().toEpochMilli();
+    }
+
+
+    /**
+     * Parses yyyy-MM-dd[(T| )HH:mm[:ss[.fraction]]][Z|(+|-)HH[[:]mm]] without
+     * any intermediate objects (except to look up a non-fixed zone offset).
+     */
+    private Long parseIso( String value ) {
+        final int length = value.length();
+        if ( (length < 10) || (value.charAt( 4 ) != '-') || (value.charAt( 7 ) != '-') ) {
+            return null;
+        }
+        int year  = digits( value, 0, 4 );
+        int month = digits( value, 5, 2 );
+        int day   = digits( value, 8, 2 );
+        if ( (year < 0) || (month < 1) || (month > 12) || (day < 1) || (day > lengthOfMonth( year, month )) ) {
+            return null;
+        }
+
+        int hour = 0, minute = 0, second = 0, nanos = 0;
+        int pos = 10;
+        if ( (pos < length) && ((value.charAt( pos ) == 'T') || (value.charAt( pos ) == 't') || (value.charAt( pos ) == ' ')) ) {
+            if ( (length < pos + 6) || (value.charAt( pos + 3 ) != ':') ) {
+                return null;
+            }
+            hour   = digits( value, pos + 1, 2 );
+            minute = digits( value, pos + 4, 2 );
+            pos += 6;
+            if ( (pos < length) && (value.charAt( pos ) == ':') ) {
+                second = digits( value, pos + 1, 2 );
+                pos += 3;
+                if ( (pos < length) && ((value.charAt( pos ) == '.') || (value.charAt( pos ) == ',')) ) {
+                    int scale = 100000000;
+                    ++pos;
+                    int start = pos;
+                    while ( (pos < length) && Character.isDigit( value.charAt( pos ) ) ) {
+                        if ( scale > 0 ) {
+                            nanos += (value.charAt( pos ) - '0') * scale;
+                            scale /= 10;
+                        }
+                        ++pos;
+                    }
+                    if ( pos == start ) {
+                        return null;
+                    }
+                }
+            }
+            if ( (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59) || (second < 0) || (second > 59) ) {
+                return null;
+            }
+        }
+
+        long epochDay = epochDay( year, month, day );
+        long localSeconds = (epochDay * 86400) + (hour * 3600) + (minute * 60) + second;
+        long offsetSeconds;
+
+        if ( pos == length ) {
+            if ( fixedOffset != null ) {
+                offsetSeconds = fixedOffset.getTotalSeconds();
+            } else {
+                LocalDateTime local = LocalDateTime.of( year, month, day, hour, minute, second, nanos );
+                offsetSeconds = zone.getRules().getOffset( local ).getTotalSeconds();
+            }
+        } else {
+            char sign = value.charAt( pos );
+            if ( ((sign == 'Z') || (sign == 'z')) && (pos + 1 == length) ) {
+                offsetSeconds = 0;
+            } else if ( (sign == '+') || (sign == '-') ) {
+                int offsetHours = digits( value, pos + 1, 2 );
+                int offsetMinutes = 0;
+                int next = pos + 3;
+                if ( (next < length) && (value.charAt( next ) == ':') ) {
+                    ++next;
+                }
+                if ( next < length ) {
+                    offsetMinutes = digits( value, next, 2 );
+                    next += 2;
+                }
+                if ( (offsetHours < 0) || (offsetHours > 18) || (offsetMinutes < 0) || (offsetMinutes > 59) || (next != length) ) {
+                    return null;
+                }
+                offsetSeconds = (offsetHours * 3600) + (offsetMinutes * 60);
+                if ( sign == '-' ) {
+                    offsetSeconds = -offsetSeconds;
+                }
+            } else {
+                return null;
+            }
+        }
+
+        return ((localSeconds - offsetSeconds) * 1000) + (nanos / 1000000);
+    }
+
+
+    /**
+     * @return the value of the given fixed-width run of digits, or -1
+     */
+    private static int digits( String value, int start, int count ) {
+        if ( start + count > value.length() ) {
+            return -1;
+        }
+        int result = 0;
+        for ( int i = start; i < start + count; ++i ) {
+            char c = value.charAt( i );
+            if ( (c < '0') || (c > '9') ) {
+                return -1;
+            }
+            result = (result * 10) + (c - '0');
+        }
+        return result;
+    }
+
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date
+     */
+    private static long epochDay( int year, int month, int day ) {
+        long y = (month <= 2) ? (year - 1) : year;
+        long era = ((y >= 0) ? y : (y - 399)) / 400;
+        long yearOfEra = y - (era * 400);
+        long dayOfYear = ((153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5) + day - 1;
+        long dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+        return (era * 146097) + dayOfEra - 719468;
+    }
+
+
+    /**
+     * The number of days in the given month of a proleptic Gregorian year
+     */
+    private static int lengthOfMonth( int year, int month ) {
+        switch ( month ) {
+            case 2:
+                boolean leap = ((year % 4) == 0) && (((year % 100) != 0) || ((year % 400) == 0));
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+
+    private static boolean isInteger( String value ) {
+        final int length = value.length();
+        int start = ((length > 1) && (value.charAt( 0 ) == '-')) ? 1 : 0;
+        if ( start == length ) {
+            return false;
+        }
+        for ( int i = start; i < length; ++i ) {
+            char c = value.charAt( i );
+            if ( (c < '0') || (c > '9') ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return whether the pattern only consists of numeric fields with no
+     *         literals, e.g. yyyyMMddHHmmss, so that a value of all digits
+     *         is a formatted date rather than an epoch value
+     */
+    private static boolean isNumericPattern( String pattern ) {
+        for ( int i = 0; i < pattern.length(); ++i ) {
+            if ( "yuMdDHhKkmsSn".indexOf( pattern.charAt( i ) ) == -1 ) {
+                return false;
+            }
+        }
+        return (pattern.length() > 0);
+    }
+
+
+    /**
+     * @return whether java.time parses every field of the pattern as
+     *         SimpleDateFormat does: only letters meaning the same to both,
+     *         years of at least three letters (y and yy are two-digit years
+     *         to SimpleDateFormat only) and SSS (S is a fraction of a second
+     *         to java.time, but a number of milliseconds to SimpleDateFormat)
+     */
+    private static boolean isSameInJavaTime( String pattern ) {
+        boolean quoted = false;
+        int i = 0;
+        while ( i < pattern.length() ) {
+            char c = pattern.charAt( i );
+            if ( c == '\'' ) {
+                quoted = !quoted;
+                ++i;
+                continue;
+            }
+            if ( quoted || !Character.isLetter( c ) ) {
+                ++i;
+                continue;
+            }
+            int run = i;
+            while ( (i < pattern.length()) && (pattern.charAt( i ) == c) ) {
+                ++i;
+            }
+            run = i - run;
+            if ( "GyMLdDEaHkKhmsSzZX".indexOf( c ) == -1 ) {
+                return false;
+            }
+            if ( ((c == 'y') && (run < 3)) || ((c == 'S') && (run != 3)) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return whether the pattern uses any of the given letters outside of
+     *         quoted literals
+     */
+    private static boolean usesPatternLetter( String pattern, String letters ) {
+        boolean quoted = false;
+        for ( int i = 0; i < pattern.length(); ++i ) {
+            char c = pattern.charAt( i );
+            if ( c == '\'' ) {
+                quoted = !quoted;
+            } else if ( !quoted && (letters.indexOf( c ) != -1) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}  // end class KineticaDateParser
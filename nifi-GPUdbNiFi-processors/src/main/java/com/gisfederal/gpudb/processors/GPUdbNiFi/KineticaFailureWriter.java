@@ -0,0 +1,190 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.stream.io.ByteCountingOutputStream;
+
+/**
+ * Writes the bad records of a delimited file to a FlowFile of their own,
+ * through a single buffered writer, so that a file with many bad records
+ * costs one content write rather than one per record.
+ *
+ * The FlowFile is only created with the first bad record; the header line,
+ * if any, is held until then.  Optionally, every record is followed by two
+ * more columns: its number in the file and why it was rejected.  Once about
+ * the given size has been written, further bad records are only counted.
+ *
+ * Not thread-safe; used by the task loading the file.
+ */
+public class KineticaFailureWriter {
+
+    /**
+     * The names of the error reason columns in the header line
+     */
+    public static final String RECORD_NUMBER_COLUMN = "record_number";
+    public static final String ERROR_REASON_COLUMN  = "error_reason";
+
+    /**
+     * The attributes of the FlowFile: the number of bad records written to
+     * it, and whether some were left out for the size limit
+     */
+    public static final String RECORD_COUNT_ATTRIBUTE = "record.count";
+    public static final String TRUNCATED_ATTRIBUTE    = "kinetica.failure.truncated";
+
+    private final ProcessSession session;
+    private final FlowFile parent;
+    private final char delimiter;
+    private final int quote;
+    private final boolean withReasons;
+    private final long maxBytes;
+
+    private String header;
+    private FlowFile flowFile;
+    private ByteCountingOutputStream counter;
+    private Writer writer;
+    private long writtenCount = 0;
+    private long omittedCount = 0;
+
+
+    /**
+     * @param session      the session of the task
+     * @param parent       the FlowFile being loaded
+     * @param delimiter    the delimiter of the file
+     * @param quote        the quote character of the file, or
+     *                     {@link KineticaCSVReader#NONE}
+     * @param withReasons  whether to add the error reason columns
+     * @param maxBytes     the most data to write, or 0 for no limit
+     */
+    public KineticaFailureWriter( ProcessSession session, FlowFile parent, char delimiter, int quote,
+                                  boolean withReasons, long maxBytes ) {
+        this.session     = session;
+        this.parent      = parent;
+        this.delimiter   = delimiter;
+        this.quote       = quote;
+        this.withReasons = withReasons;
+        this.maxBytes    = maxBytes;
+    }
+
+
+    /**
+     * Sets the header line of the file (without the line break), written
+     * first if there are any bad records.
+     */
+    public void setHeader( String line ) {
+        this.header = line;
+    }
+
+
+    /**
+     * Adds a bad record.
+     *
+     * @param line          the record as read (without the line break)
+     * @param recordNumber  the number of the record in the file, from 1
+     * @param reason        why it was rejected
+     */
+    public void add( String line, long recordNumber, String reason ) throws IOException {
+        if ( writer == null ) {
+            open();
+        } else if ( (maxBytes > 0) && (counter.getBytesWritten() >= maxBytes) ) {
+            // The count lags behind by what the writer buffers
+            omittedCount++;
+            return;
+        }
+
+        writer.write( line );
+        if ( withReasons ) {
+            writer.write( delimiter );
+            writer.write( Long.toString( recordNumber ) );
+            writer.write( delimiter );
+            writeValue( reason );
+        }
+        writer.write( '\n' );
+        writtenCount++;
+    }
+
+
+    private void open() throws IOException {
+        flowFile = session.create( parent );
+        counter = new ByteCountingOutputStream( session.write( flowFile ) );
+        writer = new BufferedWriter( new OutputStreamWriter( counter ) );
+
+        if ( header != null ) {
+            writer.write( header );
+            if ( withReasons ) {
+                writer.write( delimiter );
+                writer.write( RECORD_NUMBER_COLUMN );
+                writer.write( delimiter );
+                writer.write( ERROR_REASON_COLUMN );
+            }
+            writer.write( '\n' );
+        }
+    }
+
+
+    /*
+     * Writes the given value as a single field: quoted if there is a quote
+     * character, otherwise with the delimiter and line breaks blanked out.
+     */
+    private void writeValue( String value ) throws IOException {
+        if ( value == null ) {
+            return;
+        }
+        if ( quote == KineticaCSVReader.NONE ) {
+            writer.write( value.replace( delimiter, ' ' ).replace( '\n', ' ' ).replace( '\r', ' ' ) );
+            return;
+        }
+        String quoteString = String.valueOf( (char) quote );
+        writer.write( quote );
+        writer.write( value.replace( quoteString, quoteString + quoteString ) );
+        writer.write( quote );
+    }
+
+
+    /**
+     * @return the number of bad records written
+     */
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+
+    /**
+     * @return the number of bad records left out for the size limit
+     */
+    public long getOmittedCount() {
+        return omittedCount;
+    }
+
+
+    /**
+     * Closes the writer.
+     *
+     * @return the FlowFile of the bad records, with its attributes set, or
+     *         null if there were none
+     */
+    public FlowFile finish() throws IOException {
+        if ( writer == null ) {
+            return null;
+        }
+        try {
+            writer.close();
+        } catch ( IOException ex ) {
+            session.remove( flowFile );
+            throw ex;
+        } finally {
+            writer = null;
+        }
+
+        flowFile = session.putAttribute( flowFile, RECORD_COUNT_ATTRIBUTE, String.valueOf( writtenCount ) );
+        if ( omittedCount > 0 ) {
+            flowFile = session.putAttribute( flowFile, TRUNCATED_ATTRIBUTE, "true" );
+        }
+        return flowFile;
+    }
+
+}  // end class KineticaFailureWriter
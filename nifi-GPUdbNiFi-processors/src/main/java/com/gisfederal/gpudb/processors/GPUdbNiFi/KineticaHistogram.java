@@ -0,0 +1,124 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size histogram of non-negative long values (durations in
+ * nanoseconds, sizes), in the style of an HDR histogram: the buckets are
+ * exact below {@link #SUB_BUCKETS}, then split every power of two into
+ * {@link #SUB_BUCKETS} linear sub-buckets, so any value up to
+ * {@code Long.MAX_VALUE} is counted with a relative error under
+ * 1 / {@link #SUB_BUCKETS}.
+ *
+ * Recording a value is a couple of shifts and two atomic increments, with no
+ * allocation and no lock, so it can be done on the hot path by any number of
+ * threads.  Reading the quantiles is approximate while values are being
+ * recorded.
+ */
+public class KineticaHistogram {
+
+    /**
+     * The number of linear sub-buckets per power of two
+     */
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    // Exact buckets for 0 to SUB_BUCKETS - 1, then SUB_BUCKETS per power of
+    // two from SUB_BUCKETS up to 2^63
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum   = new LongAdder();
+
+
+    /**
+     * Counts a value; negative values are counted as 0.
+     */
+    public void record( long value ) {
+        if ( value < 0 ) {
+            value = 0;
+        }
+        counts.incrementAndGet( bucketOf( value ) );
+        count.increment();
+        sum.add( value );
+    }
+
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    /**
+     * @return the sum of the values recorded
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+
+    /**
+     * @param quantile  between 0 and 1, e.g. 0.99
+     * @return the highest value equivalent to the value at that quantile (at
+     *         most 1 / {@link #SUB_BUCKETS} above it), or 0 if nothing was
+     *         recorded
+     */
+    public long getValueAtQuantile( double quantile ) {
+        long total = 0;
+        long[] snapshot = new long[ BUCKET_COUNT ];
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+            snapshot[ i ] = counts.get( i );
+            total += snapshot[ i ];
+        }
+        if ( total == 0 ) {
+            return 0;
+        }
+
+        // The rank of the value, from 1
+        long rank = Math.max( 1, (long) Math.ceil( Math.min( Math.max( quantile, 0 ), 1 ) * total ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+            seen += snapshot[ i ];
+            if ( seen >= rank ) {
+                return highestValueOf( i );
+            }
+        }
+        return highestValueOf( BUCKET_COUNT - 1 );
+    }
+
+
+    /**
+     * @return the bucket a value is counted in
+     */
+    static int bucketOf( long value ) {
+        if ( value < SUB_BUCKETS ) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+
+    /**
+     * @return the highest value counted in a bucket
+     */
+    static long highestValueOf( int bucket ) {
+        if ( bucket < SUB_BUCKETS ) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long next = (subBucket + 1) << shift;
+        // The last bucket ends at Long.MAX_VALUE
+        return (next < 0) ? Long.MAX_VALUE : next - 1;
+    }
+
+}  // end class KineticaHistogram
@@ -0,0 +1,193 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.gpudb.BulkInserter;
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbException;
+import com.gpudb.Record;
+import com.gpudb.Type;
+import com.gpudb.WorkerList;
+
+/**
+ * A fixed set of bulk inserters ("stripes") for one table, shared by the
+ * concurrent tasks of a Put processor for as long as it is scheduled.
+ *
+ * A task acquires a stripe, owns it exclusively while it inserts and flushes,
+ * and releases it.  Since every stripe has its own inserter (and so its own
+ * worker queues), a flush only sends the records of the task that holds the
+ * stripe, and insert failures can be attributed to that task's records.
+ * Tasks start looking from a stripe derived from their thread, so with as
+ * many stripes as concurrent tasks they rarely contend for the same one.
+ *
+ * The worker list is fetched once and shared by all the stripes.
+ */
+public class KineticaInserterPool {
+
+    /**
+     * One bulk inserter and the lock that grants exclusive use of it
+     */
+    public static final class Stripe {
+        private final KineticaInserterPool pool;
+        private final int index;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Only replaced while the stripe is held; the lock publishes it
+        private BulkInserter<Record> inserter;
+
+        private Stripe( KineticaInserterPool pool, int index ) throws GPUdbException {
+            this.pool     = pool;
+            this.index    = index;
+            this.inserter = pool.newInserter();
+        }
+
+        /**
+         * @return the position of this stripe in the pool, from 0 to
+         *         {@link KineticaInserterPool#size()} - 1
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the bulk inserter; only to be used while the stripe is held
+         */
+        public BulkInserter<Record> getInserter() {
+            return inserter;
+        }
+
+        /**
+         * @return the number of records the inserter has sent and Kinetica
+         *         inserted or updated so far; only to be used while the
+         *         stripe is held
+         */
+        public long getSentCount() {
+            return inserter.getCountInserted() + inserter.getCountUpdated();
+        }
+
+        /**
+         * Throws away the records queued in the inserter and not sent yet,
+         * by replacing it with a new one; only to be used while the stripe
+         * is held.  The batches already sent stay inserted.
+         */
+        public void discardQueued() throws GPUdbException {
+            inserter = pool.newInserter();
+        }
+
+        /**
+         * Gives up the exclusive use of the stripe.
+         */
+        public void release() {
+            lock.unlock();
+        }
+    }
+
+
+    private final GPUdb gpudb;
+    private final String tableName;
+    private final Type type;
+    private final int batchSize;
+    private final Map<String, String> options;
+    private final Stripe[] stripes;
+    private final WorkerList workers;
+    private final int workerCount;
+
+
+    /**
+     * @param gpudb      the connection to Kinetica
+     * @param tableName  the table to insert into
+     * @param type       the type of the table
+     * @param batchSize  the batch size of each inserter
+     * @param options    the insert options
+     * @param size       the number of stripes, normally the number of
+     *                   concurrent tasks of the processor
+     */
+    public KineticaInserterPool( GPUdb gpudb, String tableName, Type type, int batchSize,
+                                 Map<String, String> options, int size ) throws GPUdbException {
+        this.gpudb       = gpudb;
+        this.tableName   = tableName;
+        this.type        = type;
+        this.batchSize   = batchSize;
+        this.options     = options;
+        this.workers     = new WorkerList( gpudb );
+        this.workerCount = Math.max( workers.size(), 1 );
+        this.stripes     = new Stripe[ Math.max( size, 1 ) ];
+        for ( int i = 0; i < stripes.length; ++i ) {
+            stripes[ i ] = new Stripe( this, i );
+        }
+    }
+
+
+    private BulkInserter<Record> newInserter() throws GPUdbException {
+        return new BulkInserter<Record>( gpudb, tableName, type, batchSize, options, workers );
+    }
+
+
+    /**
+     * @return the number of stripes
+     */
+    public int size() {
+        return stripes.length;
+    }
+
+
+    /**
+     * @return the number of worker queues of each inserter (one per worker
+     *         rank, or one if multi-head ingest is not available)
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+
+    /**
+     * @return the URLs of the worker ranks the inserters send to, from rank
+     *         1; empty if multi-head ingest is not available
+     */
+    public List<URL> getWorkers() {
+        return Collections.unmodifiableList( workers );
+    }
+
+
+    /**
+     * Acquires a free stripe, preferring the one associated with the calling
+     * thread; if all of them are in use, waits for that one.  The stripe must
+     * be released with {@link Stripe#release()}.
+     */
+    public Stripe acquire() {
+        final int home = (int) (Thread.currentThread().getId() % stripes.length);
+        for ( int i = 0; i < stripes.length; ++i ) {
+            Stripe stripe = stripes[ (home + i) % stripes.length ];
+            if ( stripe.lock.tryLock() ) {
+                return stripe;
+            }
+        }
+        stripes[ home ].lock.lock();
+        return stripes[ home ];
+    }
+
+
+    /**
+     * Acquires the given stripe if it is not in use.
+     *
+     * @return the stripe, or null if another task holds it
+     */
+    public Stripe tryAcquire( int index ) {
+        Stripe stripe = stripes[ index ];
+        return stripe.lock.tryLock() ? stripe : null;
+    }
+
+
+    /**
+     * Acquires the given stripe, waiting for it if it is in use.
+     */
+    public Stripe acquire( int index ) {
+        stripes[ index ].lock.lock();
+        return stripes[ index ];
+    }
+
+}  // end class KineticaInserterPool
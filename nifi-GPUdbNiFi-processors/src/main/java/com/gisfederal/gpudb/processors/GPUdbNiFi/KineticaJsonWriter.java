@@ -0,0 +1,311 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonEncoder;
+
+/**
+ * Streams records as JSON, either one object per line (JSON Lines) or as a
+ * single array of objects.
+ *
+ * The records are written as Avro's JSON encoding does, i.e. a non-null
+ * value of a nullable column is wrapped in an object naming its type, such as
+ * <code>{"string":"abc"}</code>.  When every column of the table is of a
+ * primitive type other than bytes (possibly nullable), which is the case for
+ * most tables, the records are serialized directly from a plan compiled once
+ * from the schema; otherwise they go through an Avro JSON encoder.  Either
+ * way the encoder, or plan, is created once for all the records of a
+ * FlowFile.
+ */
+public class KineticaJsonWriter {
+
+    /**
+     * How the records are laid out
+     */
+    public enum Format {
+        /** One object per line */
+        LINES,
+        /** A single array holding all the objects */
+        ARRAY
+    }
+
+
+    // Column kinds for direct serialization
+    private static final int BOOLEAN = 0;
+    private static final int INT     = 1;
+    private static final int LONG    = 2;
+    private static final int FLOAT   = 3;
+    private static final int DOUBLE  = 4;
+    private static final int STRING  = 5;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+
+    private final Format format;
+    private final OutputStream out;
+    private long count = 0;
+
+    // For direct serialization
+    private final Writer writer;
+    private final int[] kinds;
+    private final String[] prefixes;
+    private final String[] unionPrefixes;
+    private final StringBuilder text = new StringBuilder();
+
+    // For Avro encoding
+    private final JsonEncoder encoder;
+    private final DatumWriter<Object> datumWriter;
+    private final ByteArrayOutputStream encoded;
+
+
+    /**
+     * @return whether records of the given schema can be serialized without
+     *         an Avro JSON encoder
+     */
+    public static boolean isDirectlyWritable( Schema schema ) {
+        if ( schema.getType() != Schema.Type.RECORD ) {
+            return false;
+        }
+        for ( Schema.Field field : schema.getFields() ) {
+            if ( kindOf( valueSchema( field.schema() ) ) < 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Starts writing to the given stream; call {@link #finish()} once all
+     * the records are written.
+     *
+     * @param schema  the schema of the records
+     * @param out     where to write; it is not closed
+     * @param format  how to lay out the records
+     */
+    public KineticaJsonWriter( Schema schema, OutputStream out, Format format ) throws IOException {
+        this.format = format;
+        this.out    = out;
+
+        if ( format == Format.ARRAY ) {
+            out.write( '[' );
+        }
+
+        if ( isDirectlyWritable( schema ) ) {
+            List<Schema.Field> fields = schema.getFields();
+            this.writer        = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            this.kinds         = new int[ fields.size() ];
+            this.prefixes      = new String[ fields.size() ];
+            this.unionPrefixes = new String[ fields.size() ];
+            for ( int i = 0; i < fields.size(); ++i ) {
+                Schema fieldSchema = fields.get( i ).schema();
+                Schema valueSchema = valueSchema( fieldSchema );
+                StringBuilder prefix = new StringBuilder( (i == 0) ? "{" : "," );
+                appendString( prefix, fields.get( i ).name() );
+                prefixes[ i ] = prefix.append( ':' ).toString();
+                kinds[ i ]    = kindOf( valueSchema );
+                if ( fieldSchema.getType() == Schema.Type.UNION ) {
+                    StringBuilder unionPrefix = new StringBuilder( "{" );
+                    appendString( unionPrefix, valueSchema.getFullName() );
+                    unionPrefixes[ i ] = unionPrefix.append( ':' ).toString();
+                }
+            }
+            this.encoder     = null;
+            this.datumWriter = null;
+            this.encoded     = null;
+        } else {
+            this.encoded       = new ByteArrayOutputStream();
+            this.encoder       = EncoderFactory.get().jsonEncoder( schema, encoded );
+            this.datumWriter   = new GenericDatumWriter<>( schema );
+            this.writer        = null;
+            this.kinds         = null;
+            this.prefixes      = null;
+            this.unionPrefixes = null;
+        }
+    }
+
+
+    /**
+     * Writes a record.
+     */
+    public void write( GenericRecord record ) throws IOException {
+        if ( writer == null ) {
+            // The encoder would separate the records with line breaks, so
+            // every record is encoded on its own and separated here
+            encoded.reset();
+            encoder.configure( encoded );
+            datumWriter.write( record, encoder );
+            encoder.flush();
+            if ( count > 0 ) {
+                out.write( (format == Format.ARRAY) ? ',' : '\n' );
+            }
+            encoded.writeTo( out );
+            ++count;
+            return;
+        }
+
+        if ( count > 0 ) {
+            writer.write( (format == Format.ARRAY) ? ',' : '\n' );
+        }
+        for ( int i = 0; i < kinds.length; ++i ) {
+            writer.write( prefixes[ i ] );
+            Object value = record.get( i );
+            if ( value == null ) {
+                writer.write( "null" );
+            } else if ( unionPrefixes[ i ] != null ) {
+                writer.write( unionPrefixes[ i ] );
+                writeValue( kinds[ i ], value );
+                writer.write( '}' );
+            } else {
+                writeValue( kinds[ i ], value );
+            }
+        }
+        writer.write( (kinds.length == 0) ? "{}" : "}" );
+        ++count;
+    }
+
+
+    /**
+     * Ends the output (closing the array, if any) and flushes it.
+     */
+    public void finish() throws IOException {
+        if ( writer != null ) {
+            writer.flush();
+        }
+        if ( format == Format.ARRAY ) {
+            out.write( ']' );
+        }
+        if ( (format == Format.ARRAY) || (count > 0) ) {
+            out.write( '\n' );
+        }
+        out.flush();
+    }
+
+
+    /**
+     * @return the number of records written
+     */
+    public long getCount() {
+        return count;
+    }
+
+
+    private void writeValue( int kind, Object value ) throws IOException {
+        switch ( kind ) {
+            case BOOLEAN:
+            case INT:
+            case LONG:
+                writer.write( value.toString() );
+                break;
+
+            case FLOAT:
+                writeNumber( ((Number) value).floatValue(), Float.toString( ((Number) value).floatValue() ) );
+                break;
+
+            case DOUBLE:
+                writeNumber( ((Number) value).doubleValue(), Double.toString( ((Number) value).doubleValue() ) );
+                break;
+
+            case STRING:
+                text.setLength( 0 );
+                appendString( text, value.toString() );
+                writer.append( text );
+                break;
+
+            default:
+                throw new IllegalStateException( "Unknown column kind " + kind );
+        }
+    }
+
+
+    /**
+     * Writes a number as Jackson does: NaN and the infinities are quoted
+     */
+    private void writeNumber( double value, String text ) throws IOException {
+        if ( Double.isNaN( value ) || Double.isInfinite( value ) ) {
+            writer.write( '"' );
+            writer.write( text );
+            writer.write( '"' );
+        } else {
+            writer.write( text );
+        }
+    }
+
+
+    /**
+     * Appends a quoted JSON string, escaped as Jackson does
+     */
+    private static void appendString( StringBuilder builder, String value ) {
+        builder.append( '"' );
+        for ( int i = 0; i < value.length(); ++i ) {
+            char c = value.charAt( i );
+            switch ( c ) {
+                case '"':  builder.append( "\\\"" ); break;
+                case '\\': builder.append( "\\\\" ); break;
+                case '\b': builder.append( "\\b" );  break;
+                case '\f': builder.append( "\\f" );  break;
+                case '\n': builder.append( "\\n" );  break;
+                case '\r': builder.append( "\\r" );  break;
+                case '\t': builder.append( "\\t" );  break;
+                default:
+                    if ( c < 0x20 ) {
+                        builder.append( "\\u00" ).append( HEX[ c >> 4 ] ).append( HEX[ c & 0xF ] );
+                    } else {
+                        builder.append( c );
+                    }
+            }
+        }
+        builder.append( '"' );
+    }
+
+
+    /**
+     * @return the schema of the values of a column: the non-null branch of a
+     *         nullable union, or the schema itself
+     */
+    private static Schema valueSchema( Schema schema ) {
+        if ( schema.getType() != Schema.Type.UNION ) {
+            return schema;
+        }
+        List<Schema> types = schema.getTypes();
+        if ( types.size() == 2 ) {
+            if ( types.get( 0 ).getType() == Schema.Type.NULL ) {
+                return types.get( 1 );
+            }
+            if ( types.get( 1 ).getType() == Schema.Type.NULL ) {
+                return types.get( 0 );
+            }
+        }
+        return schema;
+    }
+
+
+    /**
+     * @return the kind of the values of the given schema, or -1 if they
+     *         can't be serialized directly
+     */
+    private static int kindOf( Schema schema ) {
+        switch ( schema.getType() ) {
+            case BOOLEAN: return BOOLEAN;
+            case INT:     return INT;
+            case LONG:    return LONG;
+            case FLOAT:   return FLOAT;
+            case DOUBLE:  return DOUBLE;
+            case STRING:  return STRING;
+            default:      return -1;
+        }
+    }
+
+}  // end class KineticaJsonWriter
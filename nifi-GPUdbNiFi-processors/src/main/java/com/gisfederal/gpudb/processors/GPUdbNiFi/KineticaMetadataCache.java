@@ -0,0 +1,192 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.processor.ProcessSession;
+
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbException;
+import com.gpudb.Type;
+
+/**
+ * Caches table metadata (whether a table exists and its Type) per Kinetica
+ * server, so that the processors don't make a /has/table or /show/table
+ * round trip for every FlowFile, nor each fetch the type of the same table
+ * when they are scheduled.
+ *
+ * There is one cache per server URL and user, shared by all the processors
+ * connecting with them.  Entries expire after {@link #TTL_MILLIS}; a table
+ * that doesn't exist is never cached, so a table created elsewhere is seen
+ * right away.  Processors invalidate a table when inserts into it fail and
+ * register the tables they create.
+ *
+ * Hits and misses are counted per cache and, when a session is given to a
+ * lookup, reported as NiFi counters ({@link #HITS_COUNTER} and
+ * {@link #MISSES_COUNTER}).
+ */
+public final class KineticaMetadataCache {
+
+    /**
+     * How long table metadata is used before being fetched again
+     */
+    public static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis( 1 );
+
+    /**
+     * Name of the NiFi counter of the lookups answered by the cache
+     */
+    public static final String HITS_COUNTER = "Kinetica metadata cache hits";
+
+    /**
+     * Name of the NiFi counter of the lookups that went to Kinetica
+     */
+    public static final String MISSES_COUNTER = "Kinetica metadata cache misses";
+
+    private static final ConcurrentMap<String, KineticaMetadataCache> CACHES = new ConcurrentHashMap<>();
+
+
+    /**
+     * What is known about an existing table
+     */
+    private static final class Entry {
+        // Null until the type is first asked for
+        final Type type;
+        final long expiresAt;
+
+        Entry( Type type ) {
+            this.type      = type;
+            this.expiresAt = System.currentTimeMillis() + TTL_MILLIS;
+        }
+    }
+
+
+    private final ConcurrentMap<String, Entry> tables = new ConcurrentHashMap<>();
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * @return the shared cache of the server (and user) of the given
+     *         connection
+     */
+    public static KineticaMetadataCache get( GPUdb gpudb ) {
+        String key = gpudb.getURL() + "\u0000" + gpudb.getUsername();
+        KineticaMetadataCache cache = CACHES.get( key );
+        if ( cache == null ) {
+            cache = new KineticaMetadataCache();
+            KineticaMetadataCache existing = CACHES.putIfAbsent( key, cache );
+            if ( existing != null ) {
+                cache = existing;
+            }
+        }
+        return cache;
+    }
+
+
+    private KineticaMetadataCache() {
+    }
+
+
+    /**
+     * @param session  the session to count the lookup in; may be null
+     * @return whether the table exists
+     */
+    public boolean tableExists( GPUdb gpudb, String tableName, ProcessSession session ) throws GPUdbException {
+        if ( lookup( tableName ) != null ) {
+            count( true, session );
+            return true;
+        }
+
+        count( false, session );
+        if ( gpudb.hasTable( tableName, null ).getTableExists() ) {
+            tables.putIfAbsent( tableName, new Entry( null ) );
+            return true;
+        }
+        tables.remove( tableName );
+        return false;
+    }
+
+
+    /**
+     * @param session  the session to count the lookup in; may be null
+     * @return the type of the table
+     * @throws GPUdbException if the table doesn't exist or can't be read
+     */
+    public Type getType( GPUdb gpudb, String tableName, ProcessSession session ) throws GPUdbException {
+        Entry entry = lookup( tableName );
+        if ( (entry != null) && (entry.type != null) ) {
+            count( true, session );
+            return entry.type;
+        }
+
+        count( false, session );
+        Type type = Type.fromTable( gpudb, tableName );
+        tables.put( tableName, new Entry( type ) );
+        return type;
+    }
+
+
+    /**
+     * Records a table that was just created with the given type.
+     */
+    public void put( String tableName, Type type ) {
+        tables.put( tableName, new Entry( type ) );
+    }
+
+
+    /**
+     * Forgets what is known about the given table, e.g. after failing to
+     * insert into it.
+     */
+    public void invalidate( String tableName ) {
+        tables.remove( tableName );
+    }
+
+
+    /**
+     * Forgets all the tables of this server.
+     */
+    public void invalidateAll() {
+        tables.clear();
+    }
+
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+
+    /**
+     * @return the number of lookups that went to Kinetica
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+
+    /**
+     * @return the unexpired entry of the table, or null
+     */
+    private Entry lookup( String tableName ) {
+        Entry entry = tables.get( tableName );
+        if ( (entry != null) && (entry.expiresAt < System.currentTimeMillis()) ) {
+            tables.remove( tableName, entry );
+            return null;
+        }
+        return entry;
+    }
+
+
+    private void count( boolean hit, ProcessSession session ) {
+        (hit ? hits : misses).incrementAndGet();
+        if ( session != null ) {
+            session.adjustCounter( hit ? HITS_COUNTER : MISSES_COUNTER, 1, false );
+        }
+    }
+
+}  // end class KineticaMetadataCache
@@ -0,0 +1,368 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.nifi.processor.ProcessSession;
+
+/**
+ * The metrics of one processor: what it moved between NiFi and Kinetica and
+ * where the time went.
+ *
+ * Every processor registers its metrics when scheduled, under its identifier,
+ * in a registry shared by all the processors of the connector; the metrics
+ * are reported as NiFi counters of the processor
+ * ({@link #reportCounters(ProcessSession)}) and, for all the processors at
+ * once, in the Prometheus text format
+ * ({@link #writePrometheus(Writer)}, served by
+ * {@link KineticaPrometheusReportingTask}).
+ *
+ * <ul>
+ * <li>records, bytes and failures: counters, in FlowFiles' records and
+ *     content</li>
+ * <li>conversion time: per record, between a FlowFile's content and a
+ *     Kinetica record (either way)</li>
+ * <li>flush latency and request size: per request to Kinetica (a bulk
+ *     inserter flush) or, for the Get processors, per FlowFile written</li>
+ * <li>insert failures per worker rank, for the multi-head ingest of the Put
+ *     processors</li>
+ * <li>the depth of the table monitor buffer and the records it dropped, for
+ *     the Get processors</li>
+ * </ul>
+ *
+ * Counters and histograms are lock free ({@link LongAdder},
+ * {@link KineticaHistogram}), so updating them costs a few nanoseconds.
+ */
+public class KineticaMetrics {
+
+    /**
+     * Name of the NiFi counter of the records written to or read from
+     * Kinetica
+     */
+    public static final String RECORDS_COUNTER = "Kinetica records";
+
+    /**
+     * Name of the NiFi counter of the bytes of the FlowFiles written to or
+     * read from Kinetica
+     */
+    public static final String BYTES_COUNTER = "Kinetica bytes";
+
+    /**
+     * Name of the NiFi counter of the records that failed, or of the
+     * FlowFiles that failed as a whole when their records can't be counted
+     */
+    public static final String FAILURES_COUNTER = "Kinetica failures";
+
+    private static final ConcurrentMap<String, KineticaMetrics> REGISTRY = new ConcurrentHashMap<>();
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+
+    private final String processorId;
+    private final String processorType;
+    private final String tableName;
+
+    private final LongAdder records  = new LongAdder();
+    private final LongAdder bytes    = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final KineticaHistogram conversionNanos = new KineticaHistogram();
+    private final KineticaHistogram flushNanos      = new KineticaHistogram();
+    private final KineticaHistogram requestRecords  = new KineticaHistogram();
+    private final ConcurrentMap<Integer, LongAdder> insertFailuresByRank = new ConcurrentSkipListMap<>();
+
+    private volatile List<URL> workers = Collections.emptyList();
+    private volatile KineticaMonitorBuffer<?> buffer;
+
+    // The counter values last reported as NiFi counters
+    private final AtomicLong reportedRecords  = new AtomicLong();
+    private final AtomicLong reportedBytes    = new AtomicLong();
+    private final AtomicLong reportedFailures = new AtomicLong();
+
+
+    /**
+     * Registers the metrics of a processor, or returns those it already has
+     * if it still works on the same table, so that its counters keep
+     * counting across schedules.
+     *
+     * @param processorId    the identifier of the processor
+     * @param processorType  the simple class name of the processor
+     * @param tableName      the table it works on
+     */
+    public static KineticaMetrics register( String processorId, String processorType, String tableName ) {
+        KineticaMetrics existing = REGISTRY.get( processorId );
+        if ( (existing != null) && existing.tableName.equals( tableName ) ) {
+            return existing;
+        }
+        KineticaMetrics metrics = new KineticaMetrics( processorId, processorType, tableName );
+        REGISTRY.put( processorId, metrics );
+        return metrics;
+    }
+
+
+    /**
+     * Drops the metrics of a processor removed from the flow.
+     */
+    public static void unregister( String processorId ) {
+        REGISTRY.remove( processorId );
+    }
+
+
+    /**
+     * @return the metrics of the given processor, or null
+     */
+    public static KineticaMetrics get( String processorId ) {
+        return REGISTRY.get( processorId );
+    }
+
+
+    private KineticaMetrics( String processorId, String processorType, String tableName ) {
+        this.processorId   = processorId;
+        this.processorType = processorType;
+        this.tableName     = (tableName == null) ? "" : tableName;
+    }
+
+
+    /**
+     * Counts records that made it, and the size of their FlowFiles.
+     */
+    public void addRecords( long recordCount, long byteCount ) {
+        records.add( recordCount );
+        bytes.add( byteCount );
+    }
+
+
+    /**
+     * Counts records that failed.
+     */
+    public void addFailures( long recordCount ) {
+        failures.add( recordCount );
+    }
+
+
+    /**
+     * Counts the time taken to convert one record.
+     */
+    public void recordConversion( long nanos ) {
+        conversionNanos.record( nanos );
+    }
+
+
+    /**
+     * Counts one request to Kinetica (or FlowFile written) of the given
+     * number of records, which took the given time.
+     */
+    public void recordFlush( long nanos, long recordCount ) {
+        flushNanos.record( nanos );
+        requestRecords.record( recordCount );
+    }
+
+
+    /**
+     * Sets the worker URLs of the multi-head ingest, in rank order from rank
+     * 1, to attribute insert failures to ranks.
+     */
+    public void setWorkers( List<URL> workers ) {
+        this.workers = (workers == null) ? Collections.<URL>emptyList() : new ArrayList<>( workers );
+    }
+
+
+    /**
+     * Counts records that failed to insert through the given worker (rank 0
+     * if it is not one of the workers, i.e. the head node).
+     */
+    public void addInsertFailures( URL workerUrl, long recordCount ) {
+        int rank = (workerUrl == null) ? 0 : workers.indexOf( workerUrl ) + 1;
+        LongAdder adder = insertFailuresByRank.get( rank );
+        if ( adder == null ) {
+            LongAdder created = new LongAdder();
+            adder = insertFailuresByRank.putIfAbsent( rank, created );
+            if ( adder == null ) {
+                adder = created;
+            }
+        }
+        adder.add( recordCount );
+    }
+
+
+    /**
+     * Sets the table monitor buffer whose depth and drops are reported.
+     */
+    public void setBuffer( KineticaMonitorBuffer<?> buffer ) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * @return the number of records that made it
+     */
+    public long getRecords() {
+        return records.sum();
+    }
+
+
+    /**
+     * @return the number of records that failed
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+
+    /**
+     * @return the times taken to convert records, in nanoseconds
+     */
+    public KineticaHistogram getConversionNanos() {
+        return conversionNanos;
+    }
+
+
+    /**
+     * @return the times taken by requests to Kinetica, in nanoseconds
+     */
+    public KineticaHistogram getFlushNanos() {
+        return flushNanos;
+    }
+
+
+    /**
+     * @return the numbers of records per request to Kinetica
+     */
+    public KineticaHistogram getRequestRecords() {
+        return requestRecords;
+    }
+
+
+    /**
+     * Brings the NiFi counters of the processor ({@link #RECORDS_COUNTER},
+     * {@link #BYTES_COUNTER} and {@link #FAILURES_COUNTER}) up to date with
+     * its metrics.
+     */
+    public void reportCounters( ProcessSession session ) {
+        report( session, RECORDS_COUNTER, records, reportedRecords );
+        report( session, BYTES_COUNTER, bytes, reportedBytes );
+        report( session, FAILURES_COUNTER, failures, reportedFailures );
+    }
+
+
+    private static void report( ProcessSession session, String name, LongAdder counter, AtomicLong reported ) {
+        // Counters can only be adjusted, so report the change; concurrent
+        // reports may over- and undershoot, but even out
+        long current = counter.sum();
+        long delta = current - reported.getAndSet( current );
+        if ( delta != 0 ) {
+            // Immediately, so that the counters don't drift if the session
+            // is rolled back
+            session.adjustCounter( name, delta, true );
+        }
+    }
+
+
+    /**
+     * Writes the metrics of all the registered processors in the Prometheus
+     * text exposition format (version 0.0.4).
+     */
+    public static void writePrometheus( Writer out ) throws IOException {
+        List<KineticaMetrics> all = new ArrayList<>( REGISTRY.values() );
+
+        writeHeader( out, "kinetica_records_total", "counter", "Records written to or read from Kinetica" );
+        for ( KineticaMetrics metrics : all ) {
+            metrics.writeSample( out, "kinetica_records_total", null, metrics.records.sum() );
+        }
+        writeHeader( out, "kinetica_bytes_total", "counter", "Bytes of the FlowFiles written to or read from Kinetica" );
+        for ( KineticaMetrics metrics : all ) {
+            metrics.writeSample( out, "kinetica_bytes_total", null, metrics.bytes.sum() );
+        }
+        writeHeader( out, "kinetica_failures_total", "counter", "Records that failed, or FlowFiles when their records can't be counted" );
+        for ( KineticaMetrics metrics : all ) {
+            metrics.writeSample( out, "kinetica_failures_total", null, metrics.failures.sum() );
+        }
+
+        writeHeader( out, "kinetica_conversion_seconds", "summary", "Time to convert one record" );
+        for ( KineticaMetrics metrics : all ) {
+            metrics.writeSummary( out, "kinetica_conversion_seconds", metrics.conversionNanos, NANOS_PER_SECOND );
+        }
+        writeHeader( out, "kinetica_flush_seconds", "summary", "Time of one request to Kinetica, or to write one FlowFile" );
+        for ( KineticaMetrics metrics : all ) {
+            metrics.writeSummary( out, "kinetica_flush_seconds", metrics.flushNanos, NANOS_PER_SECOND );
+        }
+        writeHeader( out, "kinetica_request_records", "summary", "Records per request to Kinetica, or per FlowFile" );
+        for ( KineticaMetrics metrics : all ) {
+            metrics.writeSummary( out, "kinetica_request_records", metrics.requestRecords, 1 );
+        }
+
+        writeHeader( out, "kinetica_insert_failures_total", "counter", "Records that failed to insert, per worker rank" );
+        for ( KineticaMetrics metrics : all ) {
+            for ( Map.Entry<Integer, LongAdder> entry : metrics.insertFailuresByRank.entrySet() ) {
+                metrics.writeSample( out, "kinetica_insert_failures_total", "rank=\"" + entry.getKey() + "\"",
+                                     entry.getValue().sum() );
+            }
+        }
+
+        writeHeader( out, "kinetica_monitor_buffer_depth", "gauge", "Records waiting in the table monitor buffer" );
+        for ( KineticaMetrics metrics : all ) {
+            KineticaMonitorBuffer<?> buffer = metrics.buffer;
+            if ( buffer != null ) {
+                metrics.writeSample( out, "kinetica_monitor_buffer_depth", null, buffer.getDepth() );
+            }
+        }
+        writeHeader( out, "kinetica_monitor_dropped_total", "counter", "Records dropped because the table monitor buffer was full" );
+        for ( KineticaMetrics metrics : all ) {
+            KineticaMonitorBuffer<?> buffer = metrics.buffer;
+            if ( buffer != null ) {
+                metrics.writeSample( out, "kinetica_monitor_dropped_total", null, buffer.getDropCount() );
+            }
+        }
+    }
+
+
+    private static void writeHeader( Writer out, String name, String type, String help ) throws IOException {
+        out.write( "# HELP " + name + " " + help + "\n" );
+        out.write( "# TYPE " + name + " " + type + "\n" );
+    }
+
+
+    private void writeSummary( Writer out, String name, KineticaHistogram histogram, double unit ) throws IOException {
+        for ( double quantile : QUANTILES ) {
+            writeSample( out, name, "quantile=\"" + quantile + "\"", histogram.getValueAtQuantile( quantile ) / unit );
+        }
+        writeSample( out, name + "_sum", null, histogram.getSum() / unit );
+        writeSample( out, name + "_count", null, histogram.getCount() );
+    }
+
+
+    private void writeSample( Writer out, String name, String extraLabel, double value ) throws IOException {
+        StringBuilder line = new StringBuilder( name );
+        line.append( "{processor_id=\"" ).append( escape( processorId ) )
+            .append( "\",processor_type=\"" ).append( escape( processorType ) )
+            .append( "\",table=\"" ).append( escape( tableName ) ).append( '"' );
+        if ( extraLabel != null ) {
+            line.append( ',' ).append( extraLabel );
+        }
+        line.append( "} " );
+        if ( value == Math.rint( value ) && !Double.isInfinite( value ) && (Math.abs( value ) < 1e15) ) {
+            line.append( (long) value );
+        } else {
+            line.append( String.format( Locale.ROOT, "%.9g", value ) );
+        }
+        out.write( line.append( '\n' ).toString() );
+    }
+
+
+    private static String escape( String value ) {
+        return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+    }
+
+}  // end class KineticaMetrics
@@ -0,0 +1,302 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.util.Collection;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.nifi.processor.ProcessSession;
+
+/**
+ * A bounded buffer between a table monitor thread, which receives records
+ * from Kinetica as fast as they are inserted, and the processor tasks that
+ * write them to FlowFiles.
+ *
+ * The buffer is a ring allocated once for its capacity in records; it also
+ * bounds the total size in bytes of the records it holds, as given by the
+ * producer.  When it is full, the producer either waits for room
+ * ({@link OverflowPolicy#BLOCK}) or the oldest records are dropped to make
+ * room ({@link OverflowPolicy#DROP_OLDEST}).  A single record larger than the
+ * byte capacity is still accepted once the buffer is empty.
+ *
+ * The depth, number of dropped records and high-water mark are kept as
+ * gauges, and can be reported as NiFi counters with
+ * {@link #reportCounters(ProcessSession)}.
+ */
+public class KineticaMonitorBuffer<T> {
+
+    /**
+     * What to do with a new record when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /** Wait until the processor has taken enough records out */
+        BLOCK,
+        /** Drop the oldest records to make room */
+        DROP_OLDEST
+    }
+
+    /**
+     * Name of the NiFi counter of the records in the buffer
+     */
+    public static final String DEPTH_COUNTER = "Kinetica monitor buffer depth";
+
+    /**
+     * Name of the NiFi counter of the most records ever in the buffer
+     */
+    public static final String HIGH_WATER_MARK_COUNTER = "Kinetica monitor buffer high-water mark";
+
+    /**
+     * Name of the NiFi counter of the records dropped because the buffer was
+     * full
+     */
+    public static final String DROPPED_COUNTER = "Kinetica monitor records dropped";
+
+
+    private final Object[] items;
+    private final int[] sizes;
+    private final long[] arrivalMillis;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    // Guarded by the lock
+    private int head  = 0;
+    private int count = 0;
+    private long bytes = 0;
+    private long dropCount = 0;
+    private int highWaterMark = 0;
+
+    // The gauge values last reported as counters
+    private long reportedDepth = 0;
+    private long reportedHighWaterMark = 0;
+    private long reportedDropCount = 0;
+
+
+    /**
+     * @param maxRecords  the most records the buffer holds
+     * @param maxBytes    the most bytes the buffer holds
+     * @param policy      what to do when the buffer is full
+     */
+    public KineticaMonitorBuffer( int maxRecords, long maxBytes, OverflowPolicy policy ) {
+        if ( maxRecords < 1 ) {
+            throw new IllegalArgumentException( "The buffer must hold at least one record" );
+        }
+        this.items    = new Object[ maxRecords ];
+        this.sizes    = new int[ maxRecords ];
+        this.arrivalMillis = new long[ maxRecords ];
+        this.maxBytes = maxBytes;
+        this.policy   = policy;
+    }
+
+
+    /**
+     * Adds a record, waiting for room or dropping the oldest records if the
+     * buffer is full.
+     *
+     * @param item  the record
+     * @param size  the size of the record in bytes
+     * @throws InterruptedException if interrupted while waiting for room;
+     *         the record is then not added
+     */
+    public void put( T item, int size ) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while ( isFull( size ) ) {
+                if ( policy == OverflowPolicy.BLOCK ) {
+                    notFull.await();
+                } else {
+                    removeFirst();
+                    ++dropCount;
+                }
+            }
+
+            add( item, size );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Adds a record without ever waiting: if the buffer is full, the oldest
+     * records are dropped under {@link OverflowPolicy#DROP_OLDEST}, and the
+     * given record is dropped under {@link OverflowPolicy#BLOCK}.  For a
+     * producer that feeds several buffers and must not be held up by one.
+     *
+     * @param item  the record
+     * @param size  the size of the record in bytes
+     * @return whether the record was added
+     */
+    public boolean offer( T item, int size ) {
+        lock.lock();
+        try {
+            while ( isFull( size ) ) {
+                ++dropCount;
+                if ( policy == OverflowPolicy.BLOCK ) {
+                    return false;
+                }
+                removeFirst();
+            }
+
+            add( item, size );
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Moves records out of the buffer, oldest first.
+     *
+     * @param target      where to add the records
+     * @param maxRecords  the most records to move
+     * @param maxBytes    the most bytes to move; the first record is moved
+     *                    whatever its size
+     * @return the number of records moved
+     */
+    @SuppressWarnings( "unchecked" )
+    public int drainTo( Collection<? super T> target, int maxRecords, long maxBytes ) {
+        lock.lock();
+        try {
+            int drained = 0;
+            long drainedBytes = 0;
+            while ( (count > 0) && (drained < maxRecords)
+                    && ((drained == 0) || (drainedBytes + sizes[ head ] <= maxBytes)) ) {
+                drainedBytes += sizes[ head ];
+                target.add( (T) items[ head ] );
+                removeFirst();
+                ++drained;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Tells whether enough records are waiting to be written out: at least
+     * the given number of records or of bytes, or any records at all once
+     * the oldest of them has waited for the given time.
+     */
+    public boolean isBatchReady( int maxRecords, long maxBytes, long maxLingerMillis ) {
+        lock.lock();
+        try {
+            return (count > 0)
+                   && ((count >= maxRecords) || (bytes >= maxBytes)
+                       || (System.currentTimeMillis() - arrivalMillis[ head ] >= maxLingerMillis));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the number of records in the buffer
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the total size of the records in the buffer
+     */
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the number of records dropped because the buffer was full
+     */
+    public long getDropCount() {
+        lock.lock();
+        try {
+            return dropCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the most records the buffer has held at once
+     */
+    public int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Brings the NiFi counters of the buffer ({@link #DEPTH_COUNTER},
+     * {@link #HIGH_WATER_MARK_COUNTER} and {@link #DROPPED_COUNTER}) up to
+     * date with its gauges.
+     */
+    public void reportCounters( ProcessSession session ) {
+        long depthDelta, highWaterMarkDelta, dropDelta;
+        lock.lock();
+        try {
+            // Counters can only be adjusted, so report the changes
+            depthDelta            = count - reportedDepth;
+            highWaterMarkDelta    = highWaterMark - reportedHighWaterMark;
+            dropDelta             = dropCount - reportedDropCount;
+            reportedDepth         = count;
+            reportedHighWaterMark = highWaterMark;
+            reportedDropCount     = dropCount;
+        } finally {
+            lock.unlock();
+        }
+
+        // Immediately, so that the counters don't drift if the session is
+        // rolled back
+        session.adjustCounter( DEPTH_COUNTER, depthDelta, true );
+        session.adjustCounter( HIGH_WATER_MARK_COUNTER, highWaterMarkDelta, true );
+        session.adjustCounter( DROPPED_COUNTER, dropDelta, true );
+    }
+
+
+    private boolean isFull( int size ) {
+        return (count == items.length) || ((count > 0) && (bytes + size > maxBytes));
+    }
+
+
+    private void add( T item, int size ) {
+        int tail = (head + count) % items.length;
+        items[ tail ] = item;
+        sizes[ tail ] = size;
+        arrivalMillis[ tail ] = System.currentTimeMillis();
+        ++count;
+        bytes += size;
+        if ( count > highWaterMark ) {
+            highWaterMark = count;
+        }
+    }
+
+
+    private void removeFirst() {
+        bytes -= sizes[ head ];
+        items[ head ] = null;
+        head = (head + 1) % items.length;
+        --count;
+        notFull.signalAll();
+    }
+
+}  // end class KineticaMonitorBuffer
@@ -0,0 +1,120 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.reporting.AbstractReportingTask;
+import org.apache.nifi.reporting.ReportingContext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of the Kinetica processors ({@link KineticaMetrics}) in
+ * the Prometheus text format over HTTP.
+ *
+ * The metrics are rendered every time the task runs, and a scrape returns the
+ * last rendering, so scrapes cost nothing to the processors however often
+ * they come.
+ */
+@Tags({ "Kinetica", "metrics", "prometheus", "reporting" })
+@CapabilityDescription("Serves the metrics of the Kinetica processors (records, bytes and failures, conversion time, flush "
+        + "latency, request size, insert failures per worker rank, table monitor buffer depth) in the Prometheus text format, "
+        + "at http://<host>:<Port><Path>. The metrics are refreshed every time the task runs.")
+public class KineticaPrometheusReportingTask extends AbstractReportingTask {
+
+    public static final PropertyDescriptor PROP_PORT = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.METRICS_PORT )
+        .description("The port to serve the metrics on")
+        .required(true).addValidator(StandardValidators.PORT_VALIDATOR).defaultValue("9092").build();
+
+    public static final PropertyDescriptor PROP_PATH = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.METRICS_PATH )
+        .description("The path to serve the metrics at")
+        .required(true).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).defaultValue("/metrics").build();
+
+    private static final List<PropertyDescriptor> DESCRIPTORS;
+
+    static {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_PORT);
+        descriptors.add(PROP_PATH);
+        DESCRIPTORS = Collections.unmodifiableList(descriptors);
+    }
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile byte[] rendered = new byte[0];
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return DESCRIPTORS;
+    }
+
+    @OnScheduled
+    public synchronized void onScheduled(final ConfigurationContext context) throws IOException {
+        render();
+
+        server = HttpServer.create(new InetSocketAddress(context.getProperty(PROP_PORT).asInteger()), 0);
+        server.createContext(context.getProperty(PROP_PATH).getValue(), new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = rendered;
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        executor = Executors.newSingleThreadExecutor();
+        server.setExecutor(executor);
+        server.start();
+        getLogger().info("Serving the Kinetica metrics on port {}", new Object[] { context.getProperty(PROP_PORT).getValue() });
+    }
+
+    @OnStopped
+    public synchronized void onStopped() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    public void onTrigger(final ReportingContext context) {
+        try {
+            render();
+        } catch (IOException ex) {
+            getLogger().error("Unable to render the Kinetica metrics", ex);
+        }
+    }
+
+    private void render() throws IOException {
+        StringWriter out = new StringWriter();
+        KineticaMetrics.writePrometheus(out);
+        rendered = out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
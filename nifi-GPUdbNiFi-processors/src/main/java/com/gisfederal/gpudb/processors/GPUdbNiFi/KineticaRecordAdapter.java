@@ -0,0 +1,212 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.Type;
+
+/**
+ * Presents the records of a Kinetica table, as decoded from the table
+ * monitor, as NiFi records, so that they can be written by any record
+ * writer.
+ *
+ * The NiFi schema is derived from the table's type once; each record is then
+ * wrapped rather than copied, and a field is only converted to the NiFi
+ * representation (strings instead of Avro's UTF-8 sequences, timestamps,
+ * byte arrays) when the writer asks for it.
+ */
+public class KineticaRecordAdapter {
+
+    private final RecordSchema schema;
+    private final String[] fieldNames;
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+    // Per field: how to convert the Avro value
+    private final int[] conversions;
+
+    private static final int AS_IS     = 0;
+    private static final int STRING    = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int BYTES     = 3;
+
+
+    /**
+     * @param type  the type of the table
+     */
+    public KineticaRecordAdapter( Type type ) {
+        final int count = type.getColumnCount();
+        List<RecordField> fields = new ArrayList<>( count );
+        this.fieldNames  = new String[ count ];
+        this.conversions = new int[ count ];
+
+        for ( int i = 0; i < count; ++i ) {
+            Type.Column column = type.getColumn( i );
+            DataType dataType;
+            int conversion = AS_IS;
+            switch ( column.getColumnType() ) {
+                case INTEGER:
+                    dataType = RecordFieldType.INT.getDataType();
+                    break;
+
+                case LONG:
+                    if ( column.hasProperty( ColumnProperty.TIMESTAMP ) ) {
+                        dataType = RecordFieldType.TIMESTAMP.getDataType();
+                        conversion = TIMESTAMP;
+                    } else {
+                        dataType = RecordFieldType.LONG.getDataType();
+                    }
+                    break;
+
+                case FLOAT:
+                    dataType = RecordFieldType.FLOAT.getDataType();
+                    break;
+
+                case DOUBLE:
+                    dataType = RecordFieldType.DOUBLE.getDataType();
+                    break;
+
+                case BYTES:
+                    dataType = RecordFieldType.ARRAY.getArrayDataType( RecordFieldType.BYTE.getDataType() );
+                    conversion = BYTES;
+                    break;
+
+                default:
+                    dataType = RecordFieldType.STRING.getDataType();
+                    conversion = STRING;
+                    break;
+            }
+            fields.add( new RecordField( column.getName(), dataType ) );
+            fieldNames[ i ]  = column.getName();
+            conversions[ i ] = conversion;
+            fieldIndexes.put( column.getName(), i );
+        }
+        this.schema = new SimpleRecordSchema( fields );
+    }
+
+
+    /**
+     * @return the NiFi schema of the table
+     */
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+
+    /**
+     * @param record  a record of the table, decoded with its Avro schema
+     * @return the record as a NiFi record; it reads through to the given one
+     */
+    public Record adapt( GenericRecord record ) {
+        return new MapRecord( schema, new Values( record ) );
+    }
+
+
+    /**
+     * @return the value of the given field of the record, converted to the
+     *         NiFi representation
+     */
+    private Object convert( GenericRecord record, int index ) {
+        Object value = record.get( index );
+        if ( value == null ) {
+            return null;
+        }
+        switch ( conversions[ index ] ) {
+            case STRING:
+                return value.toString();
+
+            case TIMESTAMP:
+                return new Timestamp( (Long) value );
+
+            case BYTES: {
+                ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+                Object[] bytes = new Object[ buffer.remaining() ];
+                for ( int i = 0; i < bytes.length; ++i ) {
+                    bytes[ i ] = buffer.get();
+                }
+                return bytes;
+            }
+
+            default:
+                return value;
+        }
+    }
+
+
+    /**
+     * The field values of one record, converted on access
+     */
+    private final class Values extends AbstractMap<String, Object> {
+        private final GenericRecord record;
+
+        Values( GenericRecord record ) {
+            this.record = record;
+        }
+
+        @Override
+        public Object get( Object key ) {
+            Integer index = fieldIndexes.get( key );
+            return (index == null) ? null : convert( record, index );
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            return fieldIndexes.containsKey( key );
+        }
+
+        @Override
+        public int size() {
+            return fieldNames.length;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public int size() {
+                    return fieldNames.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < fieldNames.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            if ( next >= fieldNames.length ) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = next++;
+                            return new AbstractMap.SimpleImmutableEntry<String, Object>( fieldNames[ index ],
+                                                                                         convert( record, index ) );
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+}  // end class KineticaRecordAdapter
@@ -0,0 +1,423 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.nifi.logging.ComponentLog;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.GPUdbException;
+import com.gpudb.Record;
+import com.gpudb.Type;
+import com.gpudb.Type.Column;
+
+/**
+ * Converts string values (FlowFile attributes or delimited file fields), or
+ * the typed values of NiFi records, into the column values of a Kinetica
+ * record.
+ *
+ * The conversion plan is compiled once from the table's Type: one stateless
+ * converter per column, chosen from the column's type and properties, stored
+ * in an array indexed by column position.  Converting a row is then a plain
+ * loop over that array with no per-value type checks or property lookups.
+ *
+ * Two flavors of plan exist, matching the existing processors:
+ *
+ * - lenient (PutKinetica): missing or blank values are left unset and values
+ *   that do not parse as numbers are stored as 0
+ * - strict (PutKineticaFromFile): values are trimmed, blank values are nulls
+ *   (an error for non-nullable columns) and unparseable values are errors
+ */
+public class KineticaRecordConverter {
+
+    /**
+     * Converts the string form of a value for a single column.
+     */
+    public static abstract class ColumnConverter {
+        protected final Column column;
+
+        protected ColumnConverter( Column column ) {
+            this.column = column;
+        }
+
+        public Column getColumn() {
+            return column;
+        }
+
+        /**
+         * @param value  a non-null value
+         * @return the value to store in the record
+         */
+        public abstract Object convert( String value ) throws GPUdbException;
+
+        /**
+         * Converts a typed value, such as a field of a NiFi record; by
+         * default, through its string form.
+         *
+         * @param value  a non-null value
+         * @return the value to store in the record
+         */
+        public Object convertObject( Object value ) throws GPUdbException {
+            return convert( value.toString().trim() );
+        }
+
+        /**
+         * @return the value used by lenient plans when the given value
+         *         cannot be converted
+         */
+        public Object getDefault() {
+            return null;
+        }
+
+        protected GPUdbException invalidValue( String value ) {
+            return new GPUdbException( "Invalid value \"" + value + "\" for field " + column.getName() + "." );
+        }
+    }
+
+
+    private static final class DoubleConverter extends ColumnConverter {
+        private static final Double ZERO = 0.0d;
+
+        DoubleConverter( Column column ) {
+            super( column );
+        }
+
+        @Override
+        public Object convertObject( Object value ) throws GPUdbException {
+            if ( value instanceof Number ) {
+                return ((Number) value).doubleValue();
+            }
+            return super.convertObject( value );
+        }
+
+        @Override
+        public Object convert( String value ) throws GPUdbException {
+            try {
+                return Double.parseDouble( value );
+            } catch (NumberFormatException ex) {
+                throw invalidValue( value );
+            }
+        }
+
+        @Override
+        public Object getDefault() {
+            return ZERO;
+        }
+    }
+
+
+    private static final class FloatConverter extends ColumnConverter {
+        private static final Float ZERO = 0.0f;
+
+        FloatConverter( Column column ) {
+            super( column );
+        }
+
+        @Override
+        public Object convertObject( Object value ) throws GPUdbException {
+            if ( value instanceof Number ) {
+                return ((Number) value).floatValue();
+            }
+            return super.convertObject( value );
+        }
+
+        @Override
+        public Object convert( String value ) throws GPUdbException {
+            try {
+                return Float.parseFloat( value );
+            } catch (NumberFormatException ex) {
+                throw invalidValue( value );
+            }
+        }
+
+        @Override
+        public Object getDefault() {
+            return ZERO;
+        }
+    }
+
+
+    private static final class IntegerConverter extends ColumnConverter {
+        private static final Integer ZERO = 0;
+
+        IntegerConverter( Column column ) {
+            super( column );
+        }
+
+        @Override
+        public Object convertObject( Object value ) throws GPUdbException {
+            if ( (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte) ) {
+                return ((Number) value).intValue();
+            }
+            if ( value instanceof Boolean ) {
+                return ((Boolean) value) ? 1 : 0;
+            }
+            if ( value instanceof Number ) {
+                long longValue = ((Number) value).longValue();
+                if ( (longValue != ((Number) value).doubleValue())
+                     || (longValue < Integer.MIN_VALUE) || (longValue > Integer.MAX_VALUE) ) {
+                    throw invalidValue( value.toString() );
+                }
+                return (int) longValue;
+            }
+            return super.convertObject( value );
+        }
+
+        @Override
+        public Object convert( String value ) throws GPUdbException {
+            try {
+                return Integer.parseInt( value );
+            } catch (NumberFormatException ex) {
+                throw invalidValue( value );
+            }
+        }
+
+        @Override
+        public Object getDefault() {
+            return ZERO;
+        }
+    }
+
+
+    private static final class LongConverter extends ColumnConverter {
+        private static final Long ZERO = 0L;
+
+        LongConverter( Column column ) {
+            super( column );
+        }
+
+        @Override
+        public Object convertObject( Object value ) throws GPUdbException {
+            if ( value instanceof Number ) {
+                return ((Number) value).longValue();
+            }
+            if ( value instanceof Date ) {
+                return ((Date) value).getTime();
+            }
+            return super.convertObject( value );
+        }
+
+        @Override
+        public Object convert( String value ) throws GPUdbException {
+            try {
+                return Long.parseLong( value );
+            } catch (NumberFormatException ex) {
+                throw invalidValue( value );
+            }
+        }
+
+        @Override
+        public Object getDefault() {
+            return ZERO;
+        }
+    }
+
+
+    /**
+     * Timestamp columns accept either epoch milliseconds or a date string
+     * in the configured Date Format and Timezone.
+     */
+    private static final class TimestampConverter extends ColumnConverter {
+        private final KineticaDateParser parser;
+        private final ComponentLog logger;
+
+        TimestampConverter( Column column, KineticaDateParser parser, ComponentLog logger ) {
+            super( column );
+            this.parser = parser;
+            this.logger = logger;
+        }
+
+        @Override
+        public Object convertObject( Object value ) throws GPUdbException {
+            // Numbers are epoch milliseconds
+            if ( value instanceof Number ) {
+                return ((Number) value).longValue();
+            }
+            if ( value instanceof Date ) {
+                return ((Date) value).getTime();
+            }
+            return super.convertObject( value );
+        }
+
+        @Override
+        public Object convert( String value ) throws GPUdbException {
+            Long timestamp = parser.parse( value );
+            if ( timestamp == null ) {
+                if ( logger != null ) {
+                    logger.error( "Failed to parse date '" + value + "' with pattern '" + parser.getDateFormat()
+                                  + "' and timezone '" + parser.getZone() + "'; please check your date format." );
+                }
+                throw new GPUdbException( "Bad timestamp given: '" + value + "'" );
+            }
+            return timestamp;
+        }
+    }
+
+
+    private static final class StringConverter extends ColumnConverter {
+        StringConverter( Column column ) {
+            super( column );
+        }
+
+        @Override
+        public Object convert( String value ) {
+            return value;
+        }
+
+        @Override
+        public Object convertObject( Object value ) {
+            if ( column.getType() == ByteBuffer.class ) {
+                if ( value instanceof byte[] ) {
+                    return ByteBuffer.wrap( (byte[]) value );
+                }
+                if ( value instanceof Object[] ) {
+                    // NiFi records hold byte arrays as arrays of Byte
+                    Object[] array = (Object[]) value;
+                    byte[] bytes = new byte[ array.length ];
+                    for ( int i = 0; i < array.length; ++i ) {
+                        bytes[ i ] = ((Number) array[ i ]).byteValue();
+                    }
+                    return ByteBuffer.wrap( bytes );
+                }
+            }
+            // Strings are kept as they are, not trimmed
+            return value.toString();
+        }
+    }
+
+
+    private final Type type;
+    private final ColumnConverter[] converters;
+    private final String[] columnNames;
+    private final boolean[] nullable;
+    private final boolean lenient;
+
+
+    /**
+     * Compiles the conversion plan for the given type.
+     *
+     * @param type        the type of the records to create
+     * @param dateFormat  the date format for timestamp columns (may be null)
+     * @param timeZone    the timezone for timestamp columns (may be null)
+     * @param lenient     whether to use the lenient (attribute) flavor
+     * @param logger      the logger used to report bad timestamps
+     */
+    public KineticaRecordConverter( Type type, String dateFormat, String timeZone, boolean lenient, ComponentLog logger ) {
+        this.type    = type;
+        this.lenient = lenient;
+
+        List<Column> columns = type.getColumns();
+        KineticaDateParser dateParser = KineticaDateParser.get( dateFormat, timeZone );
+        this.converters  = new ColumnConverter[ columns.size() ];
+        this.columnNames = new String[ columns.size() ];
+        this.nullable    = new boolean[ columns.size() ];
+
+        for ( int i = 0; i < columns.size(); ++i ) {
+            Column column = columns.get( i );
+            this.columnNames[ i ] = column.getName();
+            this.nullable[ i ]    = column.isNullable();
+
+            if ( column.hasProperty( ColumnProperty.TIMESTAMP ) ) {
+                this.converters[ i ] = new TimestampConverter( column, dateParser, logger );
+            } else if ( column.getType() == Double.class ) {
+                this.converters[ i ] = new DoubleConverter( column );
+            } else if ( column.getType() == Float.class ) {
+                this.converters[ i ] = new FloatConverter( column );
+            } else if ( column.getType() == Integer.class ) {
+                this.converters[ i ] = new IntegerConverter( column );
+            } else if ( column.getType() == Long.class ) {
+                this.converters[ i ] = new LongConverter( column );
+            } else {
+                this.converters[ i ] = new StringConverter( column );
+            }
+        }
+    }
+
+
+    public Type getType() {
+        return type;
+    }
+
+
+    public int getColumnCount() {
+        return converters.length;
+    }
+
+
+    public String getColumnName( int index ) {
+        return columnNames[ index ];
+    }
+
+
+    public ColumnConverter getConverter( int index ) {
+        return converters[ index ];
+    }
+
+
+    public Record newRecord() {
+        return type.newInstance();
+    }
+
+
+    /**
+     * Converts the given value and stores it in the given column of the
+     * record, following the plan's null handling.
+     *
+     * @param record  the record to update
+     * @param index   the column position
+     * @param value   the string form of the value; may be null
+     * @throws GPUdbException if the value is not valid for the column; only
+     *         thrown by strict plans, as lenient plans store the column's
+     *         default instead (0 for numbers, null for timestamps)
+     */
+    public void setValue( Record record, int index, String value ) throws GPUdbException {
+        ColumnConverter converter = converters[ index ];
+
+        if ( lenient ) {
+            if ( (value == null) || (value.trim().length() == 0) ) {
+                return;
+            }
+            try {
+                record.put( index, converter.convert( value ) );
+            } catch (GPUdbException ex) {
+                record.put( index, converter.getDefault() );
+            }
+            return;
+        }
+
+        if ( value != null ) {
+            value = value.trim();
+        }
+        if ( (value == null) || (value.length() == 0) ) {
+            if ( !nullable[ index ] ) {
+                throw new GPUdbException( "Found null value for non-nullable column " + columnNames[ index ] );
+            }
+            record.put( index, null );
+            return;
+        }
+        record.put( index, converter.convert( value ) );
+    }
+
+
+    /**
+     * Converts the given typed value, such as a field of a NiFi record, and
+     * stores it in the given column of the record.
+     *
+     * @param record  the record to update
+     * @param index   the column position
+     * @param value   the value; may be null
+     * @throws GPUdbException if the value is not valid for the column
+     */
+    public void setObject( Record record, int index, Object value ) throws GPUdbException {
+        if ( value == null ) {
+            if ( !nullable[ index ] ) {
+                throw new GPUdbException( "Found null value for non-nullable column " + columnNames[ index ] );
+            }
+            record.put( index, null );
+            return;
+        }
+        record.put( index, converters[ index ].convertObject( value ) );
+    }
+
+}  // end class KineticaRecordConverter
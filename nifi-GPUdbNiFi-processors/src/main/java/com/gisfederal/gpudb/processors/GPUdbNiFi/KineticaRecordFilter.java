@@ -0,0 +1,481 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import com.gpudb.Type;
+
+/**
+ * Selects the records received from a table monitor that a Get processor
+ * writes out, and the columns it writes of them.
+ *
+ * The filter and the list of columns are compiled once against the type of
+ * the table: column names are resolved to indexes and literals converted to
+ * the column types, so that testing a record is a few comparisons and
+ * projecting it a copy of the chosen values.
+ *
+ * The filter is a boolean expression of comparisons between a column and a
+ * literal, combined with {@code and}, {@code or}, {@code not} and
+ * parentheses:
+ * <pre>
+ *     x &gt; 10 and (name = 'abc' or name in ('d', 'e')) and not z is null
+ * </pre>
+ * The comparison operators are {@code = == != <> < <= > >=}, {@code in} and
+ * {@code is [not] null}; string literals are single quoted (a quote is
+ * doubled) and column names may be double quoted.  A comparison with a null
+ * value is false.
+ */
+public class KineticaRecordFilter {
+
+    /*
+     * A compiled filter
+     */
+    private interface Predicate {
+        boolean test( GenericRecord record );
+    }
+
+    private final Schema schema;
+    private final Type type;
+    private final int[] projection;
+    private final Predicate predicate;
+
+
+    /**
+     * @param tableType  the type of the table the records come from
+     * @param columns    a comma-separated list of the columns to keep, in
+     *                   that order; all the columns if null or empty
+     * @param filter     the expression the records must match; all the
+     *                   records if null or empty
+     * @throws IllegalArgumentException if a column doesn't exist or the
+     *         filter is invalid
+     */
+    public KineticaRecordFilter( Type tableType, String columns, String filter ) {
+        if ( (columns == null) || columns.trim().isEmpty() ) {
+            this.projection = null;
+            this.type       = tableType;
+            this.schema     = tableType.getSchema();
+        } else {
+            List<Integer> indexes = new ArrayList<>();
+            List<Type.Column> projectedColumns = new ArrayList<>();
+            List<Schema.Field> fields = new ArrayList<>();
+            for ( String name : columns.split( "," ) ) {
+                name = name.trim();
+                if ( name.isEmpty() ) {
+                    continue;
+                }
+                int index = tableType.getColumnIndex( name );
+                if ( index < 0 ) {
+                    throw new IllegalArgumentException( "No column " + name + " in the table" );
+                }
+                indexes.add( index );
+                projectedColumns.add( tableType.getColumn( index ) );
+
+                Schema.Field field = tableType.getSchema().getFields().get( index );
+                fields.add( new Schema.Field( field.name(), field.schema(), field.doc(), field.defaultVal() ) );
+            }
+
+            this.projection = new int[ indexes.size() ];
+            for ( int i = 0; i < projection.length; i++ ) {
+                projection[ i ] = indexes.get( i );
+            }
+            this.type = new Type( tableType.getLabel(), projectedColumns );
+            Schema tableSchema = tableType.getSchema();
+            this.schema = Schema.createRecord( tableSchema.getName(), tableSchema.getDoc(), tableSchema.getNamespace(), false );
+            this.schema.setFields( fields );
+        }
+
+        if ( (filter == null) || filter.trim().isEmpty() ) {
+            this.predicate = null;
+        } else {
+            Parser parser = new Parser( tableType, filter );
+            this.predicate = parser.parseExpression();
+            parser.expectEnd();
+        }
+    }
+
+
+    /**
+     * @return whether all the records and columns are written, so the
+     *         records needn't be filtered nor even decoded
+     */
+    public boolean isPassThrough() {
+        return (projection == null) && (predicate == null);
+    }
+
+
+    /**
+     * @return the type of the records written, with only the projected
+     *         columns
+     */
+    public Type getType() {
+        return type;
+    }
+
+
+    /**
+     * @return the Avro schema of the records written
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+
+    /**
+     * @param record  a record decoded with the schema of the table
+     * @return the record to write, with only the projected columns, or null
+     *         if it doesn't match the filter
+     */
+    public GenericRecord apply( GenericRecord record ) {
+        if ( (predicate != null) && !predicate.test( record ) ) {
+            return null;
+        }
+        if ( projection == null ) {
+            return record;
+        }
+
+        GenericData.Record projected = new GenericData.Record( schema );
+        for ( int i = 0; i < projection.length; i++ ) {
+            projected.put( i, record.get( projection[ i ] ) );
+        }
+        return projected;
+    }
+
+
+    /*
+     * Compares the value of a column with a literal
+     */
+    private enum Operator {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean accept( int comparison ) {
+            switch ( this ) {
+                case EQ: return comparison == 0;
+                case NE: return comparison != 0;
+                case LT: return comparison < 0;
+                case LE: return comparison <= 0;
+                case GT: return comparison > 0;
+                default: return comparison >= 0;
+            }
+        }
+    }
+
+
+    /*
+     * Compares the value of a column with literals converted to its type
+     */
+    private static final class Comparison implements Predicate {
+        private final int index;
+        private final Type.Column.ColumnType columnType;
+        private final Operator operator;
+        private final Object[] literals;
+
+        Comparison( int index, Type.Column.ColumnType columnType, Operator operator, Object[] literals ) {
+            this.index      = index;
+            this.columnType = columnType;
+            this.operator   = operator;
+            this.literals   = literals;
+        }
+
+        @Override
+        public boolean test( GenericRecord record ) {
+            Object value = record.get( index );
+            if ( value == null ) {
+                return false;
+            }
+            // Several literals for "in"
+            for ( Object literal : literals ) {
+                if ( operator.accept( compare( value, literal ) ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int compare( Object value, Object literal ) {
+            switch ( columnType ) {
+                case INTEGER:
+                case LONG:
+                    if ( literal instanceof Long ) {
+                        return Long.compare( ((Number) value).longValue(), (Long) literal );
+                    }
+                    return Double.compare( ((Number) value).doubleValue(), (Double) literal );
+                case FLOAT:
+                case DOUBLE:
+                    return Double.compare( ((Number) value).doubleValue(), ((Number) literal).doubleValue() );
+                default:
+                    // Avro strings may be Utf8
+                    return value.toString().compareTo( (String) literal );
+            }
+        }
+    }
+
+
+    /*
+     * A recursive descent parser of filters, compiling them as it goes
+     */
+    private static final class Parser {
+        private final Type type;
+        private final String text;
+        private int position = 0;
+
+        Parser( Type type, String text ) {
+            this.type = type;
+            this.text = text;
+        }
+
+        Predicate parseExpression() {
+            final Predicate first = parseAnd();
+            if ( !acceptKeyword( "or" ) ) {
+                return first;
+            }
+            final List<Predicate> terms = new ArrayList<>();
+            terms.add( first );
+            do {
+                terms.add( parseAnd() );
+            } while ( acceptKeyword( "or" ) );
+            return new Predicate() {
+                @Override
+                public boolean test( GenericRecord record ) {
+                    for ( Predicate term : terms ) {
+                        if ( term.test( record ) ) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            };
+        }
+
+        void expectEnd() {
+            skipSpaces();
+            if ( position < text.length() ) {
+                throw error( "Unexpected " + text.substring( position ) );
+            }
+        }
+
+        private Predicate parseAnd() {
+            final Predicate first = parseNot();
+            if ( !acceptKeyword( "and" ) ) {
+                return first;
+            }
+            final List<Predicate> terms = new ArrayList<>();
+            terms.add( first );
+            do {
+                terms.add( parseNot() );
+            } while ( acceptKeyword( "and" ) );
+            return new Predicate() {
+                @Override
+                public boolean test( GenericRecord record ) {
+                    for ( Predicate term : terms ) {
+                        if ( !term.test( record ) ) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            };
+        }
+
+        private Predicate parseNot() {
+            if ( acceptKeyword( "not" ) ) {
+                final Predicate negated = parseNot();
+                return new Predicate() {
+                    @Override
+                    public boolean test( GenericRecord record ) {
+                        return !negated.test( record );
+                    }
+                };
+            }
+            if ( accept( "(" ) ) {
+                Predicate inner = parseExpression();
+                expect( ")" );
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        private Predicate parseComparison() {
+            String name = parseColumnName();
+            final int index = type.getColumnIndex( name );
+            if ( index < 0 ) {
+                throw error( "No column " + name + " in the table" );
+            }
+            Type.Column column = type.getColumn( index );
+
+            if ( acceptKeyword( "is" ) ) {
+                final boolean negated = acceptKeyword( "not" );
+                if ( !acceptKeyword( "null" ) ) {
+                    throw error( "Expected null after is" );
+                }
+                return new Predicate() {
+                    @Override
+                    public boolean test( GenericRecord record ) {
+                        return (record.get( index ) == null) != negated;
+                    }
+                };
+            }
+
+            if ( column.getColumnType() == Type.Column.ColumnType.BYTES ) {
+                throw error( "Column " + name + " can only be compared with null" );
+            }
+
+            if ( acceptKeyword( "in" ) ) {
+                expect( "(" );
+                List<Object> literals = new ArrayList<>();
+                do {
+                    literals.add( parseLiteral( column ) );
+                } while ( accept( "," ) );
+                expect( ")" );
+                return new Comparison( index, column.getColumnType(), Operator.EQ, literals.toArray() );
+            }
+
+            Operator operator = parseOperator();
+            return new Comparison( index, column.getColumnType(), operator, new Object[] { parseLiteral( column ) } );
+        }
+
+        private Operator parseOperator() {
+            // Longest first
+            if ( accept( "<=" ) ) {
+                return Operator.LE;
+            } else if ( accept( ">=" ) ) {
+                return Operator.GE;
+            } else if ( accept( "<>" ) || accept( "!=" ) ) {
+                return Operator.NE;
+            } else if ( accept( "==" ) || accept( "=" ) ) {
+                return Operator.EQ;
+            } else if ( accept( "<" ) ) {
+                return Operator.LT;
+            } else if ( accept( ">" ) ) {
+                return Operator.GT;
+            }
+            throw error( "Expected a comparison operator" );
+        }
+
+        private String parseColumnName() {
+            skipSpaces();
+            if ( accept( "\"" ) ) {
+                int end = text.indexOf( '"', position );
+                if ( end < 0 ) {
+                    throw error( "Unterminated column name" );
+                }
+                String name = text.substring( position, end );
+                position = end + 1;
+                return name;
+            }
+            int start = position;
+            while ( (position < text.length())
+                    && (Character.isLetterOrDigit( text.charAt( position ) ) || (text.charAt( position ) == '_')) ) {
+                ++position;
+            }
+            if ( start == position ) {
+                throw error( "Expected a column name" );
+            }
+            return text.substring( start, position );
+        }
+
+        /*
+         * Parses a literal, converted to the type of the column: Long or
+         * Double for integer columns, Double for floating point columns,
+         * String for string columns
+         */
+        private Object parseLiteral( Type.Column column ) {
+            skipSpaces();
+            String literal;
+            boolean quoted = false;
+            if ( accept( "'" ) ) {
+                StringBuilder builder = new StringBuilder();
+                while ( true ) {
+                    if ( position >= text.length() ) {
+                        throw error( "Unterminated string" );
+                    }
+                    char c = text.charAt( position++ );
+                    if ( c == '\'' ) {
+                        if ( (position < text.length()) && (text.charAt( position ) == '\'') ) {
+                            ++position;
+                        } else {
+                            break;
+                        }
+                    }
+                    builder.append( c );
+                }
+                literal = builder.toString();
+                quoted = true;
+            } else {
+                int start = position;
+                while ( (position < text.length())
+                        && (Character.isLetterOrDigit( text.charAt( position ) ) || ("+-._".indexOf( text.charAt( position ) ) >= 0)) ) {
+                    ++position;
+                }
+                if ( start == position ) {
+                    throw error( "Expected a literal" );
+                }
+                literal = text.substring( start, position );
+            }
+
+            try {
+                switch ( column.getColumnType() ) {
+                    case INTEGER:
+                    case LONG:
+                        try {
+                            return Long.valueOf( literal );
+                        } catch ( NumberFormatException ex ) {
+                            return Double.valueOf( literal );
+                        }
+                    case FLOAT:
+                    case DOUBLE:
+                        return Double.valueOf( literal );
+                    default:
+                        if ( !quoted ) {
+                            throw error( "String literals must be quoted: " + literal );
+                        }
+                        return literal;
+                }
+            } catch ( NumberFormatException ex ) {
+                throw error( "Not a number for column " + column.getName() + ": " + literal );
+            }
+        }
+
+        private boolean acceptKeyword( String keyword ) {
+            skipSpaces();
+            int end = position + keyword.length();
+            if ( (end <= text.length())
+                 && text.substring( position, end ).toLowerCase( Locale.ROOT ).equals( keyword )
+                 && ((end == text.length()) || !(Character.isLetterOrDigit( text.charAt( end ) ) || (text.charAt( end ) == '_'))) ) {
+                position = end;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean accept( String token ) {
+            skipSpaces();
+            if ( text.startsWith( token, position ) ) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect( String token ) {
+            if ( !accept( token ) ) {
+                throw error( "Expected " + token );
+            }
+        }
+
+        private void skipSpaces() {
+            while ( (position < text.length()) && Character.isWhitespace( text.charAt( position ) ) ) {
+                ++position;
+            }
+        }
+
+        private IllegalArgumentException error( String message ) {
+            return new IllegalArgumentException( message + " at position " + position + " of the filter" );
+        }
+    }
+
+}  // end class KineticaRecordFilter
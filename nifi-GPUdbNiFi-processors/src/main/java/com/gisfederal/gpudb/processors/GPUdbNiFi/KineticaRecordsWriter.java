@@ -0,0 +1,144 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import com.gpudb.Record;
+import com.gpudb.Type;
+
+/**
+ * Writes decoded Kinetica records (from /get/records/bycolumn or
+ * /execute/sql) to a FlowFile's content, page after page, either as an Avro
+ * Object Container File or as delimited text.
+ *
+ * The file is started with the type of the first records written: the Avro
+ * schema, or a CSV header line of the column names.  The records of later
+ * pages are written by column position, so they must have the same columns.
+ * In CSV, nulls are written as empty values and bytes in Base64.
+ */
+public class KineticaRecordsWriter implements Closeable {
+
+    private final OutputStream out;
+    private final boolean csv;
+    private final char delimiter;
+
+    // Created by the first write
+    private DataFileWriter<Object> avroWriter;
+    private Schema schema;
+    private CSVPrinter csvPrinter;
+    private String[] fields;
+    private int columnCount = -1;
+
+
+    /**
+     * @param out        where to write the records
+     * @param csv        whether to write delimited text rather than Avro
+     * @param delimiter  the delimiter of the delimited text
+     */
+    public KineticaRecordsWriter( OutputStream out, boolean csv, char delimiter ) {
+        this.out       = out;
+        this.csv       = csv;
+        this.delimiter = delimiter;
+    }
+
+
+    /**
+     * @return the MIME type of the content written
+     */
+    public static String getMimeType( boolean csv ) {
+        return csv ? "text/csv" : "avro/binary";
+    }
+
+
+    /**
+     * Writes the records of a page from index {@code from} (inclusive) to
+     * {@code to} (exclusive).
+     */
+    public void write( List<Record> records, int from, int to ) throws IOException {
+        if ( from >= to ) {
+            return;
+        }
+        if ( columnCount < 0 ) {
+            start( records.get( from ).getType() );
+        }
+
+        for ( int index = from; index < to; index++ ) {
+            Record record = records.get( index );
+            if ( csv ) {
+                for ( int i = 0; i < columnCount; i++ ) {
+                    fields[ i ] = toText( record.get( i ) );
+                }
+                csvPrinter.printRecord( (Object[]) fields );
+            } else {
+                GenericData.Record avroRecord = new GenericData.Record( schema );
+                for ( int i = 0; i < columnCount; i++ ) {
+                    avroRecord.put( i, record.get( i ) );
+                }
+                avroWriter.append( avroRecord );
+            }
+        }
+    }
+
+
+    /**
+     * Finishes the file; the output stream itself is left open.  Nothing is
+     * written if no records were.
+     */
+    @Override
+    public void close() throws IOException {
+        if ( csvPrinter != null ) {
+            csvPrinter.flush();
+        }
+        if ( avroWriter != null ) {
+            // Closing the Avro writer would close the output stream
+            avroWriter.flush();
+        }
+    }
+
+
+    private void start( Type type ) throws IOException {
+        columnCount = type.getColumnCount();
+        if ( csv ) {
+            csvPrinter = new CSVPrinter( new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ),
+                                         CSVFormat.RFC4180.withDelimiter( delimiter ) );
+            fields = new String[ columnCount ];
+            for ( int i = 0; i < columnCount; i++ ) {
+                fields[ i ] = type.getColumn( i ).getName();
+            }
+            csvPrinter.printRecord( (Object[]) fields );
+        } else {
+            schema = type.getSchema();
+            avroWriter = new DataFileWriter<>( new GenericDatumWriter<>( schema ) );
+            avroWriter.create( schema, out );
+        }
+    }
+
+
+    private static String toText( Object value ) {
+        if ( value == null ) {
+            return "";
+        }
+        if ( value instanceof ByteBuffer ) {
+            ByteBuffer bytes = ((ByteBuffer) value).duplicate();
+            byte[] data = new byte[ bytes.remaining() ];
+            bytes.get( data );
+            return Base64.getEncoder().encodeToString( data );
+        }
+        return value.toString();
+    }
+
+}  // end class KineticaRecordsWriter
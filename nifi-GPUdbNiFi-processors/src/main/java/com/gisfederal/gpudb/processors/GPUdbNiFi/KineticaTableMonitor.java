@@ -0,0 +1,120 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import com.gpudb.GPUdb;
+import com.gpudb.protocol.CreateTableMonitorResponse;
+
+/**
+ * Receives the records inserted into a table from a Kinetica table monitor,
+ * on a thread of its own, and adds them to a buffer.  Used by the processors
+ * that are not given a {@link KineticaTableMonitorService}.
+ *
+ * The records are buffered as received, i.e. Avro binary encoded with the
+ * schema of the table, and left for the processors to decode (or not) when
+ * they write them out; this keeps the monitor thread from falling behind.
+ */
+public class KineticaTableMonitor implements KineticaTableMonitorService.Subscription {
+
+    private final GPUdb gpudb;
+    private final String tableName;
+    private final String monitorUrl;
+    private final KineticaMonitorBuffer<byte[]> buffer;
+    private final ComponentLog logger;
+
+    private Thread thread;
+
+
+    /**
+     * @param gpudb       the connection to Kinetica
+     * @param tableName   the table to monitor
+     * @param monitorUrl  the URL of the table monitor
+     * @param buffer      where to add the records
+     * @param logger      the logger of the processor
+     */
+    public KineticaTableMonitor( GPUdb gpudb, String tableName, String monitorUrl,
+                                 KineticaMonitorBuffer<byte[]> buffer, ComponentLog logger ) {
+        this.gpudb      = gpudb;
+        this.tableName  = tableName;
+        this.monitorUrl = monitorUrl;
+        this.buffer     = buffer;
+        this.logger     = logger;
+    }
+
+
+    /**
+     * Creates the table monitor and starts receiving from it.
+     */
+    public synchronized void start() {
+        thread = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "Kinetica table monitor " + tableName );
+        thread.start();
+    }
+
+
+    /**
+     * Stops receiving; the thread clears the table monitor on its way out.
+     */
+    @Override
+    public synchronized void stop() {
+        if ( thread != null ) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+
+    private void receive() {
+        try {
+            CreateTableMonitorResponse response = gpudb.createTableMonitor( tableName, null );
+
+            String topicId = response.getTopicId();
+
+            try ( Context zmqContext = ZMQ.context( 1 ); Socket subscriber = zmqContext.socket( ZMQ.SUB ) ) {
+                subscriber.connect( monitorUrl );
+                subscriber.subscribe( topicId.getBytes() );
+                subscriber.setReceiveTimeOut( 1000 );
+
+                while ( !Thread.currentThread().isInterrupted() ) {
+                    ZMsg message = ZMsg.recvMsg( subscriber );
+
+                    if ( message == null ) {
+                        continue;
+                    }
+
+                    // The first frame is the topic
+                    boolean skip = true;
+
+                    for ( ZFrame frame : message ) {
+                        if ( skip ) {
+                            skip = false;
+                            continue;
+                        }
+
+                        try {
+                            buffer.put( frame.getData(), frame.size() );
+                        } catch ( InterruptedException ex ) {
+                            // Stopped while waiting for room
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+
+                gpudb.clearTableMonitor( topicId, null );
+            }
+        } catch ( Exception ex ) {
+            logger.error( "Unable to get data from {}", new Object[] { monitorUrl }, ex );
+        }
+    }
+
+}  // end class KineticaTableMonitor
@@ -0,0 +1,43 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.controller.ControllerService;
+import org.apache.nifi.processor.exception.ProcessException;
+
+/**
+ * Receives the records inserted into Kinetica tables from table monitors on
+ * behalf of all the processors referencing the service, over a shared
+ * subscriber socket and thread, and hands each processor the records of its
+ * table through its own buffer.
+ */
+@Tags({ "Kinetica", "table monitor", "subscriber" })
+@CapabilityDescription("Receives the records inserted into Kinetica tables for the processors referencing this service.")
+public interface KineticaTableMonitorService extends ControllerService {
+
+    /**
+     * The receiving of the records of a table into a buffer, until stopped
+     */
+    interface Subscription {
+
+        /**
+         * Stops adding records to the buffer; the table monitor is cleared
+         * once no one receives from it anymore.
+         */
+        void stop();
+    }
+
+
+    /**
+     * Starts receiving the records inserted into the given table, as
+     * received from the table monitor (Avro binary encoded with the schema
+     * of the table), into the given buffer.
+     *
+     * @param tableName  the table to monitor
+     * @param buffer     where to add the records; a full buffer drops
+     *                   records rather than holding up the other tables
+     * @throws ProcessException if the table monitor can't be created
+     */
+    Subscription subscribe( String tableName, KineticaMonitorBuffer<byte[]> buffer ) throws ProcessException;
+
+}  // end interface KineticaTableMonitorService
@@ -0,0 +1,236 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import com.gpudb.GPUdb;
+import com.gpudb.protocol.GetRecordsRequest;
+import com.gpudb.protocol.ShowTableRequest;
+
+/**
+ * Loads the records a table holds when a Get processor starts, so that they
+ * are written out ahead of the records received from the table monitor.
+ *
+ * The processor subscribes to the table monitor first and only then starts
+ * the snapshot, which reads as many records as the table holds at that point,
+ * in pages fetched concurrently with /get/records.  The pages are added to a
+ * buffer of their own in table order; the processor writes out that buffer
+ * until the snapshot is loaded and the buffer empty
+ * ({@link #select(KineticaMonitorBuffer)}), then switches to the live
+ * records, which have been buffered meanwhile.  Records inserted while the
+ * snapshot is taken may be written twice, but none are missed, as long as
+ * no records are deleted from the table during the snapshot and the live
+ * buffer doesn't drop any.
+ *
+ * A failed request is retried a few times; if it still fails, the snapshot
+ * is marked failed and {@link #select(KineticaMonitorBuffer)} reports it
+ * rather than moving on to the live records with a gap.
+ */
+public class KineticaTableSnapshot {
+
+    // The number of times a request is made before the snapshot fails, and
+    // the wait before the first retry (doubled for every other)
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private final GPUdb gpudb;
+    private final String tableName;
+    private final int pageSize;
+    private final int threads;
+    private final KineticaMonitorBuffer<byte[]> buffer;
+    private final ComponentLog logger;
+
+    private Thread thread;
+    private volatile boolean done = false;
+    private volatile boolean failed = false;
+
+
+    /**
+     * @param gpudb      the connection to Kinetica
+     * @param tableName  the table to read
+     * @param pageSize   the number of records per /get/records request
+     * @param threads    the number of pages fetched concurrently
+     * @param buffer     where to add the records, in table order; it should
+     *                   block when full
+     * @param logger     the logger of the processor
+     */
+    public KineticaTableSnapshot( GPUdb gpudb, String tableName, int pageSize, int threads,
+                                  KineticaMonitorBuffer<byte[]> buffer, ComponentLog logger ) {
+        this.gpudb     = gpudb;
+        this.tableName = tableName;
+        this.pageSize  = Math.max( pageSize, 1 );
+        this.threads   = Math.max( threads, 1 );
+        this.buffer    = buffer;
+        this.logger    = logger;
+    }
+
+
+    /**
+     * Starts loading the records of the table.
+     */
+    public synchronized void start() {
+        thread = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        }, "Kinetica table snapshot " + tableName );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+
+    /**
+     * Stops loading the records.
+     */
+    public synchronized void stop() {
+        if ( thread != null ) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+
+    /**
+     * @return whether all the records have been added to the buffer (or the
+     *         snapshot failed or was stopped)
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+
+    /**
+     * @return whether some of the records could not be loaded
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+
+    /**
+     * @param live  the buffer of the records received from the table monitor
+     * @return the buffer to write records out from: the snapshot's, until
+     *         the snapshot is loaded and written out, then the live one
+     * @throws ProcessException once the records that were loaded are written
+     *         out, if the snapshot failed; the live records are kept
+     */
+    public KineticaMonitorBuffer<byte[]> select( KineticaMonitorBuffer<byte[]> live ) {
+        // Read done first: once set, no more records are added
+        if ( done && (buffer.getDepth() == 0) ) {
+            if ( failed ) {
+                throw new ProcessException( "Unable to load the existing records of " + tableName
+                                            + "; stop and start the processor to take the snapshot again" );
+            }
+            return live;
+        }
+        return buffer;
+    }
+
+
+    /*
+     * Makes the given request, retrying it with a growing backoff if it
+     * fails.
+     */
+    private <T> T withRetries( Callable<T> request ) throws Exception {
+        long backoff = RETRY_BACKOFF_MILLIS;
+        for ( int attempt = 1; ; ++attempt ) {
+            try {
+                return request.call();
+            } catch ( InterruptedException ex ) {
+                throw ex;
+            } catch ( Exception ex ) {
+                if ( attempt >= MAX_ATTEMPTS ) {
+                    throw ex;
+                }
+                logger.warn( "Request for the existing records of {} failed ({}); retrying in {} ms",
+                             new Object[] { tableName, ex.getMessage(), backoff } );
+                Thread.sleep( backoff );
+                backoff *= 2;
+            }
+        }
+    }
+
+
+    private void load() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool( threads, new ThreadFactory() {
+            @Override
+            public Thread newThread( Runnable runnable ) {
+                Thread pageThread = new Thread( runnable, "Kinetica table snapshot " + tableName + " " + threadCount.incrementAndGet() );
+                pageThread.setDaemon( true );
+                return pageThread;
+            }
+        } );
+
+        long count = 0;
+        try {
+            // Only what the table holds now; later records come from the
+            // table monitor
+            final long total = withRetries( new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return gpudb.showTable( tableName, GPUdb.options( ShowTableRequest.Options.GET_SIZES,
+                                                                          ShowTableRequest.Options.TRUE ) ).getTotalSize();
+                    }
+                } );
+            logger.info( "Loading the {} existing record(s) of {}", new Object[] { total, tableName } );
+
+            // Bound the number of pages in memory
+            final int maxInFlight = 2 * threads;
+            Deque<Future<List<ByteBuffer>>> inFlight = new ArrayDeque<>();
+            long offset = 0;
+            while ( (offset < total) || !inFlight.isEmpty() ) {
+                while ( (offset < total) && (inFlight.size() < maxInFlight) ) {
+                    final long pageOffset = offset;
+                    final long limit = Math.min( pageSize, total - offset );
+                    inFlight.add( pool.submit( new Callable<List<ByteBuffer>>() {
+                            @Override
+                            public List<ByteBuffer> call() throws Exception {
+                                return withRetries( new Callable<List<ByteBuffer>>() {
+                                        @Override
+                                        public List<ByteBuffer> call() throws Exception {
+                                            return gpudb.getRecordsRaw( new GetRecordsRequest( tableName, pageOffset, limit,
+                                                                                               GetRecordsRequest.Encoding.BINARY, null ) )
+                                                .getRecordsBinary();
+                                        }
+                                    } );
+                            }
+                        } ) );
+                    offset += limit;
+                }
+
+                // In table order, whichever page arrives first
+                for ( ByteBuffer record : inFlight.poll().get() ) {
+                    byte[] data = new byte[ record.remaining() ];
+                    record.duplicate().get( data );
+                    buffer.put( data, data.length );
+                    ++count;
+                }
+            }
+            logger.info( "Loaded {} existing record(s) of {}", new Object[] { count, tableName } );
+        } catch ( InterruptedException ex ) {
+            logger.debug( "Stopped loading the records of {} after {}", new Object[] { tableName, count } );
+            Thread.currentThread().interrupt();
+        } catch ( Exception ex ) {
+            logger.error( "Unable to load the existing records of {}; {} were loaded", new Object[] { tableName, count }, ex );
+            // Set before done, so that select() sees it
+            failed = true;
+        } finally {
+            pool.shutdownNow();
+            done = true;
+        }
+    }
+
+}  // end class KineticaTableSnapshot
@@ -2,18 +2,22 @@ package com.gisfederal.gpudb.processors.GPUdbNiFi;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.TimeZone;
 
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 
 import com.gpudb.ColumnProperty;
 import com.gpudb.GPUdb;
+import com.gpudb.GPUdbBase.Options;
 import com.gpudb.GPUdbException;
 import com.gpudb.Type.Column;
-import com.gpudb.protocol.HasTableResponse;
 
 public class KineticaUtilities {
     
@@ -36,12 +40,91 @@ public class KineticaUtilities {
         return exceptionAsString;
     }
     
+    /**
+     * Gets the connection to Kinetica from the connection service when the
+     * processor references one, or else creates one from the processor's own
+     * server URL and credentials.
+     */
+    public static GPUdb getConnection(ProcessContext context, PropertyDescriptor connectionService,
+            PropertyDescriptor server, PropertyDescriptor username, PropertyDescriptor password) throws GPUdbException {
+        if (context.getProperty(connectionService).isSet()) {
+            return context.getProperty(connectionService).asControllerService(KineticaConnectionService.class).getConnection();
+        }
+
+        Options option = new Options();
+        if (context.getProperty(username).getValue() != null && context.getProperty(password).getValue() != null) {
+            option.setUsername(context.getProperty(username).getValue());
+            option.setPassword(context.getProperty(password).getValue());
+        }
+        return new GPUdb(context.getProperty(server).getValue(), option);
+    }
+
+    /**
+     * Checks that a processor is given exactly one of a connection service
+     * and a server URL.
+     */
+    public static Collection<ValidationResult> validateConnection(ValidationContext context,
+            PropertyDescriptor connectionService, PropertyDescriptor server) {
+        final List<ValidationResult> results = new ArrayList<>();
+        validateExactlyOne(context, connectionService, server, results);
+        return results;
+    }
+
+    /**
+     * Checks that a Get processor is given exactly one of a connection
+     * service and a server URL, and exactly one of a table monitor service
+     * and a table monitor URL.
+     */
+    public static Collection<ValidationResult> validateTableMonitor(ValidationContext context,
+            PropertyDescriptor connectionService, PropertyDescriptor server,
+            PropertyDescriptor monitorService, PropertyDescriptor monitorUrl) {
+        final List<ValidationResult> results = new ArrayList<>();
+        validateExactlyOne(context, connectionService, server, results);
+        validateExactlyOne(context, monitorService, monitorUrl, results);
+        return results;
+    }
+
+    private static void validateExactlyOne(ValidationContext context, PropertyDescriptor service,
+            PropertyDescriptor property, List<ValidationResult> results) {
+        if (context.getProperty(service).isSet() == context.getProperty(property).isSet()) {
+            results.add(new ValidationResult.Builder()
+                    .subject(service.getName())
+                    .valid(false)
+                    .explanation("exactly one of " + service.getName() + " and " + property.getName() + " must be set")
+                    .build());
+        }
+    }
+
+    /**
+     * Starts receiving the records inserted into the table into the buffer,
+     * through the table monitor service when the processor references one,
+     * or else through a table monitor of the processor's own.
+     */
+    public static KineticaTableMonitorService.Subscription startTableMonitor(ProcessContext context,
+            PropertyDescriptor monitorService, PropertyDescriptor monitorUrl, GPUdb gpudb, String tableName,
+            KineticaMonitorBuffer<byte[]> buffer, ComponentLog logger) {
+        if (context.getProperty(monitorService).isSet()) {
+            return context.getProperty(monitorService).asControllerService(KineticaTableMonitorService.class)
+                    .subscribe(tableName, buffer);
+        }
+
+        KineticaTableMonitor monitor = new KineticaTableMonitor(gpudb, tableName, context.getProperty(monitorUrl).getValue(),
+                buffer, logger);
+        monitor.start();
+        return monitor;
+    }
+
     public static boolean tableExists(GPUdb gpudb, String tableName, ComponentLog logger) {
-        HasTableResponse response;
+        return tableExists(gpudb, tableName, logger, null);
+    }
 
+    /**
+     * Checks whether the table exists through the shared metadata cache,
+     * counting the lookup in the given session (if any).
+     */
+    public static boolean tableExists(GPUdb gpudb, String tableName, ComponentLog logger, ProcessSession session) {
         try {
-            response = gpudb.hasTable(tableName, null);
-            return response.getTableExists();
+            return KineticaMetadataCache.get(gpudb).tableExists(gpudb, tableName, session);
         } catch (GPUdbException ex) {
             logger.error("Failed checking if table exists in Kinetica");
         }
@@ -50,28 +133,20 @@ public class KineticaUtilities {
     }
 
     public static Long parseDate(String dateString, String dataFormat, String timeZone, ComponentLog logger) throws Exception {
-        if (dateString == null || dataFormat == null) {
-            logger.error("Date and Patterns must not be null");
+        if (dateString == null) {
+            logger.error("Date must not be null");
+            return null;
         }
 
-        TimeZone timezone = timeZone == null ? TimeZone.getDefault() : TimeZone.getTimeZone(timeZone);
-        
-        SimpleDateFormat parser = new SimpleDateFormat();
-        parser.setLenient(true);
-        parser.applyPattern(dataFormat);
-        parser.setTimeZone(timezone);
-        try {
-            Date date = parser.parse(dateString);
-            if (date != null) {
-                return date.getTime();
-            }
-        } catch (Exception e) {
+        // The parser for a given format and timezone is compiled once and
+        // shared by all the callers
+        Long timestamp = KineticaDateParser.get(dataFormat, timeZone).parse(dateString);
+        if (timestamp == null) {
             logger.error("FAILED to parse date " + "Data String: " + dateString + " Pattern: " + dataFormat +
-                    " Timezone: " + timeZone.toString());
-            logger.error(convertStacktraceToString(e));
+                    " Timezone: " + timeZone);
         }
 
-        return null;
+        return timestamp;
     }
 
 }
@@ -1,22 +1,31 @@
 package com.gisfederal.gpudb.processors.GPUdbNiFi;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnRemoved;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.flowfile.FlowFile;
-import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.AbstractSessionFactoryProcessor;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
@@ -24,15 +33,12 @@ import org.apache.nifi.processor.util.StandardValidators;
 
 import com.gpudb.BulkInserter;
 import com.gpudb.GPUdb;
-import com.gpudb.GPUdbBase.Options;
 import com.gpudb.GPUdbException;
 import com.gpudb.Record;
 import com.gpudb.RecordObject;
 import com.gpudb.Type;
 import com.gpudb.Type.Column;
-import com.gpudb.WorkerList;
 import com.gpudb.protocol.CreateTableRequest;
-import com.gpudb.protocol.HasTableResponse;
 import com.gpudb.protocol.InsertRecordsRequest;
 
 @Tags({ "Kinetica", "add", "bulkadd", "put" })
@@ -44,9 +50,16 @@ import com.gpudb.protocol.InsertRecordsRequest;
         + "It is important to set the Batch Size to meet your througput needs. If you are ingesting 10K tuples a second, you will need to set your "
         + "Batch Size to match.")
 @ReadsAttribute(attribute = "mime.type", description = "Determines MIME type of input file")
-public class PutKinetica extends AbstractProcessor {
+@TriggerWhenEmpty
+public class PutKinetica extends AbstractSessionFactoryProcessor {
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder().name( KineticaConstants.CONNECTION_SERVICE )
+        .description("The Kinetica Connection Service to connect to Kinetica through, sharing its pooled connections with the "
+                     + "other processors using it. When set, Server URL, Username and Password are not used.")
+        .required(false).identifiesControllerService(KineticaConnectionService.class).build();
+
     public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder().name( KineticaConstants.SERVER_URL )
-        .description("URL of the Kinetica server. Example http://172.3.4.19:9191").required(true)
+        .description("URL of the Kinetica server. Example http://172.3.4.19:9191. Required unless a Kinetica Connection "
+                     + "Service is set.").required(false)
         .addValidator(StandardValidators.URL_VALIDATOR).build();
 
     public static final PropertyDescriptor PROP_COLLECTION = new PropertyDescriptor.Builder().name( KineticaConstants.COLLECTION_NAME )
@@ -67,6 +80,25 @@ public class PutKinetica extends AbstractProcessor {
                      + "grouped by table, and a batch insert per table will be performed.")
         .required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("500").build();
 
+    protected static final PropertyDescriptor PROP_MAX_LINGER_TIME = new PropertyDescriptor.Builder().name( KineticaConstants.MAX_LINGER_TIME )
+        .description("The maximum amount of time records are held before being sent to Kinetica when fewer than Batch Size "
+                     + "records are available. Records accumulate across executions until either Batch Size records are "
+                     + "waiting or the oldest of them has waited this long; their FlowFiles are only routed to success once "
+                     + "Kinetica has acknowledged the insert. While the queue is empty, the processor yields between checks, "
+                     + "so this time is only checked once per Yield Duration. The default of 0 sec sends the records of "
+                     + "every execution right away.")
+        .required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).defaultValue("0 sec").build();
+
+    protected static final PropertyDescriptor PROP_MAX_RETRIES = new PropertyDescriptor.Builder().name( KineticaConstants.MAX_RETRIES )
+        .description("The number of times the records that Kinetica failed to insert are sent again before their FlowFiles "
+                     + "are routed to failure. Only the failed records are sent again; the other FlowFiles of the batch are "
+                     + "routed to success.")
+        .required(true).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).defaultValue("3").build();
+
+    protected static final PropertyDescriptor PROP_RETRY_BACKOFF = new PropertyDescriptor.Builder().name( KineticaConstants.RETRY_BACKOFF )
+        .description("How long to wait before sending failed records again; the wait doubles with every further attempt.")
+        .required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).defaultValue("1 sec").build();
+
     public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder().name( KineticaConstants.USERNAME )
         .description("Username to connect to Kinetica").required(false)
         .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
@@ -96,7 +128,8 @@ public class PutKinetica extends AbstractProcessor {
     public static final PropertyDescriptor PROP_DATE_FORMAT = new PropertyDescriptor.Builder()
         .name( KineticaConstants.DATE_FORMAT )
         .description("Provide the date format used for your datetime values"
-                     + " Example: yyyy/MM/dd HH:mm:ss")
+                     + " Example: yyyy/MM/dd HH:mm:ss. Use 'iso8601' (the default) for ISO-8601 values and"
+                     + " 'epoch_seconds' for epoch seconds; integer values are otherwise taken as epoch milliseconds.")
         .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
 
     public static final PropertyDescriptor PROP_TIMEZONE = new PropertyDescriptor.Builder()
@@ -112,24 +145,26 @@ public class PutKinetica extends AbstractProcessor {
     public static final Relationship REL_FAILURE = new Relationship.Builder().name( KineticaConstants.FAILURE )
         .description("All FlowFiles that cannot be written to Kinetica are routed to this relationship").build();
 
-    private GPUdb gpudb;
-    private String tableName;
-    public Type objectType;
     private List<PropertyDescriptor> descriptors;
     private Set<Relationship> relationships;
-    private boolean updateOnExistingPk;
-    private String dataFormat;
-    private String timeZone;
+
+    // Replaced as a whole by every schedule, and only read by the tasks
+    private volatile ScheduledState state;
+    private volatile KineticaMetrics metrics;
     private static final String PROCESSOR_NAME = "PutKinetica";
 
     @Override
     protected void init(final ProcessorInitializationContext context) {
         final List<PropertyDescriptor> descriptorList = new ArrayList<>();
+        descriptorList.add(PROP_CONNECTION_SERVICE);
         descriptorList.add(PROP_SERVER);
         descriptorList.add(PROP_COLLECTION);
         descriptorList.add(PROP_TABLE);
         descriptorList.add(PROP_SCHEMA);
         descriptorList.add(PROP_BATCH_SIZE);
+        descriptorList.add(PROP_MAX_LINGER_TIME);
+        descriptorList.add(PROP_MAX_RETRIES);
+        descriptorList.add(PROP_RETRY_BACKOFF);
         descriptorList.add(PROP_USERNAME);
         descriptorList.add(PROP_PASSWORD);
         descriptorList.add(UPDATE_ON_EXISTING_PK);
@@ -155,10 +190,10 @@ public class PutKinetica extends AbstractProcessor {
         return descriptors;
     }
 
-    private Type createTable(ProcessContext context, String schemaStr) throws GPUdbException {
+    private Type createTable(ProcessContext context, GPUdb gpudb, String tableName, String schemaStr) throws GPUdbException {
         getLogger().debug(PROCESSOR_NAME + " createTable:" + tableName + ", schemaStr:" + schemaStr);
-        HasTableResponse response = gpudb.hasTable(tableName, null);
-        if (response.getTableExists()) {
+        KineticaMetadataCache cache = KineticaMetadataCache.get(gpudb);
+        if (cache.tableExists(gpudb, tableName, null)) {
             return (null);
         }
         List<Column> attributes = new ArrayList<>();
@@ -234,14 +269,14 @@ public class PutKinetica extends AbstractProcessor {
         Type type = new Type("", attributes);
 
         String typeId = type.create(gpudb);
-        response = gpudb.hasTable(tableName, null);
+        boolean exists = cache.tableExists(gpudb, tableName, null);
         Map<String, String> create_table_options;
         String parent = context.getProperty(PROP_COLLECTION).getValue();
         if (parent == null) {
             parent = "";
         }
 
-        if (!response.getTableExists()) {
+        if (!exists) {
             boolean replicated_flag = context.getProperty(PROP_REPLICATE_TABLE).isSet()
                     && context.getProperty(PROP_REPLICATE_TABLE).asBoolean().booleanValue();
             getLogger().debug(PROCESSOR_NAME + " replicated_flag = " + replicated_flag);
@@ -252,205 +287,539 @@ public class PutKinetica extends AbstractProcessor {
 
             getLogger().debug(PROCESSOR_NAME + " create_table_options has " + create_table_options.size() + "properties");
             gpudb.createTable(context.getProperty(PROP_TABLE).getValue(), typeId, create_table_options);
+            cache.put(tableName, type);
         }
 
         gpudb.addKnownType(typeId, RecordObject.class);
         return type;
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        return KineticaUtilities.validateConnection(validationContext, PROP_CONNECTION_SERVICE, PROP_SERVER);
+    }
+
     @OnScheduled
     public void onScheduled(final ProcessContext context) throws GPUdbException {
-        Options option = new Options();
-        if (context.getProperty(PROP_USERNAME).getValue() != null
-                && context.getProperty(PROP_PASSWORD).getValue() != null) {
-            option.setUsername(context.getProperty(PROP_USERNAME).getValue());
-            option.setPassword(context.getProperty(PROP_PASSWORD).getValue());
-        }
-        gpudb = new GPUdb(context.getProperty(PROP_SERVER).getValue(), option);
-        tableName = context.getProperty(PROP_TABLE).getValue();
-        updateOnExistingPk = context.getProperty(UPDATE_ON_EXISTING_PK).asBoolean().booleanValue();
-        dataFormat = context.getProperty(PROP_DATE_FORMAT).getValue();
-        timeZone = context.getProperty(PROP_TIMEZONE).getValue();
+        GPUdb gpudb = KineticaUtilities.getConnection(context, PROP_CONNECTION_SERVICE, PROP_SERVER, PROP_USERNAME, PROP_PASSWORD);
+        String tableName = context.getProperty(PROP_TABLE).getValue();
+        boolean updateOnExistingPk = context.getProperty(UPDATE_ON_EXISTING_PK).asBoolean().booleanValue();
+        String dataFormat = context.getProperty(PROP_DATE_FORMAT).getValue();
+        String timeZone = context.getProperty(PROP_TIMEZONE).getValue();
 
-        HasTableResponse response;
+        KineticaMetadataCache cache = KineticaMetadataCache.get(gpudb);
+        boolean exists;
 
         try {
-            response = gpudb.hasTable(tableName, null);
+            exists = cache.tableExists(gpudb, tableName, null);
         } catch (GPUdbException ex) {
             getLogger().error(PROCESSOR_NAME + " Error: Failed hasTable, exception:" + ex.getMessage());
-            response = null;
+            exists = false;
         }
 
-        if ((response != null) && (response.getTableExists())) {
+        Type objectType;
+        if (exists) {
             getLogger().debug(PROCESSOR_NAME + " getting type from table:" + tableName);
-            objectType = Type.fromTable(gpudb, tableName);
+            objectType = cache.getType(gpudb, tableName, null);
             getLogger().debug(PROCESSOR_NAME + " objectType:" + objectType.toString());
         } else if (context.getProperty(PROP_SCHEMA).isSet()) {
-            objectType = createTable(context, context.getProperty(PROP_SCHEMA).getValue());
+            objectType = createTable(context, gpudb, tableName, context.getProperty(PROP_SCHEMA).getValue());
         } else {
             objectType = null;
         }
+
+        // Compile the per-column conversion plan once for all the records
+        KineticaRecordConverter converter = (objectType == null) ? null
+            : new KineticaRecordConverter( objectType, dataFormat, timeZone, true, getLogger() );
+
+        // The worker list and the bulk inserters live as long as the
+        // schedule, so records accumulate across triggers rather than being
+        // flushed by each one; there is one inserter per concurrent task.
+        // The lanes flush once Batch Size records are in flight, before any
+        // queue of an inserter can fill up and flush on its own, so that
+        // every record in flight is known not to be acknowledged yet
+        int batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
+        KineticaInserterPool pool = (objectType == null) ? null
+            : new KineticaInserterPool(gpudb, tableName, objectType, batchSize + 1, GPUdb.options(
+                    InsertRecordsRequest.Options.UPDATE_ON_EXISTING_PK,
+                    updateOnExistingPk ? InsertRecordsRequest.Options.TRUE : InsertRecordsRequest.Options.FALSE),
+                    context.getMaxConcurrentTasks());
+
+        metrics = KineticaMetrics.register(getIdentifier(), getClass().getSimpleName(), tableName);
+        if (pool != null) {
+            metrics.setWorkers(pool.getWorkers());
+        }
+
+        state = new ScheduledState(gpudb, tableName, converter, pool, batchSize,
+                context.getProperty(PROP_MAX_LINGER_TIME).asTimePeriod(TimeUnit.MILLISECONDS),
+                context.getProperty(PROP_MAX_RETRIES).asInteger(),
+                context.getProperty(PROP_RETRY_BACKOFF).asTimePeriod(TimeUnit.MILLISECONDS));
+    }
+
+    @OnStopped
+    public void onStopped() {
+        // Send whatever is still waiting for the linger time or for a retry
+        // and release the FlowFiles held by the pending sessions
+        final ScheduledState state = this.state;
+        if (state == null || state.pool == null) {
+            return;
+        }
+        for (int i = 0; i < state.lanes.length; i++) {
+            KineticaInserterPool.Stripe stripe = state.pool.acquire(i);
+            try {
+                state.lanes[i].drain();
+            } finally {
+                stripe.release();
+            }
+        }
+    }
+
+    @OnRemoved
+    public void onRemoved() {
+        KineticaMetrics.unregister(getIdentifier());
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        final List<FlowFile> successes = new ArrayList<>();
-        final int batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
-        BulkInserter<Record> bulkInserter = null;
-        WorkerList workers = null;
+    public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory) throws ProcessException {
+        final ScheduledState state = this.state;
+        final ProcessSession session = sessionFactory.createSession();
+        metrics.reportCounters(session);
 
-        // get flowfiles and continue to ad them to the BulkInserter. It will
+        // get flowfiles and continue to add them to the BulkInserter. It will
         // use the batch size to flush them to Kinetica automatically
-        List<FlowFile> flowFiles = session.get(batchSize);
+        List<FlowFile> flowFiles = session.get(state.batchSize);
         if (flowFiles == null || flowFiles.size() == 0) {
+            session.commit();
+            if (state.pool == null) {
+                context.yield();
+                return;
+            }
+            // Nothing new; send the pending records that lingered long enough
+            // or are due for a retry, in the lanes no other task is using
+            boolean flushed = false;
+            for (int i = 0; i < state.lanes.length; i++) {
+                KineticaInserterPool.Stripe stripe = state.pool.tryAcquire(i);
+                if (stripe != null) {
+                    try {
+                        flushed |= state.lanes[i].flushIfDue();
+                    } finally {
+                        stripe.release();
+                    }
+                }
+            }
+            if (!flushed) {
+                // Don't spin on an idle queue
+                context.yield();
+            }
             return;
         } else {
             getLogger().debug(PROCESSOR_NAME + " Found {} rows for insert.", new Object[] { flowFiles.size(), null, null });
         }
 
-        try {
-            // bulk inserter automatically flushes to Kinetica when the batch
-            // size is met
-            workers = new WorkerList(gpudb);
-            bulkInserter = new BulkInserter<Record>(gpudb, tableName, objectType, batchSize, GPUdb.options(
-                    InsertRecordsRequest.Options.UPDATE_ON_EXISTING_PK,
-                    updateOnExistingPk ? InsertRecordsRequest.Options.TRUE : InsertRecordsRequest.Options.FALSE),
-                    workers);
-
-        } catch (Exception e) {
-            getLogger().error( PROCESSOR_NAME + 
-                    " Error: Found failed to create a BulkInserter, please check error logs for more details.",
-                    new Object[] { null, null, null });
+        if (state.pool == null) {
+            getLogger().error( PROCESSOR_NAME +
+                    " Error: Table {} does not exist and no Schema is given; routing FlowFiles to failure.",
+                    new Object[] { state.tableName, null, null });
+            session.transfer(flowFiles, REL_FAILURE);
+            session.commit();
             return;
         }
 
-        final long start = System.currentTimeMillis();
+        // Convert the FlowFiles before taking a lane, so that tasks only
+        // hold their lane while inserting
+        final PendingSession batch = new PendingSession(session);
+        final List<PendingRecord> records = new ArrayList<>();
         for (final FlowFile flowFile : flowFiles) {
-            Record object = createGPUdbRecord(flowFile, session);
+            final long conversionStart = System.nanoTime();
+            Record object = createGPUdbRecord(state.converter, flowFile);
+            metrics.recordConversion(System.nanoTime() - conversionStart);
             if (object != null) {
-                try {
-                    bulkInserter.insert(object);
-                    successes.add(flowFile);
-                } catch (BulkInserter.InsertException e) {
-                    // Get any records that failed to insert and retry them
-                    getLogger().error(PROCESSOR_NAME + " Error: " + e.getMessage() );
-                    session.transfer(flowFile, REL_FAILURE);
-                }
+                records.add(new PendingRecord(batch, flowFile, object));
             } else {
                 // Failed to create a Record Object, mark record as failed
-                getLogger().error( PROCESSOR_NAME + 
+                getLogger().error( PROCESSOR_NAME +
                         " Error: Found failed to create a Record Object, please check error logs for more details.",
                         new Object[] { null, null, null });
                 session.transfer(flowFile, REL_FAILURE);
+                metrics.addFailures(1);
             }
         }
+        batch.outstanding = records.size();
 
-        // Flush the bulk inserter object to make sure all objects are inserted
+        KineticaInserterPool.Stripe stripe = state.pool.acquire();
         try {
-            bulkInserter.flush();
-        } catch (BulkInserter.InsertException e) {
-            getLogger().error(PROCESSOR_NAME + " Error: " + e.getMessage());
+            state.lanes[stripe.getIndex()].add(batch, records);
+        } finally {
+            stripe.release();
         }
+    }
 
-        final long sendMillis = System.currentTimeMillis() - start;
-        // mark all flowfiles as successful if they made it to Kinetica
-        for (FlowFile insertedFlowFile : successes) {
-            session.transfer(insertedFlowFile, REL_SUCCESS);
-            final String details = "Insert " + insertedFlowFile.toString() + " into Kinetica";
-            session.getProvenanceReporter().send(insertedFlowFile, PROP_SERVER + " " + PROP_TABLE, details, sendMillis);
+    /*
+     * The configuration derived state of a schedule. It is built by
+     * onScheduled and never modified afterwards, so the concurrent tasks can
+     * share it without locking; only the lanes hold mutable state, and each
+     * is only used while holding its stripe of the inserter pool.
+     */
+    private final class ScheduledState {
+        final GPUdb gpudb;
+        final String tableName;
+        final KineticaRecordConverter converter;
+        final KineticaInserterPool pool;
+        final Lane[] lanes;
+        final int batchSize;
+        final long maxLingerMillis;
+        final int maxRetries;
+        final long retryBackoffMillis;
+
+        ScheduledState(GPUdb gpudb, String tableName, KineticaRecordConverter converter, KineticaInserterPool pool,
+                       int batchSize, long maxLingerMillis, int maxRetries, long retryBackoffMillis) {
+            this.gpudb = gpudb;
+            this.tableName = tableName;
+            this.converter = converter;
+            this.pool = pool;
+            this.batchSize = batchSize;
+            this.maxLingerMillis = maxLingerMillis;
+            this.maxRetries = maxRetries;
+            this.retryBackoffMillis = retryBackoffMillis;
+
+            this.lanes = new Lane[(pool == null) ? 0 : pool.size()];
+            for (int i = 0; i < lanes.length; i++) {
+                KineticaInserterPool.Stripe stripe = pool.acquire(i);
+                lanes[i] = new Lane(this, stripe.getInserter(), pool.getWorkerCount());
+                stripe.release();
+            }
         }
     }
 
     /*
-     * Create a Record for the Flowfile The Kinetica Record object will be used
-     * to map to the attributes in the FlowFile Attributes that don't exist in
-     * the Kinetica Record object will be ignored The Kinetica Record was
-     * created from the pipe delimited schema
+     * The sessions whose records were given to one bulk inserter but not yet
+     * acknowledged, and those records: in flight (keyed by the record itself,
+     * which is what an InsertException hands back) or waiting for a retry.
+     * A lane is only used by the task holding the matching stripe of the
+     * inserter pool.
      */
-    @SuppressWarnings("rawtypes")
-    private Record createGPUdbRecord(FlowFile flowFile, ProcessSession session) {
-        Record object = objectType.newInstance();
-        String value = null;
-        String columnName = null;
-
-        Map attributeMap = flowFile.getAttributes();
-        for (Column column : objectType.getColumns()) {
+    private final class Lane {
+        private final ScheduledState state;
+        private final BulkInserter<Record> bulkInserter;
+        private final int workerCount;
+        private final List<PendingSession> pending = new ArrayList<>();
+        private final Map<Object, PendingRecord> inFlight = new IdentityHashMap<>();
+        private final List<PendingRecord> retries = new ArrayList<>();
+        private long oldestInFlightMillis;
+
+        Lane(ScheduledState state, BulkInserter<Record> bulkInserter, int workerCount) {
+            this.state = state;
+            this.bulkInserter = bulkInserter;
+            this.workerCount = workerCount;
+        }
+
+        /*
+         * Sends the records of a session; the session stays open until they
+         * have been acknowledged by Kinetica (or have run out of retries)
+         */
+        void add(PendingSession batch, List<PendingRecord> records) {
+            pending.add(batch);
+            for (PendingRecord record : records) {
+                send(record);
+            }
+            if (!flushIfDue()) {
+                settleSessions();
+            }
+        }
+
+        /*
+         * Flushes if records are due for a retry or have waited long enough.
+         *
+         * @return whether the inserter was flushed
+         */
+        boolean flushIfDue() {
+            if (resendDueRetries() || isFlushDue()) {
+                flushPending();
+                return true;
+            }
+            return false;
+        }
+
+        /*
+         * Sends everything still pending, waiting for the retries if needed
+         */
+        void drain() {
+            while (!inFlight.isEmpty() || !retries.isEmpty()) {
+                if (inFlight.isEmpty()) {
+                    waitForNextRetry();
+                }
+                resendDueRetries();
+                flushPending();
+            }
+        }
+
+        /*
+         * Hands a record to the bulk inserter, and flushes it once Batch Size
+         * records are in flight.  The inserter's own batch size is larger,
+         * so it never flushes on its own: records acknowledged by such a
+         * flush would stay in flight and be sent again by a later failure.
+         */
+        private void send(PendingRecord record) {
+            if (inFlight.isEmpty()) {
+                oldestInFlightMillis = System.currentTimeMillis();
+            }
+            inFlight.put(record.record, record);
             try {
-                columnName = column.getName();
-                if (attributeMap.containsKey(columnName)) {
-                    value = attributeMap.get(columnName).toString();
+                bulkInserter.insert(record.record);
+            } catch (BulkInserter.InsertException e) {
+                insertFailed(e);
+                return;
+            }
+            if (inFlight.size() >= state.batchSize) {
+                flushPending();
+            }
+        }
+
+        /*
+         * Whether the records in flight should be flushed now: either enough
+         * of them have accumulated for a full batch, or the oldest of them
+         * has waited for the Max Linger Time.
+         */
+        private boolean isFlushDue() {
+            return !inFlight.isEmpty()
+                    && ((inFlight.size() >= state.batchSize)
+                        || (System.currentTimeMillis() - oldestInFlightMillis >= state.maxLingerMillis));
+        }
+
+        /*
+         * Flushes the bulk inserter; every record in flight that was not
+         * handed back by an InsertException has then been acknowledged.
+         * Sessions whose records are all settled are then transferred and
+         * committed.
+         */
+        private void flushPending() {
+            // A failed flush leaves the queues after the failed one unsent,
+            // so keep flushing until a pass goes through; each pass empties
+            // at least the queue that failed
+            final int requestSize = inFlight.size();
+            final long flushStart = System.nanoTime();
+            for (int pass = 0; pass <= workerCount; ++pass) {
+                try {
+                    bulkInserter.flush();
+                    break;
+                } catch (BulkInserter.InsertException e) {
+                    insertFailed(e);
+                }
+            }
+            if (requestSize > 0) {
+                metrics.recordFlush(System.nanoTime() - flushStart, requestSize);
+            }
+
+            for (PendingRecord record : inFlight.values()) {
+                record.batch.outstanding--;
+            }
+            inFlight.clear();
+            settleSessions();
+        }
+
+        /*
+         * Maps the records carried by an insert failure back to their
+         * FlowFiles and schedules them for a retry, or marks them as failed
+         * once out of retries.
+         */
+        private void insertFailed(BulkInserter.InsertException e) {
+            getLogger().error(PROCESSOR_NAME + " Error: " + e.getMessage());
+            // The table may have been dropped or altered
+            KineticaMetadataCache.get(state.gpudb).invalidate(state.tableName);
+
+            List<PendingRecord> failed = new ArrayList<>();
+            if (e.getRecords() != null) {
+                for (Object object : e.getRecords()) {
+                    PendingRecord record = inFlight.remove(object);
+                    if (record != null) {
+                        failed.add(record);
+                    }
+                }
+            }
+            if (failed.isEmpty()) {
+                // Nothing can be attributed: the records in flight may or
+                // may not have made it (the queues flushed before the failed
+                // one did), so sending them again could insert them twice;
+                // route their FlowFiles to failure instead
+                metrics.addInsertFailures(e.getURL(), inFlight.size());
+                for (PendingRecord record : inFlight.values()) {
+                    record.batch.failed.add(record.flowFile);
+                    record.batch.outstanding--;
+                }
+                getLogger().warn(PROCESSOR_NAME + " {} records failed to insert and can't be told apart; routing "
+                        + "them to failure.", new Object[] { inFlight.size(), null, null });
+                inFlight.clear();
+                return;
+            }
+            metrics.addInsertFailures(e.getURL(), failed.size());
+
+            final long now = System.currentTimeMillis();
+            int retried = 0;
+            for (PendingRecord record : failed) {
+                if (record.attempts < state.maxRetries) {
+                    record.attempts++;
+                    record.retryAtMillis = now + (state.retryBackoffMillis << Math.min(record.attempts - 1, 16));
+                    retries.add(record);
+                    retried++;
                 } else {
-                    value = null;
+                    record.batch.failed.add(record.flowFile);
+                    record.batch.outstanding--;
                 }
+            }
+            getLogger().warn(PROCESSOR_NAME + " {} records failed to insert; {} will be retried.",
+                    new Object[] { failed.size(), retried, null });
+        }
 
-                boolean timeStamp = KineticaUtilities.checkForTimeStamp( column );
+        /*
+         * Sends the records whose retry backoff has elapsed again.
+         *
+         * @return whether any record was sent
+         */
+        private boolean resendDueRetries() {
+            if (retries.isEmpty()) {
+                return false;
+            }
+            final long now = System.currentTimeMillis();
+            List<PendingRecord> due = new ArrayList<>();
+            for (Iterator<PendingRecord> it = retries.iterator(); it.hasNext(); ) {
+                PendingRecord record = it.next();
+                if (record.retryAtMillis <= now) {
+                    due.add(record);
+                    it.remove();
+                }
+            }
+            for (PendingRecord record : due) {
+                send(record);
+            }
+            return !due.isEmpty();
+        }
 
-                if (timeStamp && value != null) {
-                    if (StringUtils.isNumeric(value)) {
-                        long valueLong;
-                        try {
-                            valueLong = Long.parseLong(value);
-                        } catch (NumberFormatException ex) {
-                            valueLong = 0;
-                        }
+        /*
+         * Sleeps until the earliest scheduled retry is due.
+         */
+        private void waitForNextRetry() {
+            long next = Long.MAX_VALUE;
+            for (PendingRecord record : retries) {
+                next = Math.min(next, record.retryAtMillis);
+            }
+            long delay = next - System.currentTimeMillis();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
 
-                        object.put(columnName, valueLong);
-                    } else {
-                        Long timestamp = KineticaUtilities.parseDate(value, dataFormat, timeZone, getLogger());
-                        object.put(columnName, timestamp);
-                    }
-                } else if (column.getType() == Double.class && value != null) {
-                    double valueDouble;
-                    try {
-                        valueDouble = Double.parseDouble(value);
-                    } catch (NumberFormatException ex) {
-                        valueDouble = 0;
-                    }
-                    object.put(columnName, valueDouble);
-                } else if (column.getType() == Float.class && value != null) {
-                    float valueFloat;
-                    try {
-                        valueFloat = Float.parseFloat(value);
-                    } catch (NumberFormatException ex) {
-                        valueFloat = 0;
-                    }
-                    object.put(columnName, valueFloat);
-                } else if (column.getType() == Integer.class && value != null) {
-                    int valueInt;
-                    try {
-                        valueInt = Integer.parseInt(value);
-                    } catch (NumberFormatException ex) {
-                        valueInt = 0;
-                    }
-                    object.put(columnName, valueInt);
-                } else if (column.getType() == java.lang.Long.class && value != null) {
-                    long valueLong;
-                    try {
-                        valueLong = Long.parseLong(value);
-                    } catch (NumberFormatException ex) {
-                        valueLong = 0;
-                    }
+        /*
+         * Transfers and commits the sessions that have no records left in
+         * flight or waiting for a retry: FlowFiles whose record failed every
+         * attempt go to failure, the others to success.
+         */
+        private void settleSessions() {
+            final long now = System.currentTimeMillis();
+            for (Iterator<PendingSession> it = pending.iterator(); it.hasNext(); ) {
+                PendingSession batch = it.next();
+                if (batch.outstanding > 0) {
+                    continue;
+                }
+                it.remove();
 
-                    object.put(columnName, valueLong);
-                } else {
-                    if (value != null && !value.trim().equals("")) {
-                        object.put(columnName, value);
+                try {
+                    final long sendMillis = now - batch.startMillis;
+                    long succeeded = 0;
+                    long succeededBytes = 0;
+                    for (PendingRecord record : batch.records) {
+                        if (batch.failed.contains(record.flowFile)) {
+                            batch.session.transfer(record.flowFile, REL_FAILURE);
+                        } else {
+                            succeeded++;
+                            succeededBytes += record.flowFile.getSize();
+                            // mark flowfiles as successful as they made it to Kinetica
+                            batch.session.transfer(record.flowFile, REL_SUCCESS);
+                            final String details = "Insert " + record.flowFile.toString() + " into Kinetica";
+                            batch.session.getProvenanceReporter().send(record.flowFile, PROP_SERVER + " " + PROP_TABLE, details, sendMillis);
+                        }
                     }
+                    batch.session.commit();
+                    metrics.addRecords(succeeded, succeededBytes);
+                    metrics.addFailures(batch.failed.size());
+                } catch (Exception e) {
+                    getLogger().error(PROCESSOR_NAME + " Error: failed to commit session: " + e.getMessage());
+                    batch.session.rollback();
                 }
 
-                getLogger().debug(PROCESSOR_NAME + " Found {} column with value {} inserting into Kinetica.",
-                        new Object[] { columnName, value, null });
+                if (getLogger().isDebugEnabled()) {
+                    getLogger().debug(PROCESSOR_NAME + " Settled {} records, {} failed.",
+                            new Object[] { batch.records.size(), batch.failed.size(), null });
+                }
+            }
+        }
+    }
+
+    /*
+     * A session whose FlowFiles wait for their records to be acknowledged
+     */
+    private static final class PendingSession {
+        final ProcessSession session;
+        final long startMillis = System.currentTimeMillis();
+        final List<PendingRecord> records = new ArrayList<>();
+        final Set<FlowFile> failed = Collections.newSetFromMap(new IdentityHashMap<FlowFile, Boolean>());
+        int outstanding;
+
+        PendingSession(ProcessSession session) {
+            this.session = session;
+        }
+    }
+
+    /*
+     * A record given to the bulk inserter, with the FlowFile it came from
+     */
+    private static final class PendingRecord {
+        final PendingSession batch;
+        final FlowFile flowFile;
+        final Record record;
+        int attempts;
+        long retryAtMillis;
+
+        PendingRecord(PendingSession batch, FlowFile flowFile, Record record) {
+            this.batch = batch;
+            this.flowFile = flowFile;
+            this.record = record;
+            batch.records.add(this);
+        }
+    }
+
+    /*
+     * Create a Record for the Flowfile The Kinetica Record object will be used
+     * to map to the attributes in the FlowFile Attributes that don't exist in
+     * the Kinetica Record object will be ignored The Kinetica Record was
+     * created from the pipe delimited schema
+     *
+     * Package-private for the benchmarks.
+     */
+    Record createGPUdbRecord(KineticaRecordConverter converter, FlowFile flowFile) {
+        Record object = converter.newRecord();
+        Map<String, String> attributeMap = flowFile.getAttributes();
+        int numColumns = converter.getColumnCount();
+
+        for (int i = 0; i < numColumns; i++) {
+            String value = attributeMap.get(converter.getColumnName(i));
+            try {
+                converter.setValue(object, i, value);
             } catch (Exception e) {
-                // if the flow file fails to become an object, mark it as failed
-                // and null out the object for return handling
-                session.transfer(flowFile, REL_FAILURE);
+                // if the flow file fails to become an object, null out the
+                // object so that the caller marks it as failed
                 getLogger().error(PROCESSOR_NAME +  " Error: Found {} column with value {} and failed to create a Record Obect.",
-                        new Object[] { columnName, value, null });
-                object = null;
+                        new Object[] { converter.getColumnName(i), value, null });
+                return null;
             }
         }
 
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug(PROCESSOR_NAME + " Inserting record {} into Kinetica.", new Object[] { object });
+        }
         return object;
     }
 }
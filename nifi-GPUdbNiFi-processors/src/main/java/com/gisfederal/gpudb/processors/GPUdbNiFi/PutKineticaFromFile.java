@@ -1,50 +1,56 @@
 package com.gisfederal.gpudb.processors.GPUdbNiFi;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnRemoved;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
-import org.apache.nifi.processor.io.OutputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
 
 import com.gpudb.BulkInserter;
 import com.gpudb.GPUdb;
-import com.gpudb.GPUdbBase.Options;
 import com.gpudb.GPUdbException;
 import com.gpudb.Record;
 import com.gpudb.RecordObject;
 import com.gpudb.Type;
 import com.gpudb.Type.Column;
-import com.gpudb.WorkerList;
 import com.gpudb.protocol.CreateTableRequest;
-import com.gpudb.protocol.HasTableResponse;
 import com.gpudb.protocol.InsertRecordsRequest;
 
 @Tags({ "Kinetica", "add", "bulkadd", "put", "csv", "delimited", "file" })
@@ -55,9 +61,23 @@ import com.gpudb.protocol.InsertRecordsRequest;
         + "does not hit memory issues parsing the file. Additionally, Nifi runs better if you adjust Concurrent tasks and Run schedule. Example: "
         + " Concurrent tasks to 2 and Run schedule to 2 sec on the Scheduling tab.")
 @ReadsAttribute(attribute = "mime.type", description = "Determines MIME type of input file")
+@WritesAttributes({
+    @WritesAttribute(attribute = KineticaFailureWriter.RECORD_COUNT_ATTRIBUTE,
+                     description = "The number of bad records, on the FlowFiles of bad records routed to failure"),
+    @WritesAttribute(attribute = KineticaFailureWriter.TRUNCATED_ATTRIBUTE,
+                     description = "Set to true when Max Failure Output Size left bad records out"),
+    @WritesAttribute(attribute = "kinetica.records.inserted", description = "On files routed to failure as a whole, the "
+            + "number of their records already inserted (in batches sent at Batch Size) before the error")
+})
 public class PutKineticaFromFile extends AbstractProcessor {
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder().name( KineticaConstants.CONNECTION_SERVICE )
+        .description("The Kinetica Connection Service to connect to Kinetica through, sharing its pooled connections with the "
+                     + "other processors using it. When set, Server URL, Username and Password are not used.")
+        .required(false).identifiesControllerService(KineticaConnectionService.class).build();
+
     public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder().name( KineticaConstants.SERVER_URL )
-        .description("URL of the Kinetica server. Example http://172.3.4.19:9191").required(true)
+        .description("URL of the Kinetica server. Example http://172.3.4.19:9191. Required unless a Kinetica Connection "
+                     + "Service is set.").required(false)
         .addValidator(StandardValidators.URL_VALIDATOR).build();
 
     public static final PropertyDescriptor PROP_COLLECTION = new PropertyDescriptor.Builder().name( KineticaConstants.COLLECTION_NAME )
@@ -104,6 +124,29 @@ public class PutKineticaFromFile extends AbstractProcessor {
                      + "occurs in a file.")
         .required(true).addValidator(StandardValidators.BOOLEAN_VALIDATOR).defaultValue("true").build();
 
+    protected static final PropertyDescriptor PROP_PARSE_THREADS = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.PARSE_THREADS )
+        .description(
+                     "The number of threads that parse, convert and insert the records of a single file. With 1, each file is "
+                     + "loaded by the task that picked it up. With more, the content of a file is split into chunks of whole "
+                     + "records that are loaded concurrently; bad records and counts are still reported in file order. When "
+                     + "errors are not skipped, records following the first bad record may already have been inserted.")
+        .required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("1").build();
+
+    protected static final PropertyDescriptor PROP_ERROR_REASON_COLUMNS = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.ERROR_REASON_COLUMNS )
+        .description("If true, every bad record routed to failure is followed by two more columns, "
+                     + KineticaFailureWriter.RECORD_NUMBER_COLUMN + " (its number in the file, from 1) and "
+                     + KineticaFailureWriter.ERROR_REASON_COLUMN + " (why it was rejected), also added to the header line.")
+        .required(true).addValidator(StandardValidators.BOOLEAN_VALIDATOR).defaultValue("false").build();
+
+    protected static final PropertyDescriptor PROP_MAX_FAILURE_SIZE = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.MAX_FAILURE_SIZE )
+        .description("The most bad records written to the failure FlowFile of a file, by size. Once about this much has "
+                     + "been written, further bad records are only counted and the FlowFile gets the "
+                     + KineticaFailureWriter.TRUNCATED_ATTRIBUTE + " attribute. No limit if not set.")
+        .required(false).addValidator(StandardValidators.DATA_SIZE_VALIDATOR).build();
+
     public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder().name( KineticaConstants.USERNAME )
         .description("Username to connect to Kinetica").required(false)
         .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
@@ -132,7 +175,8 @@ public class PutKineticaFromFile extends AbstractProcessor {
 
     public static final PropertyDescriptor PROP_DATE_FORMAT = new PropertyDescriptor.Builder().name( KineticaConstants.DATE_FORMAT )
         .description("Provide the date format used for your datetime values"
-                     + " Example: yyyy/MM/dd HH:mm:ss")
+                     + " Example: yyyy/MM/dd HH:mm:ss. Use 'iso8601' (the default) for ISO-8601 values and"
+                     + " 'epoch_seconds' for epoch seconds; integer values are otherwise taken as epoch milliseconds.")
         .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
 
     public static final PropertyDescriptor PROP_TIMEZONE = new PropertyDescriptor.Builder().name( KineticaConstants.TIMEZONE )
@@ -147,24 +191,25 @@ public class PutKineticaFromFile extends AbstractProcessor {
     public static final Relationship REL_FAILURE = new Relationship.Builder().name( KineticaConstants.FAILURE )
         .description("All FlowFiles that cannot be written to Kinetica are routed to this relationship").build();
 
-    private GPUdb gpudb;
-    private String tableName;
-    public Type objectType;
     private List<PropertyDescriptor> descriptors;
     private Set<Relationship> relationships;
-    private char delimiter;
-    private char escape;
-    private boolean isEmptyQuote;
-    private char quote;
-    private boolean hasHeader;
-    private boolean updateOnExistingPk;
-    private String dateFormat;
-    private String timeZone;
+
+    // Replaced as a whole by every schedule (and once more if the table only
+    // appears later), and only read by the tasks
+    private volatile ScheduledState state;
+    private volatile KineticaMetrics metrics;
     private static final String PROCESSOR_NAME = "PutKineticaFromFile";
 
+    // On failure, the number of records of the file already inserted
+    private static final String INSERTED_ATTRIBUTE = "kinetica.records.inserted";
+
+    // Number of characters per chunk when loading a file with several threads
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
     @Override
     protected void init(final ProcessorInitializationContext context) {
         final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_CONNECTION_SERVICE);
         descriptors.add(PROP_SERVER);
         descriptors.add(PROP_COLLECTION);
         descriptors.add(PROP_TABLE);
@@ -175,6 +220,9 @@ public class PutKineticaFromFile extends AbstractProcessor {
         descriptors.add(PROP_HAS_HEADER);
         descriptors.add(PROP_BATCH_SIZE);
         descriptors.add(PROP_ERROR_HANDLING);
+        descriptors.add(PROP_PARSE_THREADS);
+        descriptors.add(PROP_ERROR_REASON_COLUMNS);
+        descriptors.add(PROP_MAX_FAILURE_SIZE);
         descriptors.add(PROP_USERNAME);
         descriptors.add(PROP_PASSWORD);
         descriptors.add(UPDATE_ON_EXISTING_PK);
@@ -200,10 +248,10 @@ public class PutKineticaFromFile extends AbstractProcessor {
         return descriptors;
     }
 
-    private Type createTable(ProcessContext context, String schemaStr) throws GPUdbException {
+    private Type createTable(ProcessContext context, GPUdb gpudb, String tableName, String schemaStr) throws GPUdbException {
         getLogger().info(PROCESSOR_NAME + " created table in Kinetica:" + tableName + ", schemaStr:" + schemaStr);
-        HasTableResponse response = gpudb.hasTable(tableName, null);
-        if (response.getTableExists()) {
+        KineticaMetadataCache cache = KineticaMetadataCache.get(gpudb);
+        if (cache.tableExists(gpudb, tableName, null)) {
             return (null);
         }
         List<Column> attributes = new ArrayList<>();
@@ -279,14 +327,14 @@ public class PutKineticaFromFile extends AbstractProcessor {
         Type type = new Type("", attributes);
 
         String typeId = type.create(gpudb);
-        response = gpudb.hasTable(tableName, null);
+        boolean exists = cache.tableExists(gpudb, tableName, null);
         Map<String, String> create_table_options;
         String parent = context.getProperty(PROP_COLLECTION).getValue();
         if (parent == null) {
             parent = "";
         }
 
-        if (!response.getTableExists()) {
+        if (!exists) {
             boolean replicated_flag = context.getProperty(PROP_REPLICATE_TABLE).isSet()
                     && context.getProperty(PROP_REPLICATE_TABLE).asBoolean().booleanValue();
             getLogger().debug(PROCESSOR_NAME + " replicated_flag = " + replicated_flag);
@@ -297,160 +345,297 @@ public class PutKineticaFromFile extends AbstractProcessor {
 
             getLogger().debug(PROCESSOR_NAME + " create_table_options has " + create_table_options.size() + "properties");
             gpudb.createTable(context.getProperty(PROP_TABLE).getValue(), typeId, create_table_options);
+            cache.put(tableName, type);
         }
 
         gpudb.addKnownType(typeId, RecordObject.class);
         return type;
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        return KineticaUtilities.validateConnection(validationContext, PROP_CONNECTION_SERVICE, PROP_SERVER);
+    }
+
     @OnScheduled
     public void onScheduled(final ProcessContext context) throws GPUdbException {
-        Options option = new Options();
-        if (context.getProperty(PROP_USERNAME).getValue() != null
-                && context.getProperty(PROP_PASSWORD).getValue() != null) {
-            option.setUsername(context.getProperty(PROP_USERNAME).getValue());
-            option.setPassword(context.getProperty(PROP_PASSWORD).getValue());
-        }
         // Create a connection to the Kinetica server
-        gpudb = new GPUdb(context.getProperty(PROP_SERVER).getValue(), option);
+        GPUdb gpudb = KineticaUtilities.getConnection(context, PROP_CONNECTION_SERVICE, PROP_SERVER, PROP_USERNAME, PROP_PASSWORD);
+        String tableName = context.getProperty(PROP_TABLE).getValue();
 
         // Process the configuration options
-        tableName = context.getProperty(PROP_TABLE).getValue();
-        delimiter = context.getProperty(PROP_DELIMITER).getValue().charAt(0);
-        escape    = context.getProperty(PROP_ESCAPE_CHAR).getValue().charAt(0);
-        String quote_char = context.getProperty(PROP_QUOTE_CHAR).getValue();
-        isEmptyQuote = quote_char.isEmpty();
-        quote     = isEmptyQuote ? '"' : context.getProperty(PROP_QUOTE_CHAR).getValue().charAt(0);
-        hasHeader = context.getProperty(PROP_HAS_HEADER).asBoolean().booleanValue();
-        updateOnExistingPk = context.getProperty(UPDATE_ON_EXISTING_PK).asBoolean().booleanValue();
-        dateFormat = context.getProperty(PROP_DATE_FORMAT).getValue();
-        timeZone = context.getProperty(PROP_TIMEZONE).getValue();
+        ScheduledState state = new ScheduledState(context, gpudb, tableName);
 
         // Handle table creation
+        Type objectType;
         if (KineticaUtilities.tableExists(gpudb, tableName, getLogger())) {
             getLogger().debug(PROCESSOR_NAME + " Getting type from table:" + tableName);
-            objectType = Type.fromTable(gpudb, tableName);
+            objectType = KineticaMetadataCache.get(gpudb).getType(gpudb, tableName, null);
             getLogger().debug(PROCESSOR_NAME + " objectType:" + objectType.toString());
         } else if (context.getProperty(PROP_SCHEMA).isSet()) {
-            objectType = createTable(context, context.getProperty(PROP_SCHEMA).getValue());
+            objectType = createTable(context, gpudb, tableName, context.getProperty(PROP_SCHEMA).getValue());
         } else {
             objectType = null;
         }
+
+        metrics = KineticaMetrics.register(getIdentifier(), getClass().getSimpleName(), tableName);
+        this.state = (objectType == null) ? state : state.withType(objectType, getLogger());
+        if (this.state.pool != null) {
+            metrics.setWorkers(this.state.pool.getWorkers());
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        final ScheduledState state = this.state;
+        if (state != null && state.parsePool != null) {
+            state.parsePool.shutdown();
+        }
+    }
+
+    @OnRemoved
+    public void onRemoved() {
+        KineticaMetrics.unregister(getIdentifier());
+    }
+
+    /*
+     * Looks up (or creates) the table that did not exist when the processor
+     * was scheduled, and publishes the state for it so that the other tasks
+     * don't have to.
+     */
+    private synchronized ScheduledState resolveTable(ProcessContext context) throws GPUdbException {
+        ScheduledState current = this.state;
+        if (current.pool != null) {
+            // Another task got there first
+            return current;
+        }
+
+        Type objectType;
+        if (KineticaUtilities.tableExists(current.gpudb, current.tableName, getLogger())) {
+            objectType = KineticaMetadataCache.get(current.gpudb).getType(current.gpudb, current.tableName, null);
+        } else if (context.getProperty(PROP_SCHEMA).isSet()) {
+            objectType = createTable(context, current.gpudb, current.tableName, context.getProperty(PROP_SCHEMA).getValue());
+        } else {
+            throw new ProcessException(PROCESSOR_NAME + " Error: Table '" + current.tableName + "' does not exist in Kinetica. "
+                                       + "Please provide a schema or create"
+                                       + " the table prior to loading data." );
+        }
+
+        this.state = current.withType(objectType, getLogger());
+        metrics.setWorkers(this.state.pool.getWorkers());
+        return this.state;
     }
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
         final FlowFile flowFile = session.get();
-        final int batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
         final boolean skipErrors = context.getProperty(PROP_ERROR_HANDLING).asBoolean();
-        final BulkInserter<Record> bulkInserter;
-        final WorkerList workers;
+        ScheduledState state = this.state;
 
         if (flowFile == null) {
             return;
         }
+        metrics.reportCounters(session);
 
         try {
-            if (!KineticaUtilities.tableExists(gpudb, tableName, getLogger())) {
-                throw new ProcessException(PROCESSOR_NAME + " Error: Table '" + tableName + "' does not exist in Kinetica. "
+            // Answered by the metadata cache in the steady state
+            if (!KineticaUtilities.tableExists(state.gpudb, state.tableName, getLogger(), session)) {
+                throw new ProcessException(PROCESSOR_NAME + " Error: Table '" + state.tableName + "' does not exist in Kinetica. "
                                            + "Please provide a schema or create"
                                            + " the table prior to loading data." );
             }
-            workers = new WorkerList(gpudb);
-            bulkInserter = new BulkInserter<Record>(gpudb, tableName, objectType, batchSize, GPUdb.options(
-                    InsertRecordsRequest.Options.UPDATE_ON_EXISTING_PK,
-                    updateOnExistingPk ? InsertRecordsRequest.Options.TRUE : InsertRecordsRequest.Options.FALSE),
-                    workers);
+            if (state.pool == null) {
+                state = resolveTable(context);
+            }
         } catch (Exception e) {
             throw new ProcessException( PROCESSOR_NAME + " Error: Failed to create BulkInserter " + e.getMessage()
 				        + "; for debugging purposes, here is the stack trace:\n"
 					+ KineticaUtilities.convertStacktraceToString(e) );
         }
+
+        final GPUdb gpudb = state.gpudb;
+        final String tableName = state.tableName;
+        final KineticaRecordConverter recordConverter = state.converter;
         
         // Note: The following are length 1 arrays so that they can be declared
         // final and they can be used in anonymous functions.
 
-        final Type[] type = new Type[1];
-        final int[][] attributeNumbers = new int[1][];
         final boolean[] failed = { false };
 
-        // Create the flow file for the failure relationship (for bad records)
-        FlowFile failureFlowFile = session.create( flowFile );
+        // Bad records go to a failure flow file of their own, created with
+        // the first of them
+        final KineticaFailureWriter failureWriter = new KineticaFailureWriter( session, flowFile, state.delimiter,
+                                                                               state.isEmptyQuote ? KineticaCSVReader.NONE : state.quote,
+                                                                               state.errorReasonColumns, state.maxFailureBytes );
+        FlowFile failureFlowFile = null;
 
         // Read the incoming flow file
         InputStream istream = session.read( flowFile );
-        BufferedReader br = null;
+        final Reader input = new InputStreamReader( istream );
+
+        // Take one of the inserters for the whole file; with as many of them
+        // as concurrent tasks, every task normally has its own
+        final KineticaInserterPool.Stripe stripe = state.pool.acquire();
+        final BulkInserter<Record> bulkInserter = stripe.getInserter();
+        final long sentBefore = stripe.getSentCount();
+        long inserted = 0;
         try {
-            // Create the table if it does not already exist
-            type[0] = objectType;
-            if (type[0] == null) {
-                type[0] = createTable(context, context.getProperty(PROP_SCHEMA).getValue());
-                objectType = type[0];
-            }
+            final BadRecords badRecords = new BadRecords() {
+                    @Override
+                    public void header( String line ) {
+                        failureWriter.setHeader( line );
+                    }
 
-            // The number of columns in the type
-            int numColumns = type[0].getColumnCount();
+                    @Override
+                    public void add( String line, long record, String reason ) throws IOException {
+                        failureWriter.add( line, record, reason );
+                    }
+                };
 
-            // Create the CSV formatter with the delimiter
-            CSVFormat format = CSVFormat.DEFAULT.withDelimiter(delimiter);
+            final ChunkResult result;
+            try {
+                if ( state.parsePool == null ) {
+                    // Tokenize, convert and insert the records one at a time
+                    result = new ChunkResult();
+                    loadRecords( newCSVReader( state, input ), state.hasHeader, recordConverter,
+                                 bulkInserter, skipErrors, null, result, badRecords );
+                } else {
+                    result = loadChunks( input, state, bulkInserter, skipErrors, badRecords );
+                }
+            } finally {
+                failureFlowFile = failureWriter.finish();
+            }
 
-            // Add the escape character, if any
-            if ( escape != '"' ) {
-                format = format.withEscape( escape );
+            if ( failureWriter.getOmittedCount() > 0 ) {
+                getLogger().warn( PROCESSOR_NAME + " Warning: {} bad record(s) not written to failure; "
+                                  + KineticaConstants.MAX_FAILURE_SIZE + " reached",
+                                  new Object[] { failureWriter.getOmittedCount() } );
+            }
+            if ( result.error != null ) {
+                throw new ProcessException( PROCESSOR_NAME + " error in record " + result.errorRecord + ": " + result.error );
             }
 
-            // Add the quote character, if not the default
-            if ( isEmptyQuote ) {
-                format = format.withQuote( null );
+            if ( result.empty ) {
+                // Nothing to load; the file still goes to success
+                getLogger().warn( PROCESSOR_NAME + " Warning: Empty CSV file!" );
+            } else {
+                // Flush the bulk inserter object to make sure all objects
+                // are inserted
+                final long flushStart = System.nanoTime();
+                try {
+                    bulkInserter.flush();
+                } catch (BulkInserter.InsertException e) {
+                    getLogger().error( PROCESSOR_NAME + " Error: " + e.getMessage() );
+                    metrics.addInsertFailures(e.getURL(), (e.getRecords() == null) ? 0 : e.getRecords().size());
+                    // The table may have been dropped or altered
+                    KineticaMetadataCache.get(gpudb).invalidate(tableName);
+                }
+                // The records of the file the flush completes
+                metrics.recordFlush(System.nanoTime() - flushStart, result.count);
+                metrics.addRecords(result.count - result.errorCount, flowFile.getSize());
+                metrics.addFailures(result.errorCount);
+
+                getLogger().info(PROCESSOR_NAME + ": Wrote {} record(s) to set {} at {}.",
+                                 new Object[] { result.count, tableName, gpudb.getURL() });
+            }
+        } catch (Exception ex) {
+            getLogger().error(PROCESSOR_NAME + " Error: Failed to write to set {} at {} in second read",
+                              new Object[] { tableName, gpudb.getURL() }, ex);
+            failed[0] = true;
+        } finally {
+            if (failed[0]) {
+                // The batches already sent at Batch Size stay inserted;
+                // throw the records still queued away, so that neither the
+                // next file nor a retry from failure sends them
+                inserted = stripe.getSentCount() - sentBefore;
+                try {
+                    stripe.discardQueued();
+                } catch (GPUdbException e) {
+                    getLogger().error(PROCESSOR_NAME + " Error: Unable to discard the records of {}: {}",
+                                      new Object[] { flowFile, e.getMessage() });
+                }
             }
-            else {
-                format = format.withQuote( quote );
+            stripe.release();
+
+            // Clean up the input stream and the CSV reader
+            try {
+                input.close();
+            } catch ( IOException ex ) {
+                throw new ProcessException( "Error closing the InputStream or CSV reader: " + ex.getMessage() );
             }
+        }
+
+        // Check if the whole action failed
+        if (failed[0]) {
+            session.transfer(session.putAttribute(flowFile, INSERTED_ATTRIBUTE, String.valueOf(inserted)), REL_FAILURE);
+            metrics.addFailures(1);
+        } else {  // there was some success
+            session.getProvenanceReporter().send(flowFile, gpudb.getURL().toString(), tableName);
+            session.transfer(flowFile, REL_SUCCESS);
+        }
+
+        // Check if there are any bad records needing to go to failure
+        if (failureFlowFile != null) {
+            session.transfer( failureFlowFile, REL_FAILURE );
+        }
+    }
 
-            // Create the CSV file reader
-            br = new BufferedReader( new InputStreamReader( istream ) );
-                    
-            // We'll keep a count of how many objects have been
-            // inserted and how many errors have been encountered
-            int count = 0;
-            int errorCount = 0;
+    /*
+     * Creates the streaming CSV reader with the delimiter, the quote
+     * character (if any) and the escape character (if not the default)
+     */
+    private static KineticaCSVReader newCSVReader( ScheduledState state, Reader input ) {
+        return new KineticaCSVReader( input, state.delimiter,
+                                      state.isEmptyQuote ? KineticaCSVReader.NONE : state.quote,
+                                      (state.escape != '"') ? state.escape : KineticaCSVReader.NONE );
+    }
 
-            Type tempType = objectType;
+    /*
+     * Tokenizes, converts and inserts the records read by the given reader,
+     * counting them in the given result.  When not skipping errors, the
+     * first bad record stops the loading and is recorded in the result.
+     *
+     * @param readHeader  whether the first record is the header line
+     * @param aborted     when set (by another chunk), stop loading; may be null
+     */
+    private void loadRecords( KineticaCSVReader csvReader, boolean readHeader, KineticaRecordConverter recordConverter,
+                              BulkInserter<Record> bulkInserter, boolean skipErrors, AtomicBoolean aborted,
+                              ChunkResult result, BadRecords badRecords ) throws IOException {
+        // The number of columns in the type
+        final int numColumns = recordConverter.getColumnCount();
+
+        // We'll keep a count of how many objects have been
+        // inserted and how many errors have been encountered
+        int count = 0;
+        int errorCount = 0;
+
+        String line = null;
 
-            String line = null;
-                    
+        try {
             // Handle the header line, if specified to have any
-            if ( hasHeader ) {
-                // Skip the line (unless it's an empty file)
-                line = br.readLine();
-                if ( line == null ) {
-                    getLogger().warn( PROCESSOR_NAME + " Warning: Empty CSV file!" );
-                    br.close();
+            if ( readHeader ) {
+                // Skip the record (unless it's an empty file)
+                if ( !csvReader.nextRecord() ) {
+                    result.empty = true;
                     return;
                 }
-                // Put the header line in the failure flow file (need to use a final
-                // variable to use in the inner anonymous class); need to add the newline back
-                final String header = (line + "\n");
-                failureFlowFile = session.write( failureFlowFile, new OutputStreamCallback() {
-                        @Override
-                        public void process( OutputStream out ) throws IOException {
-                            out.write( header.getBytes() );
-                        }
-                    } );
-                        
+                // Keep the header line for the failure flow file
+                badRecords.header( csvReader.getRawRecord() );
             }
-                        
-            // Process the lines in the file as records
-            while ( (line = br.readLine()) != null ) {
-                CSVRecord record;
-                try {
-                    // Parse the single line into a single record
-                    record = CSVParser.parse( line, format ).getRecords().get( 0 );
-                } catch (Exception e) {
-                    // If we're not skipping errors, throw an exception
+
+            // Process the records in the file; quoted values may span lines
+            while ( csvReader.nextRecord() ) {
+                if ( (aborted != null) && aborted.get() ) {
+                    return;
+                }
+
+                line = csvReader.getRawRecord();
+                if ( csvReader.isMalformed() ) {
+                    // If we're not skipping errors, stop here
                     if (!skipErrors) {
-                        throw new ProcessException( PROCESSOR_NAME + " error in record " + (count + 1)
-                                                    + ": Unable to read line from the CSV file." );
+                        result.fail( count + 1, "Unable to read line from the CSV file ("
+                                                + csvReader.getMalformedReason() + ")." );
+                        return;
                     } else {
                         // if we are skipping errors, jump to next row
                         getLogger().warn(PROCESSOR_NAME + " Warning: Skipping problematic line: " + line);
@@ -458,157 +643,277 @@ public class PutKineticaFromFile extends AbstractProcessor {
                     }
                 }
 
-                if (record.size() != numColumns) {
+                final int fieldCount = csvReader.getFieldCount();
+                if (fieldCount != numColumns) {
                     // if we are not skipping errors, reject the whole
                     // file
                     if (!skipErrors) {
-                        throw new ProcessException(PROCESSOR_NAME + " error in record " + (count + 1)
-                                                   + ": Incorrect number of fields. " + record.toString());
+                        result.fail( count + 1, "Incorrect number of fields. " + line );
+                        return;
                     } else {
                         // if we are skipping errors, jump to next row
                         getLogger().warn( PROCESSOR_NAME + " Warning: Skipping malformed record with incorrect number "
-                                          + "of columns (expected " + numColumns + ", got " + record.size()
-                                          + "); record: " + record.toString());
+                                          + "of columns (expected " + numColumns + ", got " + fieldCount
+                                          + "); record: " + line);
                         continue;
                     }
                 }
-                        
-                Record object = tempType.newInstance();
-                attributeNumbers[0] = new int[record.size()];
-                        
-                boolean isRecordBad = false;
-                for (int i = 0; i < record.size(); i++) {
-                    int attributeNumber = attributeNumbers[0][i];
-
-                    if (attributeNumber > -1) {
-                        String value = record.get(i);
-                        Column column = type[0].getColumn(i);
-                        if (value.trim().length() == 0) {
-                            value = null;
-                        }
 
-                        try {
-                            boolean timeStamp = KineticaUtilities.checkForTimeStamp( column );
-                            if ( value != null ) {
-                                // Parse the non-null value according to type
-                                if ( timeStamp ) {
-                                    if (StringUtils.isNumeric(value)) {
-                                        long valueLong;
-                                        try {
-                                            valueLong = Long.parseLong(value);
-                                        } catch (NumberFormatException ex) {
-                                            valueLong = 0;
-                                        }
-    
-                                        object.put(column.getName(), valueLong);
-                                    } else {
-    
-                                        Long timestamp = KineticaUtilities.parseDate(value, dateFormat, timeZone, getLogger());
-                                            
-                                        if (timestamp != null) {
-                                            object.put(column.getName(), timestamp);
-                                        } else {        
-                                            getLogger().error(PROCESSOR_NAME + " Error: Failed to parse date. Please check your date format and try again.");
-                                            isRecordBad = true;
-                                            throw new GPUdbException( "Bad timestamp given: '" + value + "'" );
-                                        }
-                                    }
-                                } else if ( column.getType() == Double.class ) {
-                                    object.put(column.getName(), Double.parseDouble(value));
-                                } else if ( column.getType() == Float.class ) {
-                                    object.put(column.getName(), Float.parseFloat(value));
-                                } else if ( column.getType() == Integer.class ) {
-                                    object.put(column.getName(), Integer.parseInt(value));
-                                } else if ( column.getType() == java.lang.Long.class ) {
-                                    object.put(column.getName(), Long.parseLong(value));
-                                } else {
-                                    if ( !value.trim().equals("")) {
-                                        object.put(column.getName(), value.trim());
-                                    }
-                                }
-                            } else { // got a null value
-                                if ( column.isNullable() ) {
-                                    object.put( column.getName(), null );
-                                } else {
-                                    throw new GPUdbException( "Found null value for non-nullable column " + column.getName());
-                                }
-                            }
-                        } catch (GPUdbException e) {
-                            // if we are not skipping errors, reject the
-                            // whole file
-                            if (!skipErrors) {
-                                session.transfer(flowFile, REL_FAILURE);
-                                throw new ProcessException(PROCESSOR_NAME + " error in record " + (count + 1) + ": Invalid value \""
-                                                           + value + "\" for field " + column.getName() + ".");
-                            } else {
-                                // if we are skipping errors, jump to
-                                // next record
-                                errorCount++;
-                                getLogger().warn(PROCESSOR_NAME + " Warning: Skippin record " + (count + 1) + ": Invalid value \""
-                                                 + value + "\" for field " + column.getName() + ". Total error count = " + errorCount);
-
-                                // Add the bad record to the end of the failure flow file (need to use a final
-                                // variable to use in the inner anonymous class); need to add the newline back
-                                final String badRecord = (line + "\n");
-                                failureFlowFile = session.append( failureFlowFile, new OutputStreamCallback() {
-                                        @Override
-                                        public void process( OutputStream out ) throws IOException {
-                                            out.write( badRecord.getBytes() );
-                                        }
-                                    } );
-
-                                isRecordBad = true;
-                                break;
-                            }
+                final long conversionStart = System.nanoTime();
+                Record object = recordConverter.newRecord();
+
+                boolean isRecordBad = false;
+                for (int i = 0; i < fieldCount; i++) {
+                    String value = csvReader.getField(i);
+                    try {
+                        // Parse the value according to the column's converter
+                        recordConverter.setValue(object, i, value);
+                    } catch (GPUdbException e) {
+                        final String reason = "Invalid value \"" + value + "\" for field "
+                                              + recordConverter.getColumnName(i) + ".";
+                        // if we are not skipping errors, reject the
+                        // whole file
+                        if (!skipErrors) {
+                            result.fail( count + 1, reason );
+                            return;
+                        } else {
+                            // if we are skipping errors, jump to
+                            // next record
+                            errorCount++;
+                            getLogger().warn(PROCESSOR_NAME + " Warning: Skippin record " + (count + 1) + ": " + e.getMessage()
+                                             + " Total error count = " + errorCount);
+
+                            // Add the bad record to the end of the failure
+                            // flow file
+                            badRecords.add( line, count + 1, reason );
+
+                            isRecordBad = true;
+                            break;
                         }
                     }
                 }   // end inner for loop over columns
+                metrics.recordConversion(System.nanoTime() - conversionStart);
 
                 if ( !isRecordBad ) {
                     try {
                         bulkInserter.insert(object);
                     } catch (BulkInserter.InsertException e) {
                         getLogger().error(PROCESSOR_NAME + " Error: " + e.getMessage() );
+                        metrics.addInsertFailures(e.getURL(), (e.getRecords() == null) ? 0 : e.getRecords().size());
+                        KineticaMetadataCache.get(bulkInserter.getGPUdb()).invalidate(bulkInserter.getTableName());
                     }
                 }
                 count++;
             }   // end outer while loop over lines
+        } finally {
+            result.count      += count;
+            result.errorCount += errorCount;
+        }
+    }
 
-            // Flush the bulk inserter object to make sure all objects
-            // are inserted
-            try {
-                bulkInserter.flush();
-            } catch (BulkInserter.InsertException e) {
-                getLogger().error( PROCESSOR_NAME + " Error: " + e.getMessage() );
-            }
+    /*
+     * Splits the content into chunks of whole records and loads the chunks
+     * concurrently on the parse pool, all into the given inserter.  The
+     * results are merged in file order, so that the bad records, the counts
+     * and the first error (when not skipping errors) are those of a
+     * sequential load.
+     */
+    private ChunkResult loadChunks( Reader input, final ScheduledState state, final BulkInserter<Record> bulkInserter,
+                                    final boolean skipErrors, BadRecords badRecords ) throws IOException {
+        final KineticaCSVSplitter splitter = new KineticaCSVSplitter( input, state.delimiter,
+                                                                      state.isEmptyQuote ? KineticaCSVReader.NONE : state.quote,
+                                                                      (state.escape != '"') ? state.escape : KineticaCSVReader.NONE,
+                                                                      CHUNK_SIZE );
+        final AtomicBoolean aborted = new AtomicBoolean( false );
+        final Deque<ForkJoinTask<ChunkResult>> inFlight = new ArrayDeque<>();
+        // Bound the number of chunks in memory
+        final int maxInFlight = 2 * state.parsePool.getParallelism();
+
+        final ChunkResult totals = new ChunkResult();
+        totals.empty = state.hasHeader;
+        try {
+            KineticaCSVSplitter.Chunk next;
+            while ( !aborted.get() && ((next = splitter.next()) != null) ) {
+                final KineticaCSVSplitter.Chunk chunk = next;
+                inFlight.add( state.parsePool.submit( new Callable<ChunkResult>() {
+                        @Override
+                        public ChunkResult call() throws IOException {
+                            ChunkResult result = new ChunkResult();
+                            KineticaCSVReader csvReader = newCSVReader( state, new CharArrayReader( chunk.getData(), 0, chunk.getLength() ) );
+                            loadRecords( csvReader, state.hasHeader && (chunk.getIndex() == 0), state.converter,
+                                         bulkInserter, skipErrors, aborted, result, result );
+                            return result;
+                        }
+                    } ) );
 
-            getLogger().info(PROCESSOR_NAME + ": Wrote {} record(s) to set {} at {}.",
-                             new Object[] { count, tableName, gpudb.getURL() });
-        } catch (Exception ex) {
-            getLogger().error(PROCESSOR_NAME + " Error: Failed to write to set {} at {} in second read",
-                              new Object[] { tableName, gpudb.getURL() }, ex);
-            failed[0] = true;
+                if ( inFlight.size() >= maxInFlight ) {
+                    totals.merge( inFlight.poll().join(), badRecords, aborted );
+                }
+            }
+            while ( !inFlight.isEmpty() ) {
+                totals.merge( inFlight.poll().join(), badRecords, aborted );
+            }
         } finally {
-            // Clean up the input stream and the buffered reader
-            try {
-                br.close();
-                istream.close();
-            } catch ( IOException ex ) {
-                throw new ProcessException( "Error closing the InputStream or BufferedReader: " + ex.getMessage() );
+            // Never give the inserter back while a chunk may still use it
+            if ( !inFlight.isEmpty() ) {
+                aborted.set( true );
+                for ( ForkJoinTask<ChunkResult> task : inFlight ) {
+                    task.quietlyJoin();
+                }
             }
         }
+        return totals;
+    }
 
-        // Check if the whole action failed
-        if (failed[0]) {
-            session.transfer(flowFile, REL_FAILURE);
-        } else {  // there was some success
-            session.getProvenanceReporter().send(flowFile, gpudb.getURL().toString(), tableName);
-            session.transfer(flowFile, REL_SUCCESS);
+    /*
+     * Receives the header line and the bad records destined to the failure
+     * flow file, without their line breaks
+     */
+    private interface BadRecords {
+        void header( String line );
+
+        void add( String line, long record, String reason ) throws IOException;
+    }
+
+    /*
+     * The outcome of loading a file or a chunk of it; for a chunk, it also
+     * holds the chunk's bad records until they can be written in file order
+     */
+    private static final class ChunkResult implements BadRecords {
+        int count;
+        int errorCount;
+        boolean empty;
+        long errorRecord;
+        String error;
+        private String header;
+        private final List<String> badRecords = new ArrayList<>();
+        private final List<Long> badRecordNumbers = new ArrayList<>();
+        private final List<String> badRecordReasons = new ArrayList<>();
+
+        void fail( long record, String message ) {
+            errorRecord = record;
+            error = message;
         }
 
-        // Check if there are any bad records needing to go to failure
-        if (failureFlowFile != null) {
-            session.transfer( failureFlowFile, REL_FAILURE );
+        @Override
+        public void header( String line ) {
+            header = line;
+        }
+
+        @Override
+        public void add( String line, long record, String reason ) {
+            badRecords.add( line );
+            badRecordNumbers.add( record );
+            badRecordReasons.add( reason );
+        }
+
+        /*
+         * Adds the result of the next chunk in file order, passing its bad
+         * records on; after the first error everything else is ignored.
+         */
+        void merge( ChunkResult chunk, BadRecords output, AtomicBoolean aborted ) throws IOException {
+            if ( error != null ) {
+                return;
+            }
+            // Only the first chunk can read the header
+            empty = empty && chunk.empty;
+            if ( chunk.header != null ) {
+                output.header( chunk.header );
+            }
+            // The record numbers of a chunk start from 1
+            for ( int i = 0; i < chunk.badRecords.size(); i++ ) {
+                output.add( chunk.badRecords.get( i ), count + chunk.badRecordNumbers.get( i ), chunk.badRecordReasons.get( i ) );
+            }
+            if ( chunk.error != null ) {
+                fail( count + chunk.errorRecord, chunk.error );
+                aborted.set( true );
+            }
+            count      += chunk.count;
+            errorCount += chunk.errorCount;
+        }
+    }
+
+    /*
+     * The configuration derived state of a schedule; never modified once
+     * built, so the concurrent tasks can share it without locking.
+     */
+    private static final class ScheduledState {
+        final GPUdb gpudb;
+        final String tableName;
+        final char delimiter;
+        final char escape;
+        final boolean isEmptyQuote;
+        final char quote;
+        final boolean hasHeader;
+        final int batchSize;
+        final Map<String, String> insertOptions;
+        final int maxConcurrentTasks;
+        final ForkJoinPool parsePool;
+        final String dateFormat;
+        final String timeZone;
+        final boolean errorReasonColumns;
+        final long maxFailureBytes;
+
+        // Only set once the table's type is known
+        final KineticaRecordConverter converter;
+        final KineticaInserterPool pool;
+
+        ScheduledState(ProcessContext context, GPUdb gpudb, String tableName) {
+            this.gpudb = gpudb;
+            this.tableName = tableName;
+            this.delimiter = context.getProperty(PROP_DELIMITER).getValue().charAt(0);
+            this.escape    = context.getProperty(PROP_ESCAPE_CHAR).getValue().charAt(0);
+            String quote_char = context.getProperty(PROP_QUOTE_CHAR).getValue();
+            this.isEmptyQuote = quote_char.isEmpty();
+            this.quote     = isEmptyQuote ? '"' : quote_char.charAt(0);
+            this.hasHeader = context.getProperty(PROP_HAS_HEADER).asBoolean().booleanValue();
+            this.batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
+            boolean updateOnExistingPk = context.getProperty(UPDATE_ON_EXISTING_PK).asBoolean().booleanValue();
+            this.insertOptions = GPUdb.options(
+                    InsertRecordsRequest.Options.UPDATE_ON_EXISTING_PK,
+                    updateOnExistingPk ? InsertRecordsRequest.Options.TRUE : InsertRecordsRequest.Options.FALSE);
+            this.maxConcurrentTasks = context.getMaxConcurrentTasks();
+            // Shared by the concurrent tasks; none for sequential loading
+            int parseThreads = context.getProperty(PROP_PARSE_THREADS).asInteger();
+            this.parsePool = (parseThreads > 1) ? new ForkJoinPool(parseThreads) : null;
+            this.dateFormat = context.getProperty(PROP_DATE_FORMAT).getValue();
+            this.timeZone = context.getProperty(PROP_TIMEZONE).getValue();
+            this.errorReasonColumns = context.getProperty(PROP_ERROR_REASON_COLUMNS).asBoolean().booleanValue();
+            this.maxFailureBytes = context.getProperty(PROP_MAX_FAILURE_SIZE).isSet()
+                    ? context.getProperty(PROP_MAX_FAILURE_SIZE).asDataSize(DataUnit.B).longValue() : 0;
+            this.converter = null;
+            this.pool = null;
+        }
+
+        private ScheduledState(ScheduledState other, KineticaRecordConverter converter, KineticaInserterPool pool) {
+            this.gpudb = other.gpudb;
+            this.tableName = other.tableName;
+            this.delimiter = other.delimiter;
+            this.escape = other.escape;
+            this.isEmptyQuote = other.isEmptyQuote;
+            this.quote = other.quote;
+            this.hasHeader = other.hasHeader;
+            this.batchSize = other.batchSize;
+            this.insertOptions = other.insertOptions;
+            this.maxConcurrentTasks = other.maxConcurrentTasks;
+            this.parsePool = other.parsePool;
+            this.dateFormat = other.dateFormat;
+            this.timeZone = other.timeZone;
+            this.errorReasonColumns = other.errorReasonColumns;
+            this.maxFailureBytes = other.maxFailureBytes;
+            this.converter = converter;
+            this.pool = pool;
+        }
+
+        /*
+         * @return a copy of this state with the conversion plan and the
+         *         inserters for the given type of the table
+         */
+        ScheduledState withType(Type type, ComponentLog logger) throws GPUdbException {
+            // Compile the per-column conversion plan once for all the records
+            KineticaRecordConverter converter = new KineticaRecordConverter( type, dateFormat, timeZone, false, logger );
+            KineticaInserterPool pool = new KineticaInserterPool( gpudb, tableName, type, batchSize, insertOptions, maxConcurrentTasks );
+            return new ScheduledState(this, converter, pool);
         }
     }
 }
@@ -0,0 +1,468 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnRemoved;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import com.gpudb.BulkInserter;
+import com.gpudb.ColumnProperty;
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbException;
+import com.gpudb.Record;
+import com.gpudb.RecordObject;
+import com.gpudb.Type;
+import com.gpudb.Type.Column;
+import com.gpudb.protocol.CreateTableRequest;
+import com.gpudb.protocol.InsertRecordsRequest;
+
+@Tags({ "Kinetica", "add", "bulkadd", "put", "record", "csv", "json", "avro" })
+@CapabilityDescription("Bulkloads the records of FlowFiles to Kinetica, reading them with the configured Record Reader (CSV, JSON, "
+        + "Avro, etc). The fields of each record are matched to the columns of the table by name; columns without a field "
+        + "are set to null. If the table doesn't exist, it is created from the schema of the first FlowFile's records. "
+        + "A FlowFile is routed to failure as a whole if any of its records can't be read, converted or inserted; the records "
+        + "preceding a bad record may already have been inserted.")
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@WritesAttributes({
+    @WritesAttribute(attribute = "record.count", description = "The number of records inserted into Kinetica"),
+    @WritesAttribute(attribute = "kinetica.records.inserted", description = "On FlowFiles routed to failure, the number of "
+            + "their records already inserted (in batches sent at Batch Size) before the error")
+})
+public class PutKineticaRecord extends AbstractProcessor {
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder().name( KineticaConstants.CONNECTION_SERVICE )
+        .description("The Kinetica Connection Service to connect to Kinetica through, sharing its pooled connections with the "
+                     + "other processors using it. When set, Server URL, Username and Password are not used.")
+        .required(false).identifiesControllerService(KineticaConnectionService.class).build();
+
+    public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder().name( KineticaConstants.SERVER_URL )
+        .description("URL of the Kinetica server. Example http://172.3.4.19:9191. Required unless a Kinetica Connection "
+                     + "Service is set.").required(false)
+        .addValidator(StandardValidators.URL_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_COLLECTION = new PropertyDescriptor.Builder().name( KineticaConstants.COLLECTION_NAME )
+        .description("Name of the Kinetica collection").required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_TABLE = new PropertyDescriptor.Builder().name( KineticaConstants.TABLE_NAME )
+        .description("Name of the Kinetica table").required(true)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_RECORD_READER = new PropertyDescriptor.Builder().name( KineticaConstants.RECORD_READER )
+        .description("The Record Reader to read the records of the incoming FlowFiles with")
+        .required(true).identifiesControllerService(RecordReaderFactory.class).build();
+
+    protected static final PropertyDescriptor PROP_BATCH_SIZE = new PropertyDescriptor.Builder().name( KineticaConstants.BATCH_SIZE )
+        .description("Batch size of bulk load to Kinetica.").required(true)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("500").build();
+
+    public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder().name( KineticaConstants.USERNAME )
+        .description("Username to connect to Kinetica").required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_PASSWORD = new PropertyDescriptor.Builder().name( KineticaConstants.PASSWORD )
+        .description("Password to connect to Kinetica").required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).sensitive(true).build();
+
+    protected static final PropertyDescriptor UPDATE_ON_EXISTING_PK = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.UPDATE_ON_EXISTING_PK )
+        .description(
+                     "If the table has a primary key, then if the value is 'true' then if any of the records being added have the "
+                     + "same primary key as existing records, the existing records are replaced (i.e. *updated*) with the given records. "
+                     + "If 'false' and if the records being added have the same primary key as existing records, the given records with "
+                     + "existing primary keys are ignored (the existing records are left unchanged). If the specified table does not "
+                     + "have a primary key column then this parameter is ignored. ")
+        .required(true).addValidator(StandardValidators.BOOLEAN_VALIDATOR).defaultValue("false").build();
+
+    protected static final PropertyDescriptor PROP_REPLICATE_TABLE = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.REPLICATE_TABLE )
+        .description(
+                     "If the Kinetica table doesn't already exist then it will created by this processor. A value of true indicates that"
+                     + " the table that is created should be replicated.")
+        .required(true).addValidator(StandardValidators.BOOLEAN_VALIDATOR).defaultValue("false").build();
+
+    public static final PropertyDescriptor PROP_DATE_FORMAT = new PropertyDescriptor.Builder().name( KineticaConstants.DATE_FORMAT )
+        .description("Provide the date format used for datetime values that the Record Reader gives as strings"
+                     + " Example: yyyy/MM/dd HH:mm:ss. Use 'iso8601' (the default) for ISO-8601 values and"
+                     + " 'epoch_seconds' for epoch seconds; integer values are otherwise taken as epoch milliseconds.")
+        .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_TIMEZONE = new PropertyDescriptor.Builder().name( KineticaConstants.TIMEZONE )
+        .description(
+                     "Provide the timezone the data was created in. If no timezone is set, the current timezone will be used."
+                     + " Example: EST")
+        .required(false).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final Relationship REL_SUCCESS = new Relationship.Builder().name( KineticaConstants.SUCCESS )
+        .description("All FlowFiles that are written to Kinetica are routed to this relationship").build();
+
+    public static final Relationship REL_FAILURE = new Relationship.Builder().name( KineticaConstants.FAILURE )
+        .description("All FlowFiles that cannot be written to Kinetica are routed to this relationship").build();
+
+    private List<PropertyDescriptor> descriptors;
+    private Set<Relationship> relationships;
+
+    // Replaced as a whole by every schedule (and once more if the table only
+    // appears later), and only read by the tasks
+    private volatile ScheduledState state;
+    private volatile KineticaMetrics metrics;
+    private static final String PROCESSOR_NAME = "PutKineticaRecord";
+
+    // On failure, the number of records of the FlowFile already inserted
+    private static final String INSERTED_ATTRIBUTE = "kinetica.records.inserted";
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_CONNECTION_SERVICE);
+        descriptors.add(PROP_SERVER);
+        descriptors.add(PROP_COLLECTION);
+        descriptors.add(PROP_TABLE);
+        descriptors.add(PROP_RECORD_READER);
+        descriptors.add(PROP_BATCH_SIZE);
+        descriptors.add(PROP_USERNAME);
+        descriptors.add(PROP_PASSWORD);
+        descriptors.add(UPDATE_ON_EXISTING_PK);
+        descriptors.add(PROP_REPLICATE_TABLE);
+        descriptors.add(PROP_DATE_FORMAT);
+        descriptors.add(PROP_TIMEZONE);
+
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(REL_SUCCESS);
+        relationships.add(REL_FAILURE);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        return KineticaUtilities.validateConnection(validationContext, PROP_CONNECTION_SERVICE, PROP_SERVER);
+    }
+
+    @OnScheduled
+    public void onScheduled(final ProcessContext context) throws GPUdbException {
+        // Create a connection to the Kinetica server
+        GPUdb gpudb = KineticaUtilities.getConnection(context, PROP_CONNECTION_SERVICE, PROP_SERVER, PROP_USERNAME, PROP_PASSWORD);
+        String tableName = context.getProperty(PROP_TABLE).getValue();
+
+        // Process the configuration options
+        ScheduledState state = new ScheduledState(context, gpudb, tableName);
+        metrics = KineticaMetrics.register(getIdentifier(), getClass().getSimpleName(), tableName);
+
+        // The table is otherwise created from the schema of the first records
+        if (KineticaUtilities.tableExists(gpudb, tableName, getLogger())) {
+            getLogger().debug(PROCESSOR_NAME + " Getting type from table:" + tableName);
+            Type objectType = KineticaMetadataCache.get(gpudb).getType(gpudb, tableName, null);
+            state = state.withType(objectType, getLogger());
+            metrics.setWorkers(state.pool.getWorkers());
+        }
+        this.state = state;
+    }
+
+    @OnRemoved
+    public void onRemoved() {
+        KineticaMetrics.unregister(getIdentifier());
+    }
+
+    /*
+     * Maps the schema of the records read to the columns of a new table:
+     * every column is nullable, and the types Kinetica has no column for are
+     * stored as strings.
+     */
+    private static Type toKineticaType(RecordSchema schema) {
+        List<Column> columns = new ArrayList<>();
+        for (RecordField field : schema.getFields()) {
+            DataType dataType = field.getDataType();
+            Class<?> columnType;
+            List<String> properties = new ArrayList<>();
+            properties.add(ColumnProperty.NULLABLE);
+            switch (dataType.getFieldType()) {
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INT:
+                columnType = Integer.class;
+                break;
+
+            case LONG:
+                columnType = Long.class;
+                break;
+
+            case FLOAT:
+                columnType = Float.class;
+                break;
+
+            case DOUBLE:
+                columnType = Double.class;
+                break;
+
+            case DATE:
+            case TIMESTAMP:
+                columnType = Long.class;
+                properties.add(ColumnProperty.TIMESTAMP);
+                break;
+
+            default:
+                // Including BIGINT, which may not fit in a long
+                columnType = String.class;
+                break;
+            }
+            columns.add(new Column(field.getFieldName(), columnType, properties));
+        }
+        return new Type("", columns);
+    }
+
+    /*
+     * Creates the table from the schema of the records read, unless it was
+     * created in the meantime.
+     */
+    private Type createTable(ProcessContext context, GPUdb gpudb, String tableName, RecordSchema schema) throws GPUdbException {
+        KineticaMetadataCache cache = KineticaMetadataCache.get(gpudb);
+        if (cache.tableExists(gpudb, tableName, null)) {
+            return cache.getType(gpudb, tableName, null);
+        }
+
+        Type type = toKineticaType(schema);
+        getLogger().info(PROCESSOR_NAME + ": creating Kinetica type " + type.getColumns());
+        String typeId = type.create(gpudb);
+
+        String parent = context.getProperty(PROP_COLLECTION).getValue();
+        if (parent == null) {
+            parent = "";
+        }
+        boolean replicated_flag = context.getProperty(PROP_REPLICATE_TABLE).asBoolean().booleanValue();
+        Map<String, String> create_table_options = GPUdb.options(CreateTableRequest.Options.COLLECTION_NAME, parent,
+                CreateTableRequest.Options.IS_REPLICATED,
+                replicated_flag ? CreateTableRequest.Options.TRUE : CreateTableRequest.Options.FALSE);
+
+        gpudb.createTable(tableName, typeId, create_table_options);
+        getLogger().info(PROCESSOR_NAME + " created table in Kinetica:" + tableName);
+        cache.put(tableName, type);
+        gpudb.addKnownType(typeId, RecordObject.class);
+        return type;
+    }
+
+    /*
+     * Looks up (or creates, from the schema of the records read) the table
+     * that did not exist when the processor was scheduled, and publishes the
+     * state for it so that the other tasks don't have to.
+     */
+    private synchronized ScheduledState resolveTable(ProcessContext context, RecordSchema schema) throws GPUdbException {
+        ScheduledState current = this.state;
+        if (current.pool != null) {
+            // Another task got there first
+            return current;
+        }
+
+        Type objectType;
+        if (KineticaUtilities.tableExists(current.gpudb, current.tableName, getLogger())) {
+            objectType = KineticaMetadataCache.get(current.gpudb).getType(current.gpudb, current.tableName, null);
+        } else {
+            objectType = createTable(context, current.gpudb, current.tableName, schema);
+        }
+
+        this.state = current.withType(objectType, getLogger());
+        metrics.setWorkers(this.state.pool.getWorkers());
+        return this.state;
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        FlowFile flowFile = session.get();
+        if (flowFile == null) {
+            return;
+        }
+        final KineticaMetrics metrics = this.metrics;
+        metrics.reportCounters(session);
+
+        ScheduledState state = this.state;
+        final RecordReaderFactory readerFactory = context.getProperty(PROP_RECORD_READER)
+            .asControllerService(RecordReaderFactory.class);
+
+        long count = 0;
+        long sentBefore = 0;
+        long inserted = 0;
+        boolean failed = false;
+        KineticaInserterPool.Stripe stripe = null;
+        try (InputStream in = session.read(flowFile);
+             RecordReader reader = readerFactory.createRecordReader(flowFile, in, getLogger())) {
+            if (state.pool == null) {
+                state = resolveTable(context, reader.getSchema());
+            }
+
+            final KineticaRecordConverter converter = state.converter;
+            final int numColumns = converter.getColumnCount();
+
+            // Take one of the inserters for the whole FlowFile; with as many
+            // of them as concurrent tasks, every task normally has its own
+            stripe = state.pool.acquire();
+            final BulkInserter<Record> bulkInserter = stripe.getInserter();
+            sentBefore = stripe.getSentCount();
+
+            org.apache.nifi.serialization.record.Record nifiRecord;
+            while ((nifiRecord = reader.nextRecord()) != null) {
+                final long conversionStart = System.nanoTime();
+                Record object = converter.newRecord();
+                for (int i = 0; i < numColumns; i++) {
+                    // Absent fields are null
+                    Object value = nifiRecord.getValue(converter.getColumnName(i));
+                    try {
+                        converter.setObject(object, i, value);
+                    } catch (GPUdbException e) {
+                        throw new ProcessException("Invalid value \"" + value + "\" for field "
+                                                   + converter.getColumnName(i) + " in record " + (count + 1)
+                                                   + ": " + e.getMessage(), e);
+                    }
+                }
+                metrics.recordConversion(System.nanoTime() - conversionStart);
+                bulkInserter.insert(object);
+                count++;
+            }
+
+            // Flush the bulk inserter object to make sure all objects
+            // are inserted
+            final long flushStart = System.nanoTime();
+            bulkInserter.flush();
+            // The records of the FlowFile the flush completes
+            metrics.recordFlush(System.nanoTime() - flushStart, count);
+
+            getLogger().info(PROCESSOR_NAME + ": Wrote {} record(s) to set {} at {}.",
+                             new Object[] { count, state.tableName, state.gpudb.getURL() });
+        } catch (BulkInserter.InsertException e) {
+            getLogger().error(PROCESSOR_NAME + " Error: Failed to write {} to set {}: {}",
+                              new Object[] { flowFile, state.tableName, e.getMessage() });
+            metrics.addInsertFailures(e.getURL(), (e.getRecords() == null) ? 0 : e.getRecords().size());
+            // The table may have been dropped or altered
+            KineticaMetadataCache.get(state.gpudb).invalidate(state.tableName);
+            failed = true;
+        } catch (Exception ex) {
+            getLogger().error(PROCESSOR_NAME + " Error: Failed to write {} to set {}",
+                              new Object[] { flowFile, state.tableName }, ex);
+            failed = true;
+        } finally {
+            if (stripe != null) {
+                if (failed) {
+                    // The batches already sent at Batch Size stay inserted;
+                    // throw the records still queued away, so that neither
+                    // the next FlowFile nor a retry from failure sends them
+                    inserted = stripe.getSentCount() - sentBefore;
+                    try {
+                        stripe.discardQueued();
+                    } catch (GPUdbException e) {
+                        getLogger().error(PROCESSOR_NAME + " Error: Unable to discard the records of {}: {}",
+                                          new Object[] { flowFile, e.getMessage() });
+                    }
+                }
+                stripe.release();
+            }
+        }
+
+        if (failed) {
+            flowFile = session.putAttribute(flowFile, INSERTED_ATTRIBUTE, String.valueOf(inserted));
+            session.transfer(flowFile, REL_FAILURE);
+            metrics.addFailures(1);
+            return;
+        }
+
+        metrics.addRecords(count, flowFile.getSize());
+        flowFile = session.putAttribute(flowFile, "record.count", String.valueOf(count));
+        session.getProvenanceReporter().send(flowFile, state.gpudb.getURL().toString(), state.tableName);
+        session.transfer(flowFile, REL_SUCCESS);
+    }
+
+    /*
+     * The configuration derived state of a schedule; never modified once
+     * built, so the concurrent tasks can share it without locking.
+     */
+    private static final class ScheduledState {
+        final GPUdb gpudb;
+        final String tableName;
+        final int batchSize;
+        final Map<String, String> insertOptions;
+        final int maxConcurrentTasks;
+        final String dateFormat;
+        final String timeZone;
+
+        // Only set once the table's type is known
+        final KineticaRecordConverter converter;
+        final KineticaInserterPool pool;
+
+        ScheduledState(ProcessContext context, GPUdb gpudb, String tableName) {
+            this.gpudb = gpudb;
+            this.tableName = tableName;
+            this.batchSize = context.getProperty(PROP_BATCH_SIZE).asInteger();
+            boolean updateOnExistingPk = context.getProperty(UPDATE_ON_EXISTING_PK).asBoolean().booleanValue();
+            this.insertOptions = GPUdb.options(
+                    InsertRecordsRequest.Options.UPDATE_ON_EXISTING_PK,
+                    updateOnExistingPk ? InsertRecordsRequest.Options.TRUE : InsertRecordsRequest.Options.FALSE);
+            this.maxConcurrentTasks = context.getMaxConcurrentTasks();
+            this.dateFormat = context.getProperty(PROP_DATE_FORMAT).getValue();
+            this.timeZone = context.getProperty(PROP_TIMEZONE).getValue();
+            this.converter = null;
+            this.pool = null;
+        }
+
+        private ScheduledState(ScheduledState other, KineticaRecordConverter converter, KineticaInserterPool pool) {
+            this.gpudb = other.gpudb;
+            this.tableName = other.tableName;
+            this.batchSize = other.batchSize;
+            this.insertOptions = other.insertOptions;
+            this.maxConcurrentTasks = other.maxConcurrentTasks;
+            this.dateFormat = other.dateFormat;
+            this.timeZone = other.timeZone;
+            this.converter = converter;
+            this.pool = pool;
+        }
+
+        /*
+         * @return a copy of this state with the conversion plan and the
+         *         inserters for the given type of the table
+         */
+        ScheduledState withType(Type type, ComponentLog logger) throws GPUdbException {
+            // Compile the per-column conversion plan once for all the records
+            KineticaRecordConverter converter = new KineticaRecordConverter( type, dateFormat, timeZone, false, logger );
+            KineticaInserterPool pool = new KineticaInserterPool( gpudb, tableName, type, batchSize, insertOptions, maxConcurrentTasks );
+            return new ScheduledState(this, converter, pool);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.reporting.InitializationException;
+
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbBase.Options;
+import com.gpudb.GPUdbException;
+
+/**
+ * Owns a single {@link GPUdb} connection, and so a single pool of keep-alive
+ * HTTP connections, for the processors that reference it.  The connection is
+ * created when the service is enabled and dropped when it is disabled.
+ */
+@Tags({ "Kinetica", "connection", "pooling" })
+@CapabilityDescription("Provides a connection to Kinetica that is shared by the processors referencing this service. "
+        + "The HTTP connections to Kinetica are pooled and kept alive across requests, so that processors don't each "
+        + "open their own connections and redo the TLS handshakes.")
+public class StandardKineticaConnectionService extends AbstractControllerService implements KineticaConnectionService {
+
+    public static final PropertyDescriptor PROP_SERVER = new PropertyDescriptor.Builder().name( KineticaConstants.SERVER_URL )
+        .description("URL of the Kinetica server. Example http://172.3.4.19:9191").required(true)
+        .addValidator(StandardValidators.URL_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_USERNAME = new PropertyDescriptor.Builder().name( KineticaConstants.USERNAME )
+        .description("Username to connect to Kinetica").required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    public static final PropertyDescriptor PROP_PASSWORD = new PropertyDescriptor.Builder().name( KineticaConstants.PASSWORD )
+        .description("Password to connect to Kinetica").required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR).sensitive(true).build();
+
+    public static final PropertyDescriptor PROP_TIMEOUT = new PropertyDescriptor.Builder().name( KineticaConstants.TIMEOUT )
+        .description("How long to wait for Kinetica to respond to a request before failing it. 0 sec waits indefinitely.")
+        .required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).defaultValue("0 sec").build();
+
+    public static final PropertyDescriptor PROP_MAX_TOTAL_CONNECTIONS = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.MAX_TOTAL_CONNECTIONS )
+        .description("The maximum number of HTTP connections kept open to Kinetica, counting those to all of its worker "
+                     + "ranks. Should be at least the total number of concurrent tasks of the processors using this service.")
+        .required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("40").build();
+
+    public static final PropertyDescriptor PROP_MAX_CONNECTIONS_PER_HOST = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.MAX_CONNECTIONS_PER_HOST )
+        .description("The maximum number of HTTP connections kept open to any one Kinetica host (the head node or a worker rank).")
+        .required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("10").build();
+
+    public static final PropertyDescriptor PROP_USE_COMPRESSION = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.USE_COMPRESSION )
+        .description("Whether requests to Kinetica are compressed with Snappy. This reduces the network traffic of "
+                     + "large inserts at the cost of some CPU.")
+        .required(true).allowableValues("true", "false").defaultValue("false").build();
+
+    private static final List<PropertyDescriptor> DESCRIPTORS;
+
+    static {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_SERVER);
+        descriptors.add(PROP_USERNAME);
+        descriptors.add(PROP_PASSWORD);
+        descriptors.add(PROP_TIMEOUT);
+        descriptors.add(PROP_MAX_TOTAL_CONNECTIONS);
+        descriptors.add(PROP_MAX_CONNECTIONS_PER_HOST);
+        descriptors.add(PROP_USE_COMPRESSION);
+        DESCRIPTORS = Collections.unmodifiableList(descriptors);
+    }
+
+    private volatile GPUdb gpudb;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return DESCRIPTORS;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) throws InitializationException {
+        Options option = new Options();
+        if (context.getProperty(PROP_USERNAME).getValue() != null
+                && context.getProperty(PROP_PASSWORD).getValue() != null) {
+            option.setUsername(context.getProperty(PROP_USERNAME).getValue());
+            option.setPassword(context.getProperty(PROP_PASSWORD).getValue());
+        }
+        option.setTimeout(context.getProperty(PROP_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS).intValue());
+        option.setMaxTotalConnections(context.getProperty(PROP_MAX_TOTAL_CONNECTIONS).asInteger());
+        option.setMaxConnectionsPerHost(context.getProperty(PROP_MAX_CONNECTIONS_PER_HOST).asInteger());
+        option.setUseSnappy(context.getProperty(PROP_USE_COMPRESSION).asBoolean());
+
+        try {
+            gpudb = new GPUdb(context.getProperty(PROP_SERVER).getValue(), option);
+        } catch (GPUdbException ex) {
+            throw new InitializationException("Failed to connect to Kinetica: " + ex.getMessage(), ex);
+        }
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        // The pooled HTTP connections are closed once the processors drop
+        // their references to the connection
+        gpudb = null;
+    }
+
+    @Override
+    public GPUdb getConnection() throws ProcessException {
+        final GPUdb gpudb = this.gpudb;
+        if (gpudb == null) {
+            throw new ProcessException("The Kinetica connection service is not enabled");
+        }
+        return gpudb;
+    }
+
+}
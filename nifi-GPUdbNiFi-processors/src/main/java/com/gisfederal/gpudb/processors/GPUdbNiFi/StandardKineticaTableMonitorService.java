@@ -0,0 +1,249 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import com.gpudb.GPUdb;
+import com.gpudb.GPUdbException;
+
+/**
+ * Owns a single ZMQ context, subscriber socket and thread for all the table
+ * monitors of the processors that reference it.
+ *
+ * Each table has at most one table monitor, created when the first processor
+ * subscribes to it and cleared when the last one stops; in between, every
+ * record received on the monitor's topic is added to the buffers of all the
+ * processors subscribed to the table.  Since the thread serves all the
+ * tables, it never waits for a full buffer: the record is dropped (and
+ * counted) instead, as the buffer's overflow policy allows.
+ *
+ * ZMQ sockets may only be used by one thread, so subscribing to and
+ * unsubscribing from topics is queued for the receiving thread to apply.
+ */
+@Tags({ "Kinetica", "table monitor", "subscriber", "zmq" })
+@CapabilityDescription("Receives the records inserted into Kinetica tables for the processors referencing this service, "
+        + "over one subscriber socket and thread. Processors monitoring the same table share its table monitor.")
+public class StandardKineticaTableMonitorService extends AbstractControllerService implements KineticaTableMonitorService {
+
+    public static final PropertyDescriptor PROP_CONNECTION_SERVICE = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.CONNECTION_SERVICE )
+        .description("The Kinetica Connection Service to create and clear the table monitors through")
+        .required(true).identifiesControllerService(KineticaConnectionService.class).build();
+
+    public static final PropertyDescriptor PROP_TABLE_MONITOR_URL = new PropertyDescriptor.Builder()
+        .name( KineticaConstants.TABLE_MONITOR_URL )
+        .description("URL of the Kinetica table monitor. Example tcp://172.3.4.19:9002")
+        .required(true).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+    private static final List<PropertyDescriptor> DESCRIPTORS;
+
+    static {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(PROP_CONNECTION_SERVICE);
+        descriptors.add(PROP_TABLE_MONITOR_URL);
+        DESCRIPTORS = Collections.unmodifiableList(descriptors);
+    }
+
+    // How often the receiving thread looks for subscription changes
+    private static final int RECEIVE_TIMEOUT_MILLIS = 250;
+
+    /*
+     * The table monitor of one table and the buffers of its subscribers
+     */
+    private static final class Monitor {
+        final String tableName;
+        final String topicId;
+        final List<KineticaMonitorBuffer<byte[]>> buffers = new CopyOnWriteArrayList<>();
+
+        Monitor(String tableName, String topicId) {
+            this.tableName = tableName;
+            this.topicId = topicId;
+        }
+    }
+
+    /*
+     * A topic to subscribe to or unsubscribe from, by the receiving thread
+     */
+    private static final class TopicChange {
+        final String topicId;
+        final boolean subscribe;
+
+        TopicChange(String topicId, boolean subscribe) {
+            this.topicId = topicId;
+            this.subscribe = subscribe;
+        }
+    }
+
+    private volatile GPUdb gpudb;
+    private volatile String monitorUrl;
+    private Thread thread;
+
+    // Guarded by this
+    private final Map<String, Monitor> monitorsByTable = new HashMap<>();
+    // Read by the receiving thread
+    private final ConcurrentMap<String, Monitor> monitorsByTopic = new ConcurrentHashMap<>();
+    private final Queue<TopicChange> topicChanges = new ConcurrentLinkedQueue<>();
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return DESCRIPTORS;
+    }
+
+    @OnEnabled
+    public synchronized void onEnabled(final ConfigurationContext context) {
+        gpudb = context.getProperty(PROP_CONNECTION_SERVICE).asControllerService(KineticaConnectionService.class).getConnection();
+        monitorUrl = context.getProperty(PROP_TABLE_MONITOR_URL).getValue();
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "Kinetica table monitor service " + monitorUrl);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @OnDisabled
+    public synchronized void onDisabled() throws InterruptedException {
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+            thread = null;
+        }
+
+        // Normally none are left, as the processors stop first
+        for (Monitor monitor : monitorsByTable.values()) {
+            clearTableMonitor(monitor);
+        }
+        monitorsByTable.clear();
+        monitorsByTopic.clear();
+        topicChanges.clear();
+        gpudb = null;
+    }
+
+    @Override
+    public synchronized Subscription subscribe(String tableName, final KineticaMonitorBuffer<byte[]> buffer) throws ProcessException {
+        if (thread == null) {
+            throw new ProcessException("The Kinetica table monitor service is not enabled");
+        }
+
+        Monitor monitor = monitorsByTable.get(tableName);
+        if (monitor == null) {
+            String topicId;
+            try {
+                topicId = gpudb.createTableMonitor(tableName, null).getTopicId();
+            } catch (GPUdbException ex) {
+                throw new ProcessException("Unable to create a table monitor for " + tableName + ": " + ex.getMessage(), ex);
+            }
+            monitor = new Monitor(tableName, topicId);
+            monitorsByTable.put(tableName, monitor);
+            monitorsByTopic.put(topicId, monitor);
+            topicChanges.add(new TopicChange(topicId, true));
+            getLogger().debug("Created table monitor {} for {}", new Object[] { topicId, tableName });
+        }
+        monitor.buffers.add(buffer);
+
+        final Monitor subscribed = monitor;
+        return new Subscription() {
+            @Override
+            public void stop() {
+                unsubscribe(subscribed, buffer);
+            }
+        };
+    }
+
+    /*
+     * Stops adding records to the buffer, and clears the table monitor if it
+     * has no subscribers left.
+     */
+    private synchronized void unsubscribe(Monitor monitor, KineticaMonitorBuffer<byte[]> buffer) {
+        if (!monitor.buffers.remove(buffer) || !monitor.buffers.isEmpty()) {
+            return;
+        }
+        if (monitorsByTable.get(monitor.tableName) == monitor) {
+            monitorsByTable.remove(monitor.tableName);
+            monitorsByTopic.remove(monitor.topicId);
+            topicChanges.add(new TopicChange(monitor.topicId, false));
+            clearTableMonitor(monitor);
+        }
+    }
+
+    private void clearTableMonitor(Monitor monitor) {
+        try {
+            gpudb.clearTableMonitor(monitor.topicId, null);
+        } catch (GPUdbException ex) {
+            getLogger().warn("Unable to clear table monitor {} of {}", new Object[] { monitor.topicId, monitor.tableName }, ex);
+        }
+    }
+
+    private void receive() {
+        try (Context zmqContext = ZMQ.context(1); Socket subscriber = zmqContext.socket(ZMQ.SUB)) {
+            subscriber.connect(monitorUrl);
+            subscriber.setReceiveTimeOut(RECEIVE_TIMEOUT_MILLIS);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                TopicChange change;
+                while ((change = topicChanges.poll()) != null) {
+                    if (change.subscribe) {
+                        subscriber.subscribe(change.topicId.getBytes());
+                    } else {
+                        subscriber.unsubscribe(change.topicId.getBytes());
+                    }
+                }
+
+                ZMsg message = ZMsg.recvMsg(subscriber);
+                if (message == null) {
+                    continue;
+                }
+
+                // The first frame is the topic
+                Monitor monitor = null;
+                boolean first = true;
+                for (ZFrame frame : message) {
+                    if (first) {
+                        first = false;
+                        monitor = monitorsByTopic.get(new String(frame.getData()));
+                        if (monitor == null) {
+                            // Unsubscribed since it was sent
+                            break;
+                        }
+                        continue;
+                    }
+
+                    // The records are only read, so the buffers share them
+                    byte[] data = frame.getData();
+                    for (KineticaMonitorBuffer<byte[]> buffer : monitor.buffers) {
+                        buffer.offer(data, data.length);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            getLogger().error("Unable to get data from {}", new Object[] { monitorUrl }, ex);
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.log4j.Logger;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+
+import com.gpudb.Type;
+
+
+
+/**
+ * An embeddable stand-in for the publishing side of a Kinetica table
+ * monitor, so that the Get processors can be run end to end (and their
+ * throughput measured) without a database.
+ *
+ * Publishes on a PUB socket of a free port of the loopback interface, as the
+ * database does: every message is the topic ID followed by one frame per
+ * record, each the Avro binary encoding of a record of the given type.
+ *
+ * The values of the records are derived from their sequence number, from 0:
+ * the number itself for the int and long columns, a quarter of it for the
+ * float and double columns, "value " and the number for the string columns
+ * and its bytes for the bytes columns.  A long column named
+ * {@link #SENT_NANOS} is given the {@link System#nanoTime()} at which the
+ * record is published instead, for measuring the latency.
+ *
+ * All the socket operations run on a thread of the publisher's own.
+ */
+public class KineticaMonitorPublisher implements Closeable {
+
+    private final static Logger LOG = Logger.getLogger( KineticaMonitorPublisher.class );
+
+    /**
+     * The name of the long column given the time at which the record is
+     * published
+     */
+    public static final String SENT_NANOS = "sent_nanos";
+
+    private final Type type;
+    private final byte[] topic;
+    private final String url;
+    private final AtomicLong publishedCount = new AtomicLong();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+        @Override
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "Kinetica monitor publisher" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
+    private final Context zmqContext;
+    private final Socket publisher;
+
+
+    /**
+     * Starts a publisher for the records of the given type, on a free port
+     * of the loopback interface.
+     *
+     * @param type     the type of the records
+     * @param topicId  the topic ID every message starts with, as returned by
+     *                 /create/tablemonitor
+     */
+    public KineticaMonitorPublisher( Type type, String topicId ) throws IOException {
+        this.type  = type;
+        this.topic = topicId.getBytes();
+
+        zmqContext = ZMQ.context( 1 );
+        publisher = call( new Callable<Socket>() {
+            @Override
+            public Socket call() {
+                // XPUB, to see the subscriptions coming in
+                Socket socket = zmqContext.socket( ZMQ.XPUB );
+                socket.setLinger( 0 );
+                socket.setSndHWM( 0 );
+                return socket;
+            }
+        } );
+        int port = call( new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return publisher.bindToRandomPort( "tcp://127.0.0.1" );
+            }
+        } );
+        this.url = "tcp://127.0.0.1:" + port;
+        LOG.debug( "Kinetica monitor publisher listening at " + url );
+    }
+
+
+    /**
+     * @return the URL to subscribe to, i.e. the Table Monitor URL
+     */
+    public String getURL() {
+        return url;
+    }
+
+
+    /**
+     * @return the topic ID every message starts with
+     */
+    public String getTopicId() {
+        return new String( topic );
+    }
+
+
+    /**
+     * @return the number of records published so far
+     */
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+
+    /**
+     * Waits for a subscription to the topic, since a PUB socket drops
+     * whatever is published before.
+     *
+     * @return whether a subscription came in within the given time
+     */
+    public boolean awaitSubscriber( final long timeoutMillis ) throws IOException {
+        return call( new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws InterruptedException {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while ( System.currentTimeMillis() < deadline ) {
+                    byte[] subscription = publisher.recv( ZMQ.DONTWAIT );
+                    if ( subscription == null ) {
+                        Thread.sleep( 10 );
+                    } else if ( isSubscription( subscription ) ) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        } );
+    }
+
+
+    /*
+     * Whether the given XPUB frame subscribes to the topic: a 1 followed by
+     * a prefix of it.
+     */
+    private boolean isSubscription( byte[] frame ) {
+        if ( (frame.length == 0) || (frame[ 0 ] != 1) || (frame.length - 1 > topic.length) ) {
+            return false;
+        }
+        for ( int i = 1; i < frame.length; i++ ) {
+            if ( frame[ i ] != topic[ i - 1 ] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Publishes the given number of records, in the background, continuing
+     * the sequence numbers of the previous calls.
+     *
+     * @param recordCount        the number of records
+     * @param recordsPerMessage  the number of records per message
+     * @param recordsPerSecond   the rate at which to publish, or 0 for as
+     *                           fast as possible
+     * @return the number of records published, once done
+     */
+    public Future<Long> publish( final int recordCount, final int recordsPerMessage, final double recordsPerSecond ) {
+        return executor.submit( new Callable<Long>() {
+            @Override
+            public Long call() throws IOException, InterruptedException {
+                long start = System.nanoTime();
+                int sent = 0;
+                while ( sent < recordCount && !Thread.currentThread().isInterrupted() ) {
+                    if ( recordsPerSecond > 0 ) {
+                        long due = start + (long) (sent * 1e9 / recordsPerSecond);
+                        long wait = due - System.nanoTime();
+                        if ( wait > 0 ) {
+                            TimeUnit.NANOSECONDS.sleep( wait );
+                        }
+                    }
+
+                    int count = Math.min( recordsPerMessage, recordCount - sent );
+                    publisher.sendMore( topic );
+                    for ( int i = 0; i < count; i++ ) {
+                        byte[] record = encode( newRecord( publishedCount.get() ) );
+                        if ( i < count - 1 ) {
+                            publisher.sendMore( record );
+                        } else {
+                            publisher.send( record );
+                        }
+                        publishedCount.incrementAndGet();
+                    }
+                    sent += count;
+                }
+                return (long) sent;
+            }
+        } );
+    }
+
+
+    /**
+     * @return the record of the given sequence number
+     */
+    public GenericRecord newRecord( long sequence ) {
+        GenericRecord record = new GenericData.Record( type.getSchema() );
+        for ( int i = 0; i < type.getColumnCount(); i++ ) {
+            Type.Column column = type.getColumn( i );
+            Class<?> columnType = column.getType();
+
+            if ( columnType == Integer.class ) {
+                record.put( i, (int) sequence );
+            } else if ( columnType == Long.class ) {
+                record.put( i, SENT_NANOS.equals( column.getName() ) ? System.nanoTime() : sequence );
+            } else if ( columnType == Float.class ) {
+                record.put( i, sequence / 4.0f );
+            } else if ( columnType == Double.class ) {
+                record.put( i, sequence / 4.0 );
+            } else if ( columnType == String.class ) {
+                record.put( i, "value " + sequence );
+            } else {
+                record.put( i, ByteBuffer.wrap( Long.toString( sequence ).getBytes() ) );
+            }
+        }
+        return record;
+    }
+
+
+    private byte[] encode( GenericRecord record ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder( out, null );
+        new GenericDatumWriter<GenericRecord>( type.getSchema() ).write( record, encoder );
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Stops publishing and closes the socket.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if ( executor.awaitTermination( 5, TimeUnit.SECONDS ) ) {
+                // The publishing thread is gone, so the socket can be closed here
+                publisher.close();
+            }
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+        }
+        zmqContext.term();
+    }
+
+
+    /*
+     * Runs the given task on the publishing thread, and waits for it.
+     */
+    private <T> T call( Callable<T> task ) throws IOException {
+        try {
+            return executor.submit( task ).get( 30, TimeUnit.SECONDS );
+        } catch ( ExecutionException ex ) {
+            throw new IOException( ex.getCause() );
+        } catch ( InterruptedException | TimeoutException ex ) {
+            throw new IOException( ex );
+        }
+    }
+
+}  // end class KineticaMonitorPublisher
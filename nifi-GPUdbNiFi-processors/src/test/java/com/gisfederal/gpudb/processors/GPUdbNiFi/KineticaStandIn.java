@@ -0,0 +1,823 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.log4j.Logger;
+
+import com.gpudb.Type;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+
+/**
+ * An embeddable stand-in for a Kinetica server, speaking the subset of the
+ * REST/Avro protocol the processors use, so that they can be run end to end
+ * (and their throughput measured) without a database.
+ *
+ * Every request is the Avro binary encoding of the endpoint's request
+ * record, and every response the Avro binary encoding of the response
+ * envelope (status, message, data type, data, data string) whose data is the
+ * encoded response record.  The endpoints:
+ *
+ * <ul>
+ * <li>/has/table, /show/table, /create/type, /create/table, /clear/table</li>
+ * <li>/insert/records, binary encoded, on the head node and the workers</li>
+ * <li>/show/system/properties, listing the workers for multi-head ingest,
+ *     /show/system/status and /admin/show/shards</li>
+ * <li>/create/tablemonitor and /clear/tablemonitor (topics only; nothing is
+ *     published here, see {@link KineticaMonitorPublisher})</li>
+ * </ul>
+ *
+ * The records inserted are decoded with the type of their table and kept in
+ * memory.  Latency and failures can be injected per endpoint.  Compressed
+ * (snappy) requests are not supported.
+ */
+public class KineticaStandIn implements Closeable {
+
+    private final static Logger LOG = Logger.getLogger( KineticaStandIn.class );
+
+    /**
+     * Matches all the endpoints, for {@link #setLatency} and
+     * {@link #setFailureRate}
+     */
+    public static final String ALL_ENDPOINTS = "*";
+
+    private static final Schema STRING  = Schema.create( Schema.Type.STRING );
+    private static final Schema BOOLEAN = Schema.create( Schema.Type.BOOLEAN );
+    private static final Schema INT     = Schema.create( Schema.Type.INT );
+    private static final Schema LONG    = Schema.create( Schema.Type.LONG );
+    private static final Schema DOUBLE  = Schema.create( Schema.Type.DOUBLE );
+    private static final Schema BYTES   = Schema.create( Schema.Type.BYTES );
+    private static final Schema STRING_MAP  = Schema.createMap( STRING );
+    private static final Schema STRING_LIST = Schema.createArray( STRING );
+
+    /**
+     * The envelope of every response
+     */
+    static final Schema RESPONSE = record( "RawGpudbResponse",
+                                           "status", STRING,
+                                           "message", STRING,
+                                           "data_type", STRING,
+                                           "data", BYTES,
+                                           "data_str", STRING );
+
+    // The number of shards in the routing table of /admin/show/shards
+    private static final int SHARD_COUNT = 1024;
+
+    // The head node is rank 0
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final List<URL> urls = new ArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+
+    private final ConcurrentMap<String, TableState> tables = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TypeState> types = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> monitors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> monitorTopics = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private final ConcurrentMap<String, Long> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Double> failureRates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> failuresToInject = new ConcurrentHashMap<>();
+    private final Random random = new Random( 42 );
+
+    private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong[] insertsByRank;
+
+
+    /**
+     * Starts a stand-in without workers, on a free port of the loopback
+     * interface.
+     */
+    public KineticaStandIn() throws IOException {
+        this( 0 );
+    }
+
+
+    /**
+     * Starts a stand-in with the given number of worker ranks, each on a
+     * free port of the loopback interface.
+     */
+    public KineticaStandIn( int workerCount ) throws IOException {
+        registerEndpoints();
+
+        insertsByRank = new AtomicLong[ workerCount + 1 ];
+        for ( int rank = 0; rank <= workerCount; rank++ ) {
+            insertsByRank[ rank ] = new AtomicLong();
+
+            HttpServer server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+            server.createContext( "/", new RankHandler( rank ) );
+            server.setExecutor( executor );
+            server.start();
+            servers.add( server );
+            urls.add( new URL( "http", "127.0.0.1", server.getAddress().getPort(), "" ) );
+        }
+        LOG.debug( "Kinetica stand-in listening at " + urls );
+    }
+
+
+    /**
+     * @return the URL of the head node
+     */
+    public URL getURL() {
+        return urls.get( 0 );
+    }
+
+
+    /**
+     * @return the URLs of the workers, from rank 1
+     */
+    public List<URL> getWorkerURLs() {
+        return Collections.unmodifiableList( urls.subList( 1, urls.size() ) );
+    }
+
+
+    /**
+     * Delays every request to the given endpoint (e.g. "/insert/records"),
+     * or to {@link #ALL_ENDPOINTS}, by the given time.
+     */
+    public void setLatency( String endpoint, long millis ) {
+        latencies.put( endpoint, millis );
+    }
+
+
+    /**
+     * Fails the given fraction (0 to 1) of the requests to the given
+     * endpoint, or to {@link #ALL_ENDPOINTS}, chosen at random (from a fixed
+     * seed).
+     */
+    public void setFailureRate( String endpoint, double rate ) {
+        failureRates.put( endpoint, rate );
+    }
+
+
+    /**
+     * Fails the next given number of requests to the given endpoint.
+     */
+    public void failNext( String endpoint, int count ) {
+        failuresToInject.put( endpoint, new AtomicInteger( count ) );
+    }
+
+
+    /**
+     * @return the number of requests received for the given endpoint,
+     *         including the failed ones
+     */
+    public long getRequestCount( String endpoint ) {
+        AtomicLong count = requestCounts.get( endpoint );
+        return (count == null) ? 0 : count.get();
+    }
+
+
+    /**
+     * @return the number of records inserted through the given rank
+     */
+    public long getInsertedRecordCount( int rank ) {
+        return insertsByRank[ rank ].get();
+    }
+
+
+    /**
+     * @return whether the given table exists
+     */
+    public boolean hasTable( String tableName ) {
+        return tables.containsKey( tableName );
+    }
+
+
+    /**
+     * @return the number of records in the given table, or -1 if it
+     *         doesn't exist
+     */
+    public long getRecordCount( String tableName ) {
+        TableState table = tables.get( tableName );
+        return (table == null) ? -1 : table.size();
+    }
+
+
+    /**
+     * @return a copy of the records of the given table, in the order they
+     *         were inserted, or null if it doesn't exist
+     */
+    public List<GenericRecord> getRecords( String tableName ) {
+        TableState table = tables.get( tableName );
+        if ( table == null ) {
+            return null;
+        }
+        synchronized ( table.records ) {
+            return new ArrayList<>( table.records );
+        }
+    }
+
+
+    /**
+     * Creates the given table, of the given type, as /create/type and
+     * /create/table would.
+     */
+    public void createTable( String tableName, Type type ) throws StandInException {
+        Map<String, List<String>> properties = new HashMap<>();
+        for ( Type.Column column : type.getColumns() ) {
+            if ( !column.getProperties().isEmpty() ) {
+                properties.put( column.getName(), new ArrayList<>( column.getProperties() ) );
+            }
+        }
+        String typeId = "standin_type_" + nextId.incrementAndGet();
+        TypeState typeState = new TypeState( type.getSchema().toString(), type.getLabel(), properties );
+        types.put( typeId, typeState );
+        tables.put( tableName, new TableState( typeId, typeState ) );
+    }
+
+
+    /**
+     * Has /create/tablemonitor return the given topic ID for the given
+     * table, e.g. that of a {@link KineticaMonitorPublisher}, instead of a
+     * new one.
+     */
+    public void setTableMonitorTopic( String tableName, String topicId ) {
+        monitorTopics.put( tableName, topicId );
+    }
+
+
+    /**
+     * @return the identifiers of the table monitors currently created
+     */
+    public List<String> getTableMonitors() {
+        return new ArrayList<>( monitors.keySet() );
+    }
+
+
+    /**
+     * Stops all the ranks.
+     */
+    @Override
+    public void close() {
+        for ( HttpServer server : servers ) {
+            server.stop( 0 );
+        }
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * An error returned to the client with the ERROR status
+     */
+    static class StandInException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        StandInException( String message ) {
+            super( message );
+        }
+    }
+
+
+    /**
+     * One endpoint: the schemas of its request and response, and what it
+     * does
+     */
+    private static abstract class Endpoint {
+        final Schema request;
+        final Schema response;
+
+        Endpoint( Schema request, Schema response ) {
+            this.request  = request;
+            this.response = response;
+        }
+
+        /**
+         * Fills in the response to the given request.
+         */
+        abstract void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException;
+    }
+
+
+    private static final class TypeState {
+        final String definition;
+        final String label;
+        final Map<String, List<String>> properties;
+        final Schema schema;
+
+        TypeState( String definition, String label, Map<String, List<String>> properties ) throws StandInException {
+            this.definition = definition;
+            this.label      = label;
+            this.properties = properties;
+            try {
+                this.schema = new Schema.Parser().parse( definition );
+            } catch ( RuntimeException ex ) {
+                throw new StandInException( "Invalid type definition: " + ex.getMessage() );
+            }
+        }
+    }
+
+
+    private static final class TableState {
+        final String typeId;
+        final TypeState type;
+        final List<GenericRecord> records = new ArrayList<>();
+
+        TableState( String typeId, TypeState type ) {
+            this.typeId = typeId;
+            this.type   = type;
+        }
+
+        long size() {
+            synchronized ( records ) {
+                return records.size();
+            }
+        }
+    }
+
+
+    /**
+     * Decodes the requests to one rank, and encodes the responses
+     */
+    private final class RankHandler implements HttpHandler {
+        private final int rank;
+
+        RankHandler( int rank ) {
+            this.rank = rank;
+        }
+
+        @Override
+        public void handle( HttpExchange exchange ) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            GenericRecord envelope = new GenericData.Record( RESPONSE );
+            envelope.put( "data_str", "" );
+
+            try {
+                count( path );
+                delay( path );
+
+                Endpoint endpoint = endpoints.get( path );
+                if ( endpoint == null ) {
+                    throw new StandInException( "Unsupported endpoint " + path );
+                }
+                String contentType = exchange.getRequestHeaders().getFirst( "Content-Type" );
+                if ( (contentType != null) && !contentType.startsWith( "application/octet-stream" ) ) {
+                    throw new StandInException( "Unsupported content type " + contentType );
+                }
+                if ( shouldFail( path ) ) {
+                    throw new StandInException( "Injected failure for " + path );
+                }
+
+                GenericRecord request = decode( endpoint.request, readFully( exchange.getRequestBody() ) );
+                GenericRecord response = new GenericData.Record( endpoint.response );
+                endpoint.handle( rank, request, response );
+
+                envelope.put( "status", "OK" );
+                envelope.put( "message", "" );
+                envelope.put( "data_type", endpoint.response.getName() );
+                envelope.put( "data", ByteBuffer.wrap( encode( response ) ) );
+            } catch ( StandInException | RuntimeException ex ) {
+                LOG.debug( "Kinetica stand-in error for " + path + ": " + ex.getMessage() );
+                envelope.put( "status", "ERROR" );
+                envelope.put( "message", String.valueOf( ex.getMessage() ) );
+                envelope.put( "data_type", "none" );
+                envelope.put( "data", ByteBuffer.wrap( new byte[ 0 ] ) );
+            }
+
+            byte[] body = encode( envelope );
+            exchange.getResponseHeaders().set( "Content-Type", "application/octet-stream" );
+            exchange.sendResponseHeaders( 200, body.length );
+            try ( OutputStream out = exchange.getResponseBody() ) {
+                out.write( body );
+            }
+        }
+    }
+
+
+    private void count( String endpoint ) {
+        AtomicLong count = requestCounts.get( endpoint );
+        if ( count == null ) {
+            AtomicLong created = new AtomicLong();
+            count = requestCounts.putIfAbsent( endpoint, created );
+            if ( count == null ) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+
+    private void delay( String endpoint ) {
+        Long millis = latencies.get( endpoint );
+        if ( millis == null ) {
+            millis = latencies.get( ALL_ENDPOINTS );
+        }
+        if ( (millis != null) && (millis > 0) ) {
+            try {
+                Thread.sleep( millis );
+            } catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private boolean shouldFail( String endpoint ) {
+        AtomicInteger remaining = failuresToInject.get( endpoint );
+        if ( (remaining != null) && (remaining.getAndDecrement() > 0) ) {
+            return true;
+        }
+        Double rate = failureRates.get( endpoint );
+        if ( rate == null ) {
+            rate = failureRates.get( ALL_ENDPOINTS );
+        }
+        if ( rate == null ) {
+            return false;
+        }
+        synchronized ( random ) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+
+    /**
+     * Registers the endpoints with the schemas of their requests and
+     * responses.
+     */
+    private void registerEndpoints() {
+        endpoints.put( "/has/table", new Endpoint(
+                record( "has_table_request", "table_name", STRING, "options", STRING_MAP ),
+                record( "has_table_response", "table_name", STRING, "table_exists", BOOLEAN, "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) {
+                String tableName = request.get( "table_name" ).toString();
+                response.put( "table_name", tableName );
+                response.put( "table_exists", tables.containsKey( tableName ) );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/show/table", new Endpoint(
+                record( "show_table_request", "table_name", STRING, "options", STRING_MAP ),
+                record( "show_table_response",
+                        "table_name", STRING,
+                        "table_names", STRING_LIST,
+                        "table_descriptions", Schema.createArray( STRING_LIST ),
+                        "type_ids", STRING_LIST,
+                        "type_schemas", STRING_LIST,
+                        "type_labels", STRING_LIST,
+                        "properties", Schema.createArray( Schema.createMap( STRING_LIST ) ),
+                        "additional_info", Schema.createArray( STRING_MAP ),
+                        "sizes", Schema.createArray( LONG ),
+                        "full_sizes", Schema.createArray( LONG ),
+                        "join_sizes", Schema.createArray( DOUBLE ),
+                        "total_size", LONG,
+                        "total_full_size", LONG,
+                        "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException {
+                String tableName = request.get( "table_name" ).toString();
+                TableState table = getTable( tableName );
+                long size = table.size();
+                response.put( "table_name", tableName );
+                response.put( "table_names", Collections.singletonList( tableName ) );
+                response.put( "table_descriptions", Collections.singletonList( Collections.<String>emptyList() ) );
+                response.put( "type_ids", Collections.singletonList( table.typeId ) );
+                response.put( "type_schemas", Collections.singletonList( table.type.definition ) );
+                response.put( "type_labels", Collections.singletonList( table.type.label ) );
+                response.put( "properties", Collections.singletonList( table.type.properties ) );
+                response.put( "additional_info", Collections.singletonList( Collections.<String, String>emptyMap() ) );
+                response.put( "sizes", Collections.singletonList( size ) );
+                response.put( "full_sizes", Collections.singletonList( size ) );
+                response.put( "join_sizes", Collections.singletonList( 0.0 ) );
+                response.put( "total_size", size );
+                response.put( "total_full_size", size );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/create/type", new Endpoint(
+                record( "create_type_request",
+                        "type_definition", STRING,
+                        "label", STRING,
+                        "properties", Schema.createMap( STRING_LIST ),
+                        "options", STRING_MAP ),
+                record( "create_type_response",
+                        "type_id", STRING,
+                        "type_definition", STRING,
+                        "label", STRING,
+                        "properties", Schema.createMap( STRING_LIST ),
+                        "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException {
+                TypeState type = new TypeState( request.get( "type_definition" ).toString(),
+                                                request.get( "label" ).toString(),
+                                                toStringListMap( request.get( "properties" ) ) );
+                String typeId = "standin_type_" + nextId.incrementAndGet();
+                types.put( typeId, type );
+                response.put( "type_id", typeId );
+                response.put( "type_definition", type.definition );
+                response.put( "label", type.label );
+                response.put( "properties", type.properties );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/create/table", new Endpoint(
+                record( "create_table_request", "table_name", STRING, "type_id", STRING, "options", STRING_MAP ),
+                record( "create_table_response",
+                        "table_name", STRING,
+                        "type_id", STRING,
+                        "is_collection", BOOLEAN,
+                        "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException {
+                String tableName = request.get( "table_name" ).toString();
+                String typeId = request.get( "type_id" ).toString();
+                TypeState type = types.get( typeId );
+                if ( type == null ) {
+                    throw new StandInException( "Type " + typeId + " does not exist" );
+                }
+                TableState existing = tables.putIfAbsent( tableName, new TableState( typeId, type ) );
+                if ( (existing != null) && !"true".equalsIgnoreCase( option( request, "no_error_if_exists" ) ) ) {
+                    throw new StandInException( "Table " + tableName + " already exists" );
+                }
+                response.put( "table_name", tableName );
+                response.put( "type_id", typeId );
+                response.put( "is_collection", false );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/clear/table", new Endpoint(
+                record( "clear_table_request",
+                        "table_name", STRING,
+                        "authorization", STRING,
+                        "options", STRING_MAP ),
+                record( "clear_table_response", "table_name", STRING, "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException {
+                String tableName = request.get( "table_name" ).toString();
+                if ( (tables.remove( tableName ) == null)
+                     && !"true".equalsIgnoreCase( option( request, "no_error_if_not_exists" ) ) ) {
+                    throw new StandInException( "Table " + tableName + " does not exist" );
+                }
+                response.put( "table_name", tableName );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/insert/records", new Endpoint(
+                record( "insert_records_request",
+                        "table_name", STRING,
+                        "list", Schema.createArray( BYTES ),
+                        "list_str", STRING_LIST,
+                        "list_encoding", STRING,
+                        "options", STRING_MAP ),
+                record( "insert_records_response",
+                        "record_ids", STRING_LIST,
+                        "count_inserted", INT,
+                        "count_updated", INT,
+                        "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException {
+                TableState table = getTable( request.get( "table_name" ).toString() );
+                String encoding = request.get( "list_encoding" ).toString();
+                if ( !encoding.isEmpty() && !"binary".equals( encoding ) ) {
+                    throw new StandInException( "Unsupported list encoding " + encoding );
+                }
+
+                // Decode them all first, so that a bad record inserts nothing
+                @SuppressWarnings( "unchecked" )
+                List<ByteBuffer> list = (List<ByteBuffer>) request.get( "list" );
+                List<GenericRecord> records = new ArrayList<>( list.size() );
+                for ( ByteBuffer data : list ) {
+                    byte[] bytes = new byte[ data.remaining() ];
+                    data.duplicate().get( bytes );
+                    records.add( decode( table.type.schema, bytes ) );
+                }
+                synchronized ( table.records ) {
+                    table.records.addAll( records );
+                }
+                insertsByRank[ rank ].addAndGet( records.size() );
+
+                response.put( "record_ids", Collections.emptyList() );
+                response.put( "count_inserted", records.size() );
+                response.put( "count_updated", 0 );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/show/system/properties", new Endpoint(
+                record( "show_system_properties_request", "options", STRING_MAP ),
+                record( "show_system_properties_response", "property_map", STRING_MAP, "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) {
+                response.put( "property_map", getSystemProperties() );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/show/system/status", new Endpoint(
+                record( "show_system_status_request", "options", STRING_MAP ),
+                record( "show_system_status_response", "status_map", STRING_MAP, "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) {
+                response.put( "status_map", Collections.singletonMap( "system", "{\"status\":\"running\"}" ) );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/admin/show/shards", new Endpoint(
+                record( "admin_show_shards_request", "options", STRING_MAP ),
+                record( "admin_show_shards_response",
+                        "version", LONG,
+                        "rank", Schema.createArray( INT ),
+                        "tom", Schema.createArray( INT ),
+                        "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) {
+                // The shards are spread evenly over the workers
+                int workerCount = urls.size() - 1;
+                List<Integer> ranks = new ArrayList<>( SHARD_COUNT );
+                List<Integer> toms = new ArrayList<>( SHARD_COUNT );
+                for ( int shard = 0; shard < SHARD_COUNT; shard++ ) {
+                    ranks.add( (workerCount == 0) ? 0 : 1 + shard % workerCount );
+                    toms.add( 0 );
+                }
+                response.put( "version", 1L );
+                response.put( "rank", ranks );
+                response.put( "tom", toms );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/create/tablemonitor", new Endpoint(
+                record( "create_table_monitor_request", "table_name", STRING, "options", STRING_MAP ),
+                record( "create_table_monitor_response",
+                        "topic_id", STRING,
+                        "table_name", STRING,
+                        "type_schema", STRING,
+                        "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException {
+                String tableName = request.get( "table_name" ).toString();
+                TableState table = getTable( tableName );
+                String topicId = monitorTopics.get( tableName );
+                if ( topicId == null ) {
+                    topicId = "standin_topic_" + nextId.incrementAndGet();
+                }
+                monitors.put( topicId, tableName );
+                response.put( "topic_id", topicId );
+                response.put( "table_name", tableName );
+                response.put( "type_schema", table.type.definition );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+
+        endpoints.put( "/clear/tablemonitor", new Endpoint(
+                record( "clear_table_monitor_request", "topic_id", STRING, "options", STRING_MAP ),
+                record( "clear_table_monitor_response", "topic_id", STRING, "info", STRING_MAP ) ) {
+            @Override
+            void handle( int rank, GenericRecord request, GenericRecord response ) throws StandInException {
+                String topicId = request.get( "topic_id" ).toString();
+                if ( monitors.remove( topicId ) == null ) {
+                    throw new StandInException( "Table monitor " + topicId + " does not exist" );
+                }
+                response.put( "topic_id", topicId );
+                response.put( "info", Collections.emptyMap() );
+            }
+        } );
+    }
+
+
+    /**
+     * @return the system properties: the version, and the workers for the
+     *         multi-head ingest, rank 0 (the head node) first
+     */
+    private Map<String, String> getSystemProperties() {
+        StringBuilder workerUrls = new StringBuilder();
+        StringBuilder workerIps = new StringBuilder();
+        StringBuilder workerPorts = new StringBuilder();
+        for ( URL url : urls ) {
+            if ( workerUrls.length() > 0 ) {
+                workerUrls.append( ';' );
+                workerIps.append( ';' );
+                workerPorts.append( ';' );
+            }
+            workerUrls.append( url );
+            workerIps.append( url.getHost() );
+            workerPorts.append( url.getPort() );
+        }
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put( "version.gpudb_core_version", "7.1.0.0" );
+        properties.put( "conf.enable_ha", "FALSE" );
+        properties.put( "conf.hm_http_port", String.valueOf( getURL().getPort() ) );
+        properties.put( "conf.enable_worker_http_servers", (urls.size() > 1) ? "TRUE" : "FALSE" );
+        properties.put( "conf.worker_http_server_urls", workerUrls.toString() );
+        properties.put( "conf.worker_http_server_ips", workerIps.toString() );
+        properties.put( "conf.worker_http_server_ports", workerPorts.toString() );
+        return properties;
+    }
+
+
+    private TableState getTable( String tableName ) throws StandInException {
+        TableState table = tables.get( tableName );
+        if ( table == null ) {
+            throw new StandInException( "Table " + tableName + " does not exist" );
+        }
+        return table;
+    }
+
+
+    private static String option( GenericRecord request, String name ) {
+        for ( Map.Entry<?, ?> entry : ((Map<?, ?>) request.get( "options" )).entrySet() ) {
+            if ( name.equals( entry.getKey().toString() ) ) {
+                return entry.getValue().toString();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Converts a decoded map of string lists, whose strings are Utf8
+     */
+    private static Map<String, List<String>> toStringListMap( Object decoded ) {
+        Map<String, List<String>> map = new HashMap<>();
+        for ( Map.Entry<?, ?> entry : ((Map<?, ?>) decoded).entrySet() ) {
+            List<String> values = new ArrayList<>();
+            for ( Object value : (List<?>) entry.getValue() ) {
+                values.add( value.toString() );
+            }
+            map.put( entry.getKey().toString(), values );
+        }
+        return map;
+    }
+
+
+    /**
+     * @return a record schema with the given fields, as name and schema pairs
+     */
+    static Schema record( String name, Object... fields ) {
+        List<Schema.Field> list = new ArrayList<>();
+        for ( int i = 0; i < fields.length; i += 2 ) {
+            list.add( new Schema.Field( (String) fields[ i ], (Schema) fields[ i + 1 ], null, (Object) null ) );
+        }
+        return Schema.createRecord( name, null, null, false, list );
+    }
+
+
+    static byte[] encode( GenericRecord record ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder( out, null );
+        new GenericDatumWriter<GenericRecord>( record.getSchema() ).write( record, encoder );
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+
+    static GenericRecord decode( Schema schema, byte[] data ) throws StandInException {
+        try {
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder( data, null );
+            return new GenericDatumReader<GenericRecord>( schema ).read( null, decoder );
+        } catch ( IOException | RuntimeException ex ) {
+            throw new StandInException( "Unable to decode " + schema.getName() + ": " + ex.getMessage() );
+        }
+    }
+
+
+    private static byte[] readFully( InputStream in ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[ 8192 ];
+        int read;
+        while ( (read = in.read( buffer )) > 0 ) {
+            out.write( buffer, 0, read );
+        }
+        return out.toByteArray();
+    }
+
+}  // end class KineticaStandIn
@@ -0,0 +1,295 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apache.nifi.processor.Processor;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.Type;
+
+
+
+/**
+ * Drives the table monitor processors end to end against a
+ * {@link KineticaStandIn} and a {@link KineticaMonitorPublisher}, checking
+ * that every record comes out and logging the throughput, the latency from
+ * publishing to FlowFile, and how the buffer and the heap behave under
+ * bursts.  The number of records is given by the "throughput.records" system
+ * property.
+ */
+public class TestGetKineticaThroughput {
+
+    private final static Logger LOG = Logger.getLogger( TestGetKineticaThroughput.class );
+
+    private static final int RECORDS = Integer.getInteger( "throughput.records", 20000 );
+
+    private static final String TABLE = "throughput";
+
+    private static final Type TYPE = new Type( new Type.Column( "x", Integer.class ),
+                                               new Type.Column( "y", Double.class ),
+                                               new Type.Column( "s", String.class, ColumnProperty.NULLABLE ),
+                                               new Type.Column( KineticaMonitorPublisher.SENT_NANOS, Long.class ) );
+
+    private static final Pattern JSON_SENT_NANOS = Pattern.compile( "\"" + KineticaMonitorPublisher.SENT_NANOS
+                                                                     + "\":(\\d+)" );
+
+    // How long to wait for all the records to come out
+    private static final long TIMEOUT_MILLIS = 120000;
+
+    private KineticaStandIn standIn;
+    private KineticaMonitorPublisher publisher;
+
+
+    @Before
+    public void setUp() throws Exception {
+        standIn = new KineticaStandIn();
+        standIn.createTable( TABLE, TYPE );
+        publisher = new KineticaMonitorPublisher( TYPE, "throughput_topic" );
+        standIn.setTableMonitorTopic( TABLE, publisher.getTopicId() );
+    }  // end setUp
+
+
+    @After
+    public void tearDown() {
+        publisher.close();
+        standIn.close();
+    }  // end tearDown
+
+
+    private TestRunner newRunner( Class<? extends Processor> processor ) {
+        TestRunner runner = TestRunners.newTestRunner( processor );
+        runner.setProperty( KineticaConstants.SERVER_URL, standIn.getURL().toString() );
+        runner.setProperty( KineticaConstants.TABLE_NAME, TABLE );
+        runner.setProperty( KineticaConstants.TABLE_MONITOR_URL, publisher.getURL() );
+        return runner;
+    }
+
+
+    /*
+     * Schedules the processor and waits for its table monitor to subscribe.
+     */
+    private static void start( TestRunner runner, KineticaMonitorPublisher publisher ) throws Exception {
+        runner.run( 1, false, true );
+        assertTrue( "No subscription to the table monitor", publisher.awaitSubscriber( 10000 ) );
+    }
+
+
+    /*
+     * Runs the processor until the given number of records have come out,
+     * or been dropped, or the time is up, then stops it.  Records the
+     * latency of every record received in the given histogram, if any.
+     *
+     * Returns the number of records received.
+     */
+    private static long drain( TestRunner runner, long recordCount, KineticaHistogram latencies ) {
+        long received = 0;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while ( (received + dropped( runner ) < recordCount) && (System.currentTimeMillis() < deadline) ) {
+            runner.run( 1, false, false );
+            long now = System.nanoTime();
+
+            for ( MockFlowFile flowFile : runner.getFlowFilesForRelationship( KineticaConstants.SUCCESS ) ) {
+                received += read( flowFile, now, latencies );
+            }
+            runner.clearTransferState();
+        }
+
+        runner.run( 1, true, false );
+        return received;
+    }
+
+
+    /*
+     * Counts the records of a CSV (with a header) or JSON Lines FlowFile,
+     * recording their latency.
+     */
+    private static long read( MockFlowFile flowFile, long receivedNanos, KineticaHistogram latencies ) {
+        String[] lines = new String( flowFile.toByteArray() ).split( "\n" );
+        boolean csv = "text/csv".equals( flowFile.getAttribute( "mime.type" ) );
+        int sentNanosIndex = TYPE.getColumnIndex( KineticaMonitorPublisher.SENT_NANOS );
+        long count = 0;
+
+        for ( int i = csv ? 1 : 0; i < lines.length; i++ ) {
+            String line = lines[ i ].trim();
+            if ( line.isEmpty() ) {
+                continue;
+            }
+            count++;
+            if ( latencies == null ) {
+                continue;
+            }
+
+            long sentNanos;
+            if ( csv ) {
+                sentNanos = Long.parseLong( line.split( "," )[ sentNanosIndex ] );
+            } else {
+                Matcher matcher = JSON_SENT_NANOS.matcher( line );
+                assertTrue( line, matcher.find() );
+                sentNanos = Long.parseLong( matcher.group( 1 ) );
+            }
+            latencies.record( receivedNanos - sentNanos );
+        }
+        return count;
+    }
+
+
+    private static long dropped( TestRunner runner ) {
+        Long dropped = runner.getCounterValue( KineticaMonitorBuffer.DROPPED_COUNTER );
+        return (dropped == null) ? 0 : dropped;
+    }
+
+
+    private static long highWaterMark( TestRunner runner ) {
+        Long highWaterMark = runner.getCounterValue( KineticaMonitorBuffer.HIGH_WATER_MARK_COUNTER );
+        return (highWaterMark == null) ? 0 : highWaterMark;
+    }
+
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    private static void logThroughput( String test, long recordCount, long startNanos ) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LOG.info( String.format( "%s: %d records in %.3f s, %.0f records/s", test, recordCount, seconds,
+                                 recordCount / seconds ) );
+    }
+
+
+    private static void logLatency( String test, KineticaHistogram latencies ) {
+        LOG.info( String.format( "%s: latency p50 %.1f ms, p99 %.1f ms, max %.1f ms", test,
+                                 latencies.getValueAtQuantile( 0.5 ) / 1e6,
+                                 latencies.getValueAtQuantile( 0.99 ) / 1e6,
+                                 latencies.getValueAtQuantile( 1.0 ) / 1e6 ) );
+    }
+
+
+    /*
+     * Publishes the given number of records as fast as possible, or at the
+     * given rate, while the processor runs, and checks that they all come
+     * out.
+     */
+    private void runSustained( TestRunner runner, int recordCount, double recordsPerSecond, String test )
+        throws Exception {
+        KineticaHistogram latencies = new KineticaHistogram();
+        start( runner, publisher );
+
+        long start = System.nanoTime();
+        Future<Long> published = publisher.publish( recordCount, 100, recordsPerSecond );
+        long received = drain( runner, recordCount, latencies );
+        logThroughput( test, received, start );
+        logLatency( test, latencies );
+
+        assertEquals( recordCount, published.get( 10, TimeUnit.SECONDS ).longValue() );
+        assertEquals( recordCount, received );
+        assertEquals( 0, dropped( runner ) );
+    }
+
+
+    @Test
+    public void testGetKineticaToCSV() throws Exception {
+        runSustained( newRunner( GetKineticaToCSV.class ), RECORDS, 0, "GetKineticaToCSV" );
+    }  // end testGetKineticaToCSV
+
+
+    @Test
+    public void testGetKineticaToJSON() throws Exception {
+        runSustained( newRunner( GetKineticaToJSON.class ), RECORDS, 0, "GetKineticaToJSON" );
+    }  // end testGetKineticaToJSON
+
+
+    @Test
+    public void testGetKineticaToCSVSteadyRate() throws Exception {
+        // Records linger for up to 100 ms to fill FlowFiles
+        TestRunner runner = newRunner( GetKineticaToCSV.class );
+        runner.setProperty( KineticaConstants.MAX_LINGER_TIME, "100 millis" );
+        runner.setProperty( KineticaConstants.MAX_RECORDS_PER_FLOWFILE, "1000" );
+
+        runSustained( runner, 5000, 5000, "GetKineticaToCSV, 5000 records/s, 100 ms linger" );
+    }  // end testGetKineticaToCSVSteadyRate
+
+
+    @Test
+    public void testGetKineticaToJSONSteadyRate() throws Exception {
+        TestRunner runner = newRunner( GetKineticaToJSON.class );
+        runner.setProperty( KineticaConstants.MAX_LINGER_TIME, "100 millis" );
+        runner.setProperty( KineticaConstants.MAX_RECORDS_PER_FLOWFILE, "1000" );
+
+        runSustained( runner, 5000, 5000, "GetKineticaToJSON, 5000 records/s, 100 ms linger" );
+    }  // end testGetKineticaToJSONSteadyRate
+
+
+    /*
+     * Publishes the given number of records in one burst, without the
+     * processor running, then runs it until they are all out or dropped.
+     *
+     * Returns the number of records received.
+     */
+    private long runBurst( TestRunner runner, int recordCount, String test ) throws Exception {
+        long heapBefore = usedHeap();
+        start( runner, publisher );
+
+        long start = System.nanoTime();
+        publisher.publish( recordCount, 100, 0 ).get( TIMEOUT_MILLIS, TimeUnit.MILLISECONDS );
+        // Leave the table monitor time to fill the buffer
+        Thread.sleep( 1000 );
+        long heapAfterBurst = usedHeap();
+
+        long received = drain( runner, recordCount, null );
+        logThroughput( test, received, start );
+        LOG.info( String.format( "%s: buffer high-water mark %d, %d dropped, heap grew by %.1f MB during the burst",
+                                 test, highWaterMark( runner ), dropped( runner ),
+                                 (heapAfterBurst - heapBefore) / 1048576.0 ) );
+        return received;
+    }
+
+
+    @Test
+    public void testBurstBlock() throws Exception {
+        // The buffer stops the table monitor at 1000 records; none are lost
+        TestRunner runner = newRunner( GetKineticaToCSV.class );
+        runner.setProperty( KineticaConstants.BUFFER_MAX_RECORDS, "1000" );
+        runner.setProperty( KineticaConstants.MAX_RECORDS_PER_FLOWFILE, "1000" );
+
+        long received = runBurst( runner, RECORDS, "GetKineticaToCSV, burst, Block" );
+
+        assertEquals( RECORDS, received );
+        assertEquals( 0, dropped( runner ) );
+        assertTrue( highWaterMark( runner ) <= 1000 );
+    }  // end testBurstBlock
+
+
+    @Test
+    public void testBurstDropOldest() throws Exception {
+        // The buffer keeps the latest 1000 records and drops the rest
+        TestRunner runner = newRunner( GetKineticaToJSON.class );
+        runner.setProperty( KineticaConstants.BUFFER_MAX_RECORDS, "1000" );
+        runner.setProperty( KineticaConstants.BUFFER_FULL_STRATEGY, GetKineticaToJSON.DROP_OLDEST.getValue() );
+        runner.setProperty( KineticaConstants.MAX_RECORDS_PER_FLOWFILE, "1000" );
+
+        long received = runBurst( runner, RECORDS, "GetKineticaToJSON, burst, Drop Oldest" );
+
+        assertEquals( RECORDS, received + dropped( runner ) );
+        assertTrue( dropped( runner ) > 0 );
+        assertTrue( highWaterMark( runner ) <= 1000 );
+    }  // end testBurstDropOldest
+
+}  // end TestGetKineticaThroughput
@@ -0,0 +1,210 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.log4j.Logger;
+import org.junit.Assume;
+import org.junit.Test;
+
+
+
+public class TestKineticaCSVReader {
+
+    private final static Logger LOG = Logger.getLogger( TestKineticaCSVReader.class );
+
+
+    private static KineticaCSVReader newReader( String content ) {
+        return new KineticaCSVReader( new StringReader( content ), ',', '"', KineticaCSVReader.NONE );
+    }
+
+
+    private static void assertRecord( KineticaCSVReader reader, String... expected ) throws IOException {
+        assertTrue( "Expected another record;", reader.nextRecord() );
+        assertFalse( "Record unexpectedly malformed;", reader.isMalformed() );
+        assertEquals( "Field count mismatch;", expected.length, reader.getFieldCount() );
+        for ( int i = 0; i < expected.length; ++i ) {
+            assertEquals( "Field " + i + " mismatch;", expected[ i ], reader.getField( i ) );
+        }
+    }
+
+
+    @Test
+    public void testSimpleRecords() throws IOException {
+        KineticaCSVReader reader = newReader( "x,y\n1,2\r\n3,\n\n,4" );
+
+        assertRecord( reader, "x", "y" );
+        assertEquals( "x,y", reader.getRawRecord() );
+        assertRecord( reader, "1", "2" );
+        assertEquals( "1,2", reader.getRawRecord() );
+        assertRecord( reader, "3", "" );
+        // The empty line is skipped
+        assertRecord( reader, "", "4" );
+        assertEquals( ",4", reader.getRawRecord() );
+        assertEquals( 5, reader.getLineNumber() );
+        assertFalse( reader.nextRecord() );
+    }  // end testSimpleRecords
+
+
+    @Test
+    public void testQuotedValuesSpanLines() throws IOException {
+        String content = "1,\"multi\nline \"\"quoted\"\" value\",3\n4,\"a,b\",6\n";
+        KineticaCSVReader reader = newReader( content );
+
+        assertRecord( reader, "1", "multi\nline \"quoted\" value", "3" );
+        assertEquals( "1,\"multi\nline \"\"quoted\"\" value\",3", reader.getRawRecord() );
+        assertRecord( reader, "4", "a,b", "6" );
+        assertEquals( 3, reader.getLineNumber() );
+        assertFalse( reader.nextRecord() );
+    }  // end testQuotedValuesSpanLines
+
+
+    @Test
+    public void testEscapeAndNoQuote() throws IOException {
+        KineticaCSVReader reader = new KineticaCSVReader( new StringReader( "a\\|b|\"c\"|d\\n\n" ),
+                                                          '|', KineticaCSVReader.NONE, '\\' );
+
+        assertRecord( reader, "a|b", "\"c\"", "d\n" );
+        assertFalse( reader.nextRecord() );
+    }  // end testEscapeAndNoQuote
+
+
+    @Test
+    public void testEscapeBeforeOrdinaryCharacter() throws IOException {
+        // Only meta characters are escaped; the escape is kept before others
+        KineticaCSVReader reader = new KineticaCSVReader( new StringReader( "C:\\dir,a\\,b,\"q\\\"x\\\\y\"\n" ),
+                                                          ',', '"', '\\' );
+
+        assertRecord( reader, "C:\\dir", "a,b", "q\"x\\y" );
+        assertFalse( reader.nextRecord() );
+    }  // end testEscapeBeforeOrdinaryCharacter
+
+
+    @Test
+    public void testMalformedRecordIsSkipped() throws IOException {
+        KineticaCSVReader reader = newReader( "1,\"bad\"x,3\n4,5,6\n7,\"unterminated\n" );
+
+        assertTrue( reader.nextRecord() );
+        assertTrue( "Expected a malformed record;", reader.isMalformed() );
+        assertEquals( "1,\"bad\"x,3", reader.getRawRecord() );
+        assertRecord( reader, "4", "5", "6" );
+        assertTrue( reader.nextRecord() );
+        assertTrue( "Expected a malformed record;", reader.isMalformed() );
+        assertEquals( "7,\"unterminated\n", reader.getRawRecord() );
+        assertFalse( reader.nextRecord() );
+    }  // end testMalformedRecordIsSkipped
+
+
+    @Test
+    public void testRecordsSpanningBufferBoundaries() throws IOException {
+        // Build records that are larger than the internal buffer
+        StringBuilder value = new StringBuilder();
+        for ( int i = 0; i < 100000; ++i ) {
+            value.append( (char) ('a' + (i % 26)) );
+        }
+        String content = value + ",\"" + value + "\"\r\n" + value + "," + value;
+        KineticaCSVReader reader = newReader( content );
+
+        assertRecord( reader, value.toString(), value.toString() );
+        assertEquals( value + ",\"" + value + "\"", reader.getRawRecord() );
+        assertRecord( reader, value.toString(), value.toString() );
+        assertEquals( value + "," + value, reader.getRawRecord() );
+        assertFalse( reader.nextRecord() );
+    }  // end testRecordsSpanningBufferBoundaries
+
+
+    /**
+     * Throughput comparison between the previous per-line CSVParser approach
+     * and the streaming reader.  Only run when requested, e.g.:
+     *
+     *     mvn test -Dtest=TestKineticaCSVReader -Dbenchmark=true -Dbenchmark.rows=10000000
+     */
+    @Test
+    public void testThroughputComparedToPerLineParsing() throws IOException {
+        Assume.assumeTrue( Boolean.getBoolean( "benchmark" ) );
+        final long numRows = Long.getLong( "benchmark.rows", 10000000L );
+
+        // Previous approach: read a line, then build a parser for it
+        CSVFormat format = CSVFormat.DEFAULT.withDelimiter( ',' ).withQuote( '"' );
+        long fieldCount = 0;
+        long start = System.nanoTime();
+        try ( BufferedReader br = new BufferedReader( new SyntheticCSVReader( numRows ) ) ) {
+            String line;
+            while ( (line = br.readLine()) != null ) {
+                CSVRecord record = CSVParser.parse( line, format ).getRecords().get( 0 );
+                fieldCount += record.size();
+            }
+        }
+        long perLineNanos = System.nanoTime() - start;
+
+        // Streaming approach
+        long streamingFieldCount = 0;
+        start = System.nanoTime();
+        try ( KineticaCSVReader reader = new KineticaCSVReader( new SyntheticCSVReader( numRows ), ',', '"',
+                                                                KineticaCSVReader.NONE ) ) {
+            while ( reader.nextRecord() ) {
+                streamingFieldCount += reader.getFieldCount();
+            }
+        }
+        long streamingNanos = System.nanoTime() - start;
+
+        assertEquals( "Field count mismatch;", fieldCount, streamingFieldCount );
+        LOG.info( String.format( "%d rows: per-line CSVParser %.0f rows/s, streaming reader %.0f rows/s (%.1fx)",
+                                 numRows,
+                                 numRows * 1e9 / perLineNanos,
+                                 numRows * 1e9 / streamingNanos,
+                                 (double) perLineNanos / streamingNanos ) );
+    }  // end testThroughputComparedToPerLineParsing
+
+
+    /**
+     * Generates rows of a six column table on the fly so that large inputs
+     * don't have to be held in memory.
+     */
+    private static class SyntheticCSVReader extends Reader {
+        private final long numRows;
+        private long row = 0;
+        private String current = "";
+        private int offset = 0;
+
+        SyntheticCSVReader( long numRows ) {
+            this.numRows = numRows;
+        }
+
+        @Override
+        public int read( char[] cbuf, int off, int len ) {
+            int written = 0;
+            while ( written < len ) {
+                if ( offset == current.length() ) {
+                    if ( row == numRows ) {
+                        break;
+                    }
+                    current = row + "," + (row * 0.25) + ",\"name " + (row % 1000) + "\"," + (row % 7)
+                              + ",2017-06-" + (10 + (row % 20)) + " 10:00:00,text value\n";
+                    offset = 0;
+                    ++row;
+                }
+                int count = Math.min( len - written, current.length() - offset );
+                current.getChars( offset, offset + count, cbuf, off + written );
+                offset  += count;
+                written += count;
+            }
+            return (written == 0) ? -1 : written;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}  // end TestKineticaCSVReader
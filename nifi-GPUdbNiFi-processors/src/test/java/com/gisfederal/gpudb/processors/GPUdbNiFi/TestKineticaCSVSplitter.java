@@ -0,0 +1,96 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+
+public class TestKineticaCSVSplitter {
+
+    /**
+     * Tokenizes the records of a reader into comparable strings: the raw
+     * text, whether the record is malformed and the fields of good records
+     */
+    private static void collect( KineticaCSVReader reader, List<String> records ) throws IOException {
+        while ( reader.nextRecord() ) {
+            StringBuilder record = new StringBuilder( reader.getRawRecord() );
+            if ( reader.isMalformed() ) {
+                record.append( " <malformed>" );
+            } else {
+                for ( int i = 0; i < reader.getFieldCount(); ++i ) {
+                    record.append( " [" ).append( reader.getField( i ) ).append( ']' );
+                }
+            }
+            records.add( record.toString() );
+        }
+    }
+
+
+    private static void assertSameRecords( String content, int quote, int escape, int chunkSize ) throws IOException {
+        List<String> expected = new ArrayList<>();
+        collect( new KineticaCSVReader( new StringReader( content ), ',', quote, escape ), expected );
+
+        List<String> actual = new ArrayList<>();
+        KineticaCSVSplitter splitter = new KineticaCSVSplitter( new StringReader( content ), ',', quote, escape, chunkSize );
+        StringBuilder rejoined = new StringBuilder();
+        KineticaCSVSplitter.Chunk chunk;
+        long index = 0;
+        while ( (chunk = splitter.next()) != null ) {
+            assertEquals( index++, chunk.getIndex() );
+            assertTrue( "Empty chunk;", chunk.getLength() > 0 );
+            rejoined.append( chunk.getData(), 0, chunk.getLength() );
+            collect( new KineticaCSVReader( new CharArrayReader( chunk.getData(), 0, chunk.getLength() ), ',', quote, escape ),
+                     actual );
+        }
+
+        assertEquals( "Chunks must cover the content;", content, rejoined.toString() );
+        assertEquals( "Chunked records differ for chunk size " + chunkSize + ";", expected, actual );
+    }
+
+
+    @Test
+    public void testChunksHoldWholeRecords() throws IOException {
+        String content = "x,y\n1,\"multi\nline \"\"quoted\"\" value\"\r\n\n3,4\r"
+                         + "\"bad\"junk,\"with\nquote\"\n5,\"unterminated\n6,7";
+        for ( int chunkSize = 1; chunkSize <= content.length() + 1; ++chunkSize ) {
+            assertSameRecords( content, '"', KineticaCSVReader.NONE, chunkSize );
+        }
+    }  // end testChunksHoldWholeRecords
+
+
+    @Test
+    public void testEscapes() throws IOException {
+        String content = "a\\,b,c\\\nd\n\"e\\\"\n\",f\n\\";
+        for ( int chunkSize = 1; chunkSize <= content.length() + 1; ++chunkSize ) {
+            assertSameRecords( content, '"', '\\', chunkSize );
+            assertSameRecords( content, KineticaCSVReader.NONE, '\\', chunkSize );
+        }
+    }  // end testEscapes
+
+
+    @Test
+    public void testRandomContent() throws IOException {
+        final char[] alphabet = { 'a', 'b', ',', '"', '\\', '\n', '\r' };
+        Random random = new Random( 42 );
+        for ( int round = 0; round < 2000; ++round ) {
+            char[] content = new char[ random.nextInt( 40 ) ];
+            for ( int i = 0; i < content.length; ++i ) {
+                content[ i ] = alphabet[ random.nextInt( alphabet.length ) ];
+            }
+            int chunkSize = 1 + random.nextInt( 8 );
+            assertSameRecords( new String( content ), '"', '\\', chunkSize );
+            assertSameRecords( new String( content ), '"', KineticaCSVReader.NONE, chunkSize );
+        }
+    }  // end testRandomContent
+
+}  // end TestKineticaCSVSplitter
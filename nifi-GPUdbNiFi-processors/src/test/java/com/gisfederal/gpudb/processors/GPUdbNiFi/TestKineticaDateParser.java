@@ -0,0 +1,174 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.apache.log4j.Logger;
+import org.junit.Assume;
+import org.junit.Test;
+
+
+
+public class TestKineticaDateParser {
+
+    private final static Logger LOG = Logger.getLogger( TestKineticaDateParser.class );
+
+    // 2017-06-05 10:15:30.250 UTC
+    private static final long EXPECTED = 1496657730250L;
+
+
+    /**
+     * The previous implementation: a new SimpleDateFormat for every value
+     */
+    private static long legacyParse( String value, String pattern, String timeZone ) throws ParseException {
+        SimpleDateFormat parser = new SimpleDateFormat();
+        parser.setLenient( true );
+        parser.applyPattern( pattern );
+        parser.setTimeZone( TimeZone.getTimeZone( timeZone ) );
+        return parser.parse( value ).getTime();
+    }
+
+
+    @Test
+    public void testParsersAreShared() {
+        assertSame( KineticaDateParser.get( "yyyy/MM/dd", "UTC" ), KineticaDateParser.get( "yyyy/MM/dd", "UTC" ) );
+    }  // end testParsersAreShared
+
+
+    @Test
+    public void testPatternsMatchSimpleDateFormat() throws ParseException {
+        String[][] cases = {
+            { "yyyy/MM/dd HH:mm:ss.SSS", "2017/06/05 10:15:30.250", "UTC" },
+            { "dd-MM-yyyy hh:mm:ss",     "05-06-2017 10:15:30",     "EST" },
+            { "yyyy/MM/dd",              "2017/6/5",                "America/New_York" },
+            { "yyyyMMddHHmmss",          "20170605101530",          "UTC" },
+            { "MMM d, yyyy h:mm a",      "Jun 5, 2017 3:15 PM",     "GMT+2" },
+            // Fields java.time reads differently
+            { "yy-MM-dd",                "60-01-01",                "UTC" },
+            { "y/M/d",                   "17/6/5",                  "UTC" },
+            { "yyyy/MM/dd HH:mm:ss.SS",  "2017/06/05 10:15:30.12",  "UTC" },
+            { "yyyy/MM/dd HH:mm:ss.S",   "2017/06/05 10:15:30.5",   "UTC" },
+            { "yyyy/MM/dd HH:mm:ss.SSSS", "2017/06/05 10:15:30.2500", "UTC" },
+            { "yyyy/MM/dd u",            "2017/06/05 3",            "UTC" },
+            { "YYYY/MM/dd",              "2017/06/05",              "UTC" }
+        };
+        for ( String[] c : cases ) {
+            assertEquals( "Mismatch for " + c[ 0 ] + ";",
+                          (Long) legacyParse( c[ 1 ], c[ 0 ], c[ 2 ] ),
+                          KineticaDateParser.get( c[ 0 ], c[ 2 ] ).parse( c[ 1 ] ) );
+        }
+        assertNull( KineticaDateParser.get( "yyyy/MM/dd", "UTC" ).parse( "not a date" ) );
+    }  // end testPatternsMatchSimpleDateFormat
+
+
+    @Test
+    public void testFastPaths() {
+        KineticaDateParser iso = KineticaDateParser.get( null, "UTC" );
+        assertEquals( (Long) EXPECTED, iso.parse( "2017-06-05T10:15:30.250Z" ) );
+        assertEquals( (Long) EXPECTED, iso.parse( "2017-06-05 10:15:30.250" ) );
+        assertEquals( (Long) EXPECTED, iso.parse( "2017-06-05T12:15:30.250+02:00" ) );
+        assertEquals( (Long) (EXPECTED + 4 * 3600000L),
+                      KineticaDateParser.get( KineticaDateParser.ISO_8601, "America/New_York" )
+                          .parse( "2017-06-05T10:15:30.250" ) );
+        assertEquals( (Long) 1496620800000L, iso.parse( "2017-06-05" ) );
+        assertNull( iso.parse( "2017-13-05" ) );
+        assertNull( iso.parse( "2017-02-29" ) );
+        assertNull( iso.parse( "2017-04-31" ) );
+        assertEquals( (Long) 1456704000000L, iso.parse( "2016-02-29" ) );
+        assertEquals( (Long) 951782400000L, iso.parse( "2000-02-29" ) );
+
+        assertEquals( (Long) EXPECTED, iso.parse( Long.toString( EXPECTED ) ) );
+        KineticaDateParser seconds = KineticaDateParser.get( KineticaDateParser.EPOCH_SECONDS, "UTC" );
+        assertEquals( (Long) 1496657730000L, seconds.parse( "1496657730" ) );
+        assertEquals( (Long) EXPECTED, seconds.parse( "1496657730.25" ) );
+    }  // end testFastPaths
+
+
+    /**
+     * Measures the average parse cost per value of the previous approach
+     * and of the cached parsers.  Only run when requested, e.g.:
+     *
+     *     mvn test -Dtest=TestKineticaDateParser -Dbenchmark=true
+     */
+    @Test
+    public void testParseCostPerValue() throws Exception {
+        Assume.assumeTrue( Boolean.getBoolean( "benchmark" ) );
+        final int iterations = Integer.getInteger( "benchmark.iterations", 2000000 );
+        final String pattern = "yyyy/MM/dd HH:mm:ss";
+
+        final String[] values = new String[ 1024 ];
+        final String[] isoValues = new String[ values.length ];
+        final String[] epochValues = new String[ values.length ];
+        for ( int i = 0; i < values.length; ++i ) {
+            values[ i ]      = String.format( "2017/%02d/%02d %02d:%02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60, i % 60 );
+            isoValues[ i ]   = values[ i ].replace( '/', '-' ).replace( ' ', 'T' ) + "Z";
+            epochValues[ i ] = Long.toString( EXPECTED + i );
+        }
+
+        final KineticaDateParser parser = KineticaDateParser.get( pattern, "UTC" );
+        final KineticaDateParser isoParser = KineticaDateParser.get( KineticaDateParser.ISO_8601, "UTC" );
+
+        Measurement legacy = new Measurement() {
+            long run( int i ) throws Exception {
+                return legacyParse( values[ i & 1023 ], pattern, "UTC" );
+            }
+        };
+        Measurement cached = new Measurement() {
+            long run( int i ) {
+                return parser.parse( values[ i & 1023 ] );
+            }
+        };
+        Measurement isoFast = new Measurement() {
+            long run( int i ) {
+                return isoParser.parse( isoValues[ i & 1023 ] );
+            }
+        };
+        Measurement epochFast = new Measurement() {
+            long run( int i ) {
+                return parser.parse( epochValues[ i & 1023 ] );
+            }
+        };
+
+        LOG.info( String.format( "Parse cost per value: new SimpleDateFormat %.1f ns, cached pattern %.1f ns, "
+                                 + "ISO-8601 %.1f ns, epoch millis %.1f ns",
+                                 legacy.nanosPerOp( iterations ), cached.nanosPerOp( iterations ),
+                                 isoFast.nanosPerOp( iterations ), epochFast.nanosPerOp( iterations ) ) );
+    }  // end testParseCostPerValue
+
+
+    /**
+     * Minimal JMH-like harness: a few warm up rounds, then the average of
+     * the measured rounds; results are accumulated so that the work can't be
+     * optimized away.
+     */
+    private static abstract class Measurement {
+        static volatile long sink;
+
+        abstract long run( int i ) throws Exception;
+
+        double nanosPerOp( int iterations ) throws Exception {
+            long total = 0;
+            for ( int round = 0; round < 8; ++round ) {
+                long sum = 0;
+                long start = System.nanoTime();
+                for ( int i = 0; i < iterations; ++i ) {
+                    sum += run( i );
+                }
+                long elapsed = System.nanoTime() - start;
+                sink += sum;
+                // The first three rounds are warm up
+                if ( round >= 3 ) {
+                    total += elapsed;
+                }
+            }
+            return (double) total / (5.0 * iterations);
+        }
+    }
+
+}  // end TestKineticaDateParser
@@ -0,0 +1,103 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.SharedSessionState;
+import org.junit.Before;
+import org.junit.Test;
+
+
+
+/**
+ * Checks the failure FlowFile of {@link KineticaFailureWriter}: only created
+ * for bad records, with the header line, the optional error reason columns
+ * and the size limit.
+ */
+public class TestKineticaFailureWriter {
+
+    private MockProcessSession session;
+    private FlowFile parent;
+
+
+    @Before
+    public void setUp() {
+        PutKineticaFromFile processor = new PutKineticaFromFile();
+        session = new MockProcessSession( new SharedSessionState( processor, new AtomicLong() ), processor );
+        parent = session.create();
+    }  // end setUp
+
+
+    private KineticaFailureWriter newWriter( int quote, boolean withReasons, long maxBytes ) {
+        KineticaFailureWriter writer = new KineticaFailureWriter( session, parent, ',', quote, withReasons, maxBytes );
+        writer.setHeader( "x,y" );
+        return writer;
+    }
+
+
+    @Test
+    public void testNoBadRecords() throws Exception {
+        KineticaFailureWriter writer = newWriter( '"', false, 0 );
+
+        assertNull( writer.finish() );
+        assertEquals( 0, writer.getWrittenCount() );
+    }  // end testNoBadRecords
+
+
+    @Test
+    public void testBadRecords() throws Exception {
+        KineticaFailureWriter writer = newWriter( '"', false, 0 );
+        writer.add( ",2", 2, "Invalid value \"\" for field x." );
+        writer.add( ",5", 5, "Invalid value \"\" for field x." );
+
+        MockFlowFile failure = (MockFlowFile) writer.finish();
+        failure.assertContentEquals( "x,y\n,2\n,5\n" );
+        failure.assertAttributeEquals( KineticaFailureWriter.RECORD_COUNT_ATTRIBUTE, "2" );
+        failure.assertAttributeNotExists( KineticaFailureWriter.TRUNCATED_ATTRIBUTE );
+    }  // end testBadRecords
+
+
+    @Test
+    public void testReasonColumns() throws Exception {
+        KineticaFailureWriter writer = newWriter( '"', true, 0 );
+        writer.add( ",2", 2, "Invalid value \"\" for field x." );
+
+        MockFlowFile failure = (MockFlowFile) writer.finish();
+        failure.assertContentEquals( "x,y,record_number,error_reason\n,2,2,\"Invalid value \"\"\"\" for field x.\"\n" );
+    }  // end testReasonColumns
+
+
+    @Test
+    public void testReasonColumnsWithoutQuote() throws Exception {
+        KineticaFailureWriter writer = newWriter( KineticaCSVReader.NONE, true, 0 );
+        writer.add( "a,2", 1, "Invalid value a, for field x.\n" );
+
+        MockFlowFile failure = (MockFlowFile) writer.finish();
+        failure.assertContentEquals( "x,y,record_number,error_reason\na,2,1,Invalid value a  for field x. \n" );
+    }  // end testReasonColumnsWithoutQuote
+
+
+    @Test
+    public void testMaxSize() throws Exception {
+        // Not checked before the first record; afterwards only once the
+        // writer's buffer has been flushed
+        KineticaFailureWriter writer = newWriter( '"', false, 1 );
+        for ( int i = 1; i <= 10000; i++ ) {
+            writer.add( "bad " + i, i, "reason" );
+        }
+
+        MockFlowFile failure = (MockFlowFile) writer.finish();
+        assertEquals( 10000, writer.getWrittenCount() + writer.getOmittedCount() );
+        assertEquals( String.valueOf( writer.getWrittenCount() ),
+                      failure.getAttribute( KineticaFailureWriter.RECORD_COUNT_ATTRIBUTE ) );
+        failure.assertAttributeEquals( KineticaFailureWriter.TRUNCATED_ATTRIBUTE, "true" );
+        assertEquals( writer.getWrittenCount() + 1, new String( failure.toByteArray() ).split( "\n" ).length );
+    }  // end testMaxSize
+
+}  // end TestKineticaFailureWriter
@@ -0,0 +1,58 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+
+public class TestKineticaHistogram {
+
+    @Test
+    public void testBuckets() {
+        // Exact below SUB_BUCKETS
+        for ( int value = 0; value < KineticaHistogram.SUB_BUCKETS; value++ ) {
+            assertEquals( value, KineticaHistogram.bucketOf( value ) );
+            assertEquals( value, KineticaHistogram.highestValueOf( value ) );
+        }
+
+        // Every value falls in the bucket whose range holds it
+        long[] values = { 8, 9, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+        for ( long value : values ) {
+            int bucket = KineticaHistogram.bucketOf( value );
+            assertTrue( value + " above its bucket", value <= KineticaHistogram.highestValueOf( bucket ) );
+            assertTrue( value + " below its bucket", value > KineticaHistogram.highestValueOf( bucket - 1 ) );
+        }
+        assertEquals( Long.MAX_VALUE,
+                      KineticaHistogram.highestValueOf( KineticaHistogram.bucketOf( Long.MAX_VALUE ) ) );
+    }  // end testBuckets
+
+
+    @Test
+    public void testQuantiles() {
+        KineticaHistogram histogram = new KineticaHistogram();
+        assertEquals( 0, histogram.getValueAtQuantile( 0.5 ) );
+
+        for ( long value = 1; value <= 10000; value++ ) {
+            histogram.record( value );
+        }
+        histogram.record( -5 );
+
+        assertEquals( 10001, histogram.getCount() );
+        assertEquals( 10000L * 10001 / 2, histogram.getSum() );
+        assertEquals( 0, histogram.getValueAtQuantile( 0 ) );
+
+        // Within the relative error of the sub-buckets
+        double[] quantiles = { 0.5, 0.9, 0.99, 0.999, 1 };
+        for ( double quantile : quantiles ) {
+            long expected = (long) Math.ceil( quantile * 10001 ) - 1;
+            long actual   = histogram.getValueAtQuantile( quantile );
+            assertTrue( quantile + ": " + actual + " < " + expected, actual >= expected );
+            assertTrue( quantile + ": " + actual + " >> " + expected,
+                        actual <= expected + expected / KineticaHistogram.SUB_BUCKETS );
+        }
+    }  // end testQuantiles
+
+}  // end TestKineticaHistogram
@@ -0,0 +1,146 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonEncoder;
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+
+
+public class TestKineticaJsonWriter {
+
+    private static final Schema SCHEMA = SchemaBuilder.record( "type_name" ).fields()
+        .requiredInt( "i" )
+        .requiredLong( "l" )
+        .requiredFloat( "f" )
+        .requiredDouble( "d" )
+        .requiredString( "s" )
+        .optionalInt( "ni" )
+        .optionalString( "ns" )
+        .name( "nd" ).type().unionOf().doubleType().and().nullType().endUnion().noDefault()
+        .endRecord();
+
+
+    private static String write( Schema schema, List<GenericRecord> records, KineticaJsonWriter.Format format ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        KineticaJsonWriter writer = new KineticaJsonWriter( schema, out, format );
+        for ( GenericRecord record : records ) {
+            writer.write( record );
+        }
+        writer.finish();
+        assertEquals( records.size(), writer.getCount() );
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     * Encodes each record on its own with Avro's JSON encoder
+     */
+    private static List<String> avroJson( Schema schema, List<GenericRecord> records ) throws IOException {
+        List<String> encoded = new ArrayList<>();
+        for ( GenericRecord record : records ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonEncoder encoder = EncoderFactory.get().jsonEncoder( schema, out );
+            new GenericDatumWriter<Object>( schema ).write( record, encoder );
+            encoder.flush();
+            encoded.add( new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+        }
+        return encoded;
+    }
+
+
+    private static String randomString( Random random ) {
+        final char[] alphabet = { 'a', 'Z', '"', '\\', '/', '\n', '\t', '\r', '\b', '\f', '\u0001', '\u001f', '\u007f', '\u00e9', '\u4e2d' };
+        char[] value = new char[ random.nextInt( 6 ) ];
+        for ( int i = 0; i < value.length; ++i ) {
+            value[ i ] = alphabet[ random.nextInt( alphabet.length ) ];
+        }
+        return new String( value );
+    }
+
+
+    private static List<GenericRecord> randomRecords( Random random, int count ) {
+        final float[] floats = { 0f, -1.5f, 1e-10f, 3.4e38f, Float.NaN, Float.POSITIVE_INFINITY };
+        final double[] doubles = { 0d, 2.25d, -1e300d, 4.9e-324d, Double.NEGATIVE_INFINITY, Double.NaN };
+        List<GenericRecord> records = new ArrayList<>();
+        for ( int n = 0; n < count; ++n ) {
+            GenericRecord record = new GenericData.Record( SCHEMA );
+            record.put( "i", random.nextInt() );
+            record.put( "l", random.nextLong() );
+            record.put( "f", random.nextBoolean() ? random.nextFloat() : floats[ random.nextInt( floats.length ) ] );
+            record.put( "d", random.nextBoolean() ? random.nextGaussian() : doubles[ random.nextInt( doubles.length ) ] );
+            // Decoded records hold Utf8 strings
+            record.put( "s", new Utf8( randomString( random ) ) );
+            record.put( "ni", random.nextBoolean() ? null : random.nextInt( 100 ) );
+            record.put( "ns", random.nextBoolean() ? null : new Utf8( randomString( random ) ) );
+            record.put( "nd", random.nextBoolean() ? null : random.nextDouble() );
+            records.add( record );
+        }
+        return records;
+    }
+
+
+    @Test
+    public void testDirectMatchesAvro() throws IOException {
+        assertTrue( KineticaJsonWriter.isDirectlyWritable( SCHEMA ) );
+
+        List<GenericRecord> records = randomRecords( new Random( 7 ), 500 );
+        List<String> expected = avroJson( SCHEMA, records );
+
+        StringBuilder lines = new StringBuilder();
+        for ( String record : expected ) {
+            lines.append( record ).append( '\n' );
+        }
+        assertEquals( lines.toString(), write( SCHEMA, records, KineticaJsonWriter.Format.LINES ) );
+        assertEquals( "[" + String.join( ",", expected ) + "]\n", write( SCHEMA, records, KineticaJsonWriter.Format.ARRAY ) );
+    }  // end testDirectMatchesAvro
+
+
+    @Test
+    public void testAvroEncoderFallback() throws IOException {
+        Schema schema = SchemaBuilder.record( "with_bytes" ).fields()
+            .requiredInt( "i" )
+            .requiredBytes( "b" )
+            .endRecord();
+        assertFalse( KineticaJsonWriter.isDirectlyWritable( schema ) );
+
+        List<GenericRecord> records = new ArrayList<>();
+        for ( int n = 0; n < 3; ++n ) {
+            GenericRecord record = new GenericData.Record( schema );
+            record.put( "i", n );
+            record.put( "b", ByteBuffer.wrap( new byte[] { (byte) n, 'x' } ) );
+            records.add( record );
+        }
+        List<String> expected = avroJson( schema, records );
+
+        assertEquals( String.join( "\n", expected ) + "\n", write( schema, records, KineticaJsonWriter.Format.LINES ) );
+        assertEquals( "[" + String.join( ",", expected ) + "]\n", write( schema, records, KineticaJsonWriter.Format.ARRAY ) );
+    }  // end testAvroEncoderFallback
+
+
+    @Test
+    public void testEmpty() throws IOException {
+        List<GenericRecord> none = new ArrayList<>();
+        assertEquals( "", write( SCHEMA, none, KineticaJsonWriter.Format.LINES ) );
+        assertEquals( "[]\n", write( SCHEMA, none, KineticaJsonWriter.Format.ARRAY ) );
+    }  // end testEmpty
+
+}  // end TestKineticaJsonWriter
@@ -0,0 +1,69 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+
+public class TestKineticaMetrics {
+
+    @After
+    public void tearDown() {
+        KineticaMetrics.unregister( "p1" );
+    }  // end tearDown
+
+
+    @Test
+    public void testRegistry() {
+        KineticaMetrics metrics = KineticaMetrics.register( "p1", "PutKinetica", "t1" );
+        metrics.addRecords( 3, 30 );
+
+        // Counters carry on across schedules on the same table only
+        assertSame( metrics, KineticaMetrics.register( "p1", "PutKinetica", "t1" ) );
+        assertEquals( 3, KineticaMetrics.get( "p1" ).getRecords() );
+        assertNotSame( metrics, KineticaMetrics.register( "p1", "PutKinetica", "t2" ) );
+
+        KineticaMetrics.unregister( "p1" );
+        assertNull( KineticaMetrics.get( "p1" ) );
+    }  // end testRegistry
+
+
+    @Test
+    public void testPrometheus() throws Exception {
+        KineticaMetrics metrics = KineticaMetrics.register( "p1", "PutKinetica", "my \"table\"" );
+        metrics.setWorkers( Arrays.asList( new URL( "http://w1:9191" ), new URL( "http://w2:9191" ) ) );
+        metrics.addRecords( 10, 100 );
+        metrics.addFailures( 2 );
+        metrics.recordConversion( 2000 );
+        metrics.recordFlush( 1000000, 10 );
+        metrics.addInsertFailures( new URL( "http://w2:9191" ), 4 );
+        metrics.addInsertFailures( new URL( "http://head:9191" ), 1 );
+
+        StringWriter out = new StringWriter();
+        KineticaMetrics.writePrometheus( out );
+        String text = out.toString();
+
+        String labels = "{processor_id=\"p1\",processor_type=\"PutKinetica\",table=\"my \\\"table\\\"\"";
+        assertTrue( text, text.contains( "# TYPE kinetica_records_total counter\n" ) );
+        assertTrue( text, text.contains( "kinetica_records_total" + labels + "} 10\n" ) );
+        assertTrue( text, text.contains( "kinetica_bytes_total" + labels + "} 100\n" ) );
+        assertTrue( text, text.contains( "kinetica_failures_total" + labels + "} 2\n" ) );
+        assertTrue( text, text.contains( "kinetica_flush_seconds" + labels + ",quantile=\"0.5\"} " ) );
+        assertTrue( text, text.contains( "kinetica_flush_seconds_count" + labels + "} 1\n" ) );
+        assertTrue( text, text.contains( "kinetica_request_records_sum" + labels + "} 10\n" ) );
+        assertTrue( text, text.contains( "kinetica_insert_failures_total" + labels + ",rank=\"2\"} 4\n" ) );
+        assertTrue( text, text.contains( "kinetica_insert_failures_total" + labels + ",rank=\"0\"} 1\n" ) );
+    }  // end testPrometheus
+
+}  // end TestKineticaMetrics
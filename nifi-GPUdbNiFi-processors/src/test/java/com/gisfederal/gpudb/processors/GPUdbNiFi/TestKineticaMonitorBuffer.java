@@ -0,0 +1,151 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+
+public class TestKineticaMonitorBuffer {
+
+    @Test
+    public void testDropOldestByRecords() throws InterruptedException {
+        KineticaMonitorBuffer<Integer> buffer = new KineticaMonitorBuffer<>( 3, Long.MAX_VALUE,
+                                                                             KineticaMonitorBuffer.OverflowPolicy.DROP_OLDEST );
+        for ( int i = 0; i < 5; ++i ) {
+            buffer.put( i, 1 );
+        }
+        assertEquals( 3, buffer.getDepth() );
+        assertEquals( 2, buffer.getDropCount() );
+        assertEquals( 3, buffer.getHighWaterMark() );
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals( 3, buffer.drainTo( drained, 10, Long.MAX_VALUE ) );
+        assertEquals( Arrays.asList( 2, 3, 4 ), drained );
+        assertEquals( 0, buffer.getDepth() );
+        assertEquals( 0, buffer.getBytes() );
+    }  // end testDropOldestByRecords
+
+
+    @Test
+    public void testDropOldestByBytes() throws InterruptedException {
+        KineticaMonitorBuffer<String> buffer = new KineticaMonitorBuffer<>( 100, 10,
+                                                                            KineticaMonitorBuffer.OverflowPolicy.DROP_OLDEST );
+        buffer.put( "a", 4 );
+        buffer.put( "b", 4 );
+        buffer.put( "c", 4 );
+        assertEquals( 2, buffer.getDepth() );
+        assertEquals( 8, buffer.getBytes() );
+        assertEquals( 1, buffer.getDropCount() );
+
+        // A record larger than the buffer replaces everything
+        buffer.put( "big", 50 );
+        assertEquals( 1, buffer.getDepth() );
+        assertEquals( 3, buffer.getDropCount() );
+    }  // end testDropOldestByBytes
+
+
+    @Test
+    public void testDrainLimits() throws InterruptedException {
+        KineticaMonitorBuffer<Integer> buffer = new KineticaMonitorBuffer<>( 4, Long.MAX_VALUE,
+                                                                             KineticaMonitorBuffer.OverflowPolicy.BLOCK );
+        // Wrap around the ring
+        for ( int round = 0; round < 3; ++round ) {
+            for ( int i = 0; i < 3; ++i ) {
+                buffer.put( i, 10 );
+            }
+            List<Integer> drained = new ArrayList<>();
+            assertEquals( 2, buffer.drainTo( drained, 2, Long.MAX_VALUE ) );
+            assertEquals( 1, buffer.drainTo( drained, 10, 5 ) );
+            assertEquals( Arrays.asList( 0, 1, 2 ), drained );
+        }
+        assertEquals( 3, buffer.getHighWaterMark() );
+    }  // end testDrainLimits
+
+
+    @Test
+    public void testBatchReady() throws InterruptedException {
+        KineticaMonitorBuffer<Integer> buffer = new KineticaMonitorBuffer<>( 10, Long.MAX_VALUE,
+                                                                             KineticaMonitorBuffer.OverflowPolicy.BLOCK );
+        assertFalse( buffer.isBatchReady( 3, 100, 0 ) );
+
+        buffer.put( 0, 40 );
+        assertTrue( "Ready right away without a linger time;", buffer.isBatchReady( 3, 100, 0 ) );
+        assertFalse( buffer.isBatchReady( 3, 100, 60000 ) );
+
+        buffer.put( 1, 40 );
+        buffer.put( 2, 40 );
+        assertTrue( "Ready with enough records;", buffer.isBatchReady( 3, 1000, 60000 ) );
+        assertTrue( "Ready with enough bytes;", buffer.isBatchReady( 10, 100, 60000 ) );
+
+        Thread.sleep( 50 );
+        assertTrue( "Ready once the oldest record lingered;", buffer.isBatchReady( 10, 1000, 20 ) );
+    }  // end testBatchReady
+
+
+    @Test
+    public void testBlockWaitsForRoom() throws InterruptedException {
+        final KineticaMonitorBuffer<Integer> buffer = new KineticaMonitorBuffer<>( 2, Long.MAX_VALUE,
+                                                                                   KineticaMonitorBuffer.OverflowPolicy.BLOCK );
+        buffer.put( 0, 1 );
+        buffer.put( 1, 1 );
+
+        final CountDownLatch added = new CountDownLatch( 1 );
+        Thread producer = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    buffer.put( 2, 1 );
+                    added.countDown();
+                } catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+        producer.start();
+
+        assertTrue( "The producer should wait for room;", !added.await( 200, TimeUnit.MILLISECONDS ) );
+        List<Integer> drained = new ArrayList<>();
+        buffer.drainTo( drained, 1, Long.MAX_VALUE );
+        assertTrue( "The producer should add once there is room;", added.await( 5, TimeUnit.SECONDS ) );
+        producer.join();
+
+        drained.clear();
+        buffer.drainTo( drained, 10, Long.MAX_VALUE );
+        assertEquals( Arrays.asList( 1, 2 ), drained );
+        assertEquals( 0, buffer.getDropCount() );
+    }  // end testBlockWaitsForRoom
+
+
+    @Test
+    public void testOfferNeverWaits() {
+        KineticaMonitorBuffer<Integer> blocking = new KineticaMonitorBuffer<>( 2, Long.MAX_VALUE,
+                                                                               KineticaMonitorBuffer.OverflowPolicy.BLOCK );
+        assertTrue( blocking.offer( 0, 1 ) );
+        assertTrue( blocking.offer( 1, 1 ) );
+        // The new record is the one dropped
+        assertFalse( blocking.offer( 2, 1 ) );
+        assertEquals( 2, blocking.getDepth() );
+        assertEquals( 1, blocking.getDropCount() );
+
+        KineticaMonitorBuffer<Integer> dropping = new KineticaMonitorBuffer<>( 2, Long.MAX_VALUE,
+                                                                               KineticaMonitorBuffer.OverflowPolicy.DROP_OLDEST );
+        for ( int i = 0; i < 3; ++i ) {
+            assertTrue( dropping.offer( i, 1 ) );
+        }
+        List<Integer> drained = new ArrayList<>();
+        dropping.drainTo( drained, 10, Long.MAX_VALUE );
+        assertEquals( Arrays.asList( 1, 2 ), drained );
+        assertEquals( 1, dropping.getDropCount() );
+    }  // end testOfferNeverWaits
+
+}  // end TestKineticaMonitorBuffer
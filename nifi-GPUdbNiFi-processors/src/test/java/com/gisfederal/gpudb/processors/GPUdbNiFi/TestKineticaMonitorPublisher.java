@@ -0,0 +1,137 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Context;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.Type;
+
+
+
+/**
+ * Checks that {@link KineticaMonitorPublisher} publishes what a table
+ * monitor subscriber expects: the topic, then one Avro binary encoded record
+ * per frame, at the rate asked for.
+ */
+public class TestKineticaMonitorPublisher {
+
+    private final static Logger LOG = Logger.getLogger( TestKineticaMonitorPublisher.class );
+
+    private static final Type TYPE = new Type( new Type.Column( "i", Integer.class ),
+                                               new Type.Column( "d", Double.class ),
+                                               new Type.Column( "s", String.class, ColumnProperty.NULLABLE ),
+                                               new Type.Column( KineticaMonitorPublisher.SENT_NANOS, Long.class ) );
+
+    private KineticaMonitorPublisher publisher;
+    private Context zmqContext;
+    private Socket subscriber;
+
+
+    @Before
+    public void setUp() throws Exception {
+        publisher = new KineticaMonitorPublisher( TYPE, "topic_1" );
+        zmqContext = ZMQ.context( 1 );
+        subscriber = zmqContext.socket( ZMQ.SUB );
+        subscriber.setReceiveTimeOut( 5000 );
+        subscriber.connect( publisher.getURL() );
+    }  // end setUp
+
+
+    @After
+    public void tearDown() {
+        subscriber.close();
+        zmqContext.term();
+        publisher.close();
+    }  // end tearDown
+
+
+    /*
+     * Receives messages until the given number of records are in, checking
+     * their topic.
+     */
+    private List<GenericRecord> receive( int recordCount ) throws Exception {
+        List<GenericRecord> records = new ArrayList<>();
+        while ( records.size() < recordCount ) {
+            ZMsg message = ZMsg.recvMsg( subscriber );
+            if ( message == null ) {
+                break;
+            }
+            assertEquals( publisher.getTopicId(), new String( message.pop().getData() ) );
+            for ( ZFrame frame : message ) {
+                records.add( KineticaStandIn.decode( TYPE.getSchema(), frame.getData() ) );
+            }
+        }
+        return records;
+    }
+
+
+    @Test
+    public void testPublish() throws Exception {
+        subscriber.subscribe( publisher.getTopicId().getBytes() );
+        assertTrue( publisher.awaitSubscriber( 5000 ) );
+
+        long before = System.nanoTime();
+        assertEquals( 1000L, publisher.publish( 1000, 64, 0 ).get( 30, TimeUnit.SECONDS ).longValue() );
+        assertEquals( 1000, publisher.getPublishedCount() );
+
+        List<GenericRecord> records = receive( 1000 );
+        assertEquals( 1000, records.size() );
+        for ( int n = 0; n < records.size(); n++ ) {
+            GenericRecord record = records.get( n );
+            assertEquals( n, record.get( "i" ) );
+            assertEquals( n / 4.0, record.get( "d" ) );
+            assertEquals( "value " + n, record.get( "s" ).toString() );
+            assertTrue( (Long) record.get( KineticaMonitorPublisher.SENT_NANOS ) >= before );
+        }
+
+        // The sequence carries on
+        publisher.publish( 10, 10, 0 ).get( 30, TimeUnit.SECONDS );
+        assertEquals( 1000, receive( 10 ).get( 0 ).get( "i" ) );
+    }  // end testPublish
+
+
+    @Test
+    public void testRate() throws Exception {
+        subscriber.subscribe( publisher.getTopicId().getBytes() );
+        assertTrue( publisher.awaitSubscriber( 5000 ) );
+
+        // 200 records at 1000 per second take about 200 ms
+        long start = System.nanoTime();
+        publisher.publish( 200, 1, 1000 ).get( 30, TimeUnit.SECONDS );
+        long millis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        LOG.info( "Published 200 records at 1000 records/s in " + millis + " ms" );
+
+        assertTrue( millis >= 190 );
+        assertEquals( 200, receive( 200 ).size() );
+    }  // end testRate
+
+
+    @Test
+    public void testOtherTopic() throws Exception {
+        subscriber.subscribe( "topic_2".getBytes() );
+        assertFalse( publisher.awaitSubscriber( 500 ) );
+
+        publisher.publish( 10, 10, 0 ).get( 30, TimeUnit.SECONDS );
+        subscriber.setReceiveTimeOut( 500 );
+        assertNull( ZMsg.recvMsg( subscriber ) );
+    }  // end testOtherTopic
+
+}  // end TestKineticaMonitorPublisher
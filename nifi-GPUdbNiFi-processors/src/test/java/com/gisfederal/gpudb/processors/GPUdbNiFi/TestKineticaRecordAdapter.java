@@ -0,0 +1,84 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.junit.Test;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.Type;
+
+
+
+public class TestKineticaRecordAdapter {
+
+    private static final Type TYPE = new Type(
+        new Type.Column( "i", Integer.class ),
+        new Type.Column( "l", Long.class, ColumnProperty.NULLABLE ),
+        new Type.Column( "ts", Long.class, ColumnProperty.TIMESTAMP ),
+        new Type.Column( "s", String.class, ColumnProperty.NULLABLE ),
+        new Type.Column( "b", ByteBuffer.class )
+    );
+
+    private static final Schema SCHEMA = SchemaBuilder.record( "type_name" ).fields()
+        .requiredInt( "i" )
+        .optionalLong( "l" )
+        .requiredLong( "ts" )
+        .optionalString( "s" )
+        .requiredBytes( "b" )
+        .endRecord();
+
+
+    @Test
+    public void testSchema() {
+        RecordSchema schema = new KineticaRecordAdapter( TYPE ).getSchema();
+
+        assertEquals( Arrays.asList( "i", "l", "ts", "s", "b" ), schema.getFieldNames() );
+        assertEquals( RecordFieldType.INT, schema.getField( 0 ).getDataType().getFieldType() );
+        assertEquals( RecordFieldType.LONG, schema.getField( 1 ).getDataType().getFieldType() );
+        assertEquals( RecordFieldType.TIMESTAMP, schema.getField( 2 ).getDataType().getFieldType() );
+        assertEquals( RecordFieldType.STRING, schema.getField( 3 ).getDataType().getFieldType() );
+        assertEquals( RecordFieldType.ARRAY, schema.getField( 4 ).getDataType().getFieldType() );
+    }  // end testSchema
+
+
+    @Test
+    public void testAdaptedValues() {
+        KineticaRecordAdapter adapter = new KineticaRecordAdapter( TYPE );
+        GenericRecord decoded = new GenericData.Record( SCHEMA );
+        decoded.put( "i", 7 );
+        decoded.put( "l", null );
+        decoded.put( "ts", 1500000000000L );
+        decoded.put( "s", new Utf8( "text" ) );
+        decoded.put( "b", ByteBuffer.wrap( new byte[] { 1, 2, 3 } ) );
+
+        Record record = adapter.adapt( decoded );
+
+        assertEquals( 7, record.getValue( "i" ) );
+        assertNull( record.getValue( "l" ) );
+        assertEquals( new Timestamp( 1500000000000L ), record.getValue( "ts" ) );
+        assertEquals( "text", record.getValue( "s" ) );
+        assertArrayEquals( new Object[] { (byte) 1, (byte) 2, (byte) 3 }, (Object[]) record.getValue( "b" ) );
+        assertNull( record.getValue( "missing" ) );
+
+        // Reads through to the decoded record
+        decoded.put( "i", 8 );
+        assertEquals( 8, record.getValue( "i" ) );
+        assertEquals( 5, record.getValues().length );
+    }  // end testAdaptedValues
+
+}  // end TestKineticaRecordAdapter
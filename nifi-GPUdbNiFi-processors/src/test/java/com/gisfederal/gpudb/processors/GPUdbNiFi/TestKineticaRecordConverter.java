@@ -0,0 +1,118 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.GPUdbException;
+import com.gpudb.Record;
+import com.gpudb.Type;
+
+
+
+public class TestKineticaRecordConverter {
+
+    private static final Type TYPE = new Type(
+        new Type.Column( "i", Integer.class ),
+        new Type.Column( "l", Long.class, ColumnProperty.NULLABLE ),
+        new Type.Column( "d", Double.class ),
+        new Type.Column( "s", String.class, ColumnProperty.NULLABLE ),
+        new Type.Column( "ts", Long.class, ColumnProperty.TIMESTAMP )
+    );
+
+
+    @Test
+    public void testStrictConversion() throws GPUdbException {
+        KineticaRecordConverter converter = new KineticaRecordConverter( TYPE, null, null, false, null );
+        Record record = converter.newRecord();
+
+        converter.setValue( record, 0, " 42 " );
+        converter.setValue( record, 1, "" );
+        converter.setValue( record, 2, "1.5" );
+        converter.setValue( record, 3, "  text " );
+        converter.setValue( record, 4, "1500000000000" );
+
+        assertEquals( 42, record.get( 0 ) );
+        assertNull( record.get( 1 ) );
+        assertEquals( 1.5, record.get( 2 ) );
+        assertEquals( "text", record.get( 3 ) );
+        assertEquals( 1500000000000L, record.get( 4 ) );
+
+        // Unparseable values and nulls in non-nullable columns are errors
+        try {
+            converter.setValue( record, 0, "abc" );
+            fail( "Expected an invalid value error" );
+        } catch (GPUdbException ex) {
+            assertEquals( "Invalid value \"abc\" for field i.", ex.getMessage() );
+        }
+        try {
+            converter.setValue( record, 2, " " );
+            fail( "Expected a null value error" );
+        } catch (GPUdbException ex) {
+            assertEquals( "Found null value for non-nullable column d", ex.getMessage() );
+        }
+    }  // end testStrictConversion
+
+
+    @Test
+    public void testLenientConversion() throws GPUdbException {
+        KineticaRecordConverter converter = new KineticaRecordConverter( TYPE, null, null, true, null );
+        Record record = converter.newRecord();
+
+        converter.setValue( record, 0, "abc" );
+        converter.setValue( record, 1, null );
+        converter.setValue( record, 2, "2.5" );
+        converter.setValue( record, 3, "  " );
+
+        assertEquals( 0, record.get( 0 ) );
+        assertNull( record.get( 1 ) );
+        assertEquals( 2.5, record.get( 2 ) );
+        assertNull( record.get( 3 ) );
+    }  // end testLenientConversion
+
+
+    @Test
+    public void testTypedConversion() throws GPUdbException {
+        KineticaRecordConverter converter = new KineticaRecordConverter( TYPE, null, null, false, null );
+        Record record = converter.newRecord();
+
+        converter.setObject( record, 0, (short) 7 );
+        converter.setObject( record, 1, 12 );
+        converter.setObject( record, 2, 2.5f );
+        converter.setObject( record, 3, "  kept " );
+        converter.setObject( record, 4, new Date( 1500000000000L ) );
+
+        assertEquals( 7, record.get( 0 ) );
+        assertEquals( 12L, record.get( 1 ) );
+        assertEquals( 2.5, record.get( 2 ) );
+        assertEquals( "  kept ", record.get( 3 ) );
+        assertEquals( 1500000000000L, record.get( 4 ) );
+
+        // Strings still go through the column's parser
+        converter.setObject( record, 0, " 8 " );
+        assertEquals( 8, record.get( 0 ) );
+        converter.setObject( record, 1, null );
+        assertNull( record.get( 1 ) );
+
+        // Values that don't fit the column are errors
+        try {
+            converter.setObject( record, 0, 1L << 40 );
+            fail( "Expected an invalid value error" );
+        } catch (GPUdbException ex) {
+            assertEquals( "Invalid value \"1099511627776\" for field i.", ex.getMessage() );
+        }
+        try {
+            converter.setObject( record, 2, null );
+            fail( "Expected a null value error" );
+        } catch (GPUdbException ex) {
+            assertEquals( "Found null value for non-nullable column d", ex.getMessage() );
+        }
+    }  // end testTypedConversion
+
+}  // end TestKineticaRecordConverter
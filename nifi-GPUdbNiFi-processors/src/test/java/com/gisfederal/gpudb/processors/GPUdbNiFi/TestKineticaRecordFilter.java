@@ -0,0 +1,143 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.Type;
+
+
+
+public class TestKineticaRecordFilter {
+
+    private static final Type TYPE = new Type(
+        new Type.Column( "i", Integer.class ),
+        new Type.Column( "d", Double.class, ColumnProperty.NULLABLE ),
+        new Type.Column( "name", String.class, ColumnProperty.NULLABLE ),
+        new Type.Column( "b", ByteBuffer.class )
+    );
+
+
+    private static GenericRecord record( int i, Double d, String name ) {
+        GenericRecord record = new GenericData.Record( TYPE.getSchema() );
+        record.put( 0, i );
+        record.put( 1, d );
+        // Decoded strings are Utf8
+        record.put( 2, (name == null) ? null : new Utf8( name ) );
+        record.put( 3, ByteBuffer.wrap( new byte[ 0 ] ) );
+        return record;
+    }
+
+
+    private static boolean matches( String filter, GenericRecord record ) {
+        return new KineticaRecordFilter( TYPE, null, filter ).apply( record ) != null;
+    }
+
+
+    @Test
+    public void testPassThrough() {
+        KineticaRecordFilter filter = new KineticaRecordFilter( TYPE, "", null );
+        GenericRecord record = record( 1, 2.0, "a" );
+
+        assertTrue( filter.isPassThrough() );
+        assertSame( record, filter.apply( record ) );
+        assertSame( TYPE.getSchema(), filter.getSchema() );
+    }  // end testPassThrough
+
+
+    @Test
+    public void testProjection() {
+        KineticaRecordFilter filter = new KineticaRecordFilter( TYPE, " name, i ", null );
+        GenericRecord projected = filter.apply( record( 7, 2.0, "a" ) );
+
+        assertFalse( filter.isPassThrough() );
+        assertEquals( 2, filter.getType().getColumnCount() );
+        assertEquals( "name", filter.getType().getColumn( 0 ).getName() );
+        assertEquals( 2, filter.getSchema().getFields().size() );
+        assertEquals( "a", projected.get( "name" ).toString() );
+        assertEquals( 7, projected.get( 1 ) );
+    }  // end testProjection
+
+
+    @Test
+    public void testComparisons() {
+        GenericRecord record = record( 10, 2.5, "abc" );
+
+        assertTrue( matches( "i = 10", record ) );
+        assertTrue( matches( "i == 10", record ) );
+        assertFalse( matches( "i != 10", record ) );
+        assertFalse( matches( "i <> 10", record ) );
+        assertTrue( matches( "i > 9.5", record ) );
+        assertTrue( matches( "i >= 10 and i <= 10", record ) );
+        assertFalse( matches( "i < 10", record ) );
+        assertTrue( matches( "d > -1", record ) );
+        assertTrue( matches( "name = 'abc'", record ) );
+        assertTrue( matches( "name > 'abb'", record ) );
+        assertTrue( matches( "\"name\" in ('x', 'abc')", record ) );
+        assertFalse( matches( "name in ('x', 'y')", record ) );
+    }  // end testComparisons
+
+
+    @Test
+    public void testLogic() {
+        GenericRecord record = record( 10, null, "it's" );
+
+        assertTrue( matches( "i = 1 or i = 10", record ) );
+        assertFalse( matches( "i = 1 OR i = 2", record ) );
+        assertTrue( matches( "not (i = 1 and name = 'x')", record ) );
+        assertTrue( matches( "d is null and name is not null", record ) );
+        assertTrue( matches( "name = 'it''s'", record ) );
+        // A comparison with null is false either way
+        assertFalse( matches( "d = 1", record ) );
+        assertFalse( matches( "d != 1", record ) );
+        assertTrue( matches( "(i = 1 or (i > 5 and not d is not null))", record ) );
+    }  // end testLogic
+
+
+    @Test
+    public void testFilterAndProjection() {
+        KineticaRecordFilter filter = new KineticaRecordFilter( TYPE, "i", "name = 'keep'" );
+
+        assertNull( filter.apply( record( 1, null, "drop" ) ) );
+        assertNotNull( filter.apply( record( 2, null, "keep" ) ) );
+    }  // end testFilterAndProjection
+
+
+    @Test
+    public void testInvalid() {
+        String[][] invalid = {
+            { "nope", null },
+            { null, "nope = 1" },
+            { null, "i = 'abc'" },
+            { null, "name = abc" },
+            { null, "b = 1" },
+            { null, "i = 1 and" },
+            { null, "i = 1 i = 2" },
+            { null, "(i = 1" },
+            { null, "name = 'abc" }
+        };
+
+        for ( String[] columnsAndFilter : invalid ) {
+            try {
+                new KineticaRecordFilter( TYPE, columnsAndFilter[ 0 ], columnsAndFilter[ 1 ] );
+                fail( "Accepted " + columnsAndFilter[ 0 ] + " / " + columnsAndFilter[ 1 ] );
+            } catch ( IllegalArgumentException ex ) {
+                // Expected
+            }
+        }
+    }  // end testInvalid
+
+}  // end TestKineticaRecordFilter
@@ -0,0 +1,98 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+
+import com.gpudb.ColumnProperty;
+import com.gpudb.Record;
+import com.gpudb.Type;
+
+
+
+public class TestKineticaRecordsWriter {
+
+    private static final Type TYPE = new Type(
+        new Type.Column( "i", Integer.class ),
+        new Type.Column( "s", String.class, ColumnProperty.NULLABLE ),
+        new Type.Column( "b", ByteBuffer.class )
+    );
+
+
+    private static List<Record> page( int first, int count ) {
+        List<Record> records = new ArrayList<>();
+        for ( int i = first; i < first + count; i++ ) {
+            com.gpudb.GenericRecord record = new com.gpudb.GenericRecord( TYPE );
+            record.put( 0, i );
+            record.put( 1, (i % 2 == 0) ? null : "a,\"" + i + "\"" );
+            record.put( 2, ByteBuffer.wrap( new byte[] { (byte) i } ) );
+            records.add( record );
+        }
+        return records;
+    }
+
+
+    @Test
+    public void testCsvAcrossPages() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( KineticaRecordsWriter writer = new KineticaRecordsWriter( out, true, ',' ) ) {
+            writer.write( page( 0, 3 ), 1, 3 );
+            writer.write( page( 3, 2 ), 0, 1 );
+        }
+
+        assertEquals( "i,s,b\r\n"
+                      + "1,\"a,\"\"1\"\"\",AQ==\r\n"
+                      + "2,,Ag==\r\n"
+                      + "3,\"a,\"\"3\"\"\",Aw==\r\n",
+                      new String( out.toByteArray(), StandardCharsets.UTF_8 ) );
+    }  // end testCsvAcrossPages
+
+
+    @Test
+    public void testAvroAcrossPages() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( KineticaRecordsWriter writer = new KineticaRecordsWriter( out, false, ',' ) ) {
+            writer.write( page( 0, 2 ), 0, 2 );
+            writer.write( page( 2, 2 ), 0, 2 );
+        }
+
+        try ( DataFileStream<GenericRecord> in = new DataFileStream<>( new ByteArrayInputStream( out.toByteArray() ),
+                                                                       new GenericDatumReader<GenericRecord>() ) ) {
+            for ( int i = 0; i < 4; i++ ) {
+                GenericRecord record = in.next();
+                assertEquals( i, record.get( "i" ) );
+                if ( i % 2 == 0 ) {
+                    assertNull( record.get( "s" ) );
+                } else {
+                    assertEquals( "a,\"" + i + "\"", record.get( "s" ).toString() );
+                }
+            }
+            assertFalse( in.hasNext() );
+        }
+    }  // end testAvroAcrossPages
+
+
+    @Test
+    public void testNothingWritten() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( KineticaRecordsWriter writer = new KineticaRecordsWriter( out, true, ',' ) ) {
+            writer.write( page( 0, 2 ), 1, 1 );
+        }
+
+        assertEquals( 0, out.size() );
+    }  // end testNothingWritten
+
+}  // end TestKineticaRecordsWriter
@@ -0,0 +1,247 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+
+public class TestKineticaStandIn {
+
+    private static final String TYPE_DEFINITION = "{\"type\":\"record\",\"name\":\"type_name\",\"fields\":["
+                                                   + "{\"name\":\"x\",\"type\":\"int\"},"
+                                                   + "{\"name\":\"s\",\"type\":[\"string\",\"null\"]}]}";
+
+    private KineticaStandIn standIn;
+
+
+    @Before
+    public void setUp() throws IOException {
+        standIn = new KineticaStandIn( 2 );
+    }  // end setUp
+
+
+    @After
+    public void tearDown() {
+        standIn.close();
+    }  // end tearDown
+
+
+    /*
+     * Posts a request to the given rank the way the Kinetica API does, and
+     * returns the envelope of the response.
+     */
+    private static GenericRecord post( URL url, String endpoint, GenericRecord request ) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL( url, endpoint ).openConnection();
+        connection.setRequestMethod( "POST" );
+        connection.setDoOutput( true );
+        connection.setRequestProperty( "Content-Type", "application/octet-stream" );
+        try ( OutputStream out = connection.getOutputStream() ) {
+            out.write( KineticaStandIn.encode( request ) );
+        }
+        assertEquals( 200, connection.getResponseCode() );
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try ( InputStream in = connection.getInputStream() ) {
+            byte[] buffer = new byte[ 4096 ];
+            int read;
+            while ( (read = in.read( buffer )) > 0 ) {
+                body.write( buffer, 0, read );
+            }
+        }
+        return KineticaStandIn.decode( KineticaStandIn.RESPONSE, body.toByteArray() );
+    }
+
+
+    /*
+     * Posts a request to the head node and returns the decoded response;
+     * fails on an error.
+     */
+    private GenericRecord call( String endpoint, Schema responseSchema, GenericRecord request ) throws Exception {
+        GenericRecord envelope = post( standIn.getURL(), endpoint, request );
+        assertEquals( String.valueOf( envelope.get( "message" ) ), "OK", envelope.get( "status" ).toString() );
+        ByteBuffer data = (ByteBuffer) envelope.get( "data" );
+        byte[] bytes = new byte[ data.remaining() ];
+        data.get( bytes );
+        return KineticaStandIn.decode( responseSchema, bytes );
+    }
+
+
+    private static GenericRecord record( Schema schema, Object... values ) {
+        GenericRecord record = new GenericData.Record( schema );
+        for ( int i = 0; i < values.length; i++ ) {
+            record.put( i, values[ i ] );
+        }
+        return record;
+    }
+
+
+    private static final Schema STRING = Schema.create( Schema.Type.STRING );
+    private static final Schema STRING_MAP = Schema.createMap( STRING );
+
+    private static final Schema TABLE_REQUEST = KineticaStandIn.record( "r", "table_name", STRING, "options", STRING_MAP );
+    private static final Schema CREATE_TYPE_REQUEST = KineticaStandIn.record( "r",
+            "type_definition", STRING, "label", STRING,
+            "properties", Schema.createMap( Schema.createArray( STRING ) ), "options", STRING_MAP );
+    private static final Schema CREATE_TYPE_RESPONSE = KineticaStandIn.record( "r",
+            "type_id", STRING, "type_definition", STRING, "label", STRING,
+            "properties", Schema.createMap( Schema.createArray( STRING ) ), "info", STRING_MAP );
+    private static final Schema CREATE_TABLE_REQUEST = KineticaStandIn.record( "r",
+            "table_name", STRING, "type_id", STRING, "options", STRING_MAP );
+    private static final Schema HAS_TABLE_RESPONSE = KineticaStandIn.record( "r",
+            "table_name", STRING, "table_exists", Schema.create( Schema.Type.BOOLEAN ), "info", STRING_MAP );
+    private static final Schema INSERT_REQUEST = KineticaStandIn.record( "r",
+            "table_name", STRING, "list", Schema.createArray( Schema.create( Schema.Type.BYTES ) ),
+            "list_str", Schema.createArray( STRING ), "list_encoding", STRING, "options", STRING_MAP );
+    private static final Schema INSERT_RESPONSE = KineticaStandIn.record( "r",
+            "record_ids", Schema.createArray( STRING ), "count_inserted", Schema.create( Schema.Type.INT ),
+            "count_updated", Schema.create( Schema.Type.INT ), "info", STRING_MAP );
+    private static final Schema PROPERTIES_RESPONSE = KineticaStandIn.record( "r",
+            "property_map", STRING_MAP, "info", STRING_MAP );
+
+
+    /*
+     * Creates a table of the test type and returns the request inserting
+     * the given number of records into it.
+     */
+    private GenericRecord createTable( String tableName, int recordCount ) throws Exception {
+        GenericRecord type = call( "/create/type", CREATE_TYPE_RESPONSE,
+                                   record( CREATE_TYPE_REQUEST, TYPE_DEFINITION, "test",
+                                           Collections.singletonMap( "s", Collections.singletonList( "char16" ) ),
+                                           Collections.emptyMap() ) );
+        call( "/create/table", KineticaStandIn.record( "r", "table_name", STRING, "type_id", STRING,
+                                                       "is_collection", Schema.create( Schema.Type.BOOLEAN ),
+                                                       "info", STRING_MAP ),
+              record( CREATE_TABLE_REQUEST, tableName, type.get( "type_id" ).toString(), Collections.emptyMap() ) );
+
+        Schema schema = new Schema.Parser().parse( TYPE_DEFINITION );
+        List<ByteBuffer> list = new ArrayList<>();
+        for ( int i = 0; i < recordCount; i++ ) {
+            list.add( ByteBuffer.wrap( KineticaStandIn.encode( record( schema, i, (i % 2 == 0) ? "even" : null ) ) ) );
+        }
+        return record( INSERT_REQUEST, tableName, list, Collections.emptyList(), "binary", Collections.emptyMap() );
+    }
+
+
+    @Test
+    public void testTables() throws Exception {
+        GenericRecord has = call( "/has/table", HAS_TABLE_RESPONSE, record( TABLE_REQUEST, "t", Collections.emptyMap() ) );
+        assertFalse( (Boolean) has.get( "table_exists" ) );
+
+        GenericRecord insert = createTable( "t", 3 );
+        has = call( "/has/table", HAS_TABLE_RESPONSE, record( TABLE_REQUEST, "t", Collections.emptyMap() ) );
+        assertTrue( (Boolean) has.get( "table_exists" ) );
+
+        GenericRecord inserted = call( "/insert/records", INSERT_RESPONSE, insert );
+        assertEquals( 3, inserted.get( "count_inserted" ) );
+        assertEquals( 3, standIn.getRecordCount( "t" ) );
+        assertEquals( 3, standIn.getInsertedRecordCount( 0 ) );
+        assertEquals( "even", standIn.getRecords( "t" ).get( 2 ).get( "s" ).toString() );
+
+        // The type comes back as it was created
+        Schema showTableResponse = KineticaStandIn.record( "r",
+                "table_name", STRING,
+                "table_names", Schema.createArray( STRING ),
+                "table_descriptions", Schema.createArray( Schema.createArray( STRING ) ),
+                "type_ids", Schema.createArray( STRING ),
+                "type_schemas", Schema.createArray( STRING ),
+                "type_labels", Schema.createArray( STRING ),
+                "properties", Schema.createArray( Schema.createMap( Schema.createArray( STRING ) ) ),
+                "additional_info", Schema.createArray( STRING_MAP ),
+                "sizes", Schema.createArray( Schema.create( Schema.Type.LONG ) ),
+                "full_sizes", Schema.createArray( Schema.create( Schema.Type.LONG ) ),
+                "join_sizes", Schema.createArray( Schema.create( Schema.Type.DOUBLE ) ),
+                "total_size", Schema.create( Schema.Type.LONG ),
+                "total_full_size", Schema.create( Schema.Type.LONG ),
+                "info", STRING_MAP );
+        GenericRecord shown = call( "/show/table", showTableResponse, record( TABLE_REQUEST, "t", Collections.emptyMap() ) );
+        assertEquals( 3L, shown.get( "total_size" ) );
+        assertEquals( TYPE_DEFINITION, ((List<?>) shown.get( "type_schemas" )).get( 0 ).toString() );
+        assertEquals( "test", ((List<?>) shown.get( "type_labels" )).get( 0 ).toString() );
+
+        // Creating it again fails
+        GenericRecord envelope = post( standIn.getURL(), "/create/table",
+                                       record( CREATE_TABLE_REQUEST, "t", "standin_type_1", Collections.emptyMap() ) );
+        assertEquals( "ERROR", envelope.get( "status" ).toString() );
+    }  // end testTables
+
+
+    @Test
+    public void testWorkers() throws Exception {
+        GenericRecord properties = call( "/show/system/properties", PROPERTIES_RESPONSE,
+                                         record( KineticaStandIn.record( "r", "options", STRING_MAP ),
+                                                 Collections.emptyMap() ) );
+        Map<String, String> map = new HashMap<>();
+        for ( Map.Entry<?, ?> entry : ((Map<?, ?>) properties.get( "property_map" )).entrySet() ) {
+            map.put( entry.getKey().toString(), entry.getValue().toString() );
+        }
+        assertEquals( "TRUE", map.get( "conf.enable_worker_http_servers" ) );
+        assertEquals( standIn.getURL() + ";" + standIn.getWorkerURLs().get( 0 ) + ";" + standIn.getWorkerURLs().get( 1 ),
+                      map.get( "conf.worker_http_server_urls" ) );
+
+        // Records inserted through a worker are counted for its rank
+        GenericRecord insert = createTable( "t", 5 );
+        GenericRecord envelope = post( standIn.getWorkerURLs().get( 1 ), "/insert/records", insert );
+        assertEquals( "OK", envelope.get( "status" ).toString() );
+        assertEquals( 5, standIn.getInsertedRecordCount( 2 ) );
+        assertEquals( 0, standIn.getInsertedRecordCount( 1 ) );
+        assertEquals( 5, standIn.getRecordCount( "t" ) );
+    }  // end testWorkers
+
+
+    @Test
+    public void testInjection() throws Exception {
+        GenericRecord insert = createTable( "t", 2 );
+
+        standIn.failNext( "/insert/records", 1 );
+        GenericRecord envelope = post( standIn.getURL(), "/insert/records", insert );
+        assertEquals( "ERROR", envelope.get( "status" ).toString() );
+        assertEquals( 0, standIn.getRecordCount( "t" ) );
+
+        standIn.setLatency( "/insert/records", 100 );
+        long start = System.nanoTime();
+        call( "/insert/records", INSERT_RESPONSE, insert );
+        assertTrue( System.nanoTime() - start >= 100000000L );
+        assertEquals( 2, standIn.getRecordCount( "t" ) );
+        assertEquals( 2, standIn.getRequestCount( "/insert/records" ) );
+
+        standIn.setFailureRate( KineticaStandIn.ALL_ENDPOINTS, 1 );
+        envelope = post( standIn.getURL(), "/has/table", record( TABLE_REQUEST, "t", Collections.emptyMap() ) );
+        assertEquals( "ERROR", envelope.get( "status" ).toString() );
+    }  // end testInjection
+
+
+    @Test
+    public void testUnsupported() throws Exception {
+        GenericRecord envelope = post( standIn.getURL(), "/no/such/endpoint",
+                                       record( TABLE_REQUEST, "t", Collections.emptyMap() ) );
+        assertEquals( "ERROR", envelope.get( "status" ).toString() );
+        assertTrue( envelope.get( "message" ).toString().contains( "/no/such/endpoint" ) );
+
+        // A missing table is an error
+        envelope = post( standIn.getURL(), "/show/table", record( TABLE_REQUEST, "nope", Collections.emptyMap() ) );
+        assertEquals( "ERROR", envelope.get( "status" ).toString() );
+    }  // end testUnsupported
+
+}  // end TestKineticaStandIn
@@ -0,0 +1,272 @@
+package com.gisfederal.gpudb.processors.GPUdbNiFi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.nifi.processor.Processor;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Test;
+
+
+
+/**
+ * Drives the Put processors end to end against a {@link KineticaStandIn},
+ * checking that every record arrives and logging the throughput.  The
+ * number of records is given by the "throughput.records" system property.
+ */
+public class TestPutKineticaThroughput {
+
+    private final static Logger LOG = Logger.getLogger( TestPutKineticaThroughput.class );
+
+    private static final int RECORDS = Integer.getInteger( "throughput.records", 20000 );
+
+    private static final String SCHEMA = "x|int,y|double,s|string";
+
+    private static final String TABLE = "throughput";
+
+    // The numbers of concurrent tasks the scaling runs go through
+    private static final int[] TASK_COUNTS = { 1, 2, 4, 8 };
+
+    // The time the stand-in takes per insert request in the scaling runs,
+    // which concurrent tasks can overlap
+    private static final long INSERT_LATENCY_MILLIS = 5;
+
+    private KineticaStandIn standIn;
+
+
+    @After
+    public void tearDown() {
+        if ( standIn != null ) {
+            standIn.close();
+        }
+    }  // end tearDown
+
+
+    private TestRunner newRunner( Class<? extends Processor> processor, int batchSize ) {
+        TestRunner runner = TestRunners.newTestRunner( processor );
+        runner.setProperty( KineticaConstants.SERVER_URL, standIn.getURL().toString() );
+        runner.setProperty( KineticaConstants.TABLE_NAME, TABLE );
+        runner.setProperty( KineticaConstants.SCHEMA, SCHEMA );
+        runner.setProperty( KineticaConstants.BATCH_SIZE, String.valueOf( batchSize ) );
+        return runner;
+    }
+
+
+    private static String csv( int recordCount ) {
+        StringBuilder csv = new StringBuilder( "x,y,s\n" );
+        for ( int i = 0; i < recordCount; i++ ) {
+            csv.append( i ).append( ',' ).append( i / 4.0 ).append( ",value " ).append( i ).append( '\n' );
+        }
+        return csv.toString();
+    }
+
+
+    /*
+     * Logs the throughput since the given time, and returns it in records
+     * per second.
+     */
+    private static double logThroughput( String test, long recordCount, long startNanos ) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        LOG.info( String.format( "%s: %d records in %.3f s, %.0f records/s", test, recordCount, seconds,
+                                 recordCount / seconds ) );
+        return recordCount / seconds;
+    }
+
+
+    private static void logScaling( String test, double[] recordsPerSecond ) {
+        StringBuilder line = new StringBuilder( test ).append( " scaling:" );
+        for ( int i = 0; i < TASK_COUNTS.length; i++ ) {
+            line.append( String.format( " %d task(s) %.0f records/s (x%.2f);", TASK_COUNTS[ i ], recordsPerSecond[ i ],
+                                        recordsPerSecond[ i ] / recordsPerSecond[ 0 ] ) );
+        }
+        LOG.info( line.toString() );
+    }
+
+
+    /*
+     * Runs PutKinetica over one FlowFile per record, the given number of
+     * records per batch, until all of them are out of the queue.
+     */
+    private TestRunner runPutKinetica( int recordCount, int batchSize, String test ) {
+        return runPutKinetica( recordCount, batchSize, 1, test, null );
+    }
+
+
+    /*
+     * Same with the given number of concurrent tasks, storing the throughput
+     * in the given array, if any.
+     */
+    private TestRunner runPutKinetica( int recordCount, int batchSize, int taskCount, String test, double[] throughput ) {
+        TestRunner runner = newRunner( PutKinetica.class, batchSize );
+        runner.setProperty( KineticaConstants.MAX_RETRIES, "0" );
+        runner.setThreadCount( taskCount );
+        for ( int i = 0; i < recordCount; i++ ) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put( "x", String.valueOf( i ) );
+            attributes.put( "y", String.valueOf( i / 4.0 ) );
+            attributes.put( "s", "value " + i );
+            runner.enqueue( new byte[ 0 ], attributes );
+        }
+
+        long start = System.nanoTime();
+        runner.run( recordCount / batchSize + taskCount );
+        double recordsPerSecond = logThroughput( test, recordCount, start );
+        if ( throughput != null ) {
+            throughput[ 0 ] = recordsPerSecond;
+        }
+        runner.assertQueueEmpty();
+        return runner;
+    }
+
+
+    @Test
+    public void testPutKinetica() throws Exception {
+        standIn = new KineticaStandIn();
+
+        TestRunner runner = runPutKinetica( RECORDS, 500, "PutKinetica" );
+
+        runner.assertAllFlowFilesTransferred( KineticaConstants.SUCCESS, RECORDS );
+        assertEquals( RECORDS, standIn.getRecordCount( TABLE ) );
+        assertEquals( "value 7", standIn.getRecords( TABLE ).get( 7 ).get( "s" ).toString() );
+    }  // end testPutKinetica
+
+
+    @Test
+    public void testPutKineticaMultiHead() throws Exception {
+        standIn = new KineticaStandIn( 4 );
+
+        TestRunner runner = runPutKinetica( RECORDS, 500, "PutKinetica, 4 workers" );
+
+        runner.assertAllFlowFilesTransferred( KineticaConstants.SUCCESS, RECORDS );
+        assertEquals( RECORDS, standIn.getRecordCount( TABLE ) );
+        assertTrue( standIn.getRequestCount( "/show/system/properties" ) > 0 );
+        for ( int rank = 0; rank <= 4; rank++ ) {
+            LOG.info( "Records inserted through rank " + rank + ": " + standIn.getInsertedRecordCount( rank ) );
+        }
+    }  // end testPutKineticaMultiHead
+
+
+    @Test
+    public void testPutKineticaConcurrentTasks() throws Exception {
+        double[] recordsPerSecond = new double[ TASK_COUNTS.length ];
+        for ( int i = 0; i < TASK_COUNTS.length; i++ ) {
+            standIn = new KineticaStandIn();
+            standIn.setLatency( "/insert/records", INSERT_LATENCY_MILLIS );
+            double[] throughput = new double[ 1 ];
+
+            TestRunner runner = runPutKinetica( RECORDS, 500, TASK_COUNTS[ i ],
+                                                "PutKinetica, " + TASK_COUNTS[ i ] + " task(s)", throughput );
+
+            runner.assertAllFlowFilesTransferred( KineticaConstants.SUCCESS, RECORDS );
+            assertEquals( RECORDS, standIn.getRecordCount( TABLE ) );
+            recordsPerSecond[ i ] = throughput[ 0 ];
+            standIn.close();
+            standIn = null;
+        }
+        logScaling( "PutKinetica", recordsPerSecond );
+    }  // end testPutKineticaConcurrentTasks
+
+
+    @Test
+    public void testPutKineticaInsertFailure() throws Exception {
+        standIn = new KineticaStandIn();
+        standIn.failNext( "/insert/records", 1 );
+
+        // Without retries, only the FlowFiles of the failed batch fail
+        TestRunner runner = runPutKinetica( 1000, 100, "PutKinetica, failed batch" );
+
+        int failed = runner.getFlowFilesForRelationship( KineticaConstants.FAILURE ).size();
+        int succeeded = runner.getFlowFilesForRelationship( KineticaConstants.SUCCESS ).size();
+        assertEquals( 1000, failed + succeeded );
+        assertTrue( failed > 0 );
+        assertEquals( succeeded, standIn.getRecordCount( TABLE ) );
+    }  // end testPutKineticaInsertFailure
+
+
+    @Test
+    public void testPutKineticaLatency() throws Exception {
+        standIn = new KineticaStandIn();
+        standIn.setLatency( "/insert/records", 20 );
+
+        TestRunner runner = runPutKinetica( 5000, 500, "PutKinetica, 20 ms per insert" );
+
+        runner.assertAllFlowFilesTransferred( KineticaConstants.SUCCESS, 5000 );
+        assertEquals( 5000, standIn.getRecordCount( TABLE ) );
+    }  // end testPutKineticaLatency
+
+
+    /*
+     * Loads one file of the given number of records with PutKineticaFromFile
+     * and the given number of parse threads.
+     */
+    private void runPutKineticaFromFile( int recordCount, int parseThreads, String test ) {
+        TestRunner runner = newRunner( PutKineticaFromFile.class, 1000 );
+        runner.setProperty( KineticaConstants.PARSE_THREADS, String.valueOf( parseThreads ) );
+        runner.enqueue( csv( recordCount ).getBytes() );
+
+        long start = System.nanoTime();
+        runner.run();
+        logThroughput( test, recordCount, start );
+
+        runner.assertAllFlowFilesTransferred( KineticaConstants.SUCCESS, 1 );
+        assertEquals( recordCount, standIn.getRecordCount( TABLE ) );
+    }
+
+
+    @Test
+    public void testPutKineticaFromFile() throws Exception {
+        standIn = new KineticaStandIn();
+
+        runPutKineticaFromFile( RECORDS, 1, "PutKineticaFromFile" );
+    }  // end testPutKineticaFromFile
+
+
+    @Test
+    public void testPutKineticaFromFileConcurrentTasks() throws Exception {
+        // One file per run of the largest task count, so that every task
+        // has files to load
+        final int fileCount = TASK_COUNTS[ TASK_COUNTS.length - 1 ];
+        final byte[] file = csv( RECORDS / fileCount ).getBytes();
+        final int recordCount = (RECORDS / fileCount) * fileCount;
+
+        double[] recordsPerSecond = new double[ TASK_COUNTS.length ];
+        for ( int i = 0; i < TASK_COUNTS.length; i++ ) {
+            standIn = new KineticaStandIn();
+            standIn.setLatency( "/insert/records", INSERT_LATENCY_MILLIS );
+            TestRunner runner = newRunner( PutKineticaFromFile.class, 1000 );
+            runner.setThreadCount( TASK_COUNTS[ i ] );
+            for ( int n = 0; n < fileCount; n++ ) {
+                runner.enqueue( file );
+            }
+
+            long start = System.nanoTime();
+            runner.run( fileCount );
+            recordsPerSecond[ i ] = logThroughput( "PutKineticaFromFile, " + TASK_COUNTS[ i ] + " task(s)",
+                                                   recordCount, start );
+
+            runner.assertAllFlowFilesTransferred( KineticaConstants.SUCCESS, fileCount );
+            assertEquals( recordCount, standIn.getRecordCount( TABLE ) );
+            standIn.close();
+            standIn = null;
+        }
+        logScaling( "PutKineticaFromFile", recordsPerSecond );
+    }  // end testPutKineticaFromFileConcurrentTasks
+
+
+    @Test
+    public void testPutKineticaFromFileParallel() throws Exception {
+        standIn = new KineticaStandIn( 4 );
+        standIn.setLatency( "/insert/records", 5 );
+
+        runPutKineticaFromFile( RECORDS, 4, "PutKineticaFromFile, 4 parse threads, 4 workers, 5 ms per insert" );
+        assertTrue( standIn.getRequestCount( "/show/system/properties" ) > 0 );
+    }  // end testPutKineticaFromFileParallel
+
+}  // end TestPutKineticaThroughput